@@ -0,0 +1,539 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne;
+
+import java.io.ObjectStreamException;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.cayenne.util.Util;
+
+/**
+ * A DataRow that stores values in a flat array, using a {@link DataRowIndex} shared with
+ * other rows of the same result to locate values by key. This takes a fraction of
+ * memory of a regular DataRow, that allocates a hash table and an entry per value. Keys
+ * that are not in the index are stored in the HashMap superclass, so the row still
+ * behaves as a regular mutable Map.
+ * <p>
+ * Note that Map methods introduced after Java 5 that take functional arguments (e.g.
+ * forEach or compute) are inherited from HashMap and only see keys that are not in the
+ * index. A compact row is serialized as a regular DataRow.
+ * </p>
+ *
+ * @since 3.1
+ */
+public class CompactDataRow extends DataRow {
+
+    // marks index positions that have no value
+    private static final Object NO_VALUE = new Object();
+
+    protected DataRowIndex index;
+    protected Object[] values;
+    protected int indexedSize;
+
+    public CompactDataRow(DataRowIndex index) {
+        super(0);
+        this.index = index;
+        this.values = new Object[index.size()];
+        Arrays.fill(values, NO_VALUE);
+    }
+
+    public DataRowIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns true if the index position has a value, even if this value is null.
+     */
+    public boolean hasValue(int position) {
+        return values[position] != NO_VALUE;
+    }
+
+    /**
+     * Returns a value at the index position.
+     */
+    public Object getValue(int position) {
+        Object value = values[position];
+        return value != NO_VALUE ? value : null;
+    }
+
+    /**
+     * Sets a value at the index position, returning the previous value.
+     */
+    public Object setValue(int position, Object value) {
+        Object old = values[position];
+        values[position] = value;
+
+        if (old == NO_VALUE) {
+            indexedSize++;
+            return null;
+        }
+
+        return old;
+    }
+
+    Object removeValue(int position) {
+        Object old = values[position];
+        if (old == NO_VALUE) {
+            return null;
+        }
+
+        values[position] = NO_VALUE;
+        indexedSize--;
+        return old;
+    }
+
+    // true if all keys of this row are in the index
+    boolean isIndexedOnly() {
+        return super.isEmpty();
+    }
+
+    @Override
+    public int size() {
+        return indexedSize + super.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int position = index.indexOf(key);
+        if (position >= 0) {
+            return getValue(position);
+        }
+
+        return isIndexedOnly() ? null : super.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int position = index.indexOf(key);
+        if (position >= 0) {
+            return hasValue(position);
+        }
+
+        return !isIndexedOnly() && super.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (Object v : values) {
+            if (v != NO_VALUE && Util.nullSafeEquals(v, value)) {
+                return true;
+            }
+        }
+
+        return super.containsValue(value);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int position = index.indexOf(key);
+        if (position >= 0) {
+            return setValue(position, value);
+        }
+
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Object> map) {
+        for (Map.Entry<? extends String, ? extends Object> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int position = index.indexOf(key);
+        if (position >= 0) {
+            return removeValue(position);
+        }
+
+        return super.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(values, NO_VALUE);
+        indexedSize = 0;
+        super.clear();
+    }
+
+    // Java 8 HashMap implements these methods directly on the hash table, so override
+    // them without @Override to stay compatible with Java 5 API
+
+    public Object getOrDefault(Object key, Object defaultValue) {
+        return containsKey(key) ? get(key) : defaultValue;
+    }
+
+    public Object putIfAbsent(String key, Object value) {
+        Object current = get(key);
+        return current == null ? put(key, value) : current;
+    }
+
+    public boolean remove(Object key, Object value) {
+        if (containsKey(key) && Util.nullSafeEquals(get(key), value)) {
+            remove(key);
+            return true;
+        }
+
+        return false;
+    }
+
+    public boolean replace(String key, Object oldValue, Object newValue) {
+        if (containsKey(key) && Util.nullSafeEquals(get(key), oldValue)) {
+            put(key, newValue);
+            return true;
+        }
+
+        return false;
+    }
+
+    public Object replace(String key, Object value) {
+        return containsKey(key) ? put(key, value) : null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return CompactDataRow.this.size();
+            }
+
+            @Override
+            public void clear() {
+                CompactDataRow.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+
+            @Override
+            public Iterator<String> iterator() {
+                final Iterator<Map.Entry<String, Object>> it = new EntryIterator();
+                return new Iterator<String>() {
+
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    public String next() {
+                        return it.next().getKey();
+                    }
+
+                    public void remove() {
+                        it.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CompactDataRow.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                if (containsKey(o)) {
+                    CompactDataRow.this.remove(o);
+                    return true;
+                }
+
+                return false;
+            }
+
+            @Override
+            public void clear() {
+                CompactDataRow.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return new AbstractCollection<Object>() {
+
+            @Override
+            public Iterator<Object> iterator() {
+                final Iterator<Map.Entry<String, Object>> it = new EntryIterator();
+                return new Iterator<Object>() {
+
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    public Object next() {
+                        return it.next().getValue();
+                    }
+
+                    public void remove() {
+                        it.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CompactDataRow.this.size();
+            }
+
+            @Override
+            public void clear() {
+                CompactDataRow.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (object instanceof CompactDataRow) {
+            CompactDataRow row = (CompactDataRow) object;
+
+            // compare values directly if both rows are from results with the same columns
+            if (isIndexedOnly() && row.isIndexedOnly() && index.equals(row.index)) {
+                for (int i = 0; i < values.length; i++) {
+                    if (!Util.nullSafeEquals(values[i], row.values[i])) {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+        }
+
+        return super.equals(object);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    @Override
+    public Object clone() {
+        return copy();
+    }
+
+    CompactDataRow copy() {
+        CompactDataRow copy = new CompactDataRow(index);
+        System.arraycopy(values, 0, copy.values, 0, values.length);
+        copy.indexedSize = indexedSize;
+
+        if (!isIndexedOnly()) {
+            for (Map.Entry<String, Object> entry : super.entrySet()) {
+                copy.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        copy.version = version;
+        copy.replacesVersion = replacesVersion;
+        copy.entityName = entityName;
+        return copy;
+    }
+
+    @Override
+    public DataRow applyDiff(DataRow diff) {
+        CompactDataRow merged = new CompactDataRow(index);
+        System.arraycopy(values, 0, merged.values, 0, values.length);
+        merged.indexedSize = indexedSize;
+
+        if (!isIndexedOnly()) {
+            for (Map.Entry<String, Object> entry : super.entrySet()) {
+                merged.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        merged.putAll(diff);
+        return merged;
+    }
+
+    @Override
+    public DataRow createDiff(DataRow row) {
+
+        if (!(row instanceof CompactDataRow)) {
+            return super.createDiff(row);
+        }
+
+        CompactDataRow compactRow = (CompactDataRow) row;
+        if (!isIndexedOnly() || !index.equals(compactRow.index)) {
+            return super.createDiff(row);
+        }
+
+        DataRow diff = null;
+
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == NO_VALUE) {
+                continue;
+            }
+
+            Object rowValue = compactRow.getValue(i);
+            if (!Util.nullSafeEquals(values[i], rowValue)) {
+                if (diff == null) {
+                    diff = new DataRow(this.size());
+                }
+                diff.put(index.getKey(i), rowValue);
+            }
+        }
+
+        return diff;
+    }
+
+    /**
+     * Serializes a compact row as a regular DataRow.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        DataRow row = new DataRow(this);
+        row.version = version;
+        row.replacesVersion = replacesVersion;
+        row.entityName = entityName;
+        return row;
+    }
+
+    final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+        private int next;
+        private int current;
+        private Iterator<Map.Entry<String, Object>> extraEntries;
+
+        EntryIterator() {
+            this.current = -1;
+            this.next = nextPosition(0);
+        }
+
+        private int nextPosition(int from) {
+            for (int i = from; i < values.length; i++) {
+                if (values[i] != NO_VALUE) {
+                    return i;
+                }
+            }
+
+            return values.length;
+        }
+
+        private Iterator<Map.Entry<String, Object>> extraEntries() {
+            if (extraEntries == null) {
+                extraEntries = CompactDataRow.super.entrySet().iterator();
+            }
+
+            return extraEntries;
+        }
+
+        public boolean hasNext() {
+            return next < values.length || extraEntries().hasNext();
+        }
+
+        public Map.Entry<String, Object> next() {
+            if (next < values.length) {
+                current = next;
+                next = nextPosition(next + 1);
+                return new IndexedEntry(current);
+            }
+
+            if (!extraEntries().hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            current = values.length;
+            return extraEntries().next();
+        }
+
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+
+            if (current < values.length) {
+                removeValue(current);
+            }
+            else {
+                extraEntries().remove();
+            }
+
+            current = -1;
+        }
+    }
+
+    final class IndexedEntry implements Map.Entry<String, Object> {
+
+        private int position;
+
+        IndexedEntry(int position) {
+            this.position = position;
+        }
+
+        public String getKey() {
+            return index.getKey(position);
+        }
+
+        public Object getValue() {
+            return CompactDataRow.this.getValue(position);
+        }
+
+        public Object setValue(Object value) {
+            return CompactDataRow.this.setValue(position, value);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Map.Entry)) {
+                return false;
+            }
+
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) object;
+            return getKey().equals(entry.getKey())
+                    && Util.nullSafeEquals(getValue(), entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value != null ? value.hashCode() : 0);
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
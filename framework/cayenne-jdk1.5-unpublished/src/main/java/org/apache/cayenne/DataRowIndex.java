@@ -0,0 +1,102 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable mapping of DataRow keys to positions in a values array, shared by all
+ * {@link CompactDataRow} instances of a single result.
+ *
+ * @since 3.1
+ */
+public class DataRowIndex implements Serializable {
+
+    private String[] keys;
+    private Map<String, Integer> positions;
+    private int hashCode;
+
+    /**
+     * Creates an index over the keys. Duplicate keys are collapsed into a single
+     * position.
+     */
+    public DataRowIndex(String... keys) {
+        this.positions = new HashMap<String, Integer>((int) Math
+                .ceil(keys.length / 0.75));
+
+        List<String> uniqueKeys = new ArrayList<String>(keys.length);
+        for (String key : keys) {
+            if (!positions.containsKey(key)) {
+                positions.put(key, uniqueKeys.size());
+                uniqueKeys.add(key);
+            }
+        }
+
+        this.keys = uniqueKeys.toArray(new String[uniqueKeys.size()]);
+        this.hashCode = Arrays.hashCode(this.keys);
+    }
+
+    /**
+     * Returns a position of the key or -1 if the key is not a part of the index.
+     */
+    public int indexOf(Object key) {
+        Integer position = positions.get(key);
+        return position != null ? position.intValue() : -1;
+    }
+
+    public String getKey(int position) {
+        return keys[position];
+    }
+
+    /**
+     * Returns the number of keys in the index.
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (object == this) {
+            return true;
+        }
+
+        if (!(object instanceof DataRowIndex)) {
+            return false;
+        }
+
+        DataRowIndex index = (DataRowIndex) object;
+        return hashCode == index.hashCode && Arrays.equals(keys, index.keys);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.asList(keys).toString();
+    }
+}
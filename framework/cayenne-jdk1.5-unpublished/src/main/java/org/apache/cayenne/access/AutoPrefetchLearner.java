@@ -0,0 +1,317 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cayenne.query.PrefetchTreeNode;
+import org.apache.cayenne.query.Query;
+import org.apache.cayenne.query.QueryMetadata;
+import org.apache.cayenne.query.SelectQuery;
+
+/**
+ * Learns which relationships are faulted on the objects fetched by a given query shape
+ * and adds disjoint-by-id prefetches of such relationships to future executions of
+ * queries of the same shape. A query shape is a root entity combined with the query
+ * name, so unnamed queries of the same root are learned together, while named queries
+ * are learned separately.
+ * <p>
+ * A relationship becomes a prefetch rule when it is faulted after most executions of
+ * the shape, with the older executions having less weight. Rules expire after a
+ * configured time, after which they are learned again if the relationship is still
+ * faulted. The number of tracked shapes is bounded, the least recently executed shapes
+ * being discarded first. Individual queries can opt out via
+ * {@link SelectQuery#setAutoPrefetch(boolean)}.
+ *
+ * @since 3.1
+ */
+public class AutoPrefetchLearner {
+
+    public static final int DEFAULT_MAX_SHAPES = 500;
+    public static final int DEFAULT_MIN_EXECUTIONS = 5;
+    public static final double DEFAULT_FAULT_RATIO = 0.8;
+    public static final long DEFAULT_RULE_EXPIRATION = 10 * 60 * 1000;
+
+    // weight of the previous executions relative to the latest one
+    static final double DECAY = 0.9;
+
+    // caps the number of relationships tracked per shape
+    static final int MAX_RELATIONSHIPS = 32;
+
+    protected int maxShapes;
+    protected int minExecutions;
+    protected double faultRatio;
+    protected long ruleExpiration;
+
+    private Map<String, Shape> shapes;
+
+    public AutoPrefetchLearner() {
+        this.maxShapes = DEFAULT_MAX_SHAPES;
+        this.minExecutions = DEFAULT_MIN_EXECUTIONS;
+        this.faultRatio = DEFAULT_FAULT_RATIO;
+        this.ruleExpiration = DEFAULT_RULE_EXPIRATION;
+
+        this.shapes = new LinkedHashMap<String, Shape>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Shape> eldest) {
+                return size() > maxShapes;
+            }
+        };
+    }
+
+    /**
+     * Returns a shape key of the query or null if the query is not a subject to
+     * auto-prefetching.
+     */
+    String shapeKey(Query query, QueryMetadata metadata) {
+        if (!(query instanceof SelectQuery)
+                || !((SelectQuery) query).isAutoPrefetch()
+                || metadata.isFetchingDataRows()
+                || metadata.getPageSize() > 0
+                || metadata.getObjEntity() == null) {
+            return null;
+        }
+
+        String name = query.getName();
+        String entityName = metadata.getObjEntity().getName();
+        return name != null ? entityName + "#" + name : entityName;
+    }
+
+    /**
+     * Returns a copy of the query with prefetches of the shape rules added, or the query
+     * itself if there are no applicable rules.
+     */
+    SelectQuery applyRules(String shapeKey, SelectQuery query) {
+        List<String> relationships = getRules(shapeKey);
+        if (relationships.isEmpty()) {
+            return query;
+        }
+
+        PrefetchTreeNode prefetchTree = query.getPrefetchTree();
+        SelectQuery copy = null;
+
+        for (String relationship : relationships) {
+            if (prefetchTree != null && prefetchTree.getNode(relationship) != null) {
+                continue;
+            }
+
+            if (copy == null) {
+                copy = query.queryWithParameters(
+                        Collections.<String, Object> emptyMap(),
+                        false);
+                copy.setName(query.getName());
+                copy.setStatementFetchSize(query.getStatementFetchSize());
+            }
+
+            copy.addPrefetch(relationship).setSemantics(
+                    PrefetchTreeNode.DISJOINT_BY_ID_PREFETCH_SEMANTICS);
+        }
+
+        return copy != null ? copy : query;
+    }
+
+    /**
+     * Records an execution of a query shape, returning the shape to be notified of the
+     * relationship faults.
+     */
+    synchronized Shape executed(String shapeKey) {
+        Shape shape = shapes.get(shapeKey);
+        if (shape == null) {
+            shape = new Shape();
+            shapes.put(shapeKey, shape);
+        }
+
+        shape.executed(System.currentTimeMillis());
+        return shape;
+    }
+
+    /**
+     * Returns relationships prefetched by the currently active rules of a query shape.
+     */
+    public synchronized List<String> getRules(String shapeKey) {
+        Shape shape = shapes.get(shapeKey);
+        return shape != null
+                ? shape.rules(System.currentTimeMillis())
+                : Collections.<String> emptyList();
+    }
+
+    /**
+     * Returns currently active rules of all query shapes, keyed by shape.
+     */
+    public synchronized Map<String, List<String>> getRules() {
+        long now = System.currentTimeMillis();
+        Map<String, List<String>> rules = new HashMap<String, List<String>>();
+
+        for (Map.Entry<String, Shape> entry : shapes.entrySet()) {
+            List<String> relationships = entry.getValue().rules(now);
+            if (!relationships.isEmpty()) {
+                rules.put(entry.getKey(), relationships);
+            }
+        }
+
+        return rules;
+    }
+
+    /**
+     * Discards all the learned rules and statistics.
+     */
+    public synchronized void clear() {
+        shapes.clear();
+    }
+
+    public int getMaxShapes() {
+        return maxShapes;
+    }
+
+    /**
+     * Sets the maximum number of tracked query shapes.
+     */
+    public void setMaxShapes(int maxShapes) {
+        this.maxShapes = maxShapes;
+    }
+
+    public int getMinExecutions() {
+        return minExecutions;
+    }
+
+    /**
+     * Sets the minimal number of executions of a query shape before any of its
+     * relationships can become a prefetch rule.
+     */
+    public void setMinExecutions(int minExecutions) {
+        this.minExecutions = minExecutions;
+    }
+
+    public double getFaultRatio() {
+        return faultRatio;
+    }
+
+    /**
+     * Sets a weighted ratio of executions followed by a relationship fault to all
+     * executions of a query shape, starting from which the relationship becomes a
+     * prefetch rule.
+     */
+    public void setFaultRatio(double faultRatio) {
+        this.faultRatio = faultRatio;
+    }
+
+    public long getRuleExpiration() {
+        return ruleExpiration;
+    }
+
+    /**
+     * Sets time in milliseconds after which a learned rule is discarded.
+     */
+    public void setRuleExpiration(long ruleExpiration) {
+        this.ruleExpiration = ruleExpiration;
+    }
+
+    /**
+     * Fault statistics of a query shape.
+     */
+    final class Shape {
+
+        private Map<String, RelationshipStats> relationships;
+
+        Shape() {
+            this.relationships = new HashMap<String, RelationshipStats>();
+        }
+
+        void executed(long now) {
+            Iterator<RelationshipStats> it = relationships.values().iterator();
+            while (it.hasNext()) {
+                RelationshipStats stats = it.next();
+
+                if (stats.learnedAt > 0) {
+                    // rule statistics are frozen until expiration, as prefetched
+                    // relationships are never faulted
+                    if (now - stats.learnedAt > ruleExpiration) {
+                        it.remove();
+                    }
+                }
+                else {
+                    stats.executions = stats.executions * DECAY + 1;
+                    stats.faults *= DECAY;
+                    stats.samples++;
+                }
+            }
+        }
+
+        /**
+         * Records a relationship fault, called at most once per execution.
+         */
+        void faulted(String relationship) {
+            synchronized (AutoPrefetchLearner.this) {
+                RelationshipStats stats = relationships.get(relationship);
+                if (stats == null) {
+                    if (relationships.size() >= MAX_RELATIONSHIPS) {
+                        return;
+                    }
+
+                    stats = new RelationshipStats();
+                    relationships.put(relationship, stats);
+                }
+
+                if (stats.learnedAt > 0) {
+                    return;
+                }
+
+                stats.faults++;
+
+                if (stats.samples >= minExecutions
+                        && stats.faults >= stats.executions * faultRatio) {
+                    stats.learnedAt = System.currentTimeMillis();
+                }
+            }
+        }
+
+        List<String> rules(long now) {
+            List<String> rules = null;
+
+            for (Map.Entry<String, RelationshipStats> entry : relationships.entrySet()) {
+                long learnedAt = entry.getValue().learnedAt;
+                if (learnedAt > 0 && now - learnedAt <= ruleExpiration) {
+                    if (rules == null) {
+                        rules = new ArrayList<String>(2);
+                    }
+
+                    rules.add(entry.getKey());
+                }
+            }
+
+            return rules != null ? rules : Collections.<String> emptyList();
+        }
+    }
+
+    static final class RelationshipStats {
+
+        // the first execution is the one when the relationship was faulted
+        double executions = 1;
+        double faults;
+        int samples = 1;
+        long learnedAt;
+    }
+}
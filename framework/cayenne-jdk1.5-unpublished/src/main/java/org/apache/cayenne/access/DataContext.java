@@ -28,6 +28,9 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.cayenne.BaseContext;
 import org.apache.cayenne.CayenneException;
@@ -56,8 +59,10 @@ import org.apache.cayenne.map.ObjAttribute;
 import org.apache.cayenne.map.ObjEntity;
 import org.apache.cayenne.map.ObjRelationship;
 import org.apache.cayenne.query.NamedQuery;
+import org.apache.cayenne.query.PrefetchTreeNode;
 import org.apache.cayenne.query.Query;
 import org.apache.cayenne.query.QueryMetadata;
+import org.apache.cayenne.query.SelectQuery;
 import org.apache.cayenne.reflect.AttributeProperty;
 import org.apache.cayenne.reflect.ClassDescriptor;
 import org.apache.cayenne.reflect.PropertyVisitor;
@@ -81,6 +86,11 @@ public class DataContext extends BaseContext {
 
     protected transient DataContextMergeHandler mergeHandler;
 
+    /**
+     * @since 3.1
+     */
+    protected transient ExecutorService queryExecutor;
+
     /**
      * Creates a new DataContext that is not attached to the Cayenne stack.
      */
@@ -914,6 +924,52 @@ public class DataContext extends BaseContext {
         }
     }
 
+    /**
+     * Performs a single select query, returning an iterator over the persistent objects
+     * read from an open database cursor in batches of a given size. The to-one
+     * relationships prefetched by the query are resolved for each batch with a single
+     * query per relationship, while other prefetches are ignored. Unmodified objects
+     * fetched by the iterator are evicted from this DataContext after each batch. Same
+     * as with {@link #performIteratedQuery(Query)}, it is caller's responsibility to
+     * close the iterator, unless it is iterated to the end.
+     * 
+     * @since 3.1
+     */
+    public <T extends Persistent> ObjectIterator<T> iterateObjects(
+            Query query,
+            int batchSize) throws CayenneException {
+
+        QueryMetadata metadata = query.getMetaData(getEntityResolver());
+        ClassDescriptor descriptor = metadata.getClassDescriptor();
+        if (descriptor == null || metadata.isFetchingDataRows()) {
+            throw new CayenneRuntimeException("Query does not fetch persistent objects: "
+                    + query);
+        }
+
+        PrefetchTreeNode prefetchTree = metadata.getPrefetchTree();
+
+        // prefetches are not supported by cursors
+        if (prefetchTree != null && query instanceof SelectQuery) {
+            SelectQuery select = (SelectQuery) query;
+            SelectQuery cursorQuery = select.queryWithParameters(
+                    Collections.EMPTY_MAP,
+                    false);
+            cursorQuery.setPrefetchTree(null);
+            cursorQuery.setFetchOffset(select.getFetchOffset());
+            cursorQuery.setStatementFetchSize(select.getStatementFetchSize());
+            query = cursorQuery;
+        }
+
+        ResultIterator rows = performIteratedQuery(query);
+        try {
+            return new ObjectIterator<T>(this, descriptor, prefetchTree, rows, batchSize);
+        }
+        catch (RuntimeException e) {
+            rows.close();
+            throw e;
+        }
+    }
+
     /**
      * Runs an iterated query in transactional context provided by the caller.
      * 
@@ -979,6 +1035,67 @@ public class DataContext extends BaseContext {
         return result != null ? result : new ArrayList<Object>(1);
     }
 
+    /**
+     * Starts a selecting query in a background thread, returning a Future for the query
+     * result. Works the same way as {@link #performQuery(Query)}, with fetched objects
+     * registered in this context ObjectStore when the query completes. Multiple
+     * asynchronous queries can run concurrently with each other and with the calling
+     * thread, however the caller should not modify the context objects until the queries
+     * are done.
+     * 
+     * @throws IllegalStateException if the context has no query executor.
+     * @since 3.1
+     */
+    public <T> Future<List<T>> performQueryAsync(final Query query) {
+        return submitQuery(new Callable<List<T>>() {
+
+            @SuppressWarnings("unchecked")
+            public List<T> call() {
+                return performQuery(query);
+            }
+        });
+    }
+
+    /**
+     * Starts a query in a background thread, returning a Future for the generic query
+     * response. Works the same way as {@link #performGenericQuery(Query)}.
+     * 
+     * @throws IllegalStateException if the context has no query executor.
+     * @since 3.1
+     */
+    public Future<QueryResponse> performGenericQueryAsync(final Query query) {
+        return submitQuery(new Callable<QueryResponse>() {
+
+            public QueryResponse call() {
+                return performGenericQuery(query);
+            }
+        });
+    }
+
+    private <T> Future<T> submitQuery(final Callable<T> query) {
+        if (queryExecutor == null) {
+            throw new IllegalStateException(
+                    "Can't run async query - query executor is not set.");
+        }
+
+        return queryExecutor.submit(new Callable<T>() {
+
+            public T call() throws Exception {
+
+                // expose this context to the callbacks and listeners invoked by the
+                // query, same as it would be in the calling thread
+                ObjectContext threadContext = threadObjectContext.get();
+                bindThreadObjectContext(DataContext.this);
+                try {
+                    return query.call();
+                }
+                finally {
+                    bindThreadObjectContext(threadContext);
+                }
+            }
+        });
+    }
+
     /**
      * An implementation of a {@link DataChannel} method that is used by child contexts to
      * execute queries. Not intended for direct use.
@@ -1075,6 +1192,24 @@ public class DataContext extends BaseContext {
         this.usingSharedSnaphsotCache = flag;
     }
 
+    /**
+     * Returns an executor used to run asynchronous queries.
+     * 
+     * @since 3.1
+     */
+    public ExecutorService getQueryExecutor() {
+        return queryExecutor;
+    }
+
+    /**
+     * Sets an executor used to run asynchronous queries.
+     * 
+     * @since 3.1
+     */
+    public void setQueryExecutor(ExecutorService queryExecutor) {
+        this.queryExecutor = queryExecutor;
+    }
+
     // ---------------------------------------------
     // Serialization Support
     // ---------------------------------------------
@@ -27,10 +27,13 @@ import java.util.Map;
 import org.apache.cayenne.ObjectContext;
 import org.apache.cayenne.PersistenceState;
 import org.apache.cayenne.Persistent;
+import org.apache.cayenne.QueryResponse;
 import org.apache.cayenne.map.DbEntity;
 import org.apache.cayenne.query.ObjectIdQuery;
 import org.apache.cayenne.query.Query;
+import org.apache.cayenne.query.QueryMetadata;
 import org.apache.cayenne.query.RefreshQuery;
+import org.apache.cayenne.query.SelectQuery;
 import org.apache.cayenne.util.ListResponse;
 import org.apache.cayenne.util.ObjectContextQueryAction;
 
@@ -43,6 +46,7 @@ import org.apache.cayenne.util.ObjectContextQueryAction;
 class DataContextQueryAction extends ObjectContextQueryAction {
 
     protected DataContext actingDataContext;
+    private AutoPrefetchLearner autoPrefetchLearner;
 
     public DataContextQueryAction(DataContext actingContext, ObjectContext targetContext,
             Query query) {
@@ -50,6 +54,86 @@ class DataContextQueryAction extends ObjectContextQueryAction {
         actingDataContext = actingContext;
     }
 
+    @Override
+    public QueryResponse execute() {
+        String shapeKey = interceptAutoPrefetch();
+        QueryResponse response = super.execute();
+        interceptFaultBatch(shapeKey);
+        return response;
+    }
+
+    /**
+     * Includes the entities the query depends on in the cache groups, so that the locally
+     * cached results are invalidated on commit.
+     */
+    @Override
+    protected QueryMetadata getCacheMetadata() {
+        DataDomain domain = actingDataContext.getParentDataDomain();
+        return domain != null ? domain.getQueryCacheInvalidator().dependentMetadata(
+                query,
+                metadata) : metadata;
+    }
+
+    /**
+     * Adds prefetches learned for the query shape, returning the shape key or null if
+     * the query is not subject to auto-prefetching.
+     */
+    private String interceptAutoPrefetch() {
+        DataDomain domain = actingDataContext.getParentDataDomain();
+        if (targetContext != null
+                || domain == null
+                || domain.getAutoPrefetchLearner() == null) {
+            return null;
+        }
+
+        autoPrefetchLearner = domain.getAutoPrefetchLearner();
+        String shapeKey = autoPrefetchLearner.shapeKey(query, metadata);
+
+        if (shapeKey != null) {
+            SelectQuery prefetchingQuery = autoPrefetchLearner.applyRules(
+                    shapeKey,
+                    (SelectQuery) query);
+
+            if (prefetchingQuery != query) {
+                query = prefetchingQuery;
+                metadata = query.getMetaData(actingContext.getEntityResolver());
+            }
+        }
+
+        return shapeKey;
+    }
+
+    /**
+     * Registers fetched objects with the ObjectStore as a batch for relationship
+     * faulting, if batch faulting or auto-prefetching is enabled.
+     */
+    private void interceptFaultBatch(String shapeKey) {
+        if (targetContext != null || metadata.isFetchingDataRows() || response == null) {
+            return;
+        }
+
+        DataDomain domain = actingDataContext.getParentDataDomain();
+        if (domain == null || (domain.getFaultBatchSize() < 2 && shapeKey == null)) {
+            return;
+        }
+
+        List<?> objects = response.firstList();
+        if (objects != null
+                && objects.size() > 1
+                && !(objects instanceof IncrementalFaultList)) {
+
+            AutoPrefetchLearner.Shape shape = shapeKey != null ? autoPrefetchLearner
+                    .executed(shapeKey) : null;
+
+            actingDataContext.getObjectStore().registerFaultBatch(
+                    objects,
+                    domain.getFaultBatchSize(),
+                    shape);
+        }
+
+        response.reset();
+    }
+
     @Override
     protected boolean interceptInternalQuery() {
         return interceptObjectFromDataRowsQuery();
@@ -106,11 +190,18 @@ class DataContextQueryAction extends ObjectContextQueryAction {
         if (metadata.getPageSize() > 0) {
 
             DbEntity dbEntity = metadata.getDbEntity();
-            Integer maxIdQualifierSize = actingDataContext
-                    .getParentDataDomain()
-                    .getMaxIdQualifierSize();
-            List<?> paginatedList;
-            if (dbEntity != null && dbEntity.getPrimaryKeys().size() == 1) {
+            DataDomain domain = actingDataContext.getParentDataDomain();
+            Integer maxIdQualifierSize = domain.getMaxIdQualifierSize();
+            IncrementalFaultList<Object> paginatedList;
+            if (domain.getLazyPaginationCachedPages() > 0
+                    && query instanceof SelectQuery) {
+                paginatedList = new LazyIncrementalFaultList<Object>(
+                        actingDataContext,
+                        (SelectQuery) query,
+                        maxIdQualifierSize,
+                        domain.getLazyPaginationCachedPages());
+            }
+            else if (dbEntity != null && dbEntity.getPrimaryKeys().size() == 1) {
                 paginatedList = new SimpleIdIncrementalFaultList<Object>(
                         actingDataContext,
                         query,
@@ -123,6 +214,7 @@ class DataContextQueryAction extends ObjectContextQueryAction {
                         maxIdQualifierSize);
             }
 
+            paginatedList.setReadAhead(domain.isPaginationReadAhead());
             response = new ListResponse(paginatedList);
             return DONE;
         }
@@ -25,8 +25,10 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.cayenne.CayenneRuntimeException;
 import org.apache.cayenne.DataChannel;
@@ -35,6 +37,7 @@ import org.apache.cayenne.DataChannelFilterChain;
 import org.apache.cayenne.DataChannelSyncCallbackAction;
 import org.apache.cayenne.ObjectContext;
 import org.apache.cayenne.QueryResponse;
+import org.apache.cayenne.access.event.SnapshotEvent;
 import org.apache.cayenne.access.jdbc.BatchQueryBuilderFactory;
 import org.apache.cayenne.cache.NestedQueryCache;
 import org.apache.cayenne.cache.QueryCache;
@@ -43,6 +46,7 @@ import org.apache.cayenne.configuration.ObjectContextFactory;
 import org.apache.cayenne.di.BeforeScopeEnd;
 import org.apache.cayenne.di.Inject;
 import org.apache.cayenne.event.EventManager;
+import org.apache.cayenne.event.EventSubject;
 import org.apache.cayenne.graph.CompoundDiff;
 import org.apache.cayenne.graph.GraphDiff;
 import org.apache.cayenne.log.JdbcEventLogger;
@@ -115,6 +119,67 @@ public class DataDomain implements QueryEngine, DataChannel {
 
     protected boolean stopped;
 
+    /**
+     * @since 3.1
+     */
+    protected ExecutorService flushExecutor;
+
+    /**
+     * @since 3.1
+     */
+    protected Map<String, List<DataNode>> replicaNodes;
+
+    /**
+     * @since 3.1
+     */
+    protected ReplicaSelector replicaSelector;
+
+    /**
+     * @since 3.1
+     */
+    protected long readYourWritesTime;
+
+    /**
+     * @since 3.1
+     */
+    protected Map<String, EntityShards> entityShards;
+
+    /**
+     * @since 3.1
+     */
+    protected int lazyPaginationCachedPages;
+
+    /**
+     * @since 3.1
+     */
+    protected boolean paginationReadAhead;
+
+    /**
+     * @since 3.1
+     */
+    protected int faultBatchSize;
+
+    /**
+     * @since 3.1
+     */
+    protected AutoPrefetchLearner autoPrefetchLearner;
+
+    /**
+     * @since 3.1
+     */
+    protected boolean parallelPrefetches;
+
+    /**
+     * @since 3.1
+     */
+    protected boolean queryCacheInvalidation;
+
+    // a listener of commits invalidating the dependent query cache entries
+    private QueryCacheInvalidator queryCacheInvalidator;
+
+    // last commit times of contexts, used for "read your writes" routing
+    private Map<ObjectContext, Long> commitTimes;
+
     /**
      * Factory for creating QueryBuilders. Might be null, then default one will be used.
      * Server-only.
@@ -148,6 +213,13 @@ public class DataDomain implements QueryEngine, DataChannel {
         this.filters = new CopyOnWriteArrayList<DataChannelFilter>();
         this.nodesByDataMapName = new ConcurrentHashMap<String, DataNode>();
         this.nodes = new ConcurrentHashMap<String, DataNode>();
+        this.replicaNodes = new ConcurrentHashMap<String, List<DataNode>>();
+        this.replicaSelector = new RoundRobinReplicaSelector();
+        this.entityShards = new ConcurrentHashMap<String, EntityShards>();
+        this.commitTimes = Collections
+                .synchronizedMap(new WeakHashMap<ObjectContext, Long>());
+        this.queryCacheInvalidation = true;
+        this.queryCacheInvalidator = new QueryCacheInvalidator(this);
 
         // properties are read-only, so no need for concurrent map, or any specific map
         // for that matter
@@ -240,11 +312,14 @@ public class DataDomain implements QueryEngine, DataChannel {
      * @since 1.2
      */
     public void setEventManager(EventManager eventManager) {
+        stopQueryCacheInvalidator();
         this.eventManager = eventManager;
 
         if (sharedSnapshotCache != null) {
             sharedSnapshotCache.setEventManager(eventManager);
         }
+
+        startQueryCacheInvalidator();
     }
 
     /**
@@ -258,10 +333,36 @@ public class DataDomain implements QueryEngine, DataChannel {
      * Sets "name" property to a new value.
      */
     public synchronized void setName(String name) {
+        stopQueryCacheInvalidator();
         this.name = name;
         if (sharedSnapshotCache != null) {
             this.sharedSnapshotCache.setName(name);
         }
+
+        startQueryCacheInvalidator();
+    }
+
+    /**
+     * Starts listening for the SnapshotEvents of all DataRowStores of this domain, sent on
+     * local or remote commits.
+     */
+    private void startQueryCacheInvalidator() {
+        if (eventManager != null && name != null) {
+
+            // must be a blocking listener, so that the cache is invalidated before the
+            // commit returns
+            eventManager.addListener(
+                    queryCacheInvalidator,
+                    "snapshotsChanged",
+                    SnapshotEvent.class,
+                    EventSubject.getSubject(DataRowStore.class, name));
+        }
+    }
+
+    private void stopQueryCacheInvalidator() {
+        if (eventManager != null && queryCacheInvalidator != null) {
+            eventManager.removeListener(queryCacheInvalidator);
+        }
     }
 
     /**
@@ -364,6 +465,7 @@ public class DataDomain implements QueryEngine, DataChannel {
     synchronized DataRowStore nonNullSharedSnapshotCache() {
         if (sharedSnapshotCache == null) {
             this.sharedSnapshotCache = new DataRowStore(name, properties, eventManager);
+            this.sharedSnapshotCache.setEntityResolver(getEntityResolver());
         }
 
         return sharedSnapshotCache;
@@ -383,6 +485,7 @@ public class DataDomain implements QueryEngine, DataChannel {
             if (snapshotCache != null) {
                 snapshotCache.setEventManager(getEventManager());
                 snapshotCache.setName(getName());
+                snapshotCache.setEntityResolver(getEntityResolver());
             }
         }
     }
@@ -673,6 +776,174 @@ public class DataDomain implements QueryEngine, DataChannel {
         return node;
     }
 
+    /**
+     * Returns a DataNode that should handle read-only queries for all entities in a
+     * DataMap. This is either one of the replicas of the DataMap primary node chosen by
+     * the {@link ReplicaSelector}, or the primary node itself if it has no usable
+     * replicas or if the context has committed changes within the "read your writes"
+     * time.
+     * 
+     * @since 3.1
+     */
+    public DataNode lookupReadNode(DataMap map, ObjectContext context) {
+        return lookupReadNode(lookupDataNode(map), context);
+    }
+
+    DataNode lookupReadNode(DataNode primary, ObjectContext context) {
+
+        List<DataNode> replicas = replicaNodes.get(primary.getName());
+        if (replicas == null || replicas.isEmpty()) {
+            return primary;
+        }
+
+        if (context != null && readYourWritesTime > 0) {
+            Long commitTime = commitTimes.get(context);
+            if (commitTime != null) {
+                long elapsed = System.currentTimeMillis() - commitTime.longValue();
+                if (elapsed < readYourWritesTime) {
+                    return primary;
+                }
+            }
+        }
+
+        DataNode replica = replicaSelector.selectReplica(primary, replicas);
+        return replica != null ? replica : primary;
+    }
+
+    /**
+     * Adds a replica of the primary DataNode. Replicas are not a part of
+     * {@link #getDataNodes()}. They run SelectQueries that are executed outside of an
+     * explicit transaction, while all other queries and commits go to the primary node.
+     * A replica must be a DataNode with its own DataSource and DbAdapter and a name that
+     * is unique across the domain.
+     * 
+     * @since 3.1
+     */
+    public synchronized void addReplicaNode(String primaryNodeName, DataNode replica) {
+
+        if (getDataNode(primaryNodeName) == null) {
+            throw new IllegalArgumentException("No DataNode named '"
+                    + primaryNodeName
+                    + "'");
+        }
+
+        replica.setEntityResolver(getEntityResolver());
+
+        List<DataNode> replicas = replicaNodes.get(primaryNodeName);
+        if (replicas == null) {
+            replicas = new CopyOnWriteArrayList<DataNode>();
+            replicaNodes.put(primaryNodeName, replicas);
+        }
+
+        replicas.add(replica);
+    }
+
+    /**
+     * Removes a replica DataNode.
+     * 
+     * @since 3.1
+     */
+    public synchronized void removeReplicaNode(String replicaNodeName) {
+        for (List<DataNode> replicas : replicaNodes.values()) {
+            for (DataNode replica : replicas) {
+                if (replicaNodeName.equals(replica.getName())) {
+                    replicas.remove(replica);
+                    replica.setEntityResolver(null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns an unmodifiable list of replicas of the primary DataNode.
+     * 
+     * @since 3.1
+     */
+    public List<DataNode> getReplicaNodes(String primaryNodeName) {
+        List<DataNode> replicas = replicaNodes.get(primaryNodeName);
+        return replicas != null
+                ? Collections.unmodifiableList(replicas)
+                : Collections.<DataNode> emptyList();
+    }
+
+    /**
+     * @since 3.1
+     */
+    public ReplicaSelector getReplicaSelector() {
+        return replicaSelector;
+    }
+
+    /**
+     * Sets a strategy for choosing replica DataNodes. The default is
+     * {@link RoundRobinReplicaSelector} that treats all replicas as available.
+     * 
+     * @since 3.1
+     */
+    public void setReplicaSelector(ReplicaSelector replicaSelector) {
+        if (replicaSelector == null) {
+            throw new NullPointerException("Null ReplicaSelector");
+        }
+
+        this.replicaSelector = replicaSelector;
+    }
+
+    /**
+     * Returns the time in milliseconds after a commit during which read-only queries of
+     * the committing context are run against the primary DataNodes, so that the context
+     * sees its own changes even if the replicas are lagging. Zero (default) disables
+     * this. Can be set via {@link Constants#SERVER_READ_YOUR_WRITES_TIME_PROPERTY}.
+     * 
+     * @since 3.1
+     */
+    public long getReadYourWritesTime() {
+        return readYourWritesTime;
+    }
+
+    /**
+     * @since 3.1
+     */
+    public void setReadYourWritesTime(long readYourWritesTime) {
+        this.readYourWritesTime = readYourWritesTime;
+    }
+
+    /**
+     * Registers a sharded DbEntity. Shard nodes are not a part of
+     * {@link #getDataNodes()}, and must have their own DataSource and DbAdapter and
+     * names that are unique across the domain. The node of the entity DataMap still
+     * generates primary keys and runs queries other than SelectQuery.
+     * 
+     * @since 3.1
+     * @see EntityShards
+     */
+    public void addEntityShards(EntityShards shards) {
+        for (DataNode node : shards.getNodes()) {
+            if (node.getEntityResolver() == null) {
+                node.setEntityResolver(getEntityResolver());
+            }
+        }
+
+        entityShards.put(shards.getEntityName(), shards);
+    }
+
+    /**
+     * Unregisters a sharded DbEntity, returning its shards, or null if the entity was not
+     * sharded.
+     * 
+     * @since 3.1
+     */
+    public EntityShards removeEntityShards(String dbEntityName) {
+        return entityShards.remove(dbEntityName);
+    }
+
+    /**
+     * Returns shards of a DbEntity, or null if the entity is not sharded.
+     * 
+     * @since 3.1
+     */
+    public EntityShards getEntityShards(String dbEntityName) {
+        return entityShards.isEmpty() ? null : entityShards.get(dbEntityName);
+    }
+
     /**
      * Sets EntityResolver. If not set explicitly, DataDomain creates a default
      * EntityResolver internally on demand.
@@ -704,6 +975,10 @@ public class DataDomain implements QueryEngine, DataChannel {
                 sharedSnapshotCache.shutdown();
             }
 
+            if (flushExecutor != null) {
+                flushExecutor.shutdown();
+            }
+
             // deprecated - noop code for backwards compatibility as DataNode shutdown is
             // no longer needed
             for (DataNode node : getDataNodes()) {
@@ -819,6 +1094,12 @@ public class DataDomain implements QueryEngine, DataChannel {
                         + syncType);
         }
 
+        if (syncType != DataChannel.ROLLBACK_CASCADE_SYNC
+                && readYourWritesTime > 0
+                && !replicaNodes.isEmpty()) {
+            commitTimes.put(originatingContext, System.currentTimeMillis());
+        }
+
         callbackAction.applyPostCommit();
         return result;
     }
@@ -1052,6 +1333,126 @@ public class DataDomain implements QueryEngine, DataChannel {
         this.defaultNode = defaultNode;
     }
 
+    /**
+     * Returns the number of pages kept in memory by each list returned from a paginated
+     * SelectQuery, if the lists are created in lazy mode. In lazy mode a paginated list
+     * doesn't read the ids of all matching objects upfront, instead its size is obtained
+     * with a COUNT query and each page is fetched on demand. Zero (default) disables
+     * lazy mode. Can be set via
+     * {@link Constants#SERVER_LAZY_PAGINATION_CACHED_PAGES_PROPERTY}.
+     * 
+     * @since 3.1
+     */
+    public int getLazyPaginationCachedPages() {
+        return lazyPaginationCachedPages;
+    }
+
+    /**
+     * @since 3.1
+     */
+    public void setLazyPaginationCachedPages(int lazyPaginationCachedPages) {
+        this.lazyPaginationCachedPages = lazyPaginationCachedPages;
+    }
+
+    /**
+     * Returns whether paginated lists resolve the next page in background on forward
+     * iteration. Read-ahead queries are run by the DataContext query executor.
+     * Can be set via {@link Constants#SERVER_PAGINATION_READ_AHEAD_PROPERTY}.
+     * 
+     * @since 3.1
+     */
+    public boolean isPaginationReadAhead() {
+        return paginationReadAhead;
+    }
+
+    /**
+     * @since 3.1
+     */
+    public void setPaginationReadAhead(boolean paginationReadAhead) {
+        this.paginationReadAhead = paginationReadAhead;
+    }
+
+    /**
+     * Returns the maximum number of objects fetched together whose relationship faults
+     * are resolved with a single query. When a relationship fault of an object is
+     * resolved, the same relationship is resolved for the objects fetched along with it
+     * that still have it unresolved. Zero (default) disables batch faulting. Can be set
+     * via {@link Constants#SERVER_FAULT_BATCH_SIZE_PROPERTY}.
+     * 
+     * @since 3.1
+     */
+    public int getFaultBatchSize() {
+        return faultBatchSize;
+    }
+
+    /**
+     * @since 3.1
+     */
+    public void setFaultBatchSize(int faultBatchSize) {
+        this.faultBatchSize = faultBatchSize;
+    }
+
+    /**
+     * Returns an object learning prefetches from relationship faults, or null if
+     * auto-prefetching is disabled (default). Can be enabled via
+     * {@link Constants#SERVER_AUTO_PREFETCH_PROPERTY}.
+     * 
+     * @since 3.1
+     */
+    public AutoPrefetchLearner getAutoPrefetchLearner() {
+        return autoPrefetchLearner;
+    }
+
+    /**
+     * @since 3.1
+     */
+    public void setAutoPrefetchLearner(AutoPrefetchLearner autoPrefetchLearner) {
+        this.autoPrefetchLearner = autoPrefetchLearner;
+    }
+
+    /**
+     * Returns whether sibling disjoint and disjoint-by-id prefetch queries run
+     * concurrently using the DataContext query executor, each in its own transaction
+     * and on its own connection. Prefetches that are a part of an explicit transaction
+     * always run serially. Default is false. Can be set via
+     * {@link Constants#SERVER_PARALLEL_PREFETCHES_PROPERTY}.
+     * 
+     * @since 3.1
+     */
+    public boolean isParallelPrefetches() {
+        return parallelPrefetches;
+    }
+
+    /**
+     * @since 3.1
+     */
+    public void setParallelPrefetches(boolean parallelPrefetches) {
+        this.parallelPrefetches = parallelPrefetches;
+    }
+
+    /**
+     * Returns whether the cached query results are invalidated when the DbEntities they
+     * were fetched from are committed, either locally or by the remote DataDomains
+     * connected via EventBridge. Default is true. Can be set via
+     * {@link Constants#SERVER_QUERY_CACHE_INVALIDATION_PROPERTY}.
+     * 
+     * @since 3.1
+     */
+    public boolean isQueryCacheInvalidation() {
+        return queryCacheInvalidation;
+    }
+
+    /**
+     * @since 3.1
+     */
+    public void setQueryCacheInvalidation(boolean queryCacheInvalidation) {
+        this.queryCacheInvalidation = queryCacheInvalidation;
+    }
+
+    QueryCacheInvalidator getQueryCacheInvalidator() {
+        return queryCacheInvalidator;
+    }
+
     /**
      * Returns a maximum number of object IDs to match in a single query for queries that
      * select objects based on collection of ObjectIds. This affects queries generated by
@@ -1073,4 +1474,29 @@ public class DataDomain implements QueryEngine, DataChannel {
     public void setMaxIdQualifierSize(int maxIdQualifierSize) {
         this.maxIdQualifierSize = maxIdQualifierSize;
     }
+
+    /**
+     * Returns an executor used to commit changes to multiple DataNodes concurrently, or
+     * null if changes are committed to one node after another (default). Parallel flush
+     * is enabled via {@link Constants#SERVER_PARALLEL_FLUSH_PROPERTY}. Each node runs its
+     * queries in the original order on its own connection within the same transaction.
+     * Note that a parallel flush doesn't preserve the order of operations across nodes,
+     * so it should not be used when inserts on one node depend on DB-generated keys of
+     * another node.
+     * 
+     * @since 3.1
+     */
+    public ExecutorService getFlushExecutor() {
+        return flushExecutor;
+    }
+
+    /**
+     * Sets an executor for parallel commits to multiple DataNodes. The executor is shut
+     * down together with the DataDomain.
+     * 
+     * @since 3.1
+     */
+    public void setFlushExecutor(ExecutorService flushExecutor) {
+        this.flushExecutor = flushExecutor;
+    }
 }
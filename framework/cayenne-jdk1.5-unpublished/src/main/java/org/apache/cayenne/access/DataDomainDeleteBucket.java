@@ -97,7 +97,7 @@ class DataDomainDeleteBucket extends DataDomainSyncBucket {
                     Map<String, ?> qualifierSnapshot = qualifierBuilder
                             .createQualifierSnapshot(diff);
 
-                    // organize batches by the nulls in qualifier
+                    // organize batches by the nulls in qualifier and by shard
                     Set<String> nullQualifierNames = new HashSet<String>();
                     for (Map.Entry<String, ?> entry : qualifierSnapshot.entrySet()) {
                         if (entry.getValue() == null) {
@@ -105,7 +105,11 @@ class DataDomainDeleteBucket extends DataDomainSyncBucket {
                         }
                     }
 
-                    Object batchKey = Arrays.asList(nullQualifierNames);
+                    DataNode shard = shardNode(dbEntity, qualifierSnapshot, isRootDbEntity
+                            ? o.getObjectId()
+                            : null);
+
+                    Object batchKey = Arrays.asList(nullQualifierNames, shard);
 
                     DeleteBatchQuery batch = (DeleteBatchQuery) batches.get(batchKey);
                     if (batch == null) {
@@ -114,6 +118,7 @@ class DataDomainDeleteBucket extends DataDomainSyncBucket {
                         batch.setUsingOptimisticLocking(qualifierBuilder
                                 .isUsingOptimisticLocking());
                         batches.put(batchKey, batch);
+                        parent.setShardNode(batch, shard);
                     }
 
                     batch.add(qualifierSnapshot);
@@ -24,9 +24,15 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.cayenne.CayenneRuntimeException;
 import org.apache.cayenne.DataRow;
@@ -66,6 +72,7 @@ class DataDomainFlushAction {
     private DataDomainFlattenedBucket flattenedBucket;
 
     private List<Query> queries;
+    private Map<Query, DataNode> shardNodes;
 
     private JdbcEventLogger logger;
 
@@ -196,6 +203,15 @@ class DataDomainFlushAction {
         DataDomainFlushObserver observer = new DataDomainFlushObserver(
                 domain.getJdbcEventLogger());
 
+        ExecutorService executor = domain.getFlushExecutor();
+        if (executor != null) {
+            Map<DataNode, List<Query>> queriesByNode = queriesByNode();
+            if (queriesByNode.size() > 1) {
+                runQueriesInParallel(queriesByNode, observer, executor);
+                return;
+            }
+        }
+
         // split query list by spanned nodes and run each single node range individually.
         // Since connections are reused per node within an open transaction, there should
         // not be much overhead in accessing the same node multiple times (may happen due
@@ -204,28 +220,20 @@ class DataDomainFlushAction {
         try {
 
             DataNode lastNode = null;
-            DbEntity lastEntity = null;
             int rangeStart = 0;
             int len = queries.size();
 
             for (int i = 0; i < len; i++) {
 
-                BatchQuery query = (BatchQuery) queries.get(i);
-                if (query.getDbEntity() != lastEntity) {
-                    lastEntity = query.getDbEntity();
-
-                    DataNode node = domain.lookupDataNode(lastEntity.getDataMap());
-                    if (node != lastNode) {
+                DataNode node = lookupDataNode((BatchQuery) queries.get(i));
+                if (node != lastNode) {
 
-                        if (i - rangeStart > 0) {
-                            lastNode.performQueries(
-                                    queries.subList(rangeStart, i),
-                                    observer);
-                        }
-
-                        rangeStart = i;
-                        lastNode = node;
+                    if (i - rangeStart > 0) {
+                        lastNode.performQueries(queries.subList(rangeStart, i), observer);
                     }
+
+                    rangeStart = i;
+                    lastNode = node;
                 }
             }
 
@@ -238,6 +246,134 @@ class DataDomainFlushAction {
         }
     }
 
+    /**
+     * Splits sorted query list by DataNode, preserving query order within each node.
+     */
+    private Map<DataNode, List<Query>> queriesByNode() {
+        Map<DataNode, List<Query>> queriesByNode = new LinkedHashMap<DataNode, List<Query>>();
+
+        DataNode lastNode = null;
+        List<Query> nodeQueries = null;
+
+        for (Query query : queries) {
+            DataNode node = lookupDataNode((BatchQuery) query);
+            if (node != lastNode) {
+                lastNode = node;
+
+                nodeQueries = queriesByNode.get(node);
+                if (nodeQueries == null) {
+                    nodeQueries = new ArrayList<Query>();
+                    queriesByNode.put(node, nodeQueries);
+                }
+            }
+
+            nodeQueries.add(query);
+        }
+
+        return queriesByNode;
+    }
+
+    /**
+     * Records a shard that should run a batch query of a sharded entity.
+     */
+    void setShardNode(Query query, DataNode node) {
+        if (node != null) {
+            if (shardNodes == null) {
+                shardNodes = new IdentityHashMap<Query, DataNode>();
+            }
+
+            shardNodes.put(query, node);
+        }
+    }
+
+    private DataNode lookupDataNode(BatchQuery query) {
+        if (shardNodes != null) {
+            DataNode node = shardNodes.get(query);
+            if (node != null) {
+                return node;
+            }
+        }
+
+        return domain.lookupDataNode(query.getDbEntity().getDataMap());
+    }
+
+    /**
+     * Runs each node queries concurrently in the current thread transaction. Waits for
+     * all nodes to finish before reporting a failure, so that the transaction is not
+     * rolled back while some of its connections are still in use.
+     */
+    private void runQueriesInParallel(
+            Map<DataNode, List<Query>> queriesByNode,
+            final DataDomainFlushObserver observer,
+            ExecutorService executor) {
+
+        final Transaction transaction = Transaction.getThreadTransaction();
+        List<Future<?>> futures = new ArrayList<Future<?>>(queriesByNode.size());
+
+        Throwable failure = null;
+
+        try {
+            for (final Map.Entry<DataNode, List<Query>> entry : queriesByNode.entrySet()) {
+                futures.add(executor.submit(new Runnable() {
+
+                    public void run() {
+                        Transaction.bindThreadTransaction(transaction);
+                        try {
+                            entry.getKey().performQueries(entry.getValue(), observer);
+                        }
+                        finally {
+                            Transaction.bindThreadTransaction(null);
+                        }
+                    }
+                }));
+            }
+        }
+        catch (RejectedExecutionException e) {
+            failure = e;
+        }
+
+        boolean interrupted = false;
+
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                }
+                catch (InterruptedException e) {
+                    // keep waiting, the connections are still in use by the nodes
+                    interrupted = true;
+                }
+                catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure != null) {
+            transaction.setRollbackOnly();
+            throw new CayenneRuntimeException("Transaction was rolledback.", failure);
+        }
+    }
+
+    private Collection<String> modifiedEntityNames() {
+        Collection<String> names = new HashSet<String>();
+        for (Query query : queries) {
+            if (query instanceof BatchQuery) {
+                names.add(((BatchQuery) query).getDbEntity().getName());
+            }
+        }
+
+        return names;
+    }
+
     /*
      * Sends notification of changes to the DataRowStore, returns GraphDiff with replaced
      * ObjectIds.
@@ -248,10 +384,16 @@ class DataDomainFlushAction {
         updateBucket.postprocess();
         insertBucket.postprocess();
 
+        // modified entities are reported to invalidate the dependent query cache entries
+        Collection<String> entityNames = domain.isQueryCacheInvalidation()
+                ? modifiedEntityNames()
+                : Collections.<String> emptySet();
+
         // notify cache...
         if (!resultDeletedIds.isEmpty()
                 || !resultModifiedSnapshots.isEmpty()
-                || !resultIndirectlyModifiedIds.isEmpty()) {
+                || !resultIndirectlyModifiedIds.isEmpty()
+                || !entityNames.isEmpty()) {
 
             context
                     .getObjectStore()
@@ -261,7 +403,8 @@ class DataDomainFlushAction {
                             resultModifiedSnapshots,
                             resultDeletedIds,
                             Collections.EMPTY_LIST,
-                            resultIndirectlyModifiedIds);
+                            resultIndirectlyModifiedIds,
+                            entityNames);
         }
 
         context.getObjectStore().postprocessAfterCommit(resultDiff);
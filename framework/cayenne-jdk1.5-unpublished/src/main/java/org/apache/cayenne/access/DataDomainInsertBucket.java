@@ -22,12 +22,14 @@ package org.apache.cayenne.access;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.cayenne.CayenneRuntimeException;
 import org.apache.cayenne.ObjectId;
 import org.apache.cayenne.Persistent;
+import org.apache.cayenne.dba.JdbcPkGenerator;
 import org.apache.cayenne.dba.PkGenerator;
 import org.apache.cayenne.map.DbAttribute;
 import org.apache.cayenne.map.DbEntity;
@@ -35,7 +37,6 @@ import org.apache.cayenne.map.DbJoin;
 import org.apache.cayenne.map.DbRelationship;
 import org.apache.cayenne.map.EntitySorter;
 import org.apache.cayenne.map.ObjAttribute;
-import org.apache.cayenne.map.ObjEntity;
 import org.apache.cayenne.query.InsertBatchQuery;
 import org.apache.cayenne.query.Query;
 
@@ -61,7 +62,10 @@ class DataDomainInsertBucket extends DataDomainSyncBucket {
             Collection<DbEntityClassDescriptor> descriptors = descriptorsByDbEntity
                     .get(dbEntity);
 
-            InsertBatchQuery batch = new InsertBatchQuery(dbEntity, 27);
+            // sharded entities have a batch per shard, others a single batch with a null
+            // shard
+            Map<DataNode, InsertBatchQuery> batches = new LinkedHashMap<DataNode, InsertBatchQuery>(
+                    2);
             for (DbEntityClassDescriptor descriptor : descriptors) {
 
                 diffBuilder.reset(descriptor);
@@ -86,11 +90,23 @@ class DataDomainInsertBucket extends DataDomainSyncBucket {
                         snapshot = new HashMap<Object, Object>();
                     }
 
-                    batch.add(snapshot, o.getObjectId());
+                    ObjectId id = o.getObjectId();
+                    DataNode shard = shardNode(dbEntity, snapshot, descriptor.isMaster()
+                            ? id
+                            : null);
+
+                    InsertBatchQuery batch = batches.get(shard);
+                    if (batch == null) {
+                        batch = new InsertBatchQuery(dbEntity, 27);
+                        batches.put(shard, batch);
+                        parent.setShardNode(batch, shard);
+                    }
+
+                    batch.add(snapshot, id);
                 }
             }
 
-            queries.add(batch);
+            queries.addAll(batches.values());
         }
     }
 
@@ -100,7 +116,6 @@ class DataDomainInsertBucket extends DataDomainSyncBucket {
             return;
         }
 
-        ObjEntity objEntity = descriptor.getEntity();
         DbEntity entity = descriptor.getDbEntity();
 
         DataNode node = parent.getDomain().lookupDataNode(entity.getDataMap());
@@ -108,6 +123,15 @@ class DataDomainInsertBucket extends DataDomainSyncBucket {
 
         PkGenerator pkGenerator = node.getAdapter().getPkGenerator();
 
+        if (pkGenerator instanceof JdbcPkGenerator) {
+            reservePks(
+                    (JdbcPkGenerator) pkGenerator,
+                    node,
+                    descriptor,
+                    objects,
+                    supportsGeneratedKeys);
+        }
+
         for (Persistent object : objects) {
             ObjectId id = object.getObjectId();
             if (id == null || !id.isTemporary()) {
@@ -127,26 +151,10 @@ class DataDomainInsertBucket extends DataDomainSyncBucket {
                 }
 
                 // handle meaningful PK
-                ObjAttribute objAttr = objEntity.getAttributeForDbAttribute(dbAttr);
-                if (objAttr != null) {
-
-                    Object value = descriptor.getClassDescriptor().getProperty(
-                            objAttr.getName()).readPropertyDirectly(object);
-
-                    if (value != null) {
-                        Class<?> javaClass = objAttr.getJavaClass();
-                        if (javaClass.isPrimitive()
-                                && value instanceof Number
-                                && ((Number) value).intValue() == 0) {
-                            // primitive 0 has to be treated as NULL, or otherwise we
-                            // can't generate PK for POJO's
-                        }
-                        else {
-
-                            idMap.put(dbAttrName, value);
-                            continue;
-                        }
-                    }
+                Object value = meaningfulPkValue(descriptor, dbAttr, object);
+                if (value != null) {
+                    idMap.put(dbAttrName, value);
+                    continue;
                 }
 
                 // skip db-generated
@@ -180,6 +188,76 @@ class DataDomainInsertBucket extends DataDomainSyncBucket {
         }
     }
 
+    /**
+     * Reserves the keys for all new objects in one trip to the database, instead of
+     * fetching them in ranges of the generator cache size.
+     */
+    void reservePks(
+            JdbcPkGenerator pkGenerator,
+            DataNode node,
+            DbEntityClassDescriptor descriptor,
+            Collection<Persistent> objects,
+            boolean supportsGeneratedKeys) {
+
+        DbEntity entity = descriptor.getDbEntity();
+        Collection<DbAttribute> pks = entity.getPrimaryKeys();
+        if (pks.size() != 1) {
+            return;
+        }
+
+        DbAttribute pk = pks.iterator().next();
+        if ((supportsGeneratedKeys && pk.isGenerated()) || isPropagated(pk)) {
+            return;
+        }
+
+        int count = 0;
+        for (Persistent object : objects) {
+            ObjectId id = object.getObjectId();
+            if (id != null
+                    && id.isTemporary()
+                    && !id.getReplacementIdMap().containsKey(pk.getName())
+                    && meaningfulPkValue(descriptor, pk, object) == null) {
+                count++;
+            }
+        }
+
+        try {
+            pkGenerator.reservePks(node, pk, count);
+        }
+        catch (Exception ex) {
+            throw new CayenneRuntimeException("Error reserving PK: "
+                    + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Returns a value of the meaningful PK attribute mapped to the DbAttribute, or null
+     * if there is no such attribute or the key has to be generated.
+     */
+    private Object meaningfulPkValue(
+            DbEntityClassDescriptor descriptor,
+            DbAttribute pk,
+            Persistent object) {
+
+        ObjAttribute objAttr = descriptor.getEntity().getAttributeForDbAttribute(pk);
+        if (objAttr == null) {
+            return null;
+        }
+
+        Object value = descriptor.getClassDescriptor().getProperty(objAttr.getName())
+                .readPropertyDirectly(object);
+
+        // primitive 0 has to be treated as NULL, or otherwise we can't generate PK for
+        // POJO's
+        if (value instanceof Number
+                && objAttr.getJavaClass().isPrimitive()
+                && ((Number) value).intValue() == 0) {
+            return null;
+        }
+
+        return value;
+    }
+
     // TODO, andrus 4/12/2006 - move to DbAttribute in 2.0+
     boolean isPropagated(DbAttribute attribute) {
         Iterator<?> it = attribute.getEntity().getRelationships().iterator();
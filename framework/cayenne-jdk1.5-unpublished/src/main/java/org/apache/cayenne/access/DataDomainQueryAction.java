@@ -26,9 +26,11 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.apache.cayenne.CayenneException;
 import org.apache.cayenne.CayenneRuntimeException;
@@ -37,9 +39,11 @@ import org.apache.cayenne.ObjectContext;
 import org.apache.cayenne.ObjectId;
 import org.apache.cayenne.Persistent;
 import org.apache.cayenne.QueryResponse;
+import org.apache.cayenne.cache.DetachableQueryCacheEntryFactory;
 import org.apache.cayenne.cache.QueryCache;
 import org.apache.cayenne.cache.QueryCacheEntryFactory;
 import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.map.DbEntity;
 import org.apache.cayenne.map.DbRelationship;
 import org.apache.cayenne.map.LifecycleEvent;
 import org.apache.cayenne.map.ObjRelationship;
@@ -53,6 +57,7 @@ import org.apache.cayenne.query.QueryMetadata;
 import org.apache.cayenne.query.QueryRouter;
 import org.apache.cayenne.query.RefreshQuery;
 import org.apache.cayenne.query.RelationshipQuery;
+import org.apache.cayenne.query.SelectQuery;
 import org.apache.cayenne.reflect.ClassDescriptor;
 import org.apache.cayenne.reflect.LifecycleCallbackRegistry;
 import org.apache.cayenne.util.GenericResponse;
@@ -81,6 +86,8 @@ class DataDomainQueryAction implements QueryRouter, OperationObserver {
     Map prefetchResultsByPath;
     Map<QueryEngine, Collection<Query>> queriesByNode;
     Map<Query, Query> queriesByExecutedQueries;
+    Map<DataNode, DataNode> readNodes;
+    Map<Query, QueryEngine> parallelPrefetches;
     boolean noObjectConversion;
 
     /*
@@ -348,9 +355,12 @@ class DataDomainQueryAction implements QueryRouter, OperationObserver {
 
         QueryCache queryCache = domain.getQueryCache();
         QueryCacheEntryFactory factory = getCacheObjectFactory();
+        QueryMetadata cacheMetadata = domain.getQueryCacheInvalidator().dependentMetadata(
+                query,
+                metadata);
 
         if (cache) {
-            List cachedResults = queryCache.get(metadata, factory);
+            List cachedResults = queryCache.get(cacheMetadata, factory);
 
             // response may already be initialized by the factory above ... it is null if
             // there was a preexisting cache entry
@@ -365,14 +375,25 @@ class DataDomainQueryAction implements QueryRouter, OperationObserver {
         }
         else {
             // on cache-refresh request, fetch without blocking and fill the cache
-            queryCache.put(metadata, (List) factory.createObject());
+            queryCache.put(cacheMetadata, (List) factory.createObject());
         }
 
         return DONE;
     }
 
     private QueryCacheEntryFactory getCacheObjectFactory() {
-        return new QueryCacheEntryFactory() {
+        return new DetachableQueryCacheEntryFactory() {
+
+            public QueryCacheEntryFactory detach() {
+
+                // a background reload must not touch the state of this action or its
+                // context, so it is done by a new context-less action
+                DataDomainQueryAction action = new DataDomainQueryAction(
+                        null,
+                        domain,
+                        query);
+                return action.getCacheObjectFactory();
+            }
 
             public Object createObject() {
                 runQueryInTransaction();
@@ -399,6 +420,21 @@ class DataDomainQueryAction implements QueryRouter, OperationObserver {
      */
     void runQueryInTransaction() {
 
+        // selects can go to replicas unless they are a part of an explicit transaction
+        // that may have uncommitted changes
+        readNodes = Transaction.getThreadTransaction() == null
+                ? new HashMap<DataNode, DataNode>()
+                : null;
+
+        // disjoint prefetches can run in parallel in their own transactions unless they
+        // are a part of an explicit transaction
+        parallelPrefetches = readNodes != null
+                && domain.isParallelPrefetches()
+                && context != null
+                && context.getQueryExecutor() != null
+                ? new LinkedHashMap<Query, QueryEngine>()
+                : null;
+
         domain.runInTransaction(new Transformer() {
 
             public Object transform(Object input) {
@@ -406,6 +442,10 @@ class DataDomainQueryAction implements QueryRouter, OperationObserver {
                 return null;
             }
         });
+
+        if (parallelPrefetches != null && !parallelPrefetches.isEmpty()) {
+            runParallelPrefetches();
+        }
     }
 
     private void runQuery() {
@@ -428,12 +468,68 @@ class DataDomainQueryAction implements QueryRouter, OperationObserver {
             for (Map.Entry<QueryEngine, Collection<Query>> entry : queriesByNode
                     .entrySet()) {
                 QueryEngine nextNode = entry.getKey();
-                Collection<Query> nodeQueries = entry.getValue();
-                nextNode.performQueries(nodeQueries, this);
+                Collection<Query> nodeQueries = deferParallelPrefetches(
+                        nextNode,
+                        entry.getValue());
+
+                if (!nodeQueries.isEmpty()) {
+                    nextNode.performQueries(nodeQueries, this);
+                }
             }
         }
     }
 
+    /**
+     * Removes disjoint prefetch queries that will run in parallel after the main query,
+     * returning the remaining queries.
+     */
+    private Collection<Query> deferParallelPrefetches(
+            QueryEngine engine,
+            Collection<Query> queries) {
+
+        // prefetch queries only depend on the main query qualifier, and their results
+        // are keyed by path, so they can run in any order
+        if (parallelPrefetches == null || prefetchResultsByPath == null) {
+            return queries;
+        }
+
+        Collection<Query> remaining = new ArrayList<Query>(queries.size());
+        for (Query query : queries) {
+            if (query instanceof PrefetchSelectQuery) {
+                parallelPrefetches.put(query, engine);
+            }
+            else {
+                remaining.add(query);
+            }
+        }
+
+        return remaining;
+    }
+
+    private void runParallelPrefetches() {
+        ParallelQueries<Object> queries = new ParallelQueries<Object>(context
+                .getQueryExecutor());
+
+        for (final Map.Entry<Query, QueryEngine> entry : parallelPrefetches.entrySet()) {
+            queries.add(new Callable<Object>() {
+
+                public Object call() {
+                    return domain.runInTransaction(new Transformer() {
+
+                        public Object transform(Object input) {
+                            entry.getValue().performQueries(
+                                    Collections.singletonList(entry.getKey()),
+                                    DataDomainQueryAction.this);
+                            return null;
+                        }
+                    });
+                }
+            });
+        }
+
+        queries.run();
+    }
+
     private void interceptObjectConversion() {
 
         if (context != null && !metadata.isFetchingDataRows()) {
@@ -469,6 +565,10 @@ class DataDomainQueryAction implements QueryRouter, OperationObserver {
 
     public void route(QueryEngine engine, Query query, Query substitutedQuery) {
 
+        if (query instanceof SelectQuery && engine instanceof DataNode) {
+            engine = selectEngine((DataNode) engine, (SelectQuery) query);
+        }
+
         Collection<Query> queries = null;
         if (queriesByNode == null) {
             queriesByNode = new HashMap<QueryEngine, Collection<Query>>();
@@ -496,6 +596,45 @@ class DataDomainQueryAction implements QueryRouter, OperationObserver {
         }
     }
 
+    /**
+     * Returns an engine to run a select instead of the DataMap node. For sharded entities
+     * this is either a single shard matched by the query qualifier or all shards.
+     */
+    private QueryEngine selectEngine(DataNode node, SelectQuery query) {
+
+        QueryMetadata md = query.getMetaData(domain.getEntityResolver());
+        DbEntity entity = md.getDbEntity();
+        EntityShards shards = entity != null
+                ? domain.getEntityShards(entity.getName())
+                : null;
+
+        if (shards != null) {
+            Map<String, Object> key = new ShardKeyExtractor(entity, md.getObjEntity())
+                    .extract(query.getQualifier());
+
+            node = shards.lookupNode(entity, key);
+            if (node == null) {
+                return new ShardedQueryEngine(shards, domain.getEntityResolver());
+            }
+        }
+
+        return readNodes != null ? readNode(node) : node;
+    }
+
+    /**
+     * Returns a node to run selects instead of the primary node, choosing it once per
+     * query, so that the main query and its prefetches read from the same database.
+     */
+    private DataNode readNode(DataNode primary) {
+        DataNode node = readNodes.get(primary);
+        if (node == null) {
+            node = domain.lookupReadNode(primary, context);
+            readNodes.put(primary, node);
+        }
+
+        return node;
+    }
+
     public QueryEngine engineForDataMap(DataMap map) {
         if (map == null) {
             throw new NullPointerException("Null DataMap, can't determine DataNode.");
@@ -523,7 +662,11 @@ class DataDomainQueryAction implements QueryRouter, OperationObserver {
         // exclude prefetched rows in the main result
         if (prefetchResultsByPath != null && query instanceof PrefetchSelectQuery) {
             PrefetchSelectQuery prefetchQuery = (PrefetchSelectQuery) query;
-            prefetchResultsByPath.put(prefetchQuery.getPrefetchPath(), dataRows);
+
+            // prefetches may be fetched in parallel
+            synchronized (prefetchResultsByPath) {
+                prefetchResultsByPath.put(prefetchQuery.getPrefetchPath(), dataRows);
+            }
         }
         else {
             fullResponse.addResultList(dataRows);
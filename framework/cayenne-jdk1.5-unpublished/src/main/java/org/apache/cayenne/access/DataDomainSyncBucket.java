@@ -99,6 +99,64 @@ abstract class DataDomainSyncBucket {
         }
     }
 
+    /**
+     * Returns a shard for a row of a sharded entity, or null if the entity is not
+     * sharded. Shard key values are taken from the row values, and if missing, from the
+     * row ObjectId or the last committed snapshot of the object.
+     * 
+     * @since 3.1
+     */
+    DataNode shardNode(DbEntity entity, Map<?, ?> values, ObjectId id) {
+
+        EntityShards shards = parent.getDomain().getEntityShards(entity.getName());
+        if (shards == null) {
+            return null;
+        }
+
+        Map<String, Object> key = new HashMap<String, Object>();
+        DataRow committed = null;
+
+        for (String attribute : shards.shardKeyAttributes(entity)) {
+            Object value = values.get(attribute);
+
+            if (value instanceof Factory) {
+                value = ((Factory) value).create();
+            }
+
+            if (value == null && id != null) {
+                value = id.getIdSnapshot().get(attribute);
+
+                if (value == null && committed == null) {
+                    DataRowStore cache = parent
+                            .getContext()
+                            .getObjectStore()
+                            .getDataRowCache();
+                    committed = cache != null ? cache.getCachedSnapshot(id) : null;
+                }
+
+                if (value == null && committed != null) {
+                    value = committed.get(attribute);
+                }
+            }
+
+            if (value != null) {
+                key.put(attribute, value);
+            }
+        }
+
+        DataNode node = shards.lookupNode(entity, key);
+        if (node == null) {
+            throw new CayenneRuntimeException("Can't determine a shard of "
+                    + entity.getName()
+                    + " row "
+                    + (id != null ? id : values)
+                    + ", shard key values: "
+                    + key);
+        }
+
+        return node;
+    }
+
     private void groupObjEntitiesBySpannedDbEntities() {
 
         dbEntities = new ArrayList<DbEntity>(objectsByDescriptor.size());
@@ -84,7 +84,8 @@ class DataDomainUpdateBucket extends DataDomainSyncBucket {
                     Map qualifierSnapshot = qualifierBuilder
                             .createQualifierSnapshot(diff);
 
-                    // organize batches by the updated columns + nulls in qualifier
+                    // organize batches by the updated columns + nulls in qualifier +
+                    // shard
                     Set snapshotSet = snapshot.keySet();
                     Set nullQualifierNames = new HashSet();
                     Iterator it = qualifierSnapshot.entrySet().iterator();
@@ -95,7 +96,11 @@ class DataDomainUpdateBucket extends DataDomainSyncBucket {
                         }
                     }
 
-                    List batchKey = Arrays.asList(snapshotSet, nullQualifierNames);
+                    DataNode shard = shardNode(dbEntity, qualifierSnapshot, isRootDbEntity
+                            ? o.getObjectId()
+                            : null);
+
+                    List batchKey = Arrays.asList(snapshotSet, nullQualifierNames, shard);
 
                     UpdateBatchQuery batch = (UpdateBatchQuery) batches.get(batchKey);
                     if (batch == null) {
@@ -109,6 +114,7 @@ class DataDomainUpdateBucket extends DataDomainSyncBucket {
                         batch.setUsingOptimisticLocking(qualifierBuilder
                                 .isUsingOptimisticLocking());
                         batches.put(batchKey, batch);
+                        parent.setShardNode(batch, shard);
                     }
 
                     batch.add(qualifierSnapshot, snapshot, o.getObjectId());
@@ -41,6 +41,7 @@ import org.apache.cayenne.event.EventBridge;
 import org.apache.cayenne.event.EventBridgeFactory;
 import org.apache.cayenne.event.EventManager;
 import org.apache.cayenne.event.EventSubject;
+import org.apache.cayenne.map.EntityResolver;
 import org.apache.cayenne.util.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import org.apache.commons.collections.ExtendedProperties;
 import org.apache.commons.logging.Log;
@@ -61,6 +62,15 @@ public class DataRowStore implements Serializable {
     public static final String REMOTE_NOTIFICATION_PROPERTY = "cayenne.DataRowStore.remote.notify";
     public static final String EVENT_BRIDGE_FACTORY_PROPERTY = "cayenne.DataRowStore.EventBridge.factory";
 
+    /**
+     * A property defining the maximum number of bytes of snapshots kept outside of the
+     * Java heap. If set to a positive value, snapshots are stored off-heap and evicted by
+     * bytes, and {@link #SNAPSHOT_CACHE_SIZE_PROPERTY} is ignored.
+     * 
+     * @since 3.1
+     */
+    public static final String SNAPSHOT_OFF_HEAP_SIZE_PROPERTY = "cayenne.DataRowStore.snapshot.offheap.size";
+
     // default property values
 
     // default expiration time is 2 hours
@@ -68,6 +78,11 @@ public class DataRowStore implements Serializable {
     public static final int SNAPSHOT_CACHE_SIZE_DEFAULT = 10000;
     public static final boolean REMOTE_NOTIFICATION_DEFAULT = false;
 
+    /**
+     * @since 3.1
+     */
+    public static final long SNAPSHOT_OFF_HEAP_SIZE_DEFAULT = 0;
+
     // use String for class name, since JavaGroups may not be around,
     // causing CNF exceptions
     public static final String EVENT_BRIDGE_FACTORY_DEFAULT = "org.apache.cayenne.event.JavaGroupsBridgeFactory";
@@ -126,6 +141,10 @@ public class DataRowStore implements Serializable {
                 SNAPSHOT_CACHE_SIZE_PROPERTY,
                 SNAPSHOT_CACHE_SIZE_DEFAULT);
 
+        long offHeapSize = propertiesWrapper.getLong(
+                SNAPSHOT_OFF_HEAP_SIZE_PROPERTY,
+                SNAPSHOT_OFF_HEAP_SIZE_DEFAULT);
+
         boolean notifyRemote = propertiesWrapper.getBoolean(
                 REMOTE_NOTIFICATION_PROPERTY,
                 REMOTE_NOTIFICATION_DEFAULT);
@@ -143,6 +162,10 @@ public class DataRowStore implements Serializable {
                     + SNAPSHOT_CACHE_SIZE_PROPERTY
                     + " = "
                     + maxSize);
+            logger.debug("DataRowStore property "
+                    + SNAPSHOT_OFF_HEAP_SIZE_PROPERTY
+                    + " = "
+                    + offHeapSize);
             logger.debug("DataRowStore property "
                     + REMOTE_NOTIFICATION_PROPERTY
                     + " = "
@@ -156,9 +179,14 @@ public class DataRowStore implements Serializable {
         // init ivars from properties
         this.notifyingRemoteListeners = notifyRemote;
 
-        this.snapshots = new ConcurrentLinkedHashMap.Builder<ObjectId, DataRow>()
-                .maximumWeightedCapacity(maxSize)
-                .build();
+        if (offHeapSize > 0) {
+            this.snapshots = new OffHeapSnapshotMap(offHeapSize);
+        }
+        else {
+            this.snapshots = new ConcurrentLinkedHashMap.Builder<ObjectId, DataRow>()
+                    .maximumWeightedCapacity(maxSize)
+                    .build();
+        }
 
         // init event bridge only if we are notifying remote listeners
         if (notifyingRemoteListeners) {
@@ -274,6 +302,27 @@ public class DataRowStore implements Serializable {
         return maxSize;
     }
 
+    /**
+     * Returns true if snapshots are stored outside of the Java heap.
+     * 
+     * @since 3.1
+     */
+    public boolean isOffHeap() {
+        return snapshots instanceof OffHeapSnapshotMap;
+    }
+
+    /**
+     * Sets an EntityResolver used by the off-heap storage to lay out snapshot records
+     * according to the DbEntity attributes. Does nothing for the on-heap storage.
+     * 
+     * @since 3.1
+     */
+    public void setEntityResolver(EntityResolver entityResolver) {
+        if (snapshots instanceof OffHeapSnapshotMap) {
+            ((OffHeapSnapshotMap) snapshots).setEntityResolver(entityResolver);
+        }
+    }
+
     /**
      * Shuts down any remote notification connections, and clears internal cache.
      */
@@ -366,11 +415,13 @@ public class DataRowStore implements Serializable {
         Collection invalidatedSnapshotIds = event.getInvalidatedIds();
         Map diffs = event.getModifiedDiffs();
         Collection indirectlyModifiedIds = event.getIndirectlyModifiedIds();
+        Collection<String> modifiedEntityNames = event.getModifiedEntityNames();
 
         if (deletedSnapshotIds.isEmpty()
                 && invalidatedSnapshotIds.isEmpty()
                 && diffs.isEmpty()
-                && indirectlyModifiedIds.isEmpty()) {
+                && indirectlyModifiedIds.isEmpty()
+                && modifiedEntityNames.isEmpty()) {
             logger.warn("processRemoteEvent.. bogus call... no changes.");
             return;
         }
@@ -383,7 +434,8 @@ public class DataRowStore implements Serializable {
                 diffs,
                 deletedSnapshotIds,
                 invalidatedSnapshotIds,
-                indirectlyModifiedIds);
+                indirectlyModifiedIds,
+                modifiedEntityNames);
     }
 
     /**
@@ -397,12 +449,37 @@ public class DataRowStore implements Serializable {
             Collection invalidatedSnapshotIds,
             Collection indirectlyModifiedIds) {
 
+        processSnapshotChanges(
+                postedBy,
+                updatedSnapshots,
+                deletedSnapshotIds,
+                invalidatedSnapshotIds,
+                indirectlyModifiedIds,
+                Collections.<String> emptyList());
+    }
+
+    /**
+     * Processes changes made to snapshots by a commit that modified rows of the named
+     * DbEntities. Entity names are passed to the listeners with the event, even if no
+     * snapshots were changed, e.g. to invalidate cached query results.
+     * 
+     * @since 3.1
+     */
+    public void processSnapshotChanges(
+            Object postedBy,
+            Map updatedSnapshots,
+            Collection deletedSnapshotIds,
+            Collection invalidatedSnapshotIds,
+            Collection indirectlyModifiedIds,
+            Collection<String> modifiedEntityNames) {
+
         // update the internal cache, prepare snapshot event
 
         if (deletedSnapshotIds.isEmpty()
                 && invalidatedSnapshotIds.isEmpty()
                 && updatedSnapshots.isEmpty()
-                && indirectlyModifiedIds.isEmpty()) {
+                && indirectlyModifiedIds.isEmpty()
+                && modifiedEntityNames.isEmpty()) {
             logger.warn("postSnapshotsChangeEvent.. bogus call... no changes.");
             return;
         }
@@ -415,7 +492,8 @@ public class DataRowStore implements Serializable {
                 diffs,
                 deletedSnapshotIds,
                 invalidatedSnapshotIds,
-                indirectlyModifiedIds);
+                indirectlyModifiedIds,
+                modifiedEntityNames);
     }
 
     private void processDeletedIDs(Collection deletedSnapshotIDs) {
@@ -528,13 +606,16 @@ public class DataRowStore implements Serializable {
             Map diffs,
             Collection deletedSnapshotIDs,
             Collection invalidatedSnapshotIDs,
-            Collection indirectlyModifiedIds) {
+            Collection indirectlyModifiedIds,
+            Collection<String> modifiedEntityNames) {
 
-        // do not send bogus events... e.g. inserted objects are not counted
+        // do not send bogus events... e.g. inserted objects are not counted, unless
+        // their entities are
         if ((diffs != null && !diffs.isEmpty())
                 || (deletedSnapshotIDs != null && !deletedSnapshotIDs.isEmpty())
                 || (invalidatedSnapshotIDs != null && !invalidatedSnapshotIDs.isEmpty())
-                || (indirectlyModifiedIds != null && !indirectlyModifiedIds.isEmpty())) {
+                || (indirectlyModifiedIds != null && !indirectlyModifiedIds.isEmpty())
+                || (modifiedEntityNames != null && !modifiedEntityNames.isEmpty())) {
 
             SnapshotEvent event = new SnapshotEvent(
                     this,
@@ -542,7 +623,8 @@ public class DataRowStore implements Serializable {
                     diffs,
                     deletedSnapshotIDs,
                     invalidatedSnapshotIDs,
-                    indirectlyModifiedIds);
+                    indirectlyModifiedIds,
+                    modifiedEntityNames);
 
             if (logger.isDebugEnabled()) {
                 logger.debug("postSnapshotsChangeEvent: " + event);
@@ -21,6 +21,7 @@ package org.apache.cayenne.access;
 
 import java.util.Map;
 
+import org.apache.cayenne.CompactDataRow;
 import org.apache.cayenne.DataRow;
 import org.apache.cayenne.ObjectId;
 import org.apache.cayenne.PersistenceState;
@@ -45,6 +46,32 @@ import org.apache.cayenne.util.Util;
  */
 class DataRowUtils {
 
+    // returned by 'snapshotValue' for the keys missing from a partial snapshot
+    static final Object MISSING_VALUE = new Object();
+
+    /**
+     * Returns a snapshot value for the key or MISSING_VALUE if the snapshot has no such
+     * key. Compact snapshots are read by index position, others with at most two map
+     * lookups.
+     * 
+     * @since 3.1
+     */
+    static Object snapshotValue(DataRow snapshot, String key) {
+        if (snapshot instanceof CompactDataRow) {
+            CompactDataRow compactSnapshot = (CompactDataRow) snapshot;
+            int position = compactSnapshot.getIndex().indexOf(key);
+            if (position >= 0) {
+                return compactSnapshot.hasValue(position) ? compactSnapshot
+                        .getValue(position) : MISSING_VALUE;
+            }
+        }
+
+        // check for null is cheaper than double lookup for a key... so check for
+        // partial snapshot only if the value is null
+        Object value = snapshot.get(key);
+        return value != null || snapshot.containsKey(key) ? value : MISSING_VALUE;
+    }
+
     /**
      * Merges changes reflected in snapshot map to the object. Changes made to attributes
      * and to-one relationships will be merged. In case an object is already modified,
@@ -89,15 +116,16 @@ class DataRowUtils {
                 ObjAttribute attr = property.getAttribute();
                 String dbAttrPath = attr.getDbAttributePath();
 
-                Object value = snapshot.get(dbAttrPath);
-                property.writePropertyDirectly(object, null, value);
+                Object value = snapshotValue(snapshot, dbAttrPath);
 
                 // note that a check "snaphsot.get(..) == null" would be incorrect in this
-                // case, as NULL value is entirely valid; still save a map lookup by
-                // checking for the null value first
-                if (value == null && !snapshot.containsKey(dbAttrPath)) {
+                // case, as NULL value is entirely valid
+                if (value == MISSING_VALUE) {
                     isPartialSnapshot[0] = true;
+                    value = null;
                 }
+
+                property.writePropertyDirectly(object, null, value);
                 return true;
             }
 
@@ -139,11 +167,8 @@ class DataRowUtils {
                 String dbAttrPath = property.getAttribute().getDbAttributePath();
 
                 // supports merging of partial snapshots...
-                // check for null is cheaper than double lookup
-                // for a key... so check for partial snapshot
-                // only if the value is null
-                Object newValue = snapshot.get(dbAttrPath);
-                if (newValue != null || snapshot.containsKey(dbAttrPath)) {
+                Object newValue = snapshotValue(snapshot, dbAttrPath);
+                if (newValue != MISSING_VALUE) {
 
                     Object curValue = property.readPropertyDirectly(object);
                     Object oldValue = diff != null ? diff.getSnapshotValue(property
@@ -0,0 +1,181 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.map.DbEntity;
+
+/**
+ * Describes how the rows of a single DbEntity are split across several DataNodes
+ * ("shards"). A shard of each row is calculated by a {@link ShardFunction} from the
+ * values of the shard key attributes, which are the entity primary key attributes
+ * unless set explicitly. Shard key values must not change after the row is inserted.
+ * <p>
+ * Sharded entities are registered with {@link DataDomain#addEntityShards(EntityShards)}.
+ * Inserts, updates and deletes of the entity rows go to the shard of each row. A
+ * SelectQuery whose qualifier matches all shard key attributes (this includes ObjectId
+ * lookups and relationship faults, if the relationship join matches the shard key) is
+ * run on a single shard. Any other SelectQuery is run on all shards, and the results
+ * are merged according to the query orderings. Other types of queries and primary key
+ * generation go to the entity DataMap node.
+ * </p>
+ *
+ * @since 3.1
+ */
+public class EntityShards {
+
+    protected String entityName;
+    protected List<DataNode> nodes;
+    protected ShardFunction shardFunction;
+    protected Collection<String> shardKey;
+    protected ExecutorService executor;
+
+    /**
+     * Creates EntityShards that distribute rows with {@link HashShardFunction}.
+     */
+    public EntityShards(String entityName, List<DataNode> nodes) {
+        this(entityName, nodes, new HashShardFunction());
+    }
+
+    public EntityShards(String entityName, List<DataNode> nodes, ShardFunction shardFunction) {
+
+        if (entityName == null) {
+            throw new NullPointerException("Null entity name");
+        }
+
+        if (nodes == null || nodes.isEmpty()) {
+            throw new IllegalArgumentException("No shard nodes for entity " + entityName);
+        }
+
+        if (shardFunction == null) {
+            throw new NullPointerException("Null ShardFunction");
+        }
+
+        this.entityName = entityName;
+        this.nodes = new ArrayList<DataNode>(nodes);
+        this.shardFunction = shardFunction;
+    }
+
+    /**
+     * Returns a name of the sharded DbEntity.
+     */
+    public String getEntityName() {
+        return entityName;
+    }
+
+    /**
+     * Returns an unmodifiable list of shard nodes. Shard index returned by the
+     * ShardFunction is an index in this list.
+     */
+    public List<DataNode> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    public ShardFunction getShardFunction() {
+        return shardFunction;
+    }
+
+    /**
+     * Returns the names of DbAttributes used as a shard key, or null if the entity is
+     * sharded by its primary key.
+     */
+    public Collection<String> getShardKey() {
+        return shardKey;
+    }
+
+    /**
+     * Sets the names of DbAttributes used as a shard key. E.g. a child entity can be
+     * sharded by a foreign key to its parent, so that the children are stored in the
+     * parent shard and the parent to-many relationship can be resolved from one shard.
+     */
+    public void setShardKey(String... attributeNames) {
+        this.shardKey = attributeNames != null && attributeNames.length > 0 ? Arrays
+                .asList(attributeNames) : null;
+    }
+
+    /**
+     * Returns an executor used to run queries on all shards in parallel. If null (which
+     * is the default), shards are queried one by one.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the names of the shard key attributes of the entity.
+     */
+    Collection<String> shardKeyAttributes(DbEntity entity) {
+        if (shardKey != null) {
+            return shardKey;
+        }
+
+        Collection<DbAttribute> pks = entity.getPrimaryKeys();
+        Collection<String> names = new ArrayList<String>(pks.size());
+        for (DbAttribute pk : pks) {
+            names.add(pk.getName());
+        }
+
+        return names;
+    }
+
+    /**
+     * Returns a shard node for the shard key values, or null if not all shard key
+     * attributes are present in the map.
+     */
+    DataNode lookupNode(DbEntity entity, Map<String, ?> values) {
+
+        Collection<String> attributes = shardKeyAttributes(entity);
+        Map<String, Object> key = new HashMap<String, Object>(attributes.size() * 2);
+
+        for (String attribute : attributes) {
+            Object value = values.get(attribute);
+            if (value == null) {
+                return null;
+            }
+
+            key.put(attribute, value);
+        }
+
+        int shard = shardFunction.getShard(entity, key, nodes.size());
+        if (shard < 0 || shard >= nodes.size()) {
+            throw new CayenneRuntimeException("Invalid shard "
+                    + shard
+                    + " for entity "
+                    + entityName
+                    + " and key "
+                    + key);
+        }
+
+        return nodes.get(shard);
+    }
+}
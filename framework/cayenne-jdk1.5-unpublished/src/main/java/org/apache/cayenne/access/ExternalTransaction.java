@@ -52,7 +52,8 @@ class ExternalTransaction extends Transaction {
     }
 
     @Override
-    public boolean addConnection(String name, Connection connection) throws SQLException {
+    public synchronized boolean addConnection(String name, Connection connection)
+            throws SQLException {
         if (super.addConnection(name, connection)) {
 
             // implicitly begin transaction
@@ -0,0 +1,408 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.cayenne.DataRow;
+import org.apache.cayenne.Fault;
+import org.apache.cayenne.ObjectId;
+import org.apache.cayenne.PersistenceState;
+import org.apache.cayenne.Persistent;
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.map.DbJoin;
+import org.apache.cayenne.map.DbRelationship;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.map.ObjRelationship;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.reflect.ArcProperty;
+
+/**
+ * Ids of objects fetched together by a single query, used to resolve a relationship
+ * fault of one of the objects together with the same relationship of its siblings. To-one
+ * relationships with a foreign key in the source entity are resolved by fetching the
+ * targets by primary key, while to-many and dependent to-one relationships are resolved
+ * by fetching the targets by their foreign key. Flattened relationships and relationships
+ * with compound joins to a target foreign key are not batched.
+ *
+ * @since 3.1
+ */
+class FaultBatch {
+
+    protected List<ObjectId> ids;
+    protected int batchSize;
+
+    // optional query shape learning the faulted relationships
+    protected AutoPrefetchLearner.Shape shape;
+    private Set<String> faulted;
+
+    FaultBatch(List<ObjectId> ids, int batchSize, AutoPrefetchLearner.Shape shape) {
+        this.ids = ids;
+        this.batchSize = batchSize;
+        this.shape = shape;
+    }
+
+    /**
+     * Notifies the query shape that a relationship was faulted, once per relationship.
+     */
+    void faulted(String relationshipName) {
+        if (shape == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (faulted == null) {
+                faulted = new HashSet<String>();
+            }
+
+            if (!faulted.add(relationshipName)) {
+                return;
+            }
+        }
+
+        shape.faulted(relationshipName);
+    }
+
+    /**
+     * Resolves a relationship of the source object and of up to "batchSize - 1" of its
+     * siblings. Returns the targets of the source object or null if the relationship
+     * can't be resolved in a batch.
+     */
+    List<?> resolve(Persistent source, String relationshipName) {
+
+        if (batchSize < 2
+                || source.getPersistenceState() != PersistenceState.COMMITTED
+                || !(source.getObjectContext() instanceof DataContext)) {
+            return null;
+        }
+
+        DataContext context = (DataContext) source.getObjectContext();
+        ObjEntity entity = context.getEntityResolver().getObjEntity(
+                source.getObjectId().getEntityName());
+        ObjRelationship relationship = (ObjRelationship) entity
+                .getRelationship(relationshipName);
+
+        if (relationship == null || relationship.getDbRelationships().size() != 1) {
+            return null;
+        }
+
+        List<Persistent> sources = sources(context, source, relationship);
+        if (sources.size() < 2) {
+            return null;
+        }
+
+        Map<Persistent, List<Object>> targets = relationship
+                .isSourceIndependentFromTargetChange() ? fetchByTargetKey(
+                context,
+                relationship,
+                sources) : fetchBySourceKey(context, relationship, sources);
+
+        if (targets == null || !targets.containsKey(source)) {
+            return null;
+        }
+
+        for (Persistent sibling : sources) {
+            List<Object> siblingTargets = targets.get(sibling);
+            if (sibling != source && siblingTargets != null) {
+                attach(context, sibling, relationship, siblingTargets);
+            }
+        }
+
+        return targets.get(source);
+    }
+
+    /**
+     * Returns the source object followed by its committed siblings with an unresolved
+     * relationship.
+     */
+    private List<Persistent> sources(
+            DataContext context,
+            Persistent source,
+            ObjRelationship relationship) {
+
+        int start = ids.indexOf(source.getObjectId());
+        if (start < 0) {
+            return Collections.singletonList(source);
+        }
+
+        List<Persistent> sources = new ArrayList<Persistent>(Math.min(
+                batchSize,
+                ids.size()));
+        sources.add(source);
+
+        EntityResolver resolver = context.getEntityResolver();
+        ObjectStore objectStore = context.getObjectStore();
+        int size = ids.size();
+
+        // take the siblings following the source first, as this is the likely order of
+        // access
+        for (int i = 1; i < size && sources.size() < batchSize; i++) {
+            ObjectId id = ids.get((start + i) % size);
+            Object object = objectStore.getNode(id);
+
+            if (!(object instanceof Persistent)) {
+                continue;
+            }
+
+            Persistent sibling = (Persistent) object;
+            if (sibling.getPersistenceState() != PersistenceState.COMMITTED) {
+                continue;
+            }
+
+            if (resolver.getObjEntity(id.getEntityName()).getRelationship(
+                    relationship.getName()) != relationship) {
+                continue;
+            }
+
+            Object value = property(context, sibling, relationship).readPropertyDirectly(
+                    sibling);
+
+            if (relationship.isToMany()
+                    ? value instanceof ToManyListFault
+                            || (value instanceof ToManyList && ((ToManyList) value)
+                                    .isFault())
+                    : value instanceof Fault) {
+                sources.add(sibling);
+            }
+        }
+
+        return sources;
+    }
+
+    /**
+     * Fetches targets of a to-one relationship whose foreign key is in the source
+     * entity. Targets that are already registered in the context are not refetched.
+     */
+    private Map<Persistent, List<Object>> fetchBySourceKey(
+            DataContext context,
+            ObjRelationship relationship,
+            List<Persistent> sources) {
+
+        DbRelationship dbRelationship = relationship.getDbRelationships().get(0);
+        ObjectStore objectStore = context.getObjectStore();
+
+        Map<Persistent, ObjectId> targetIds = new IdentityHashMap<Persistent, ObjectId>();
+        List<ObjectId> fetchIds = new ArrayList<ObjectId>();
+
+        for (Persistent source : sources) {
+            DataRow snapshot = objectStore.getCachedSnapshot(source.getObjectId());
+            if (snapshot == null) {
+                continue;
+            }
+
+            ObjectId targetId = snapshot.createTargetObjectId(relationship
+                    .getTargetEntityName(), dbRelationship);
+            targetIds.put(source, targetId);
+
+            if (targetId != null) {
+                Persistent target = (Persistent) objectStore.getNode(targetId);
+                if (target == null
+                        || target.getPersistenceState() == PersistenceState.HOLLOW) {
+                    fetchIds.add(targetId);
+                }
+            }
+        }
+
+        Map<Map<String, Object>, Object> fetched = new HashMap<Map<String, Object>, Object>();
+        if (!fetchIds.isEmpty()) {
+            SelectQuery query = new SelectQuery(
+                    relationship.getTargetEntityName(),
+                    idsQualifier(relationship, fetchIds));
+
+            for (Object target : context.performQuery(query)) {
+                fetched.put(((Persistent) target).getObjectId().getIdSnapshot(), target);
+            }
+        }
+
+        Map<Persistent, List<Object>> targets = new IdentityHashMap<Persistent, List<Object>>();
+        for (Map.Entry<Persistent, ObjectId> entry : targetIds.entrySet()) {
+            ObjectId targetId = entry.getValue();
+
+            if (targetId == null) {
+                targets.put(entry.getKey(), new ArrayList<Object>(1));
+                continue;
+            }
+
+            Object target = fetched.get(targetId.getIdSnapshot());
+            if (target == null && !fetchIds.contains(targetId)) {
+                target = objectStore.getNode(targetId);
+            }
+
+            // a missing target is left to the regular fault resolution
+            if (target != null) {
+                List<Object> list = new ArrayList<Object>(1);
+                list.add(target);
+                targets.put(entry.getKey(), list);
+            }
+        }
+
+        return targets;
+    }
+
+    private Expression idsQualifier(ObjRelationship relationship, List<ObjectId> ids) {
+        List<DbAttribute> pks = new ArrayList<DbAttribute>(((ObjEntity) relationship
+                .getTargetEntity()).getDbEntity().getPrimaryKeys());
+
+        if (pks.size() == 1) {
+            String pk = pks.get(0).getName();
+            List<Object> values = new ArrayList<Object>(ids.size());
+            for (ObjectId id : ids) {
+                values.add(id.getIdSnapshot().get(pk));
+            }
+
+            return ExpressionFactory.inDbExp(pk, values);
+        }
+
+        List<Expression> quals = new ArrayList<Expression>(ids.size());
+        for (ObjectId id : ids) {
+            quals.add(ExpressionFactory.matchAllDbExp(
+                    id.getIdSnapshot(),
+                    Expression.EQUAL_TO));
+        }
+
+        return ExpressionFactory.joinExp(Expression.OR, quals);
+    }
+
+    /**
+     * Fetches targets of a to-many or a dependent to-one relationship, matching the
+     * target foreign key against the source primary key.
+     */
+    private Map<Persistent, List<Object>> fetchByTargetKey(
+            DataContext context,
+            ObjRelationship relationship,
+            List<Persistent> sources) {
+
+        DbRelationship dbRelationship = relationship.getDbRelationships().get(0);
+        if (dbRelationship.getJoins().size() != 1) {
+            return null;
+        }
+
+        DbJoin join = dbRelationship.getJoins().get(0);
+
+        Map<Object, Persistent> sourcesByKey = new HashMap<Object, Persistent>();
+        for (Persistent source : sources) {
+            Object key = source.getObjectId().getIdSnapshot().get(join.getSourceName());
+            if (key == null) {
+                return null;
+            }
+
+            sourcesByKey.put(keyValue(key), source);
+        }
+
+        List<Object> keys = new ArrayList<Object>(sources.size());
+        for (Persistent source : sources) {
+            keys.add(source.getObjectId().getIdSnapshot().get(join.getSourceName()));
+        }
+
+        SelectQuery query = new SelectQuery(
+                relationship.getTargetEntityName(),
+                ExpressionFactory.inDbExp(join.getTargetName(), keys));
+
+        Map<Persistent, List<Object>> targets = new IdentityHashMap<Persistent, List<Object>>();
+        for (Persistent source : sources) {
+            targets.put(source, new ArrayList<Object>());
+        }
+
+        ObjectStore objectStore = context.getObjectStore();
+        for (Object object : context.performQuery(query)) {
+            ObjectId id = ((Persistent) object).getObjectId();
+
+            Object key = id.getIdSnapshot().get(join.getTargetName());
+            if (key == null) {
+                DataRow snapshot = objectStore.getCachedSnapshot(id);
+                if (snapshot == null) {
+                    return null;
+                }
+
+                key = snapshot.get(join.getTargetName());
+            }
+
+            Persistent source = sourcesByKey.get(keyValue(key));
+            if (source == null) {
+                return null;
+            }
+
+            targets.get(source).add(object);
+        }
+
+        return targets;
+    }
+
+    /**
+     * Normalizes integer key values, as primary and foreign key columns may be mapped to
+     * different Java types.
+     */
+    private Object keyValue(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return Long.valueOf(((Number) value).longValue());
+        }
+
+        return value;
+    }
+
+    /**
+     * Sets resolved targets of a sibling relationship.
+     */
+    private void attach(
+            DataContext context,
+            Persistent sibling,
+            ObjRelationship relationship,
+            List<Object> targets) {
+
+        ArcProperty property = property(context, sibling, relationship);
+        Object value = property.readPropertyDirectly(sibling);
+
+        if (relationship.isToMany()) {
+            ToManyList list = value instanceof ToManyList
+                    ? (ToManyList) value
+                    : new ToManyList(sibling, relationship.getName());
+
+            list.resolve(targets);
+
+            if (list != value) {
+                property.writePropertyDirectly(sibling, value, list);
+            }
+        }
+        else if (targets.size() < 2) {
+            property.writePropertyDirectly(sibling, value, targets.isEmpty()
+                    ? null
+                    : targets.get(0));
+        }
+    }
+
+    private ArcProperty property(
+            DataContext context,
+            Persistent object,
+            ObjRelationship relationship) {
+        return (ArcProperty) context
+                .getEntityResolver()
+                .getClassDescriptor(object.getObjectId().getEntityName())
+                .getProperty(relationship.getName());
+    }
+}
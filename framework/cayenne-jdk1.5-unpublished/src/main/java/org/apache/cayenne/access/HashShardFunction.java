@@ -0,0 +1,66 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.math.BigInteger;
+import java.util.Map;
+
+import org.apache.cayenne.map.DbEntity;
+
+/**
+ * A default {@link ShardFunction} that distributes rows by a hash of the shard key
+ * values. Integral numbers are hashed by their long value, so that a key read from the
+ * database as Integer maps to the same shard as a key passed in a query as Long.
+ *
+ * @since 3.1
+ */
+public class HashShardFunction implements ShardFunction {
+
+    public int getShard(DbEntity entity, Map<String, ?> shardKey, int shards) {
+
+        // order-independent, as the key may come in any map
+        int hash = 0;
+        for (Map.Entry<String, ?> entry : shardKey.entrySet()) {
+            hash += entry.getKey().hashCode() ^ valueHash(entry.getValue());
+        }
+
+        // spread the bits, as sequential keys are the most common case
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+
+        return (hash & Integer.MAX_VALUE) % shards;
+    }
+
+    protected int valueHash(Object value) {
+        if (value == null) {
+            return 0;
+        }
+
+        if (value instanceof Long
+                || value instanceof Integer
+                || value instanceof Short
+                || value instanceof Byte
+                || value instanceof BigInteger) {
+            long longValue = ((Number) value).longValue();
+            return (int) (longValue ^ (longValue >>> 32));
+        }
+
+        return value.hashCode();
+    }
+}
@@ -25,6 +25,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.apache.cayenne.CayenneRuntimeException;
 import org.apache.cayenne.DataRow;
@@ -52,11 +53,20 @@ class HierarchicalObjectResolver {
     DataRowStore cache;
     ClassDescriptor descriptor;
     boolean needToSaveDuplicates;
+    boolean parallelPrefetches;
 
     HierarchicalObjectResolver(DataContext context, QueryMetadata queryMetadata) {
         this.queryMetadata = queryMetadata;
         this.context = context;
         this.cache = context.getObjectStore().getDataRowCache();
+
+        // sibling disjoint-by-id prefetches can run in parallel in their own
+        // transactions unless they are a part of an explicit transaction
+        DataDomain domain = context.getParentDataDomain();
+        this.parallelPrefetches = domain != null
+                && domain.isParallelPrefetches()
+                && context.getQueryExecutor() != null
+                && Transaction.getThreadTransaction() == null;
     }
 
     HierarchicalObjectResolver(DataContext context, QueryMetadata metadata,
@@ -122,6 +132,7 @@ class HierarchicalObjectResolver {
                     processorNode.getDataRows());
             processorNode.setObjects(objects);
 
+            fetchDisjointByIdChildren(processorNode);
             return true;
         }
 
@@ -133,6 +144,77 @@ class HierarchicalObjectResolver {
                 return true;
             }
 
+            // rows may have been fetched in parallel with the sibling nodes
+            if (processorNode.getDataRows() == null) {
+                List dataRows = new ArrayList();
+                for (PrefetchSelectQuery query : disjointByIdQueries(processorNode)) {
+                    dataRows.addAll(context.performQuery(query));
+                }
+                processorNode.setDataRows(dataRows);
+            }
+
+            return startDisjointPrefetch(node);
+        }
+
+        /**
+         * Fetches rows of the disjoint-by-id children of the node concurrently, if there
+         * is more than one such child.
+         */
+        private void fetchDisjointByIdChildren(PrefetchProcessorNode node) {
+
+            // rows of a joint parent are not yet resolved at this point
+            if (!parallelPrefetches
+                    || node.isPhantom()
+                    || node instanceof PrefetchProcessorJointNode) {
+                return;
+            }
+
+            List<PrefetchProcessorNode> children = new ArrayList<PrefetchProcessorNode>();
+            for (PrefetchTreeNode child : node.getChildren()) {
+                if (child.isDisjointByIdPrefetch()) {
+                    children.add((PrefetchProcessorNode) child);
+                }
+            }
+
+            if (children.size() < 2) {
+                return;
+            }
+
+            ParallelQueries<List<?>> queries = new ParallelQueries<List<?>>(context
+                    .getQueryExecutor());
+            int[] queryCounts = new int[children.size()];
+
+            for (int i = 0; i < queryCounts.length; i++) {
+                List<PrefetchSelectQuery> childQueries = disjointByIdQueries(children
+                        .get(i));
+                queryCounts[i] = childQueries.size();
+
+                for (final PrefetchSelectQuery query : childQueries) {
+                    queries.add(new Callable<List<?>>() {
+
+                        public List<?> call() {
+                            return context.performQuery(query);
+                        }
+                    });
+                }
+            }
+
+            // results are returned in the order of the queries, so each child gets its
+            // rows in the same order as if the queries were run serially
+            Iterator<List<?>> results = queries.run().iterator();
+            for (int i = 0; i < queryCounts.length; i++) {
+                List dataRows = new ArrayList();
+                for (int j = 0; j < queryCounts[i]; j++) {
+                    dataRows.addAll(results.next());
+                }
+
+                children.get(i).setDataRows(dataRows);
+            }
+        }
+
+        private List<PrefetchSelectQuery> disjointByIdQueries(
+                PrefetchProcessorNode processorNode) {
+
             PrefetchProcessorNode parentProcessorNode = (PrefetchProcessorNode) processorNode
                     .getParent();
             ObjRelationship relationship = processorNode.getIncoming().getRelationship();
@@ -183,7 +265,9 @@ class HierarchicalObjectResolver {
                 // handling too big qualifiers
                 if (currentQuery == null
                         || (maxIdQualifierSize > 0 && qualifiersCount + joins.size() > maxIdQualifierSize)) {
-                    currentQuery = new PrefetchSelectQuery(node.getPath(), relationship);
+                    currentQuery = new PrefetchSelectQuery(
+                            processorNode.getPath(),
+                            relationship);
                     queries.add(currentQuery);
                     qualifiersCount = 0;
                 }
@@ -205,9 +289,8 @@ class HierarchicalObjectResolver {
                 qualifiersCount += joins.size();
             }
 
-            PrefetchTreeNode jointSubtree = node.cloneJointSubtree();
+            PrefetchTreeNode jointSubtree = processorNode.cloneJointSubtree();
 
-            List dataRows = new ArrayList();
             for (PrefetchSelectQuery query : queries) {
                 // need to pass the remaining tree to make joint prefetches work
                 if (jointSubtree.hasChildren()) {
@@ -221,11 +304,9 @@ class HierarchicalObjectResolver {
                     query.addResultPath("db:"
                             + relationship.getReverseDbRelationshipPath());
                 }
-                dataRows.addAll(context.performQuery(query));
             }
-            processorNode.setDataRows(dataRows);
 
-            return startDisjointPrefetch(node);
+            return queries;
         }
 
         public boolean startJointPrefetch(PrefetchTreeNode node) {
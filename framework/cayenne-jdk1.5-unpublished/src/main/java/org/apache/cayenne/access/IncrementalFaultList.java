@@ -22,17 +22,22 @@ package org.apache.cayenne.access;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.cayenne.CayenneException;
 import org.apache.cayenne.CayenneRuntimeException;
 import org.apache.cayenne.Persistent;
 import org.apache.cayenne.exp.Expression;
 import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.map.DbAttribute;
 import org.apache.cayenne.map.ObjEntity;
 import org.apache.cayenne.query.Query;
 import org.apache.cayenne.query.QueryMetadata;
@@ -78,6 +83,19 @@ public class IncrementalFaultList<E> implements List<E> {
      */
     protected int maxFetchSize;
 
+    /**
+     * Defines whether the next page is resolved in background on forward iteration.
+     * 
+     * @since 3.1
+     */
+    protected boolean readAhead;
+
+    // ids that are being resolved by the queries running outside of the elements lock
+    private Set<Object> resolvingIds;
+
+    // index of the last accessed page, used to detect forward iteration
+    private int lastPage;
+
     // Don't confuse this with the JDBC ResultSet fetch size setting - this controls
     // the where clause generation that is necessary to fetch specific records a page
     // at a time. Some JDBC Drivers/Databases may have limits on statement length
@@ -102,7 +120,20 @@ public class IncrementalFaultList<E> implements List<E> {
      * @param maxFetchSize maximum number of fetches in one query
      */
     public IncrementalFaultList(DataContext dataContext, Query query, int maxFetchSize) {
-        QueryMetadata metadata = query.getMetaData(dataContext.getEntityResolver());
+        this(dataContext, query.getMetaData(dataContext.getEntityResolver()), maxFetchSize);
+
+        List<Object> elementsUnsynced = new ArrayList<Object>();
+        fillIn(query, elementsUnsynced);
+        this.elements = Collections.synchronizedList(elementsUnsynced);
+    }
+
+    /**
+     * Initializes the list without filling it in. Subclasses calling this constructor
+     * must initialize the elements list.
+     * 
+     * @since 3.1
+     */
+    IncrementalFaultList(DataContext dataContext, QueryMetadata metadata, int maxFetchSize) {
         if (metadata.getPageSize() <= 0) {
             throw new CayenneRuntimeException("Not a paginated query; page size: "
                     + metadata.getPageSize());
@@ -126,12 +157,9 @@ public class IncrementalFaultList<E> implements List<E> {
 
         this.helper = createHelper(metadata);
         this.idWidth = metadata.getDbEntity().getPrimaryKeys().size();
-
-        List<Object> elementsUnsynced = new ArrayList<Object>();
-        fillIn(query, elementsUnsynced);
-        this.elements = Collections.synchronizedList(elementsUnsynced);
-
         this.maxFetchSize = maxFetchSize;
+        this.resolvingIds = new HashSet<Object>();
+        this.lastPage = -1;
     }
 
     /**
@@ -223,69 +251,212 @@ public class IncrementalFaultList<E> implements List<E> {
             return;
         }
 
-        synchronized (elements) {
-            if (elements.size() == 0) {
-                return;
+        // ids this thread attempted to resolve; finding one of them still unresolved in
+        // the range means the list can't be resolved and prevents looping forever
+        Set<Object> attemptedIds = null;
+
+        while (true) {
+            List<Object> ids = new ArrayList<Object>(pageSize);
+            synchronized (elements) {
+                if (elements.size() == 0) {
+                    return;
+                }
+
+                // perform bound checking
+                if (fromIndex < 0) {
+                    fromIndex = 0;
+                }
+
+                if (toIndex > elements.size()) {
+                    toIndex = elements.size();
+                }
+
+                for (int i = fromIndex; i < toIndex; i++) {
+                    Object object = elements.get(i);
+                    if (helper.unresolvedSuspect(object) && resolvingIds.add(object)) {
+                        if (attemptedIds != null && attemptedIds.contains(object)) {
+                            resolvingIds.remove(object);
+                            throw new CayenneRuntimeException(
+                                    "Failed to resolve object for id: " + object);
+                        }
+
+                        ids.add(object);
+                    }
+                }
             }
 
-            // perform bound checking
-            if (fromIndex < 0) {
-                fromIndex = 0;
+            // ids are resolved without holding the lock, so that concurrent readers of
+            // the resolved objects are not blocked by the query
+            if (!ids.isEmpty()) {
+                if (attemptedIds == null) {
+                    attemptedIds = new HashSet<Object>();
+                }
+                attemptedIds.addAll(ids);
+                resolveClaimedIds(ids, fromIndex, toIndex);
             }
 
-            if (toIndex > elements.size()) {
-                toIndex = elements.size();
+            // wait for the ids in the range that are resolved by other threads
+            synchronized (elements) {
+                if (!isResolving(fromIndex, toIndex)) {
+                    if (ids.isEmpty()) {
+                        return;
+                    }
+
+                    // re-check the range, as the list could have changed while resolving
+                    continue;
+                }
+
+                while (isResolving(fromIndex, toIndex)) {
+                    try {
+                        elements.wait();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CayenneRuntimeException(
+                                "Interrupted while waiting for objects to resolve",
+                                e);
+                    }
+                }
             }
 
-            List<Expression> quals = new ArrayList<Expression>(pageSize);
-            List<Object> ids = new ArrayList<Object>(pageSize);
-            for (int i = fromIndex; i < toIndex; i++) {
-                Object object = elements.get(i);
-                if (helper.unresolvedSuspect(object)) {
-                    quals.add(buildIdQualifier(object));
-                    ids.add(object);
+            // other threads may have failed to resolve their ids, so the range is checked
+            // again and the ids that are still unresolved are resolved by this thread
+        }
+    }
+
+    /**
+     * Resolves ids previously added to "resolvingIds" by the calling thread, replacing
+     * them in the list with resolved objects. The ids are released and waiting threads
+     * are notified whether or not resolution succeeds.
+     */
+    private void resolveClaimedIds(List<Object> ids, int fromIndex, int toIndex) {
+        List<?> objects = null;
+        boolean resolved = false;
+        try {
+            objects = resolveIds(ids);
+
+            // sanity check - database data may have changed
+            checkPageResultConsistency(objects, ids);
+            resolved = true;
+        }
+        finally {
+            synchronized (elements) {
+                resolvingIds.removeAll(ids);
+
+                // replace ids in the list with objects
+                if (resolved) {
+                    for (Object object : objects) {
+                        helper.updateWithResolvedObjectInRange(object, fromIndex, toIndex);
+                    }
+
+                    unfetchedObjects -= objects.size();
                 }
+
+                elements.notifyAll();
             }
+        }
+    }
+
+    private boolean isResolving(int fromIndex, int toIndex) {
+        if (resolvingIds.isEmpty()) {
+            return false;
+        }
 
-            int qualsSize = quals.size();
-            if (qualsSize == 0) {
-                return;
+        toIndex = Math.min(toIndex, elements.size());
+        for (int i = fromIndex; i < toIndex; i++) {
+            Object object = elements.get(i);
+            if (helper.unresolvedSuspect(object) && resolvingIds.contains(object)) {
+                return true;
             }
+        }
 
-            // fetch the range of objects in fetchSize chunks
-            boolean fetchesDataRows = internalQuery.isFetchingDataRows();
-            List<?> objects = new ArrayList<Object>(qualsSize);
-            
-            int fetchSize = maxFetchSize > 0 ? maxFetchSize : Integer.MAX_VALUE;
-            
-            int fetchEnd = Math.min(qualsSize, fetchSize);
-            int fetchBegin = 0;
-            while (fetchBegin < qualsSize) {
-                SelectQuery query = new SelectQuery(rootEntity, ExpressionFactory
-                        .joinExp(Expression.OR, quals.subList(fetchBegin, fetchEnd)));
+        return false;
+    }
 
-                query.setFetchingDataRows(fetchesDataRows);
+    /**
+     * Fetches objects for a list of unresolved ids in chunks of up to "maxFetchSize" ids.
+     */
+    private List<?> resolveIds(List<Object> ids) {
+        boolean fetchesDataRows = internalQuery.isFetchingDataRows();
+        List<Object> objects = new ArrayList<Object>(ids.size());
 
-                if (!query.isFetchingDataRows()) {
-                    query.setPrefetchTree(internalQuery.getPrefetchTree());
-                }
+        int fetchSize = maxFetchSize > 0 ? maxFetchSize : Integer.MAX_VALUE;
+        int idsSize = ids.size();
+
+        for (int fetchBegin = 0; fetchBegin < idsSize; fetchBegin += fetchSize) {
+            int fetchEnd = Math.min(idsSize, fetchBegin + fetchSize);
+            SelectQuery query = new SelectQuery(rootEntity, buildIdsQualifier(ids
+                    .subList(fetchBegin, fetchEnd)));
+
+            query.setFetchingDataRows(fetchesDataRows);
 
-                objects.addAll(dataContext.performQuery(query));
-                fetchBegin = fetchEnd;
-                fetchEnd += Math.min(fetchSize, qualsSize - fetchEnd);
+            if (!query.isFetchingDataRows()) {
+                query.setPrefetchTree(internalQuery.getPrefetchTree());
             }
 
-            // sanity check - database data may have changed
-            checkPageResultConsistency(objects, ids);
+            objects.addAll(dataContext.performQuery(query));
+        }
+
+        return objects;
+    }
+
+    /**
+     * Starts resolving a page in background if read-ahead is enabled, the DataContext has
+     * a query executor and the page is not resolved yet. Must be called while holding the
+     * elements lock.
+     * 
+     * @since 3.1
+     */
+    void readAhead(int page) {
+        ExecutorService executor = dataContext.getQueryExecutor();
+        if (!readAhead || executor == null) {
+            return;
+        }
+
+        final int fromIndex = page * pageSize;
+        if (fromIndex >= elements.size()
+                || !helper.unresolvedSuspect(elements.get(fromIndex))) {
+            return;
+        }
+
+        try {
+            // errors are ignored, as the page is resolved again when accessed
+            executor.submit(new Runnable() {
+
+                public void run() {
+                    resolveInterval(fromIndex, fromIndex + pageSize);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // executor is shut down, resolve the page on access
+        }
+    }
+
+    /**
+     * Returns a qualifier expression matching a list of unresolved ids. For single column
+     * ids it is a single "IN" expression, otherwise it is a disjunction of id qualifiers.
+     * 
+     * @since 3.1
+     */
+    Expression buildIdsQualifier(List<Object> ids) {
 
-            // replace ids in the list with objects
-            Iterator it = objects.iterator();
-            while (it.hasNext()) {
-                helper.updateWithResolvedObjectInRange(it.next(), fromIndex, toIndex);
+        if (idWidth == 1) {
+            DbAttribute pk = rootEntity.getDbEntity().getPrimaryKeys().iterator().next();
+            List<Object> values = new ArrayList<Object>(ids.size());
+            for (Object id : ids) {
+                values.add(((Map<?, ?>) id).get(pk.getName()));
             }
 
-            unfetchedObjects -= objects.size();
+            return ExpressionFactory.inDbExp(pk.getName(), values);
+        }
+
+        List<Expression> quals = new ArrayList<Expression>(ids.size());
+        for (Object id : ids) {
+            quals.add(buildIdQualifier(id));
         }
+
+        return ExpressionFactory.joinExp(Expression.OR, quals);
     }
 
     /**
@@ -517,20 +688,28 @@ public class IncrementalFaultList<E> implements List<E> {
     }
 
     public E get(int index) {
+        int page;
         synchronized (elements) {
             Object o = elements.get(index);
+            page = pageIndex(index);
 
-            if (helper.unresolvedSuspect(o)) {
-                // read this page
-                int pageStart = pageIndex(index) * pageSize;
-                resolveInterval(pageStart, pageStart + pageSize);
-
-                return (E) elements.get(index);
+            if (page == lastPage + 1) {
+                readAhead(page + 1);
             }
-            else {
+            lastPage = page;
+
+            if (!helper.unresolvedSuspect(o)) {
                 return (E) o;
             }
         }
+
+        // read this page
+        int pageStart = page * pageSize;
+        resolveInterval(pageStart, pageStart + pageSize);
+
+        synchronized (elements) {
+            return (E) elements.get(index);
+        }
     }
 
     /**
@@ -601,8 +780,9 @@ public class IncrementalFaultList<E> implements List<E> {
     }
 
     public List<E> subList(int fromIndex, int toIndex) {
+        resolveInterval(fromIndex, toIndex);
+
         synchronized (elements) {
-            resolveInterval(fromIndex, toIndex);
             return elements.subList(fromIndex, toIndex);
         }
     }
@@ -626,6 +806,24 @@ public class IncrementalFaultList<E> implements List<E> {
         return unfetchedObjects;
     }
 
+    /**
+     * Returns whether the next page is resolved in background on forward iteration. Read
+     * ahead queries are run by the DataContext query executor, so there is no read-ahead
+     * if the DataContext has no executor.
+     * 
+     * @since 3.1
+     */
+    public boolean isReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * @since 3.1
+     */
+    public void setReadAhead(boolean readAhead) {
+        this.readAhead = readAhead;
+    }
+
     abstract class IncrementalListHelper {
 
         int indexOfObject(Object object) {
@@ -664,6 +862,8 @@ public class IncrementalFaultList<E> implements List<E> {
 
             synchronized (elements) {
 
+                // the list could have been modified while the object was resolved
+                to = Math.min(to, elements.size());
                 for (int i = from; i < to; i++) {
                     if (replacesObject(object, elements.get(i))) {
                         elements.set(i, object);
@@ -0,0 +1,309 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.exp.parser.ASTDbPath;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.map.ObjAttribute;
+import org.apache.cayenne.query.Ordering;
+import org.apache.cayenne.query.PageCursor;
+import org.apache.cayenne.query.QueryCacheStrategy;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.query.SortOrder;
+import org.apache.cayenne.util.Util;
+
+/**
+ * A paginated list that doesn't read the ids of all matching rows on creation. Instead
+ * its size is obtained with a "SELECT COUNT(*)" query and each page is fetched on demand
+ * with a separate query. If the previous page is in memory and all ordering columns are
+ * NOT NULL, the next page is selected with a keyset predicate following the last row of
+ * the previous page, otherwise with fetch offset and limit. A bounded number of pages is
+ * kept in memory, least recently used pages are discarded and fetched again when
+ * accessed. Optionally the next page is fetched in background on sequential access.
+ * <p>
+ * To guarantee a stable order of pages, query orderings are extended with the primary
+ * key columns. The list is read-only, and its size is fixed when the list is created,
+ * so pages may be inconsistent if the data changes while the list is in use.
+ * </p>
+ *
+ * @since 3.1
+ */
+class LazyIncrementalFaultList<E> extends IncrementalFaultList<E> {
+
+    protected SelectQuery pageQuery;
+    protected int fetchOffset;
+    protected int cachedPages;
+    protected boolean keysetPaging;
+
+    private Map<Integer, List<?>> pages;
+    private Map<Integer, Future<List<Object>>> pendingPages;
+    private int lastPage;
+
+    LazyIncrementalFaultList(DataContext dataContext, SelectQuery query,
+            int maxFetchSize, int cachedPages) {
+
+        super(
+                dataContext,
+                query.getMetaData(dataContext.getEntityResolver()),
+                maxFetchSize);
+
+        this.fetchOffset = query.getFetchOffset();
+        this.cachedPages = Math.max(cachedPages, 1);
+        this.lastPage = -1;
+
+        this.pageQuery = query.queryWithParameters(Collections.EMPTY_MAP, false);
+        pageQuery.setPageSize(0);
+        pageQuery.setCacheStrategy(QueryCacheStrategy.NO_CACHE);
+        pageQuery.setPageCursor(null);
+        pageQuery.setStatementFetchSize(query.getStatementFetchSize());
+
+        // pages must have a stable order
+        for (DbAttribute pk : rootEntity.getDbEntity().getPrimaryKeys()) {
+            String path = "db:" + pk.getName();
+
+            boolean ordered = false;
+            for (Ordering ordering : pageQuery.getOrderings()) {
+                if (path.equals(ordering.getSortSpecString())) {
+                    ordered = true;
+                    break;
+                }
+            }
+
+            if (!ordered) {
+                pageQuery.addOrdering(path, SortOrder.ASCENDING);
+            }
+        }
+
+        // keyset predicates can be built from the page objects only for simple paths;
+        // they never match NULLs, so nullable ordering columns require offset paging
+        this.keysetPaging = true;
+        for (Ordering ordering : pageQuery.getOrderings()) {
+            if (ordering.isCaseInsensitive() || !isNotNullColumn(ordering)) {
+                keysetPaging = false;
+                break;
+            }
+        }
+
+        int size = count(query);
+        this.unfetchedObjects = size;
+        this.pages = new LinkedHashMap<Integer, List<?>>(16, 0.75f, true);
+        this.pendingPages = new HashMap<Integer, Future<List<Object>>>();
+        this.elements = Collections.synchronizedList(new PageList(size));
+    }
+
+    /**
+     * Returns true if the ordering is on a simple path of the root entity mapped to a
+     * column that can't contain NULL values.
+     */
+    private boolean isNotNullColumn(Ordering ordering) {
+        String path = ordering.getSortSpecString();
+        if (path == null || path.indexOf('.') >= 0) {
+            return false;
+        }
+
+        DbAttribute column;
+        if (path.startsWith(ASTDbPath.DB_PREFIX)) {
+            column = (DbAttribute) rootEntity.getDbEntity().getAttribute(
+                    path.substring(ASTDbPath.DB_PREFIX.length()));
+        }
+        else {
+            ObjAttribute attribute = (ObjAttribute) rootEntity.getAttribute(path);
+            column = attribute != null ? attribute.getDbAttribute() : null;
+        }
+
+        return column != null && (column.isMandatory() || column.isPrimaryKey());
+    }
+
+    private int count(SelectQuery query) {
+        List<?> result = dataContext.performQuery(new SelectCountQuery(query));
+        long count = ((Number) ((Map<?, ?>) result.get(0))
+                .get(SelectCountQuery.COUNT_KEY)).longValue();
+
+        count = Math.max(count - query.getFetchOffset(), 0);
+        if (query.getFetchLimit() > 0) {
+            count = Math.min(count, query.getFetchLimit());
+        }
+
+        return (int) count;
+    }
+
+    /**
+     * Returns the maximum number of pages kept in memory.
+     */
+    public int getCachedPages() {
+        return cachedPages;
+    }
+
+    @Override
+    void readAhead(int page) {
+        // pages are read ahead when they are fetched
+    }
+
+    @Override
+    protected void resolveInterval(int fromIndex, int toIndex) {
+        synchronized (elements) {
+            fromIndex = Math.max(fromIndex, 0);
+            toIndex = Math.min(toIndex, elements.size());
+
+            for (int i = fromIndex; i < toIndex; i += pageSize - i % pageSize) {
+                elements.get(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the rows of a page, fetching them if needed. Must be called while holding
+     * the elements lock.
+     */
+    private List<?> page(int page) {
+        List<?> rows = pages.get(page);
+
+        if (rows == null) {
+            Future<List<Object>> pending = pendingPages.remove(page);
+            rows = pending != null ? pendingPageRows(pending) : dataContext
+                    .performQuery(pageQuery(page));
+
+            // sanity check - database data may have changed
+            int expected = pageLength(page);
+            if (rows.size() != expected) {
+                throw new CayenneRuntimeException("Expected "
+                        + expected
+                        + " objects on page "
+                        + page
+                        + ", retrieved "
+                        + rows.size());
+            }
+
+            pages.put(page, rows);
+            unfetchedObjects -= rows.size();
+
+            // discard least recently used pages
+            if (pages.size() > cachedPages) {
+                Map.Entry<Integer, List<?>> eldest = pages.entrySet().iterator().next();
+                unfetchedObjects += eldest.getValue().size();
+                pages.remove(eldest.getKey());
+            }
+        }
+
+        if (readAhead
+                && dataContext.getQueryExecutor() != null
+                && page == lastPage + 1) {
+            startReadAhead(page + 1);
+        }
+
+        lastPage = page;
+        return rows;
+    }
+
+    private void startReadAhead(int page) {
+        if (page * pageSize >= elements.size()
+                || pages.containsKey(page)
+                || pendingPages.containsKey(page)) {
+            return;
+        }
+
+        pendingPages.put(page, dataContext.<Object> performQueryAsync(pageQuery(page)));
+    }
+
+    private List<?> pendingPageRows(Future<List<Object>> pending) {
+        try {
+            return pending.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CayenneRuntimeException("Interrupted while fetching a page", e);
+        }
+        catch (ExecutionException e) {
+            throw new CayenneRuntimeException("Error fetching a page", Util
+                    .unwindException(e.getCause()));
+        }
+    }
+
+    private int pageLength(int page) {
+        return Math.min(pageSize, elements.size() - page * pageSize);
+    }
+
+    /**
+     * Creates a query that selects a given page.
+     */
+    private SelectQuery pageQuery(int page) {
+        SelectQuery query = pageQuery.queryWithParameters(Collections.EMPTY_MAP, false);
+        query.setStatementFetchSize(pageQuery.getStatementFetchSize());
+        query.setFetchLimit(pageLength(page));
+
+        // seek after the last row of the previous page if it is known, otherwise skip
+        // all preceding rows
+        PageCursor cursor = null;
+        List<?> previous = keysetPaging ? pages.get(page - 1) : null;
+        if (previous != null && !previous.isEmpty()) {
+            cursor = PageCursor.after(pageQuery, previous.get(previous.size() - 1));
+            for (Object value : cursor.getValues()) {
+                if (value == null) {
+                    cursor = null;
+                    break;
+                }
+            }
+        }
+
+        if (cursor != null) {
+            query.setPageCursor(cursor);
+        }
+        else {
+            query.setFetchOffset(fetchOffset + page * pageSize);
+        }
+
+        return query;
+    }
+
+    /**
+     * A read-only list of a fixed size that reads its elements from the pages.
+     */
+    class PageList extends AbstractList<Object> {
+
+        private int size;
+
+        PageList(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public Object get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+
+            return page(index / pageSize).get(index % pageSize);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.cayenne.CayenneException;
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.DataRow;
+import org.apache.cayenne.ObjectId;
+import org.apache.cayenne.PersistenceState;
+import org.apache.cayenne.Persistent;
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.map.DbRelationship;
+import org.apache.cayenne.map.ObjRelationship;
+import org.apache.cayenne.query.PrefetchTreeNode;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.reflect.ArcProperty;
+import org.apache.cayenne.reflect.ClassDescriptor;
+import org.apache.cayenne.reflect.Property;
+import org.apache.cayenne.reflect.ToOneProperty;
+
+/**
+ * An iterator over persistent objects read from an open database cursor in batches.
+ * Each batch of rows is converted to objects at once, and the to-one relationships
+ * prefetched by the query are resolved for the whole batch with a single query per
+ * relationship. When the iterator moves to the next batch, objects of the previous batch
+ * that were not registered in the DataContext before the iteration and were not
+ * modified are evicted from the DataContext and become TRANSIENT, so that the memory
+ * used by the iteration does not grow with the size of the result.
+ * <p>
+ * Like {@link ResultIterator}, ObjectIterator must be closed explicitly, as it holds a
+ * database connection and possibly a transaction. Iterating over all objects closes the
+ * iterator automatically.
+ * </p>
+ *
+ * @since 3.1
+ * @see DataContext#iterateObjects(org.apache.cayenne.query.Query, int)
+ */
+public class ObjectIterator<T extends Persistent> implements Iterator<T> {
+
+    protected DataContext context;
+    protected ClassDescriptor descriptor;
+    protected ResultIterator rows;
+    protected int batchSize;
+    protected int maxIdQualifierSize;
+    protected List<ArcProperty> toOneProperties;
+
+    private ObjectResolver resolver;
+    private List<T> batch;
+    private int index;
+    private List<Persistent> fetchedObjects;
+    private List<Persistent> fetchedTargets;
+    private boolean closed;
+
+    ObjectIterator(DataContext context, ClassDescriptor descriptor,
+            PrefetchTreeNode prefetchTree, ResultIterator rows, int batchSize) {
+
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: "
+                    + batchSize);
+        }
+
+        this.context = context;
+        this.descriptor = descriptor;
+        this.rows = rows;
+        this.batchSize = batchSize;
+        this.maxIdQualifierSize = context.getParentDataDomain().getMaxIdQualifierSize();
+        this.toOneProperties = toOneProperties(descriptor, prefetchTree);
+        this.resolver = new ObjectResolver(context, descriptor, true);
+
+        this.batch = Collections.emptyList();
+        this.fetchedObjects = Collections.emptyList();
+        this.fetchedTargets = Collections.emptyList();
+    }
+
+    /**
+     * Returns properties of the prefetched to-one relationships that can be resolved
+     * from the foreign keys in the source rows.
+     */
+    static List<ArcProperty> toOneProperties(
+            ClassDescriptor descriptor,
+            PrefetchTreeNode prefetchTree) {
+
+        if (prefetchTree == null) {
+            return Collections.emptyList();
+        }
+
+        List<ArcProperty> properties = new ArrayList<ArcProperty>();
+        for (PrefetchTreeNode node : prefetchTree.getChildren()) {
+            if (node.isPhantom()) {
+                continue;
+            }
+
+            Property property = descriptor.getProperty(node.getName());
+            if (property instanceof ToOneProperty) {
+                ObjRelationship relationship = ((ArcProperty) property)
+                        .getRelationship();
+                if (!relationship.isSourceIndependentFromTargetChange()
+                        && relationship.getDbRelationships().size() == 1) {
+                    properties.add((ArcProperty) property);
+                }
+            }
+        }
+
+        return properties;
+    }
+
+    /**
+     * Returns the maximum number of objects in a batch.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public boolean hasNext() {
+        if (index < batch.size()) {
+            return true;
+        }
+
+        if (closed) {
+            return false;
+        }
+
+        nextBatch();
+
+        if (batch.isEmpty()) {
+            close();
+            return false;
+        }
+
+        return true;
+    }
+
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more objects");
+        }
+
+        return batch.get(index++);
+    }
+
+    /**
+     * Throws UnsupportedOperationException.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * Evicts the objects of the current batch and closes the underlying ResultIterator.
+     * Does nothing if the iterator is already closed.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        batch = Collections.emptyList();
+        evict();
+
+        try {
+            rows.close();
+        }
+        catch (CayenneException e) {
+            throw new CayenneRuntimeException("Error closing ResultIterator", e);
+        }
+    }
+
+    private void nextBatch() {
+        evict();
+
+        List<DataRow> dataRows = new ArrayList<DataRow>(batchSize);
+        try {
+            while (dataRows.size() < batchSize && rows.hasNextRow()) {
+                dataRows.add((DataRow) rows.nextRow());
+            }
+        }
+        catch (CayenneException e) {
+            close();
+            throw new CayenneRuntimeException("Error reading ResultIterator", e);
+        }
+
+        index = 0;
+
+        if (dataRows.isEmpty()) {
+            batch = Collections.emptyList();
+            return;
+        }
+
+        ObjectStore objectStore = context.getObjectStore();
+
+        // objects registered before they were fetched by the iterator must survive
+        // the eviction
+        boolean[] registered = new boolean[dataRows.size()];
+        for (int i = 0; i < registered.length; i++) {
+            ObjectId id = objectId(dataRows.get(i));
+            registered[i] = id != null && objectStore.getNode(id) != null;
+        }
+
+        batch = context.objectsFromDataRows(descriptor, dataRows);
+
+        fetchedObjects = new ArrayList<Persistent>(batch.size());
+        for (int i = 0; i < registered.length; i++) {
+            if (!registered[i]) {
+                fetchedObjects.add(batch.get(i));
+            }
+        }
+
+        if (!toOneProperties.isEmpty()) {
+            fetchedTargets = new ArrayList<Persistent>();
+            for (ArcProperty property : toOneProperties) {
+                resolveToOne(property, dataRows, registered);
+            }
+        }
+    }
+
+    /**
+     * Fetches the targets of a to-one relationship for all objects of the batch in
+     * one query and connects them to the source objects fetched by the iterator.
+     */
+    private void resolveToOne(
+            ArcProperty property,
+            List<DataRow> dataRows,
+            boolean[] registered) {
+
+        ObjRelationship relationship = property.getRelationship();
+        DbRelationship dbRelationship = relationship.getDbRelationships().get(0);
+        String targetEntityName = relationship.getTargetEntityName();
+        ObjectStore objectStore = context.getObjectStore();
+
+        ObjectId[] targetIds = new ObjectId[dataRows.size()];
+        Map<ObjectId, Expression> missing = new LinkedHashMap<ObjectId, Expression>();
+
+        for (int i = 0; i < targetIds.length; i++) {
+            if (registered[i]) {
+                continue;
+            }
+
+            ObjectId id = dataRows.get(i).createTargetObjectId(
+                    targetEntityName,
+                    dbRelationship);
+            targetIds[i] = id;
+
+            if (id != null && !missing.containsKey(id)) {
+                Persistent target = (Persistent) objectStore.getNode(id);
+                if (target == null) {
+                    missing.put(id, ExpressionFactory.matchAllDbExp(
+                            id.getIdSnapshot(),
+                            Expression.EQUAL_TO));
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            List<Expression> qualifiers = new ArrayList<Expression>(missing.values());
+            int chunk = maxIdQualifierSize > 0 ? maxIdQualifierSize : qualifiers.size();
+
+            for (int i = 0; i < qualifiers.size(); i += chunk) {
+                SelectQuery query = new SelectQuery(
+                        targetEntityName,
+                        ExpressionFactory.joinExp(Expression.OR, qualifiers.subList(
+                                i,
+                                Math.min(i + chunk, qualifiers.size()))));
+
+                for (Object target : context.performQuery(query)) {
+                    fetchedTargets.add((Persistent) target);
+                }
+            }
+        }
+
+        Map<ObjectId, Persistent> targets = new HashMap<ObjectId, Persistent>();
+        for (int i = 0; i < targetIds.length; i++) {
+            if (registered[i]) {
+                continue;
+            }
+
+            Persistent target = null;
+            if (targetIds[i] != null) {
+                target = targets.get(targetIds[i]);
+                if (target == null) {
+
+                    // a target not found in the database is left as a fault
+                    target = (Persistent) objectStore.getNode(targetIds[i]);
+                    if (target == null) {
+                        continue;
+                    }
+
+                    targets.put(targetIds[i], target);
+                }
+            }
+
+            property.writePropertyDirectly(batch.get(i), null, target);
+        }
+    }
+
+    /**
+     * Evicts the objects fetched for the previous batch. Objects that were modified are
+     * left in the DataContext together with their to-one relationship targets.
+     */
+    private void evict() {
+        ObjectStore objectStore = context.getObjectStore();
+
+        if (!fetchedTargets.isEmpty()) {
+            for (Persistent object : fetchedObjects) {
+                int state = object.getPersistenceState();
+                if (state != PersistenceState.COMMITTED
+                        && state != PersistenceState.HOLLOW
+                        && state != PersistenceState.TRANSIENT) {
+
+                    for (ArcProperty property : toOneProperties) {
+                        fetchedTargets.remove(property.readPropertyDirectly(object));
+                    }
+                }
+            }
+
+            objectStore.objectsEvicted(fetchedTargets);
+            fetchedTargets = Collections.emptyList();
+        }
+
+        if (!fetchedObjects.isEmpty()) {
+            objectStore.objectsEvicted(fetchedObjects);
+            fetchedObjects = Collections.emptyList();
+        }
+    }
+
+    private ObjectId objectId(DataRow row) {
+        ClassDescriptor rowDescriptor = resolver.descriptorResolutionStrategy
+                .descriptorForRow(row);
+        return resolver.createObjectId(row, rowDescriptor.getEntity(), null);
+    }
+}
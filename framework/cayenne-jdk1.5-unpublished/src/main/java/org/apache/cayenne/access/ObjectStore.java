@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.apache.cayenne.CayenneRuntimeException;
 import org.apache.cayenne.DataObject;
@@ -102,6 +103,9 @@ public class ObjectStore implements Serializable, SnapshotEventListener, GraphMa
      */
     protected DataContext context;
 
+    // batches of objects fetched together, used for batch faulting of relationships
+    private transient Map<Persistent, FaultBatch> faultBatches;
+
     /**
      * @deprecated since 3.1
      */
@@ -345,6 +349,91 @@ public class ObjectStore implements Serializable, SnapshotEventListener, GraphMa
         }
     }
 
+    /**
+     * Remembers objects fetched together by a single query, so that a relationship
+     * fault of one of them is resolved together with the same relationship of the
+     * others, and the faulted relationships are reported to the query shape if it is
+     * not null.
+     * 
+     * @since 3.1
+     */
+    synchronized void registerFaultBatch(
+            List<?> objects,
+            int batchSize,
+            AutoPrefetchLearner.Shape shape) {
+        List<ObjectId> ids = new ArrayList<ObjectId>(objects.size());
+        for (Object object : objects) {
+            if (object instanceof Persistent) {
+                ids.add(((Persistent) object).getObjectId());
+            }
+        }
+
+        if (ids.size() < 2) {
+            return;
+        }
+
+        if (faultBatches == null) {
+            faultBatches = new WeakHashMap<Persistent, FaultBatch>();
+        }
+
+        FaultBatch batch = new FaultBatch(ids, batchSize, shape);
+        for (Object object : objects) {
+            if (object instanceof Persistent) {
+                faultBatches.put((Persistent) object, batch);
+            }
+        }
+    }
+
+    /**
+     * Resolves a relationship of an object together with the same relationship of the
+     * objects fetched along with it. Returns the relationship targets of the object or
+     * null if the relationship can't be resolved in a batch.
+     * 
+     * @since 3.1
+     */
+    List<?> resolveFaultBatch(Persistent object, String relationshipName) {
+        FaultBatch batch;
+        synchronized (this) {
+            batch = faultBatches != null ? faultBatches.get(object) : null;
+        }
+
+        if (batch == null) {
+            return null;
+        }
+
+        batch.faulted(relationshipName);
+
+        // the lock is not held while querying
+        return batch.resolve(object, relationshipName);
+    }
+
+    /**
+     * Evicts unmodified objects from the ObjectStore, changing their state to TRANSIENT.
+     * Unlike {@link #objectsUnregistered(Collection)}, this does not invalidate cached
+     * snapshots, so other contexts are not affected. Objects that are new, modified or
+     * deleted are left in the ObjectStore.
+     * 
+     * @since 3.1
+     */
+    public synchronized void objectsEvicted(Collection<? extends Persistent> objects) {
+        for (Persistent object : objects) {
+            int state = object.getPersistenceState();
+            if (state != PersistenceState.COMMITTED && state != PersistenceState.HOLLOW) {
+                continue;
+            }
+
+            ObjectId id = object.getObjectId();
+            if (objectMap.get(id) == object) {
+                objectMap.remove(id);
+                changes.remove(id);
+
+                object.setObjectContext(null);
+                object.setObjectId(null);
+                object.setPersistenceState(PersistenceState.TRANSIENT);
+            }
+        }
+    }
+
     /**
      * Reverts changes to all stored uncomitted objects.
      * 
@@ -0,0 +1,777 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.CompactDataRow;
+import org.apache.cayenne.DataRow;
+import org.apache.cayenne.DataRowIndex;
+import org.apache.cayenne.ObjectId;
+import org.apache.cayenne.map.DbEntity;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.util.Util;
+
+/**
+ * A snapshot map that keeps DataRows as binary records in direct ByteBuffer slabs outside
+ * of the Java heap, leaving only an ObjectId-to-address index on heap. Records are laid
+ * out according to a per-entity schema derived from DbEntity attributes (or from the
+ * keys of the first stored row if there's no EntityResolver), so column names are not
+ * stored with each record. Slabs are filled one after another; when all of them are
+ * full, the oldest slab is evicted with all the snapshots in it, so the map is bounded
+ * by the number of bytes rather than the number of entries.
+ * <p>
+ * Snapshots are decoded on each read, so callers get a new {@link CompactDataRow} with
+ * the version of the stored row every time. Rows that are larger than a slab or contain
+ * values that are not Serializable are not stored.
+ * </p>
+ *
+ * @since 3.1
+ */
+class OffHeapSnapshotMap extends AbstractMap<ObjectId, DataRow> implements
+        ConcurrentMap<ObjectId, DataRow>, Serializable {
+
+    static final int MIN_SLAB_SIZE = 4 * 1024;
+    static final int MAX_SLAB_SIZE = 16 * 1024 * 1024;
+    static final int SLAB_COUNT = 16;
+
+    // value type tags
+    private static final byte ABSENT = 0;
+    private static final byte NULL = 1;
+    private static final byte STRING = 2;
+    private static final byte ASCII_STRING = 3;
+    private static final byte INTEGER = 4;
+    private static final byte LONG = 5;
+    private static final byte SHORT = 6;
+    private static final byte BYTE = 7;
+    private static final byte TRUE = 8;
+    private static final byte FALSE = 9;
+    private static final byte DOUBLE = 10;
+    private static final byte FLOAT = 11;
+    private static final byte BIG_DECIMAL = 12;
+    private static final byte BIG_INTEGER = 13;
+    private static final byte DATE = 14;
+    private static final byte SQL_DATE = 15;
+    private static final byte TIME = 16;
+    private static final byte TIMESTAMP = 17;
+    private static final byte BYTES = 18;
+    private static final byte CHARACTER = 19;
+    private static final byte SERIALIZED = 20;
+
+    private long maxBytes;
+
+    private transient int slabSize;
+    private transient ByteBuffer[] slabs;
+    private transient List<List<ObjectId>> slabKeys;
+    private transient int head;
+    private transient int headOffset;
+    private transient long evictionCount;
+
+    private transient ConcurrentMap<ObjectId, Long> index;
+    private transient ConcurrentMap<String, DataRowIndex> schemas;
+    private transient ReadWriteLock lock;
+    private transient volatile EntityResolver entityResolver;
+
+    /**
+     * Creates a map that stores up to <code>maxBytes</code> of snapshot records. Memory
+     * is allocated one slab at a time, as the snapshots are added.
+     */
+    OffHeapSnapshotMap(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Non-positive off-heap size: " + maxBytes);
+        }
+
+        this.maxBytes = maxBytes;
+        init();
+        this.schemas = new ConcurrentHashMap<String, DataRowIndex>();
+    }
+
+    private void init() {
+        this.slabSize = (int) Math.max(MIN_SLAB_SIZE, Math.min(MAX_SLAB_SIZE, maxBytes
+                / SLAB_COUNT));
+
+        int slabCount = (int) Math.max(2, maxBytes / slabSize);
+        this.slabs = new ByteBuffer[slabCount];
+        this.slabKeys = new ArrayList<List<ObjectId>>(slabCount);
+        for (int i = 0; i < slabCount; i++) {
+            slabKeys.add(new ArrayList<ObjectId>());
+        }
+
+        this.head = 0;
+        this.headOffset = 0;
+        this.index = new ConcurrentHashMap<ObjectId, Long>();
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Sets an EntityResolver used to build record schemas from DbEntity attributes.
+     * Entities already stored keep their schemas.
+     */
+    void setEntityResolver(EntityResolver entityResolver) {
+        this.entityResolver = entityResolver;
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    int getSlabSize() {
+        return slabSize;
+    }
+
+    /**
+     * Returns the number of bytes allocated off-heap.
+     */
+    long getAllocatedBytes() {
+        lock.readLock().lock();
+        try {
+            long allocated = 0;
+            for (ByteBuffer slab : slabs) {
+                if (slab != null) {
+                    allocated += slab.capacity();
+                }
+            }
+            return allocated;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of snapshots evicted from the map to free the space.
+     */
+    long getEvictionCount() {
+        lock.readLock().lock();
+        try {
+            return evictionCount;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public DataRow get(Object key) {
+        lock.readLock().lock();
+        try {
+            return read(key);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public DataRow put(ObjectId key, DataRow value) {
+        byte[] record = encode(key, value);
+
+        lock.writeLock().lock();
+        try {
+            DataRow old = read(key);
+            store(key, record);
+            return old;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public DataRow putIfAbsent(ObjectId key, DataRow value) {
+        byte[] record = encode(key, value);
+
+        lock.writeLock().lock();
+        try {
+            DataRow old = read(key);
+            if (old == null) {
+                store(key, record);
+            }
+            return old;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public DataRow remove(Object key) {
+        lock.writeLock().lock();
+        try {
+            DataRow old = read(key);
+            index.remove(key);
+            return old;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean remove(Object key, Object value) {
+        lock.writeLock().lock();
+        try {
+            DataRow old = read(key);
+            if (old != null && old.equals(value)) {
+                index.remove(key);
+                return true;
+            }
+            return false;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public DataRow replace(ObjectId key, DataRow value) {
+        byte[] record = encode(key, value);
+
+        lock.writeLock().lock();
+        try {
+            DataRow old = read(key);
+            if (old != null) {
+                store(key, record);
+            }
+            return old;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean replace(ObjectId key, DataRow oldValue, DataRow newValue) {
+        byte[] record = encode(key, newValue);
+
+        lock.writeLock().lock();
+        try {
+            DataRow old = read(key);
+            if (old != null && old.equals(oldValue)) {
+                store(key, record);
+                return true;
+            }
+            return false;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all snapshots, releasing off-heap memory.
+     */
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            index.clear();
+            for (int i = 0; i < slabs.length; i++) {
+                slabs[i] = null;
+                slabKeys.get(i).clear();
+            }
+            head = 0;
+            headOffset = 0;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a copy of the map entries, decoding all stored snapshots.
+     */
+    @Override
+    public Set<Map.Entry<ObjectId, DataRow>> entrySet() {
+        Map<ObjectId, DataRow> copy = new LinkedHashMap<ObjectId, DataRow>();
+
+        lock.readLock().lock();
+        try {
+            for (ObjectId key : index.keySet()) {
+                DataRow row = read(key);
+                if (row != null) {
+                    copy.put(key, row);
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        return Collections.unmodifiableMap(copy).entrySet();
+    }
+
+    // must be called under the write lock
+    private void store(ObjectId key, byte[] record) {
+        if (record == null || record.length > slabSize) {
+            index.remove(key);
+            return;
+        }
+
+        if (headOffset + record.length > slabSize) {
+            head = (head + 1) % slabs.length;
+            headOffset = 0;
+            evict(head);
+        }
+
+        if (slabs[head] == null) {
+            slabs[head] = ByteBuffer.allocateDirect(slabSize);
+        }
+
+        ByteBuffer buffer = slabs[head].duplicate();
+        buffer.position(headOffset);
+        buffer.put(record);
+
+        index.put(key, Long.valueOf(((long) head << 32) | headOffset));
+        slabKeys.get(head).add(key);
+        headOffset += record.length;
+    }
+
+    // must be called under the write lock
+    private void evict(int slab) {
+        List<ObjectId> keys = slabKeys.get(slab);
+        for (ObjectId key : keys) {
+
+            // skip keys removed or moved to another slab
+            Long address = index.get(key);
+            if (address != null && (int) (address.longValue() >>> 32) == slab) {
+                index.remove(key);
+                evictionCount++;
+            }
+        }
+
+        keys.clear();
+    }
+
+    private DataRowIndex schema(ObjectId key, DataRow row) {
+        String entityName = key.getEntityName();
+        DataRowIndex schema = schemas.get(entityName);
+
+        if (schema == null) {
+            schema = createSchema(entityName, row);
+            DataRowIndex existing = schemas.putIfAbsent(entityName, schema);
+            if (existing != null) {
+                schema = existing;
+            }
+        }
+
+        return schema;
+    }
+
+    private DataRowIndex createSchema(String entityName, DataRow row) {
+        EntityResolver resolver = this.entityResolver;
+        if (resolver != null) {
+            ObjEntity entity = resolver.getObjEntity(entityName);
+            DbEntity dbEntity = entity != null ? entity.getDbEntity() : null;
+            if (dbEntity != null) {
+                Collection<String> names = dbEntity.getAttributeMap().keySet();
+                return new DataRowIndex(names.toArray(new String[names.size()]));
+            }
+        }
+
+        if (row instanceof CompactDataRow) {
+            return ((CompactDataRow) row).getIndex();
+        }
+
+        return new DataRowIndex(row.keySet().toArray(new String[row.size()]));
+    }
+
+    /**
+     * Encodes a snapshot as a record, returning null if the snapshot has values that
+     * can't be serialized.
+     */
+    private byte[] encode(ObjectId key, DataRow row) {
+        DataRowIndex schema = schema(key, row);
+
+        RecordOutputStream bytes = new RecordOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            // record length placeholder
+            out.writeInt(0);
+            out.writeLong(row.getVersion());
+            out.writeLong(row.getReplacesVersion());
+            writeValue(out, row.getEntityName());
+
+            int width = schema.size();
+            int extras = row.size();
+            out.writeInt(width);
+            for (int i = 0; i < width; i++) {
+                String name = schema.getKey(i);
+                Object value = row.get(name);
+
+                if (value == null && !row.containsKey(name)) {
+                    out.writeByte(ABSENT);
+                }
+                else {
+                    writeValue(out, value);
+                    extras--;
+                }
+            }
+
+            out.writeInt(extras);
+            if (extras > 0) {
+                for (Map.Entry<String, Object> entry : row.entrySet()) {
+                    if (schema.indexOf(entry.getKey()) < 0) {
+                        writeValue(out, entry.getKey());
+                        writeValue(out, entry.getValue());
+                    }
+                }
+            }
+
+            out.flush();
+        }
+        catch (IOException e) {
+            // non-serializable value
+            return null;
+        }
+
+        return bytes.toRecord();
+    }
+
+    // must be called under the read or the write lock
+    private DataRow read(Object key) {
+        Long address = index.get(key);
+        if (address == null) {
+            return null;
+        }
+
+        long a = address.longValue();
+        ByteBuffer buffer = slabs[(int) (a >>> 32)].duplicate();
+        buffer.position((int) a);
+
+        // skip record length
+        buffer.getInt();
+        long version = buffer.getLong();
+        long replacesVersion = buffer.getLong();
+        String entityName = (String) readValue(buffer);
+
+        DataRowIndex schema = schemas.get(((ObjectId) key).getEntityName());
+        StoredDataRow row = new StoredDataRow(schema, version, replacesVersion);
+        row.setEntityName(entityName);
+
+        int width = buffer.getInt();
+        for (int i = 0; i < width; i++) {
+            if (buffer.get(buffer.position()) == ABSENT) {
+                buffer.get();
+            }
+            else {
+                row.setValue(i, readValue(buffer));
+            }
+        }
+
+        int extras = buffer.getInt();
+        for (int i = 0; i < extras; i++) {
+            String name = (String) readValue(buffer);
+            row.put(name, readValue(buffer));
+        }
+
+        return row;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        }
+        else if (value instanceof String) {
+            String string = (String) value;
+            int len = string.length();
+
+            boolean ascii = true;
+            for (int i = 0; i < len; i++) {
+                if (string.charAt(i) > 0x7F) {
+                    ascii = false;
+                    break;
+                }
+            }
+
+            out.writeByte(ascii ? ASCII_STRING : STRING);
+            out.writeInt(len);
+            if (ascii) {
+                out.writeBytes(string);
+            }
+            else {
+                out.writeChars(string);
+            }
+        }
+        else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt(((Integer) value).intValue());
+        }
+        else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong(((Long) value).longValue());
+        }
+        else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort(((Short) value).shortValue());
+        }
+        else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte(((Byte) value).byteValue());
+        }
+        else if (value instanceof Boolean) {
+            out.writeByte(((Boolean) value).booleanValue() ? TRUE : FALSE);
+        }
+        else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((Double) value).doubleValue());
+        }
+        else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat(((Float) value).floatValue());
+        }
+        else if (value instanceof Character) {
+            out.writeByte(CHARACTER);
+            out.writeChar(((Character) value).charValue());
+        }
+        else if (value.getClass() == BigDecimal.class) {
+            BigDecimal decimal = (BigDecimal) value;
+            out.writeByte(BIG_DECIMAL);
+            out.writeInt(decimal.scale());
+            writeBytes(out, decimal.unscaledValue().toByteArray());
+        }
+        else if (value.getClass() == BigInteger.class) {
+            out.writeByte(BIG_INTEGER);
+            writeBytes(out, ((BigInteger) value).toByteArray());
+        }
+        else if (value.getClass() == Date.class) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        }
+        else if (value.getClass() == java.sql.Date.class) {
+            out.writeByte(SQL_DATE);
+            out.writeLong(((Date) value).getTime());
+        }
+        else if (value.getClass() == Time.class) {
+            out.writeByte(TIME);
+            out.writeLong(((Date) value).getTime());
+        }
+        else if (value.getClass() == Timestamp.class) {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        }
+        else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            writeBytes(out, (byte[]) value);
+        }
+        else {
+            // throws NotSerializableException for values that can't be stored
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+            objectOut.writeObject(value);
+            objectOut.close();
+
+            out.writeByte(SERIALIZED);
+            writeBytes(out, bytes.toByteArray());
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Object readValue(ByteBuffer buffer) {
+        byte tag = buffer.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case ASCII_STRING: {
+                char[] chars = new char[buffer.getInt()];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = (char) buffer.get();
+                }
+                return new String(chars);
+            }
+            case STRING: {
+                char[] chars = new char[buffer.getInt()];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = buffer.getChar();
+                }
+                return new String(chars);
+            }
+            case INTEGER:
+                return Integer.valueOf(buffer.getInt());
+            case LONG:
+                return Long.valueOf(buffer.getLong());
+            case SHORT:
+                return Short.valueOf(buffer.getShort());
+            case BYTE:
+                return Byte.valueOf(buffer.get());
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case DOUBLE:
+                return Double.valueOf(buffer.getDouble());
+            case FLOAT:
+                return Float.valueOf(buffer.getFloat());
+            case CHARACTER:
+                return Character.valueOf(buffer.getChar());
+            case BIG_DECIMAL: {
+                int scale = buffer.getInt();
+                return new BigDecimal(new BigInteger(readBytes(buffer)), scale);
+            }
+            case BIG_INTEGER:
+                return new BigInteger(readBytes(buffer));
+            case DATE:
+                return new Date(buffer.getLong());
+            case SQL_DATE:
+                return new java.sql.Date(buffer.getLong());
+            case TIME:
+                return new Time(buffer.getLong());
+            case TIMESTAMP: {
+                Timestamp timestamp = new Timestamp(buffer.getLong());
+                timestamp.setNanos(buffer.getInt());
+                return timestamp;
+            }
+            case BYTES:
+                return readBytes(buffer);
+            case SERIALIZED:
+                try {
+                    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                            readBytes(buffer)));
+                    return in.readObject();
+                }
+                catch (Exception e) {
+                    throw new CayenneRuntimeException(
+                            "Error deserializing snapshot value",
+                            Util.unwindException(e));
+                }
+            default:
+                throw new CayenneRuntimeException("Unknown snapshot value type: " + tag);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    // serialization support - writes raw records together with the schemas they use
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.defaultWriteObject();
+            out.writeObject(new ConcurrentHashMap<String, DataRowIndex>(schemas));
+            out.writeInt(index.size());
+
+            for (Map.Entry<ObjectId, Long> entry : index.entrySet()) {
+                long a = entry.getValue().longValue();
+                ByteBuffer buffer = slabs[(int) (a >>> 32)].duplicate();
+                buffer.position((int) a);
+
+                byte[] record = new byte[buffer.getInt(buffer.position())];
+                buffer.get(record);
+
+                out.writeObject(entry.getKey());
+                out.writeInt(record.length);
+                out.write(record);
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+        this.schemas = (ConcurrentMap<String, DataRowIndex>) in.readObject();
+
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            ObjectId key = (ObjectId) in.readObject();
+            byte[] record = new byte[in.readInt()];
+            in.readFully(record);
+            store(key, record);
+        }
+    }
+
+    /**
+     * A decoded snapshot that keeps the version of the stored row.
+     */
+    static final class StoredDataRow extends CompactDataRow {
+
+        StoredDataRow(DataRowIndex index, long version, long replacesVersion) {
+            super(index);
+            this.version = version;
+            this.replacesVersion = replacesVersion;
+        }
+    }
+
+    /**
+     * A byte stream that patches the record length into the first 4 bytes of the
+     * record.
+     */
+    static final class RecordOutputStream extends ByteArrayOutputStream {
+
+        RecordOutputStream() {
+            super(128);
+        }
+
+        byte[] toRecord() {
+            byte[] record = new byte[count];
+            System.arraycopy(buf, 0, record, 0, count);
+
+            record[0] = (byte) (count >>> 24);
+            record[1] = (byte) (count >>> 16);
+            record[2] = (byte) (count >>> 8);
+            record[3] = (byte) count;
+            return record;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.cayenne.CayenneRuntimeException;
+
+/**
+ * Runs independent queries concurrently, returning their results in the order of the
+ * queries.
+ *
+ * @since 3.1
+ */
+class ParallelQueries<T> {
+
+    protected Executor executor;
+    protected List<Callable<T>> queries;
+
+    ParallelQueries(Executor executor) {
+        this.executor = executor;
+        this.queries = new ArrayList<Callable<T>>();
+    }
+
+    void add(Callable<T> query) {
+        queries.add(query);
+    }
+
+    int size() {
+        return queries.size();
+    }
+
+    /**
+     * Runs the queries, using the calling thread for the first query and for any query
+     * not yet picked by the executor when its result is needed, so that a busy or
+     * saturated executor never blocks the caller indefinitely.
+     */
+    List<T> run() {
+        List<FutureTask<T>> tasks = new ArrayList<FutureTask<T>>(queries.size());
+        for (Callable<T> query : queries) {
+            tasks.add(new FutureTask<T>(query));
+        }
+
+        for (int i = 1; i < tasks.size(); i++) {
+            try {
+                executor.execute(tasks.get(i));
+            }
+            catch (RejectedExecutionException e) {
+                // will run in the calling thread
+                break;
+            }
+        }
+
+        List<T> results = new ArrayList<T>(tasks.size());
+        CayenneRuntimeException failure = null;
+
+        // wait for all the queries even if some of them fail, so that no query outlives
+        // the caller
+        for (FutureTask<T> task : tasks) {
+
+            // noop if the task is already started by the executor
+            task.run();
+
+            try {
+                results.add(task.get());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = new CayenneRuntimeException("Interrupted query", e);
+                }
+            }
+            catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof CayenneRuntimeException
+                            ? (CayenneRuntimeException) e.getCause()
+                            : new CayenneRuntimeException(e.getCause());
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+
+        return results;
+    }
+}
@@ -0,0 +1,327 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cayenne.access.event.SnapshotEvent;
+import org.apache.cayenne.cache.QueryCache;
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.exp.ExpressionException;
+import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.map.DbEntity;
+import org.apache.cayenne.map.DbRelationship;
+import org.apache.cayenne.map.Entity;
+import org.apache.cayenne.map.ObjAttribute;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.map.ObjRelationship;
+import org.apache.cayenne.map.Procedure;
+import org.apache.cayenne.query.Ordering;
+import org.apache.cayenne.query.PrefetchTreeNode;
+import org.apache.cayenne.query.Query;
+import org.apache.cayenne.query.QueryCacheStrategy;
+import org.apache.cayenne.query.QueryMetadata;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.reflect.ClassDescriptor;
+
+/**
+ * Invalidates cached query results when the DbEntities they were fetched from are
+ * committed. Each cached result is put in an implicit cache group per DbEntity of the
+ * query root, qualifier, orderings and prefetches. Results of the queries other than
+ * SelectQuery depend on all the entities. Commits are reported via SnapshotEvents, so
+ * the results are also invalidated by the commits of the remote DataDomains connected
+ * via EventBridge.
+ *
+ * @since 3.1
+ */
+class QueryCacheInvalidator {
+
+    static final String ENTITY_GROUP_PREFIX = "cayenne.entity:";
+
+    // a group of the results that depend on any entity
+    static final String ALL_ENTITIES_GROUP = ENTITY_GROUP_PREFIX + "*";
+
+    private DataDomain domain;
+
+    QueryCacheInvalidator(DataDomain domain) {
+        this.domain = domain;
+    }
+
+    static String entityGroup(String dbEntityName) {
+        return ENTITY_GROUP_PREFIX + dbEntityName;
+    }
+
+    /**
+     * Returns metadata that includes entity groups of the query in its cache groups, to
+     * be used when putting the query results in cache.
+     */
+    QueryMetadata dependentMetadata(Query query, QueryMetadata metadata) {
+        return domain.isQueryCacheInvalidation() && metadata.getCacheKey() != null
+                ? new DependentQueryMetadata(query, metadata)
+                : metadata;
+    }
+
+    /**
+     * A listener method invalidating the cached results that depend on the committed
+     * entities.
+     */
+    void snapshotsChanged(SnapshotEvent event) {
+        Collection<String> entityNames = event.getModifiedEntityNames();
+        if (entityNames.isEmpty() || !domain.isQueryCacheInvalidation()) {
+            return;
+        }
+
+        QueryCache queryCache = domain.getQueryCache();
+        if (queryCache == null) {
+            return;
+        }
+
+        queryCache.removeGroup(ALL_ENTITIES_GROUP);
+        for (String entityName : entityNames) {
+            queryCache.removeGroup(entityGroup(entityName));
+        }
+    }
+
+    /**
+     * Returns names of the DbEntities whose data is included in the query results, or
+     * null if they can't be determined.
+     */
+    static Collection<String> dependencies(Query query, QueryMetadata metadata) {
+        if (!(query instanceof SelectQuery) || metadata.getDbEntity() == null) {
+            return null;
+        }
+
+        SelectQuery select = (SelectQuery) query;
+        ObjEntity objEntity = metadata.getObjEntity();
+        DbEntity dbEntity = metadata.getDbEntity();
+
+        Collection<String> names = new LinkedHashSet<String>();
+        names.add(dbEntity.getName());
+
+        try {
+            if (objEntity != null && !metadata.isFetchingDataRows()) {
+                for (ObjAttribute attribute : objEntity.getAttributes()) {
+                    if (attribute.isFlattened()) {
+                        addPath(names, attribute.getDbPathIterator());
+                    }
+                }
+            }
+
+            addPaths(names, objEntity, dbEntity, select.getQualifier());
+
+            List<Ordering> orderings = select.getOrderings();
+            if (orderings != null) {
+                for (Ordering ordering : orderings) {
+                    addPaths(names, objEntity, dbEntity, ordering.getSortSpec());
+                }
+            }
+
+            PrefetchTreeNode prefetchTree = metadata.getPrefetchTree();
+            if (prefetchTree != null && objEntity != null) {
+                for (PrefetchTreeNode node : prefetchTree.nonPhantomNodes()) {
+                    String path = node.getPath();
+                    if (path.length() > 0) {
+                        addPath(names, objEntity.resolvePathComponents(path));
+                    }
+                }
+            }
+        }
+        catch (ExpressionException e) {
+            // unresolvable paths, e.g. split aliases
+            return null;
+        }
+
+        return names;
+    }
+
+    private static void addPaths(
+            Collection<String> names,
+            ObjEntity objEntity,
+            DbEntity dbEntity,
+            Expression expression) {
+
+        if (expression == null) {
+            return;
+        }
+
+        if (expression.getType() == Expression.OBJ_PATH) {
+            if (objEntity == null) {
+                throw new ExpressionException("No ObjEntity to resolve " + expression);
+            }
+
+            addPath(names, objEntity.resolvePathComponents(expression));
+        }
+        else if (expression.getType() == Expression.DB_PATH) {
+            addPath(names, dbEntity.resolvePathComponents(expression));
+        }
+        else {
+            for (int i = 0; i < expression.getOperandCount(); i++) {
+                Object operand = expression.getOperand(i);
+                if (operand instanceof Expression) {
+                    addPaths(names, objEntity, dbEntity, (Expression) operand);
+                }
+            }
+        }
+    }
+
+    private static void addPath(Collection<String> names, Iterator<?> path) {
+        while (path.hasNext()) {
+            Object component = path.next();
+
+            if (component instanceof ObjRelationship) {
+                for (DbRelationship relationship : ((ObjRelationship) component)
+                        .getDbRelationships()) {
+                    addTarget(names, relationship);
+                }
+            }
+            else if (component instanceof DbRelationship) {
+                addTarget(names, (DbRelationship) component);
+            }
+            else if (component instanceof ObjAttribute
+                    && ((ObjAttribute) component).isFlattened()) {
+                addPath(names, ((ObjAttribute) component).getDbPathIterator());
+            }
+        }
+    }
+
+    private static void addTarget(Collection<String> names, DbRelationship relationship) {
+        Entity target = relationship.getTargetEntity();
+        if (target == null) {
+            throw new ExpressionException("Unresolved relationship target: "
+                    + relationship.getName());
+        }
+
+        names.add(target.getName());
+    }
+
+    /**
+     * Query metadata with cache groups extended by the entity groups, calculated lazily
+     * as they are only needed when the results are put in cache.
+     */
+    final class DependentQueryMetadata implements QueryMetadata {
+
+        private Query query;
+        private QueryMetadata mdDelegate;
+        private String[] cacheGroups;
+
+        DependentQueryMetadata(Query query, QueryMetadata mdDelegate) {
+            this.query = query;
+            this.mdDelegate = mdDelegate;
+        }
+
+        public String[] getCacheGroups() {
+            if (cacheGroups == null) {
+                String[] groups = mdDelegate.getCacheGroups();
+                Collection<String> names = dependencies(query, mdDelegate);
+
+                Collection<String> allGroups = new LinkedHashSet<String>();
+                if (groups != null) {
+                    for (String group : groups) {
+                        allGroups.add(group);
+                    }
+                }
+
+                if (names != null) {
+                    for (String name : names) {
+                        allGroups.add(entityGroup(name));
+                    }
+                }
+                else {
+                    allGroups.add(ALL_ENTITIES_GROUP);
+                }
+
+                cacheGroups = allGroups.toArray(new String[allGroups.size()]);
+            }
+
+            return cacheGroups;
+        }
+
+        public String getCacheKey() {
+            return mdDelegate.getCacheKey();
+        }
+
+        public QueryCacheStrategy getCacheStrategy() {
+            return mdDelegate.getCacheStrategy();
+        }
+
+        public ClassDescriptor getClassDescriptor() {
+            return mdDelegate.getClassDescriptor();
+        }
+
+        public DataMap getDataMap() {
+            return mdDelegate.getDataMap();
+        }
+
+        public DbEntity getDbEntity() {
+            return mdDelegate.getDbEntity();
+        }
+
+        public int getFetchLimit() {
+            return mdDelegate.getFetchLimit();
+        }
+
+        public int getFetchOffset() {
+            return mdDelegate.getFetchOffset();
+        }
+
+        public ObjEntity getObjEntity() {
+            return mdDelegate.getObjEntity();
+        }
+
+        public Query getOrginatingQuery() {
+            return mdDelegate.getOrginatingQuery();
+        }
+
+        public int getPageSize() {
+            return mdDelegate.getPageSize();
+        }
+
+        public PrefetchTreeNode getPrefetchTree() {
+            return mdDelegate.getPrefetchTree();
+        }
+
+        public Map<String, String> getPathSplitAliases() {
+            return mdDelegate.getPathSplitAliases();
+        }
+
+        public Procedure getProcedure() {
+            return mdDelegate.getProcedure();
+        }
+
+        public List<Object> getResultSetMapping() {
+            return mdDelegate.getResultSetMapping();
+        }
+
+        public boolean isFetchingDataRows() {
+            return mdDelegate.isFetchingDataRows();
+        }
+
+        public boolean isRefreshingObjects() {
+            return mdDelegate.isRefreshingObjects();
+        }
+
+        public int getStatementFetchSize() {
+            return mdDelegate.getStatementFetchSize();
+        }
+    }
+}
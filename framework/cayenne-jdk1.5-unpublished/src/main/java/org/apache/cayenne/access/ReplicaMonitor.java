@@ -0,0 +1,40 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+/**
+ * Reports the state of replica DataNodes to {@link RoundRobinReplicaSelector}. Usually
+ * implemented on top of a monitoring system or a periodic check of the replication
+ * status in the database.
+ * 
+ * @since 3.1
+ */
+public interface ReplicaMonitor {
+
+    /**
+     * Returns true if the replica can accept queries.
+     */
+    boolean isAvailable(DataNode replica);
+
+    /**
+     * Returns the time in milliseconds the replica is behind its primary node, or a
+     * negative number if this is not known.
+     */
+    long getReplicationLag(DataNode replica);
+}
@@ -0,0 +1,37 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.List;
+
+/**
+ * A strategy for choosing a replica DataNode to run a read-only query, instead of the
+ * primary DataNode of the query DataMap.
+ * 
+ * @see DataDomain#addReplicaNode(String, DataNode)
+ * @since 3.1
+ */
+public interface ReplicaSelector {
+
+    /**
+     * Returns one of the replicas of the primary node, or null if the query should be
+     * run against the primary node.
+     */
+    DataNode selectReplica(DataNode primary, List<DataNode> replicas);
+}
@@ -0,0 +1,92 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ReplicaSelector} that spreads the queries evenly across the replicas,
+ * skipping those that {@link ReplicaMonitor} reports as unavailable or lagging behind
+ * the primary node for too long. If no replica qualifies, the query is run against the
+ * primary node.
+ * 
+ * @since 3.1
+ */
+public class RoundRobinReplicaSelector implements ReplicaSelector {
+
+    protected ReplicaMonitor monitor;
+    protected long maxReplicationLag;
+    protected AtomicInteger counter;
+
+    /**
+     * Creates a selector that treats all replicas as available.
+     */
+    public RoundRobinReplicaSelector() {
+        this(null, -1);
+    }
+
+    /**
+     * Creates a selector that skips replicas that are not available or that lag behind
+     * the primary node for more than "maxReplicationLag" milliseconds, or whose lag is
+     * unknown. Negative "maxReplicationLag" means that the lag is ignored.
+     */
+    public RoundRobinReplicaSelector(ReplicaMonitor monitor, long maxReplicationLag) {
+        this.monitor = monitor;
+        this.maxReplicationLag = maxReplicationLag;
+        this.counter = new AtomicInteger();
+    }
+
+    public DataNode selectReplica(DataNode primary, List<DataNode> replicas) {
+
+        int size = replicas.size();
+        if (size == 0) {
+            return null;
+        }
+
+        // the counter may overflow, so drop the sign bit
+        int start = (counter.getAndIncrement() & Integer.MAX_VALUE) % size;
+
+        for (int i = 0; i < size; i++) {
+            DataNode replica = replicas.get((start + i) % size);
+            if (isUsable(replica)) {
+                return replica;
+            }
+        }
+
+        return null;
+    }
+
+    protected boolean isUsable(DataNode replica) {
+        if (monitor == null) {
+            return true;
+        }
+
+        if (!monitor.isAvailable(replica)) {
+            return false;
+        }
+
+        if (maxReplicationLag >= 0) {
+            long lag = monitor.getReplicationLag(replica);
+            return lag >= 0 && lag <= maxReplicationLag;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,144 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collections;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.DataRow;
+import org.apache.cayenne.access.jdbc.BaseSQLAction;
+import org.apache.cayenne.access.trans.SelectTranslator;
+import org.apache.cayenne.dba.JdbcActionBuilder;
+import org.apache.cayenne.dba.JdbcAdapter;
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.query.AbstractQuery;
+import org.apache.cayenne.query.QueryMetadata;
+import org.apache.cayenne.query.SQLAction;
+import org.apache.cayenne.query.SQLActionVisitor;
+import org.apache.cayenne.query.SelectQuery;
+
+/**
+ * A query that counts the rows matched by a SelectQuery. It is translated to
+ * "SELECT COUNT(*) FROM (...)" wrapping the SQL of the SelectQuery, so DISTINCT, joins
+ * and entity qualifiers are taken into account. The result is a single DataRow with a
+ * "COUNT" key.
+ *
+ * @since 3.1
+ */
+class SelectCountQuery extends AbstractQuery {
+
+    static final String COUNT_KEY = "COUNT";
+
+    protected SelectQuery query;
+
+    /**
+     * Creates a count query for the rows of a given SelectQuery. Orderings, fetch limit
+     * and offset and prefetches of the query are ignored.
+     */
+    SelectCountQuery(SelectQuery query) {
+        Expression qualifier = query.getQualifier();
+
+        // the count query has no orderings, so the page cursor is applied as a qualifier
+        if (query.getPageCursor() != null) {
+            Expression cursorQualifier = query.getPageCursor().qualifier(
+                    query.getOrderings());
+            qualifier = (qualifier != null)
+                    ? qualifier.andExp(cursorQualifier)
+                    : cursorQualifier;
+        }
+
+        this.query = new SelectQuery();
+        this.query.setRoot(query.getRoot());
+        this.query.setQualifier(qualifier);
+        this.query.setDistinct(query.isDistinct());
+        this.query.setFetchingDataRows(true);
+
+        setRoot(query.getRoot());
+    }
+
+    @Override
+    public QueryMetadata getMetaData(EntityResolver resolver) {
+        return query.getMetaData(resolver);
+    }
+
+    @Override
+    public SQLAction createSQLAction(SQLActionVisitor visitor) {
+        if (!(visitor instanceof JdbcActionBuilder)) {
+            throw new CayenneRuntimeException("Unsupported SQLActionVisitor: " + visitor);
+        }
+
+        JdbcActionBuilder builder = (JdbcActionBuilder) visitor;
+        return new SelectCountAction(builder.getAdapter(), builder.getEntityResolver());
+    }
+
+    class SelectCountAction extends BaseSQLAction {
+
+        SelectCountAction(JdbcAdapter adapter, EntityResolver entityResolver) {
+            super(adapter, entityResolver);
+        }
+
+        public void performAction(Connection connection, OperationObserver observer)
+                throws Exception {
+
+            long t1 = System.currentTimeMillis();
+
+            SelectTranslator translator = new SelectTranslator() {
+
+                @Override
+                public String createSqlString() throws Exception {
+                    return "SELECT COUNT(*) FROM (" + super.createSqlString() + ") t";
+                }
+            };
+
+            translator.setQuery(query);
+            translator.setAdapter(adapter);
+            translator.setEntityResolver(getEntityResolver());
+            translator.setConnection(connection);
+            translator.setJdbcEventLogger(adapter.getJdbcEventLogger());
+
+            long count;
+            PreparedStatement statement = translator.createStatement();
+            try {
+                ResultSet rs = statement.executeQuery();
+                try {
+                    rs.next();
+                    count = rs.getLong(1);
+                }
+                finally {
+                    rs.close();
+                }
+            }
+            finally {
+                statement.close();
+            }
+
+            adapter.getJdbcEventLogger().logSelectCount(
+                    1,
+                    System.currentTimeMillis() - t1);
+
+            DataRow row = new DataRow(2);
+            row.put(COUNT_KEY, count);
+            observer.nextRows(SelectCountQuery.this, Collections.singletonList(row));
+        }
+    }
+}
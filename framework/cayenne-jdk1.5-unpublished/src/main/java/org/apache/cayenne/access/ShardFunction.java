@@ -0,0 +1,44 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.Map;
+
+import org.apache.cayenne.map.DbEntity;
+
+/**
+ * A strategy that maps shard key values of a sharded entity row to one of the entity
+ * shards.
+ *
+ * @since 3.1
+ * @see EntityShards
+ */
+public interface ShardFunction {
+
+    /**
+     * Returns an index of the shard that stores a row with a given shard key. The
+     * returned value must be between 0 (inclusive) and the number of shards (exclusive),
+     * and must always be the same for the same key.
+     *
+     * @param entity sharded entity.
+     * @param shardKey values of the shard key attributes keyed by DbAttribute name.
+     * @param shards the number of shards.
+     */
+    int getShard(DbEntity entity, Map<String, ?> shardKey, int shards);
+}
@@ -0,0 +1,175 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cayenne.ObjectId;
+import org.apache.cayenne.Persistent;
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.map.DbEntity;
+import org.apache.cayenne.map.DbJoin;
+import org.apache.cayenne.map.DbRelationship;
+import org.apache.cayenne.map.ObjAttribute;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.map.ObjRelationship;
+
+/**
+ * Finds the values of DbAttributes that a query qualifier matches with "equals"
+ * conditions joined with "and". Relationship matches are resolved to the values of the
+ * relationship source attributes. Used to route queries on sharded entities.
+ *
+ * @since 3.1
+ */
+class ShardKeyExtractor {
+
+    private DbEntity dbEntity;
+    private ObjEntity objEntity;
+
+    ShardKeyExtractor(DbEntity dbEntity, ObjEntity objEntity) {
+        this.dbEntity = dbEntity;
+        this.objEntity = objEntity;
+    }
+
+    /**
+     * Returns a map of DbAttribute names to the values matched by the qualifier.
+     */
+    Map<String, Object> extract(Expression qualifier) {
+        Map<String, Object> values = new HashMap<String, Object>();
+        if (qualifier != null) {
+            appendValues(qualifier, values);
+        }
+
+        return values;
+    }
+
+    private void appendValues(Expression expression, Map<String, Object> values) {
+
+        switch (expression.getType()) {
+            case Expression.AND:
+                for (int i = 0; i < expression.getOperandCount(); i++) {
+                    Object operand = expression.getOperand(i);
+                    if (operand instanceof Expression) {
+                        appendValues((Expression) operand, values);
+                    }
+                }
+                break;
+            case Expression.EQUAL_TO:
+                Object path = expression.getOperand(0);
+                Object value = expression.getOperand(1);
+
+                if (path instanceof Expression && !(value instanceof Expression)) {
+                    Expression pathExp = (Expression) path;
+                    if (pathExp.getType() == Expression.DB_PATH) {
+                        appendDbPathValues((String) pathExp.getOperand(0), value, values);
+                    }
+                    else if (pathExp.getType() == Expression.OBJ_PATH) {
+                        appendObjPathValues((String) pathExp.getOperand(0), value, values);
+                    }
+                }
+                break;
+        }
+    }
+
+    private void appendObjPathValues(String path, Object value, Map<String, Object> values) {
+        if (objEntity == null || path.indexOf('.') >= 0) {
+            return;
+        }
+
+        ObjAttribute attribute = (ObjAttribute) objEntity.getAttribute(path);
+        if (attribute != null) {
+            String dbPath = attribute.getDbAttributePath();
+            if (dbPath != null && dbPath.indexOf('.') < 0) {
+                appendValue(dbPath, value, values);
+            }
+
+            return;
+        }
+
+        ObjRelationship relationship = (ObjRelationship) objEntity.getRelationship(path);
+        if (relationship != null) {
+            List<DbRelationship> dbRelationships = relationship.getDbRelationships();
+            if (dbRelationships.size() == 1) {
+                appendJoinValues(dbRelationships.get(0), value, values);
+            }
+        }
+    }
+
+    private void appendDbPathValues(String path, Object value, Map<String, Object> values) {
+        if (path.indexOf('.') >= 0) {
+            return;
+        }
+
+        DbAttribute attribute = (DbAttribute) dbEntity.getAttribute(path);
+        if (attribute != null) {
+            appendValue(path, value, values);
+            return;
+        }
+
+        DbRelationship relationship = (DbRelationship) dbEntity.getRelationship(path);
+        if (relationship != null) {
+            appendJoinValues(relationship, value, values);
+        }
+    }
+
+    private void appendJoinValues(
+            DbRelationship relationship,
+            Object value,
+            Map<String, Object> values) {
+
+        List<DbJoin> joins = relationship.getJoins();
+
+        if (value instanceof Persistent) {
+            value = ((Persistent) value).getObjectId();
+        }
+
+        Map<?, ?> targetValues;
+        if (value instanceof ObjectId) {
+            ObjectId id = (ObjectId) value;
+            if (id.isTemporary() && !id.isReplacementIdAttached()) {
+                return;
+            }
+
+            targetValues = id.getIdSnapshot();
+        }
+        else if (value instanceof Map) {
+            targetValues = (Map<?, ?>) value;
+        }
+        else if (joins.size() == 1) {
+            appendValue(joins.get(0).getSourceName(), value, values);
+            return;
+        }
+        else {
+            return;
+        }
+
+        for (DbJoin join : joins) {
+            appendValue(join.getSourceName(), targetValues.get(join.getTargetName()), values);
+        }
+    }
+
+    private void appendValue(String name, Object value, Map<String, Object> values) {
+        if (value != null) {
+            values.put(name, value);
+        }
+    }
+}
@@ -0,0 +1,407 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.map.DbEntity;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.map.ObjAttribute;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.query.Ordering;
+import org.apache.cayenne.query.Query;
+import org.apache.cayenne.query.QueryMetadata;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.util.ConversionUtil;
+
+/**
+ * A QueryEngine that runs each SelectQuery on all shards of an entity and merges the
+ * results. If the query is ordered by the entity attributes, rows from the shards are
+ * merge-sorted in memory, otherwise they are concatenated in the order of shards.
+ * Queries ordered by related paths or expressions can't be merged and fail if the
+ * entity has more than one shard. So do queries ordered by nullable columns, as the
+ * position of NULLs in the shard results depends on the database. Fetch offset and
+ * limit are applied after the merge, while each shard is only asked for the first
+ * "offset + limit" rows.
+ *
+ * @since 3.1
+ */
+class ShardedQueryEngine implements QueryEngine {
+
+    private List<DataNode> nodes;
+    private ExecutorService executor;
+    private EntityResolver entityResolver;
+
+    ShardedQueryEngine(EntityShards shards, EntityResolver entityResolver) {
+        this.nodes = shards.getNodes();
+        this.executor = shards.getExecutor();
+        this.entityResolver = entityResolver;
+    }
+
+    public EntityResolver getEntityResolver() {
+        return entityResolver;
+    }
+
+    public void performQueries(
+            Collection<? extends Query> queries,
+            OperationObserver callback) {
+
+        for (Query query : queries) {
+            performQuery(query, callback);
+        }
+    }
+
+    private void performQuery(Query query, OperationObserver callback) {
+
+        QueryMetadata metadata = query.getMetaData(entityResolver);
+        int offset = metadata.getFetchOffset();
+        int limit = metadata.getFetchLimit();
+
+        // fail before querying the shards if the results can't be merged
+        Comparator<Object> comparator;
+        try {
+            comparator = nodes.size() > 1 ? rowComparator(query, metadata) : null;
+        }
+        catch (CayenneRuntimeException e) {
+            callback.nextQueryException(query, e);
+            return;
+        }
+
+        Query shardQuery = query;
+        if (offset > 0 && query instanceof SelectQuery) {
+            SelectQuery pushdown = ((SelectQuery) query).queryWithParameters(
+                    Collections.EMPTY_MAP,
+                    false);
+            pushdown.setFetchOffset(0);
+            pushdown.setFetchLimit(limit > 0 ? offset + limit : 0);
+            shardQuery = pushdown;
+        }
+
+        List<List<?>> results;
+        try {
+            results = executor != null && nodes.size() > 1 ? performInParallel(
+                    shardQuery,
+                    executor) : performSequentially(shardQuery);
+        }
+        catch (Exception e) {
+            callback.nextQueryException(query, e);
+            return;
+        }
+
+        List<?> rows = merge(results, comparator);
+
+        // offset is only applied by the shards if it was not pushed down
+        int from = shardQuery != query ? Math.min(offset, rows.size()) : 0;
+        int to = limit > 0 ? Math.min(from + limit, rows.size()) : rows.size();
+        if (from > 0 || to < rows.size()) {
+            rows = new ArrayList<Object>(rows.subList(from, to));
+        }
+
+        callback.nextRows(query, rows);
+    }
+
+    private List<List<?>> performSequentially(Query query) throws Exception {
+        List<List<?>> results = new ArrayList<List<?>>(nodes.size());
+        for (DataNode node : nodes) {
+            results.add(performOnNode(node, query));
+        }
+
+        return results;
+    }
+
+    /**
+     * Runs the query on all shards concurrently in the current thread transaction.
+     * Waits for all shards to finish before reporting a failure, so that the
+     * transaction is not rolled back while some of its connections are still in use.
+     */
+    private List<List<?>> performInParallel(
+            final Query query,
+            ExecutorService executor) throws Exception {
+
+        final Transaction transaction = Transaction.getThreadTransaction();
+        List<Future<List<?>>> futures = new ArrayList<Future<List<?>>>(nodes.size());
+
+        Exception failure = null;
+
+        try {
+            for (final DataNode node : nodes) {
+                futures.add(executor.submit(new Callable<List<?>>() {
+
+                    public List<?> call() throws Exception {
+                        Transaction.bindThreadTransaction(transaction);
+                        try {
+                            return performOnNode(node, query);
+                        }
+                        finally {
+                            Transaction.bindThreadTransaction(null);
+                        }
+                    }
+                }));
+            }
+        }
+        catch (RejectedExecutionException e) {
+            failure = e;
+        }
+
+        List<List<?>> results = new ArrayList<List<?>>(futures.size());
+        boolean interrupted = false;
+
+        for (Future<List<?>> future : futures) {
+            while (true) {
+                try {
+                    results.add(future.get());
+                    break;
+                }
+                catch (InterruptedException e) {
+                    // keep waiting, the connections are still in use by the shards
+                    interrupted = true;
+                }
+                catch (ExecutionException e) {
+                    if (failure == null) {
+                        Throwable cause = e.getCause();
+                        failure = cause instanceof Exception
+                                ? (Exception) cause
+                                : new CayenneRuntimeException(cause);
+                    }
+                    break;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+
+        return results;
+    }
+
+    private List<?> performOnNode(DataNode node, Query query) throws Exception {
+        QueryResult result = new QueryResult();
+        node.performQueries(Collections.singletonList(query), result);
+
+        if (!result.getGlobalExceptions().isEmpty()) {
+            throw exception(result.getGlobalExceptions().get(0));
+        }
+
+        if (!result.getQueryExceptions().isEmpty()) {
+            throw exception(result.getQueryExceptions().values().iterator().next());
+        }
+
+        List<?> rows = result.getFirstRows(query);
+        return rows != null ? rows : Collections.EMPTY_LIST;
+    }
+
+    private Exception exception(Throwable th) {
+        return th instanceof Exception ? (Exception) th : new CayenneRuntimeException(th);
+    }
+
+    /**
+     * Merges the lists of rows, each sorted with the comparator, into a single sorted
+     * list. If comparator is null, the lists are concatenated.
+     */
+    static List<?> merge(List<List<?>> results, final Comparator<Object> comparator) {
+
+        if (results.size() == 1) {
+            return results.get(0);
+        }
+
+        int size = 0;
+        for (List<?> rows : results) {
+            size += rows.size();
+        }
+
+        List<Object> merged = new ArrayList<Object>(size);
+
+        if (comparator == null) {
+            for (List<?> rows : results) {
+                merged.addAll(rows);
+            }
+
+            return merged;
+        }
+
+        PriorityQueue<Cursor> cursors = new PriorityQueue<Cursor>(
+                results.size(),
+                new Comparator<Cursor>() {
+
+                    public int compare(Cursor c1, Cursor c2) {
+                        int result = comparator.compare(c1.current(), c2.current());
+                        // keep the order of shards for equal rows
+                        return result != 0 ? result : c1.shard - c2.shard;
+                    }
+                });
+
+        for (int i = 0; i < results.size(); i++) {
+            if (!results.get(i).isEmpty()) {
+                cursors.add(new Cursor(results.get(i), i));
+            }
+        }
+
+        while (!cursors.isEmpty()) {
+            Cursor cursor = cursors.poll();
+            merged.add(cursor.current());
+            if (cursor.next()) {
+                cursors.add(cursor);
+            }
+        }
+
+        return merged;
+    }
+
+    /**
+     * Returns a comparator of data rows that follows the query orderings, or null if
+     * the query is not ordered. Throws CayenneRuntimeException if the orderings can't be
+     * evaluated against data rows or are on nullable columns, as the merged rows would
+     * not follow them.
+     */
+    static Comparator<Object> rowComparator(Query query, QueryMetadata metadata) {
+
+        if (!(query instanceof SelectQuery)) {
+            return null;
+        }
+
+        List<Ordering> orderings = ((SelectQuery) query).getOrderings();
+        if (orderings == null || orderings.isEmpty()) {
+            return null;
+        }
+
+        List<String> columns = new ArrayList<String>(orderings.size());
+
+        for (Ordering ordering : orderings) {
+            DbAttribute column = column(ordering.getSortSpec(), metadata);
+            if (column == null || !(column.isMandatory() || column.isPrimaryKey())) {
+                throw new CayenneRuntimeException(
+                        "Can't merge results of sharded query ordered by '%s', only "
+                                + "orderings on NOT NULL entity columns are supported",
+                        ordering.getSortSpecString());
+            }
+
+            columns.add(column.getName());
+        }
+
+        return new RowComparator(orderings, columns);
+    }
+
+    private static DbAttribute column(Expression path, QueryMetadata metadata) {
+        if (path == null
+                || (path.getType() != Expression.DB_PATH
+                        && path.getType() != Expression.OBJ_PATH)) {
+            return null;
+        }
+
+        String name = (String) path.getOperand(0);
+        if (name == null || name.indexOf('.') >= 0) {
+            return null;
+        }
+
+        if (path.getType() == Expression.DB_PATH) {
+            DbEntity entity = metadata.getDbEntity();
+            return entity != null ? (DbAttribute) entity.getAttribute(name) : null;
+        }
+
+        ObjEntity entity = metadata.getObjEntity();
+        if (entity != null) {
+            ObjAttribute attribute = (ObjAttribute) entity.getAttribute(name);
+            if (attribute != null) {
+                String dbPath = attribute.getDbAttributePath();
+                return dbPath != null && dbPath.indexOf('.') < 0 ? attribute
+                        .getDbAttribute() : null;
+            }
+        }
+
+        return null;
+    }
+
+    static final class Cursor {
+
+        final List<?> rows;
+        final int shard;
+        int index;
+
+        Cursor(List<?> rows, int shard) {
+            this.rows = rows;
+            this.shard = shard;
+        }
+
+        Object current() {
+            return rows.get(index);
+        }
+
+        boolean next() {
+            return ++index < rows.size();
+        }
+    }
+
+    static final class RowComparator implements Comparator<Object> {
+
+        private List<Ordering> orderings;
+        private List<String> columns;
+
+        RowComparator(List<Ordering> orderings, List<String> columns) {
+            this.orderings = orderings;
+            this.columns = columns;
+        }
+
+        public int compare(Object o1, Object o2) {
+            Map<?, ?> row1 = (Map<?, ?>) o1;
+            Map<?, ?> row2 = (Map<?, ?>) o2;
+
+            for (int i = 0; i < orderings.size(); i++) {
+                Ordering ordering = orderings.get(i);
+                String column = columns.get(i);
+
+                int result = compareValues(row1.get(column), row2.get(column), ordering);
+                if (result != 0) {
+                    return ordering.isAscending() ? result : -result;
+                }
+            }
+
+            return 0;
+        }
+
+        // ordering columns are NOT NULL, so the values are never null
+        private int compareValues(Object value1, Object value2, Ordering ordering) {
+            if (ordering.isCaseInsensitive()) {
+                value1 = ConversionUtil.toUpperCase(value1);
+                value2 = ConversionUtil.toUpperCase(value2);
+            }
+
+            return ConversionUtil.toComparable(value1).compareTo(
+                    ConversionUtil.toComparable(value2));
+        }
+    }
+}
@@ -19,6 +19,7 @@
 package org.apache.cayenne.access;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.cayenne.Persistent;
@@ -68,6 +69,11 @@ class SimpleIdIncrementalFaultList<E> extends IncrementalFaultList<E> {
         return ExpressionFactory.matchDbExp(pk.getName(), id);
     }
 
+    @Override
+    Expression buildIdsQualifier(List<Object> ids) {
+        return ExpressionFactory.inDbExp(pk.getName(), ids);
+    }
+
     class SingleIdPersistentListHelper extends
             IncrementalFaultList<E>.PersistentListHelper {
 
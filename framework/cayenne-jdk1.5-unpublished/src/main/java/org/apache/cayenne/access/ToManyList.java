@@ -101,6 +101,38 @@ public class ToManyList extends PersistentObjectList implements Serializable {
         // no need for this operation for DataObjects...
     }
 
+    /**
+     * Resolves the list with objects fetched for a batch of relationship owners, unless
+     * it is already resolved.
+     * 
+     * @since 3.1
+     */
+    void resolve(List objects) {
+        synchronized (this) {
+            if (isFault()) {
+                mergeLocalChanges(objects);
+                this.objectList = objects;
+            }
+        }
+    }
+
+    @Override
+    protected List resolveFromDB() {
+        if (!isTransientParent()
+                && relationshipOwner.getObjectContext() instanceof DataContext) {
+
+            List resolved = ((DataContext) relationshipOwner.getObjectContext())
+                    .getObjectStore()
+                    .resolveFaultBatch(relationshipOwner, relationshipName);
+
+            if (resolved != null) {
+                return resolved;
+            }
+        }
+
+        return super.resolveFromDB();
+    }
+
     @Override
     protected void updateReverse(List resolved) {
         // no need for this operation for DataObjects...
@@ -73,6 +73,19 @@ public class ToOneFault extends Fault {
     }
 
     Object doResolveFault(Persistent sourceObject, String relationshipName) {
+
+        ObjectContext context = sourceObject.getObjectContext();
+        if (context instanceof DataContext) {
+            List<?> batch = ((DataContext) context)
+                    .getObjectStore()
+                    .resolveFaultBatch(sourceObject, relationshipName);
+
+            // more than one object is reported by the regular resolution below
+            if (batch != null && batch.size() < 2) {
+                return batch.isEmpty() ? null : batch.get(0);
+            }
+        }
+
         RelationshipQuery query = new RelationshipQuery(
                 sourceObject.getObjectId(),
                 relationshipName,
@@ -204,14 +204,15 @@ public abstract class Transaction {
     /**
      * @since 1.2
      */
-    public Connection getConnection(String name) {
+    public synchronized Connection getConnection(String name) {
         return (connections != null) ? connections.get(name) : null;
     }
 
     /**
      * @since 1.2
      */
-    public boolean addConnection(String name, Connection connection) throws SQLException {
+    public synchronized boolean addConnection(String name, Connection connection)
+            throws SQLException {
         if (delegate != null && !delegate.willAddConnection(this, connection)) {
             return false;
         }
@@ -37,6 +37,7 @@ public class SnapshotEvent extends CayenneEvent {
     protected Collection invalidatedIds;
     protected Map modifiedDiffs;
     protected Collection indirectlyModifiedIds;
+    protected Collection<String> modifiedEntityNames;
 
     public SnapshotEvent(Object source, Object postedBy, Map modifiedDiffs,
             Collection deletedIds, Collection invalidatedIds,
@@ -51,6 +52,23 @@ public class SnapshotEvent extends CayenneEvent {
         this.indirectlyModifiedIds = indirectlyModifiedIds;
     }
 
+    /**
+     * @since 3.1
+     */
+    public SnapshotEvent(Object source, Object postedBy, Map modifiedDiffs,
+            Collection deletedIds, Collection invalidatedIds,
+            Collection indirectlyModifiedIds, Collection<String> modifiedEntityNames) {
+
+        this(
+                source,
+                postedBy,
+                modifiedDiffs,
+                deletedIds,
+                invalidatedIds,
+                indirectlyModifiedIds);
+        this.modifiedEntityNames = modifiedEntityNames;
+    }
+
     public long getTimestamp() {
         return timestamp;
     }
@@ -73,6 +91,17 @@ public class SnapshotEvent extends CayenneEvent {
                 : Collections.EMPTY_LIST;
     }
 
+    /**
+     * Returns names of DbEntities whose rows were inserted, updated or deleted by the
+     * commit that caused this event.
+     * 
+     * @since 3.1
+     */
+    public Collection<String> getModifiedEntityNames() {
+        return (modifiedEntityNames != null) ? modifiedEntityNames : Collections
+                .<String> emptyList();
+    }
+
     @Override
     public String toString() {
         StringBuilder buffer = new StringBuilder();
@@ -99,6 +128,11 @@ public class SnapshotEvent extends CayenneEvent {
                     " id(s)");
         }
 
+        Collection<String> entities = getModifiedEntityNames();
+        if (!entities.isEmpty()) {
+            buffer.append(", modified entities ").append(entities);
+        }
+
         return buffer.toString();
     }
 }
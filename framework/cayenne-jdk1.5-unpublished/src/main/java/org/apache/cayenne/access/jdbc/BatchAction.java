@@ -26,6 +26,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.cayenne.CayenneException;
@@ -33,6 +34,7 @@ import org.apache.cayenne.access.OperationObserver;
 import org.apache.cayenne.access.OptimisticLockException;
 import org.apache.cayenne.access.ResultIterator;
 import org.apache.cayenne.access.trans.BatchQueryBuilder;
+import org.apache.cayenne.access.trans.MultiRowInsertBatchQueryBuilder;
 import org.apache.cayenne.dba.JdbcAdapter;
 import org.apache.cayenne.dba.TypesMapping;
 import org.apache.cayenne.log.JdbcEventLogger;
@@ -79,9 +81,18 @@ public class BatchAction extends BaseSQLAction {
         BatchQueryBuilder queryBuilder = createBuilder();
         boolean generatesKeys = hasGeneratedKeys();
 
-        if (batch && !generatesKeys) {
+        if (!generatesKeys && queryBuilder instanceof MultiRowInsertBatchQueryBuilder) {
+            runAsMultiRowInserts(
+                    connection,
+                    (MultiRowInsertBatchQueryBuilder) queryBuilder,
+                    observer);
+        }
+        else if (batch && !generatesKeys) {
             runAsBatch(connection, queryBuilder, observer);
         }
+        else if (batch && adapter.supportsBatchGeneratedKeys()) {
+            runAsBatchWithGeneratedKeys(connection, queryBuilder, observer);
+        }
         else {
             runAsIndividualQueries(connection, queryBuilder, observer, generatesKeys);
         }
@@ -168,6 +179,163 @@ public class BatchAction extends BaseSQLAction {
         }
     }
 
+    /**
+     * Executes an insert batch as a single JDBC batch, reading generated keys of all
+     * rows after the batch is executed. Keys are matched to the batch rows in order.
+     * 
+     * @since 3.1
+     */
+    protected void runAsBatchWithGeneratedKeys(
+            Connection connection,
+            BatchQueryBuilder queryBuilder,
+            OperationObserver delegate) throws SQLException, Exception {
+
+        String queryStr = queryBuilder.createSqlString(query);
+        JdbcEventLogger logger = adapter.getJdbcEventLogger();
+        boolean isLoggable = logger.isLoggable();
+
+        // log batch SQL execution
+        logger.logQuery(queryStr, Collections.EMPTY_LIST);
+
+        // run batch
+        query.reset();
+
+        PreparedStatement statement = connection.prepareStatement(
+                queryStr,
+                Statement.RETURN_GENERATED_KEYS);
+        try {
+            while (query.next()) {
+
+                if (isLoggable) {
+                    logger.logQueryParameters(
+                            "batch bind",
+                            query.getDbAttributes(),
+                            queryBuilder.getParameterValues(query),
+                            true);
+                }
+
+                queryBuilder.bindParameters(statement, query);
+                statement.addBatch();
+            }
+
+            int[] results = statement.executeBatch();
+            delegate.nextBatchCount(query, results);
+
+            if (isLoggable) {
+                logger.logUpdateCount(results.length);
+            }
+
+            ResultIterator keys = createGeneratedKeysIterator(statement);
+            List<?> keyRows;
+            try {
+                keyRows = keys.allRows();
+            }
+            finally {
+                keys.close();
+            }
+
+            if (keyRows.size() != query.size()) {
+                throw new CayenneException("Expected "
+                        + query.size()
+                        + " generated keys for the batch, got "
+                        + keyRows.size()
+                        + ". JDBC driver may not support batch generated keys.");
+            }
+
+            // report keys one row at a time, positioning the batch on the matching row,
+            // so that the observer maps each key to the right ObjectId
+            query.reset();
+            for (Object keyRow : keyRows) {
+                query.next();
+                delegate.nextGeneratedRows(query, new SingleRowIterator(keyRow));
+            }
+        }
+        finally {
+            try {
+                statement.close();
+            }
+            catch (Exception e) {
+            }
+        }
+    }
+
+    /**
+     * Executes an insert batch as a series of multi-row INSERT statements. Reports a
+     * separate update count for each batch row to the observer.
+     * 
+     * @since 3.1
+     */
+    protected void runAsMultiRowInserts(
+            Connection connection,
+            MultiRowInsertBatchQueryBuilder queryBuilder,
+            OperationObserver delegate) throws SQLException, Exception {
+
+        JdbcEventLogger logger = adapter.getJdbcEventLogger();
+        boolean isLoggable = logger.isLoggable();
+
+        int size = query.size();
+        int rowsPerStatement = queryBuilder.getRowsPerStatement(query);
+        int[] results = new int[size];
+
+        query.reset();
+
+        // full size statement is reused for all chunks, except for the last partial one
+        PreparedStatement statement = null;
+        int statementRows = 0;
+
+        try {
+            for (int start = 0; start < size; start += rowsPerStatement) {
+
+                int rows = Math.min(rowsPerStatement, size - start);
+                if (rows != statementRows) {
+                    if (statement != null) {
+                        statement.close();
+                    }
+
+                    String queryStr = queryBuilder.createSqlString(query, rows);
+                    logger.logQuery(queryStr, Collections.EMPTY_LIST);
+                    statement = connection.prepareStatement(queryStr);
+                    statementRows = rows;
+                }
+
+                for (int i = 0; i < rows && query.next(); i++) {
+                    if (isLoggable) {
+                        logger.logQueryParameters(
+                                "bind",
+                                query.getDbAttributes(),
+                                queryBuilder.getParameterValues(query),
+                                true);
+                    }
+
+                    queryBuilder.bindParameters(statement, query, i);
+                }
+
+                int updated = statement.executeUpdate();
+
+                // only a total count is known for a statement, so spread it over the rows
+                int rowCount = updated == rows ? 1 : Statement.SUCCESS_NO_INFO;
+                for (int i = 0; i < rows; i++) {
+                    results[start + i] = rowCount;
+                }
+
+                if (isLoggable) {
+                    logger.logUpdateCount(updated);
+                }
+            }
+
+            delegate.nextBatchCount(query, results);
+        }
+        finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                }
+                catch (Exception e) {
+                }
+            }
+        }
+    }
+
     /**
      * Executes batch as individual queries over the same prepared statement.
      */
@@ -270,6 +438,16 @@ public class BatchAction extends BaseSQLAction {
      */
     protected void processGeneratedKeys(Statement statement, OperationObserver observer)
             throws SQLException, CayenneException {
+        observer.nextGeneratedRows(query, createGeneratedKeysIterator(statement));
+    }
+
+    /**
+     * Returns an iterator over generated keys of the last statement execution.
+     * 
+     * @since 3.1
+     */
+    protected ResultIterator createGeneratedKeysIterator(Statement statement)
+            throws SQLException, CayenneException {
 
         ResultSet keysRS = statement.getGeneratedKeys();
 
@@ -306,13 +484,45 @@ public class BatchAction extends BaseSQLAction {
                     .getDescriptor(getAdapter().getExtendedTypes());
         }
 
-        ResultIterator iterator = new JDBCResultIterator(
+        return new JDBCResultIterator(
                 null,
                 null,
                 keysRS,
                 keyRowDescriptor,
                 query.getMetaData(getEntityResolver()));
+    }
 
-        observer.nextGeneratedRows(query, iterator);
+    /**
+     * An iterator over a single generated key row.
+     */
+    static final class SingleRowIterator implements ResultIterator {
+
+        private Object row;
+
+        SingleRowIterator(Object row) {
+            this.row = row;
+        }
+
+        public List<?> allRows() {
+            return row != null ? Collections.singletonList(nextRow()) : Collections
+                    .emptyList();
+        }
+
+        public boolean hasNextRow() {
+            return row != null;
+        }
+
+        public Object nextRow() {
+            Object next = row;
+            row = null;
+            return next;
+        }
+
+        public void skipRow() {
+            row = null;
+        }
+
+        public void close() {
+        }
     }
 }
@@ -21,7 +21,9 @@ package org.apache.cayenne.access.jdbc;
 import java.sql.ResultSet;
 
 import org.apache.cayenne.CayenneException;
+import org.apache.cayenne.CompactDataRow;
 import org.apache.cayenne.DataRow;
+import org.apache.cayenne.DataRowIndex;
 import org.apache.cayenne.query.QueryMetadata;
 import org.apache.cayenne.util.Util;
 
@@ -30,17 +32,23 @@ import org.apache.cayenne.util.Util;
  */
 class FullRowReader extends BaseRowReader<DataRow> {
 
-    int mapCapacity;
+    DataRowIndex index;
+    int[] positions;
 
     FullRowReader(RowDescriptor descriptor, QueryMetadata queryMetadata) {
         super(descriptor, queryMetadata);
-        this.mapCapacity = (int) Math.ceil((descriptor.getWidth()) / 0.75);
+
+        this.index = descriptor.getDataRowIndex();
+        this.positions = new int[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            positions[i] = index.indexOf(labels[i]);
+        }
     }
 
     @Override
     public DataRow readRow(ResultSet resultSet) throws CayenneException {
         try {
-            DataRow dataRow = new DataRow(mapCapacity);
+            CompactDataRow dataRow = new CompactDataRow(index);
 
             int resultWidth = labels.length;
 
@@ -48,7 +56,7 @@ class FullRowReader extends BaseRowReader<DataRow> {
             for (int i = 0; i < resultWidth; i++) {
                 // note: jdbc column indexes start from 1, not 0 unlike everywhere else
                 Object val = converters[i].materializeObject(resultSet, i + 1, types[i]);
-                dataRow.put(labels[i], val);
+                dataRow.setValue(positions[i], val);
             }
 
             postprocessRow(resultSet, dataRow);
@@ -0,0 +1,66 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access.jdbc;
+
+import org.apache.cayenne.access.trans.BatchQueryBuilder;
+import org.apache.cayenne.access.trans.MultiRowInsertBatchQueryBuilder;
+import org.apache.cayenne.dba.DbAdapter;
+
+/**
+ * Implementation of {@link BatchQueryBuilderFactory} that inserts multiple rows per
+ * statement using multi-row VALUES syntax. Can be installed on adapters whose databases
+ * support such syntax (e.g. MySQL, PostgreSQL, H2, Derby, SQLServer 2008) via
+ * {@link org.apache.cayenne.dba.JdbcAdapter#setBatchQueryBuilderFactory(BatchQueryBuilderFactory)}.
+ * Inserts that need generated keys are still executed one row at a time.
+ * 
+ * @since 3.1
+ */
+public class MultiRowInsertQueryBuilderFactory extends DefaultBatchQueryBuilderFactory {
+
+    private int maxRows;
+    private int maxParameters;
+
+    public MultiRowInsertQueryBuilderFactory() {
+        this(
+                MultiRowInsertBatchQueryBuilder.DEFAULT_MAX_ROWS,
+                MultiRowInsertBatchQueryBuilder.DEFAULT_MAX_PARAMETERS);
+    }
+
+    /**
+     * Creates a factory with the limits on the number of rows and the number of bound
+     * parameters in a single INSERT statement.
+     */
+    public MultiRowInsertQueryBuilderFactory(int maxRows, int maxParameters) {
+        this.maxRows = maxRows;
+        this.maxParameters = maxParameters;
+    }
+
+    @Override
+    public BatchQueryBuilder createInsertQueryBuilder(DbAdapter adapter) {
+        return new MultiRowInsertBatchQueryBuilder(adapter, maxRows, maxParameters);
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    public int getMaxParameters() {
+        return maxParameters;
+    }
+}
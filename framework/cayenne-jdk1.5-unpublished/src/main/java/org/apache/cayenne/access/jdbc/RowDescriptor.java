@@ -19,6 +19,7 @@
 
 package org.apache.cayenne.access.jdbc;
 
+import org.apache.cayenne.DataRowIndex;
 import org.apache.cayenne.access.types.ExtendedType;
 
 /**
@@ -30,6 +31,7 @@ public class RowDescriptor {
 
     protected ColumnDescriptor[] columns;
     protected ExtendedType[] converters;
+    protected DataRowIndex dataRowIndex;
 
     /**
      * Creates an empty RowDescriptor. Intended mainly for testing and use by subclasses.
@@ -68,4 +70,23 @@ public class RowDescriptor {
     public ExtendedType[] getConverters() {
         return converters;
     }
+
+    /**
+     * Returns an index of DataRow keys of the columns, shared by all compact DataRows
+     * read with this descriptor.
+     * 
+     * @since 3.1
+     */
+    public DataRowIndex getDataRowIndex() {
+        if (dataRowIndex == null) {
+            String[] keys = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                keys[i] = columns[i].getDataRowKey();
+            }
+
+            dataRowIndex = new DataRowIndex(keys);
+        }
+
+        return dataRowIndex;
+    }
 }
@@ -67,6 +67,7 @@ public class SelectAction extends BaseSQLAction {
         long t1 = System.currentTimeMillis();
 
         SelectTranslator translator = createTranslator(connection);
+        translator.setTranslationCache(adapter.getSelectTranslationCache());
         PreparedStatement prepStmt = translator.createStatement();
         ResultSet rs;
 
@@ -0,0 +1,151 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access.trans;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.query.BatchQuery;
+
+/**
+ * Translator of InsertBatchQueries that inserts multiple rows with a single statement,
+ * using "INSERT INTO T (A, B) VALUES (?, ?), (?, ?), ..." syntax. The number of rows per
+ * statement is limited by both the maximum number of rows and the maximum number of
+ * bound parameters, as many drivers fail on statements with too many parameters.
+ * 
+ * @since 3.1
+ */
+public class MultiRowInsertBatchQueryBuilder extends InsertBatchQueryBuilder {
+
+    public static final int DEFAULT_MAX_ROWS = 500;
+
+    /**
+     * Default parameter limit, that stays below the limits of the common drivers (e.g.
+     * 2100 parameters of SQLServer).
+     */
+    public static final int DEFAULT_MAX_PARAMETERS = 2000;
+
+    protected int maxRows;
+    protected int maxParameters;
+
+    public MultiRowInsertBatchQueryBuilder(DbAdapter adapter) {
+        this(adapter, DEFAULT_MAX_ROWS, DEFAULT_MAX_PARAMETERS);
+    }
+
+    public MultiRowInsertBatchQueryBuilder(DbAdapter adapter, int maxRows,
+            int maxParameters) {
+        super(adapter);
+
+        if (maxRows < 1) {
+            throw new IllegalArgumentException("Invalid max rows: " + maxRows);
+        }
+
+        if (maxParameters < 1) {
+            throw new IllegalArgumentException("Invalid max parameters: "
+                    + maxParameters);
+        }
+
+        this.maxRows = maxRows;
+        this.maxParameters = maxParameters;
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    public int getMaxParameters() {
+        return maxParameters;
+    }
+
+    /**
+     * Returns the number of batch rows that can be inserted with a single statement.
+     * Never returns less than 1.
+     */
+    public int getRowsPerStatement(BatchQuery batch) {
+        int columns = getColumnCount(batch);
+        if (columns == 0) {
+            return 1;
+        }
+
+        return Math.max(1, Math.min(maxParameters / columns, maxRows));
+    }
+
+    /**
+     * Returns the number of columns bound for each row of the batch.
+     */
+    protected int getColumnCount(BatchQuery batch) {
+        int columns = 0;
+        for (DbAttribute attribute : batch.getDbAttributes()) {
+            if (includeInBatch(attribute)) {
+                columns++;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Creates an INSERT statement for the specified number of rows.
+     */
+    public String createSqlString(BatchQuery batch, int rows) throws IOException {
+
+        // reuse single row SQL, appending extra value groups to it
+        String singleRow = super.createSqlString(batch);
+        if (rows == 1) {
+            return singleRow;
+        }
+
+        String values = singleRow.substring(singleRow.lastIndexOf('('));
+
+        StringBuilder query = new StringBuilder(singleRow.length()
+                + (values.length() + 2)
+                * (rows - 1));
+        query.append(singleRow);
+        for (int i = 1; i < rows; i++) {
+            query.append(", ").append(values);
+        }
+
+        return query.toString();
+    }
+
+    /**
+     * Binds parameters of the current batch iteration as row number "row" of a multi-row
+     * statement.
+     */
+    public void bindParameters(PreparedStatement statement, BatchQuery query, int row)
+            throws SQLException, Exception {
+
+        List<DbAttribute> dbAttributes = query.getDbAttributes();
+        int attributeCount = dbAttributes.size();
+
+        // must use an independent counter "j" for prepared statement index
+        for (int i = 0, j = row * getColumnCount(query); i < attributeCount; i++) {
+            DbAttribute attribute = dbAttributes.get(i);
+            if (includeInBatch(attribute)) {
+                j++;
+                Object value = query.getValue(i);
+                adapter.bindParameter(statement, value, j, attribute.getType(), attribute
+                        .getScale());
+            }
+        }
+    }
+}
@@ -38,6 +38,7 @@ import org.apache.cayenne.map.JoinType;
 import org.apache.cayenne.map.ObjEntity;
 import org.apache.cayenne.query.QualifiedQuery;
 import org.apache.cayenne.query.Query;
+import org.apache.cayenne.query.SelectQuery;
 import org.apache.cayenne.reflect.ClassDescriptor;
 import org.apache.commons.collections.IteratorUtils;
 import org.apache.commons.collections.Transformer;
@@ -89,6 +90,18 @@ public class QualifierTranslator extends QueryAssemblerHelper implements Travers
 
         Expression qualifier = ((QualifiedQuery) q).getQualifier();
 
+        // append keyset pagination qualifier
+        if (q instanceof SelectQuery) {
+            SelectQuery select = (SelectQuery) q;
+            if (select.getPageCursor() != null) {
+                Expression cursorQualifier = select.getPageCursor().qualifier(
+                        select.getOrderings());
+                qualifier = (qualifier != null)
+                        ? qualifier.andExp(cursorQualifier)
+                        : cursorQualifier;
+            }
+        }
+
         // append Entity qualifiers, taking inheritance into account
         ObjEntity entity = getObjEntity();
 
@@ -0,0 +1,391 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access.trans;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cayenne.access.jdbc.ColumnDescriptor;
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.exp.TraversalHandler;
+import org.apache.cayenne.exp.parser.PatternMatchNode;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.map.DbEntity;
+import org.apache.cayenne.map.ObjAttribute;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.query.Ordering;
+import org.apache.cayenne.query.PrefetchSelectQuery;
+import org.apache.cayenne.query.PrefetchTreeNode;
+import org.apache.cayenne.query.QueryMetadata;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.commons.collections.map.LRUMap;
+
+/**
+ * A cache of SelectQuery translations keyed by the structure of the query. The key is
+ * built from the root entity, the qualifier with parameter values replaced by their
+ * types, orderings, joint prefetches, fetch limit and offset and the translator class,
+ * so queries that differ only in parameter values share a single translation. A cached
+ * translation stores the SQL string, the parameter DbAttributes and the result columns,
+ * and only the parameter values are taken from the query being executed.
+ * <p>
+ * A translation is cached only if the translator bound exactly the qualifier values,
+ * in the order they appear in the qualifier. Queries with parameters transformed
+ * during translation (such as object matches that bind a primary key) are always
+ * translated from scratch.
+ * </p>
+ *
+ * @since 3.1
+ */
+public class SelectTranslationCache {
+
+    static final class Entry {
+
+        final String sql;
+        final List<DbAttribute> attributes;
+        final List<ColumnDescriptor> resultColumns;
+        final Map<ObjAttribute, ColumnDescriptor> attributeOverrides;
+        final boolean suppressingDistinct;
+
+        Entry(String sql, List<DbAttribute> attributes,
+                List<ColumnDescriptor> resultColumns,
+                Map<ObjAttribute, ColumnDescriptor> attributeOverrides,
+                boolean suppressingDistinct) {
+            this.sql = sql;
+            this.attributes = attributes;
+            this.resultColumns = resultColumns;
+            this.attributeOverrides = attributeOverrides;
+            this.suppressingDistinct = suppressingDistinct;
+        }
+    }
+
+    static final class Key {
+
+        final Class<?> translatorType;
+        final ObjEntity objEntity;
+        final DbEntity dbEntity;
+        final String shape;
+
+        Key(Class<?> translatorType, ObjEntity objEntity, DbEntity dbEntity,
+                String shape) {
+            this.translatorType = translatorType;
+            this.objEntity = objEntity;
+            this.dbEntity = dbEntity;
+            this.shape = shape;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (object == this) {
+                return true;
+            }
+
+            if (!(object instanceof Key)) {
+                return false;
+            }
+
+            // entities are compared by reference, so that a reloaded mapping doesn't
+            // match stale translations
+            Key key = (Key) object;
+            return translatorType == key.translatorType
+                    && objEntity == key.objEntity
+                    && dbEntity == key.dbEntity
+                    && shape.equals(key.shape);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = shape.hashCode();
+            hash = 31 * hash + translatorType.hashCode();
+            hash = 31 * hash + System.identityHashCode(objEntity);
+            hash = 31 * hash + System.identityHashCode(dbEntity);
+            return hash;
+        }
+    }
+
+    protected Map<Key, Entry> entries;
+
+    private AtomicLong hits;
+    private AtomicLong misses;
+
+    public SelectTranslationCache(int maxSize) {
+        this.entries = new LRUMap(maxSize);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    /**
+     * Returns the number of translations served from the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of queries that had to be translated.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    Entry get(Key key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+
+        if (entry != null) {
+            hits.incrementAndGet();
+        }
+        else {
+            misses.incrementAndGet();
+        }
+
+        return entry;
+    }
+
+    /**
+     * Caches a translation if the translator parameters are exactly the qualifier
+     * values.
+     */
+    void put(
+            Key key,
+            String sql,
+            SelectTranslator translator,
+            List<Object> qualifierValues) {
+
+        List<Object> values = translator.values;
+        int len = values.size();
+        if (len != qualifierValues.size()) {
+            return;
+        }
+
+        for (int i = 0; i < len; i++) {
+            if (values.get(i) != qualifierValues.get(i)) {
+                return;
+            }
+        }
+
+        Map<ObjAttribute, ColumnDescriptor> overrides = translator.attributeOverrides != null
+                ? translator.attributeOverrides
+                : Collections.<ObjAttribute, ColumnDescriptor> emptyMap();
+
+        Entry entry = new Entry(
+                sql,
+                new ArrayList<DbAttribute>(translator.attributes),
+                translator.resultColumns,
+                overrides,
+                translator.suppressingDistinct);
+
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Creates a cache key for the query processed by the translator.
+     */
+    Key createKey(SelectTranslator translator) {
+        SelectQuery query = (SelectQuery) translator.getQuery();
+        QueryMetadata md = translator.getQueryMetadata();
+
+        StringBuilder shape = new StringBuilder();
+        shape.append(query.getClass().getName());
+
+        Expression qualifier = query.getQualifier();
+        if (qualifier != null) {
+            shape.append("|q:");
+            qualifier.traverse(new ShapeBuilder(shape));
+        }
+
+        if (query.getPageCursor() != null) {
+            shape.append("|c:").append(query.getPageCursor().getValues().length);
+        }
+
+        List<Ordering> orderings = query.getOrderings();
+        if (!orderings.isEmpty()) {
+            shape.append("|o:");
+            for (Ordering ordering : orderings) {
+                shape
+                        .append(ordering.getSortSpecString())
+                        .append(ordering.isAscending() ? " ASC" : " DESC")
+                        .append(ordering.isCaseInsensitive() ? " CI," : ",");
+            }
+        }
+
+        PrefetchTreeNode prefetchTree = query.getPrefetchTree();
+        if (prefetchTree != null) {
+            shape.append("|p:");
+            for (PrefetchTreeNode prefetch : prefetchTree.adjacentJointNodes()) {
+                shape.append(prefetch.getPath()).append(',');
+            }
+        }
+
+        if (query instanceof PrefetchSelectQuery) {
+            shape.append("|r:");
+            for (String path : ((PrefetchSelectQuery) query).getResultPaths()) {
+                shape.append(path).append(',');
+            }
+        }
+
+        Map<String, String> aliases = md.getPathSplitAliases();
+        if (!aliases.isEmpty()) {
+            shape.append("|a:").append(new TreeMap<String, String>(aliases));
+        }
+
+        shape.append("|d:").append(query.isDistinct());
+        shape.append("|l:").append(md.getFetchLimit());
+        shape.append("|f:").append(md.getFetchOffset());
+        shape.append("|s:").append(md.getPageSize() > 0);
+
+        return new Key(translator.getClass(), md.getObjEntity(), md.getDbEntity(), shape
+                .toString());
+    }
+
+    /**
+     * Returns non-null literal values of the qualifier in the order they are bound by
+     * QualifierTranslator. List elements are returned individually.
+     */
+    static List<Object> collectValues(Expression qualifier) {
+        final List<Object> values = new ArrayList<Object>();
+
+        if (qualifier != null) {
+            qualifier.traverse(new TraversalHandler() {
+
+                public void endNode(Expression node, Expression parentNode) {
+                }
+
+                public void finishedChild(
+                        Expression node,
+                        int childIndex,
+                        boolean hasMoreChildren) {
+                }
+
+                public void objectNode(Object leaf, Expression parentNode) {
+                    switch (parentNode.getType()) {
+                        case Expression.OBJ_PATH:
+                        case Expression.DB_PATH:
+                            break;
+                        case Expression.LIST:
+                            if (leaf instanceof List) {
+                                for (Object value : (List<?>) leaf) {
+                                    if (value != null) {
+                                        values.add(value);
+                                    }
+                                }
+                            }
+                            else if (leaf instanceof Object[]) {
+                                for (Object value : (Object[]) leaf) {
+                                    if (value != null) {
+                                        values.add(value);
+                                    }
+                                }
+                            }
+                            break;
+                        default:
+                            if (leaf != null) {
+                                values.add(leaf);
+                            }
+                    }
+                }
+
+                public void startNode(Expression node, Expression parentNode) {
+                }
+            });
+        }
+
+        return values;
+    }
+
+    /**
+     * Appends qualifier structure to a buffer, replacing literal values with their
+     * classes.
+     */
+    static final class ShapeBuilder implements TraversalHandler {
+
+        private StringBuilder out;
+
+        ShapeBuilder(StringBuilder out) {
+            this.out = out;
+        }
+
+        public void startNode(Expression node, Expression parentNode) {
+            out.append(node.getType()).append('(');
+
+            if (node instanceof PatternMatchNode) {
+                out.append(((PatternMatchNode) node).getEscapeChar()).append(':');
+            }
+        }
+
+        public void finishedChild(Expression node, int childIndex, boolean hasMoreChildren) {
+            if (hasMoreChildren) {
+                out.append(',');
+            }
+        }
+
+        public void endNode(Expression node, Expression parentNode) {
+            out.append(')');
+        }
+
+        public void objectNode(Object leaf, Expression parentNode) {
+            switch (parentNode.getType()) {
+                case Expression.OBJ_PATH:
+                case Expression.DB_PATH:
+                    out.append(leaf);
+                    break;
+                case Expression.LIST:
+                    if (leaf instanceof List) {
+                        for (Object value : (List<?>) leaf) {
+                            appendType(value);
+                        }
+                    }
+                    else if (leaf instanceof Object[]) {
+                        for (Object value : (Object[]) leaf) {
+                            appendType(value);
+                        }
+                    }
+                    else {
+                        appendType(leaf);
+                    }
+                    break;
+                default:
+                    appendType(leaf);
+            }
+        }
+
+        private void appendType(Object value) {
+            out.append(value != null ? value.getClass().getName() : "null").append(';');
+        }
+    }
+}
@@ -98,16 +98,66 @@ public class SelectTranslator extends QueryAssembler {
      */
     boolean forcingDistinct;
 
+    SelectTranslationCache translationCache;
+
     protected JoinStack createJoinStack() {
         return new JoinStack(getAdapter(), queryMetadata.getDataMap(), this);
     }
 
+    /**
+     * Sets an optional cache of translations to reuse SQL built for structurally
+     * identical queries.
+     * 
+     * @since 3.1
+     */
+    public void setTranslationCache(SelectTranslationCache translationCache) {
+        this.translationCache = translationCache;
+    }
+
+    /**
+     * @since 3.1
+     */
+    public SelectTranslationCache getTranslationCache() {
+        return translationCache;
+    }
+
     /**
      * Returns query translated to SQL. This is a main work method of the
-     * SelectTranslator.
+     * SelectTranslator. If a translation cache is set, SQL is taken from the cache when
+     * possible.
      */
     @Override
     public String createSqlString() throws Exception {
+        if (translationCache == null) {
+            return buildSqlString();
+        }
+
+        SelectTranslationCache.Key key = translationCache.createKey(this);
+        List<Object> qualifierValues = SelectTranslationCache.collectValues(adapter
+                .getQualifierTranslator(this)
+                .extractQualifier());
+
+        SelectTranslationCache.Entry entry = translationCache.get(key);
+        if (entry != null) {
+            values.addAll(qualifierValues);
+            attributes.addAll(entry.attributes);
+            resultColumns = entry.resultColumns;
+            attributeOverrides = entry.attributeOverrides;
+            suppressingDistinct = entry.suppressingDistinct;
+            return entry.sql;
+        }
+
+        String sql = buildSqlString();
+        translationCache.put(key, sql, this, qualifierValues);
+        return sql;
+    }
+
+    /**
+     * Translates query to SQL bypassing the translation cache.
+     * 
+     * @since 3.1
+     */
+    protected String buildSqlString() throws Exception {
 
         JoinStack joins = getJoinStack();
         boolean status;
@@ -0,0 +1,577 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.cache;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.query.QueryMetadata;
+import org.apache.cayenne.util.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import org.apache.cayenne.util.concurrentlinkedhashmap.EvictionListener;
+import org.apache.cayenne.util.concurrentlinkedhashmap.Weigher;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A {@link QueryCache} that can be accessed concurrently without global locking. Unlike
+ * {@link MapQueryCache}, the capacity of this cache is measured in cached rows instead of
+ * cached lists, so a single large result can push out many small ones. Entries may
+ * expire after a configured time to live, cache groups are indexed, so that
+ * {@link #removeGroup(String)} does not scan the cache, and hit, miss and eviction
+ * counts are collected.
+ * <p>
+ * When an entry is missing, {@link #get(QueryMetadata, QueryCacheEntryFactory)} runs
+ * only one factory per key at a time, with the concurrent callers waiting for its
+ * result. Expiration can be configured per cache group via
+ * {@link #setGroupPolicy(String, QueryCacheGroupPolicy)}, optionally allowing to return
+ * expired entries while they are reloaded in background, or to reload popular entries
+ * in background shortly before they expire. Background reloads require an executor and
+ * a {@link DetachableQueryCacheEntryFactory}, otherwise the entries are reloaded by the
+ * callers.
+ *
+ * @since 3.1
+ */
+public class ConcurrentQueryCache implements QueryCache {
+
+    private static final Log logger = LogFactory.getLog(ConcurrentQueryCache.class);
+
+    public static final int DEFAULT_MAX_ROWS = 100000;
+
+    protected ConcurrentLinkedHashMap<String, CacheEntry> map;
+
+    // cache group to keys index; empty key sets are never removed, as this would race
+    // with the concurrent puts, the number of groups is expected to be small anyway
+    protected ConcurrentMap<String, ConcurrentMap<String, Boolean>> groups;
+
+    // loads and background reloads in progress
+    protected ConcurrentMap<String, FutureTask<List<?>>> loads;
+
+    protected QueryCacheGroupPolicy defaultPolicy;
+    protected ConcurrentMap<String, QueryCacheGroupPolicy> groupPolicies;
+    protected Executor executor;
+
+    private AtomicLong hits;
+    private AtomicLong misses;
+    private AtomicLong evictions;
+
+    public ConcurrentQueryCache() {
+        this(DEFAULT_MAX_ROWS, 0);
+    }
+
+    /**
+     * Creates a cache holding up to <code>maxRows</code> rows in all the cached lists,
+     * with each entry expiring after <code>timeToLive</code> milliseconds. Zero or
+     * negative time to live means that the entries never expire.
+     */
+    public ConcurrentQueryCache(int maxRows, long timeToLive) {
+        this.defaultPolicy = new QueryCacheGroupPolicy(timeToLive, 0, 0);
+        this.groupPolicies = new ConcurrentHashMap<String, QueryCacheGroupPolicy>();
+        this.groups = new ConcurrentHashMap<String, ConcurrentMap<String, Boolean>>();
+        this.loads = new ConcurrentHashMap<String, FutureTask<List<?>>>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+
+        this.map = new ConcurrentLinkedHashMap.Builder<String, CacheEntry>()
+                .maximumWeightedCapacity(maxRows)
+                .weigher(new Weigher<CacheEntry>() {
+
+                    public int weightOf(CacheEntry value) {
+                        return Math.max(1, value.list.size());
+                    }
+                })
+                .listener(new EvictionListener<String, CacheEntry>() {
+
+                    public void onEviction(String key, CacheEntry value) {
+                        evictions.incrementAndGet();
+                        unindex(key, value.cacheGroups);
+                    }
+                })
+                .build();
+    }
+
+    @SuppressWarnings("unchecked")
+    public List get(QueryMetadata metadata) {
+        String key = metadata.getCacheKey();
+        if (key == null) {
+            return null;
+        }
+
+        CacheEntry entry = map.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (entry.isExpired(now)) {
+            if (entry.isDiscarded(now)) {
+                discard(key, entry);
+            }
+
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return entry.list;
+    }
+
+    /**
+     * Returns a non-null cached value. If it is not present in the cache or is expired,
+     * it is obtained by calling {@link QueryCacheEntryFactory#createObject()}. Only one
+     * factory is invoked for a given key at a time, other callers requesting the same
+     * key are waiting for its result without blocking the rest of the cache.
+     */
+    @SuppressWarnings("unchecked")
+    public List get(QueryMetadata metadata, QueryCacheEntryFactory factory) {
+        String key = metadata.getCacheKey();
+        if (key == null) {
+            return createList(metadata, factory);
+        }
+
+        CacheEntry entry = map.get(key);
+        if (entry != null) {
+            long now = System.currentTimeMillis();
+
+            if (!entry.isExpired(now)) {
+                hits.incrementAndGet();
+
+                if (entry.isRefreshDue(now)) {
+                    reload(key, metadata, factory);
+                }
+
+                return entry.list;
+            }
+
+            if (!entry.isDiscarded(now) && reload(key, metadata, factory)) {
+                hits.incrementAndGet();
+                return entry.list;
+            }
+        }
+
+        misses.incrementAndGet();
+        return load(key, metadata, factory);
+    }
+
+    /**
+     * Creates the list in the calling thread, unless another thread is already loading
+     * the same key, in which case waits for its result.
+     */
+    private List<?> load(
+            String key,
+            QueryMetadata metadata,
+            QueryCacheEntryFactory factory) {
+
+        FutureTask<List<?>> task = new FutureTask<List<?>>(new LoadTask(
+                metadata,
+                factory));
+
+        FutureTask<List<?>> existing = loads.putIfAbsent(key, task);
+        if (existing != null) {
+            task = existing;
+        }
+        else {
+            try {
+                task.run();
+            }
+            finally {
+                loads.remove(key, task);
+            }
+        }
+
+        try {
+            return task.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CayenneRuntimeException("Interrupted while loading cache entry: "
+                    + key, e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new CayenneRuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Starts a background reload of an entry unless it is already being loaded. Returns
+     * false if the entry can't be reloaded in background.
+     */
+    private boolean reload(
+            final String key,
+            QueryMetadata metadata,
+            QueryCacheEntryFactory factory) {
+
+        Executor executor = this.executor;
+        if (executor == null || !(factory instanceof DetachableQueryCacheEntryFactory)) {
+            return false;
+        }
+
+        if (loads.containsKey(key)) {
+            return true;
+        }
+
+        final FutureTask<List<?>> task = new FutureTask<List<?>>(new LoadTask(
+                metadata,
+                ((DetachableQueryCacheEntryFactory) factory).detach()));
+
+        if (loads.putIfAbsent(key, task) != null) {
+            return true;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+
+                public void run() {
+                    try {
+                        task.run();
+                        task.get();
+                    }
+                    catch (Exception e) {
+                        logger.warn("Error reloading cache entry: " + key, e);
+                    }
+                    finally {
+                        loads.remove(key, task);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            loads.remove(key, task);
+            return false;
+        }
+
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List createList(QueryMetadata metadata, QueryCacheEntryFactory factory) {
+        Object newObject = factory.createObject();
+
+        if (!(newObject instanceof List)) {
+            if (newObject == null) {
+                throw new CayenneRuntimeException("Null on cache rebuilding: "
+                        + metadata.getCacheKey());
+            }
+            else {
+                throw new CayenneRuntimeException(
+                        "Invalid query result, expected List, got "
+                                + newObject.getClass().getName());
+            }
+        }
+
+        return (List) newObject;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void put(QueryMetadata metadata, List results) {
+        String key = metadata.getCacheKey();
+        if (key != null) {
+
+            CacheEntry entry = new CacheEntry();
+            entry.list = results;
+            entry.cacheGroups = metadata.getCacheGroups();
+            entry.expire(System.currentTimeMillis(), policy(entry.cacheGroups));
+
+            // index before putting, so that a concurrent group removal that misses the
+            // index can't miss the entry
+            index(key, entry.cacheGroups);
+
+            CacheEntry old = map.put(key, entry);
+            if (old != null) {
+                unindexReplaced(key, old.cacheGroups, entry.cacheGroups);
+            }
+        }
+    }
+
+    public void remove(String key) {
+        if (key != null) {
+            CacheEntry entry = map.remove(key);
+            if (entry != null) {
+                unindex(key, entry.cacheGroups);
+            }
+        }
+    }
+
+    public void removeGroup(String groupKey) {
+        if (groupKey != null) {
+            ConcurrentMap<String, Boolean> keys = groups.get(groupKey);
+            if (keys != null) {
+                for (String key : keys.keySet()) {
+                    remove(key);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        map.clear();
+        groups.clear();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Returns the number of rows in all the cached lists.
+     */
+    public int getRowCount() {
+        return map.weightedSize();
+    }
+
+    /**
+     * Returns the number of successful cache lookups.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of cache lookups that found no entry or an expired entry.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries discarded to free capacity or because they have
+     * expired.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Resets hit, miss and eviction counts.
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    public int getMaxRows() {
+        return map.capacity();
+    }
+
+    /**
+     * Sets the maximum number of rows in all the cached lists, evicting the least
+     * recently used entries if needed.
+     */
+    public void setMaxRows(int maxRows) {
+        map.setCapacity(maxRows);
+    }
+
+    public long getTimeToLive() {
+        return defaultPolicy.getTimeToLive();
+    }
+
+    /**
+     * Sets time in milliseconds after which the entries put in the cache expire, unless
+     * their cache groups have their own policies. Zero or negative value means that the
+     * entries never expire.
+     */
+    public void setTimeToLive(long timeToLive) {
+        defaultPolicy.setTimeToLive(timeToLive);
+    }
+
+    /**
+     * Returns a policy applied to the entries that have no cache groups with their own
+     * policies.
+     */
+    public QueryCacheGroupPolicy getDefaultPolicy() {
+        return defaultPolicy;
+    }
+
+    public void setDefaultPolicy(QueryCacheGroupPolicy defaultPolicy) {
+        this.defaultPolicy = defaultPolicy;
+    }
+
+    public QueryCacheGroupPolicy getGroupPolicy(String group) {
+        return groupPolicies.get(group);
+    }
+
+    /**
+     * Sets a policy for the entries of a cache group, or removes it if the policy is
+     * null. If an entry belongs to several groups with policies, the policy of its first
+     * such group is used. Affects the entries put in the cache afterwards.
+     */
+    public void setGroupPolicy(String group, QueryCacheGroupPolicy policy) {
+        if (policy != null) {
+            groupPolicies.put(group, policy);
+        }
+        else {
+            groupPolicies.remove(group);
+        }
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets an executor used to reload entries in background. If not set, the entries
+     * are always reloaded by the callers.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    private QueryCacheGroupPolicy policy(String[] cacheGroups) {
+        if (cacheGroups != null && !groupPolicies.isEmpty()) {
+            for (String group : cacheGroups) {
+                QueryCacheGroupPolicy policy = groupPolicies.get(group);
+                if (policy != null) {
+                    return policy;
+                }
+            }
+        }
+
+        return defaultPolicy;
+    }
+
+    private void discard(String key, CacheEntry entry) {
+        if (map.remove(key, entry)) {
+            evictions.incrementAndGet();
+            unindex(key, entry.cacheGroups);
+        }
+    }
+
+    private void index(String key, String[] cacheGroups) {
+        if (cacheGroups != null) {
+            for (String group : cacheGroups) {
+                ConcurrentMap<String, Boolean> keys = groups.get(group);
+                if (keys == null) {
+                    ConcurrentMap<String, Boolean> newKeys = new ConcurrentHashMap<String, Boolean>();
+                    keys = groups.putIfAbsent(group, newKeys);
+                    if (keys == null) {
+                        keys = newKeys;
+                    }
+                }
+
+                keys.put(key, Boolean.TRUE);
+            }
+        }
+    }
+
+    private void unindex(String key, String[] cacheGroups) {
+        if (cacheGroups != null) {
+            for (String group : cacheGroups) {
+                ConcurrentMap<String, Boolean> keys = groups.get(group);
+                if (keys != null) {
+                    keys.remove(key);
+                }
+            }
+        }
+    }
+
+    private void unindexReplaced(String key, String[] oldGroups, String[] newGroups) {
+        if (oldGroups != null) {
+            for (String group : oldGroups) {
+                if (!contains(newGroups, group)) {
+                    ConcurrentMap<String, Boolean> keys = groups.get(group);
+                    if (keys != null) {
+                        keys.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean contains(String[] array, String value) {
+        if (array != null) {
+            for (String element : array) {
+                if (value.equals(element)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    final static class CacheEntry {
+
+        List<?> list;
+        String[] cacheGroups;
+        long expiresAt;
+        long refreshAt;
+        long discardAt;
+
+        void expire(long now, QueryCacheGroupPolicy policy) {
+            long timeToLive = policy.getTimeToLive();
+            if (timeToLive > 0) {
+                expiresAt = now + timeToLive;
+                refreshAt = policy.getRefreshAhead() > 0 ? expiresAt
+                        - policy.getRefreshAhead() : Long.MAX_VALUE;
+                discardAt = expiresAt + Math.max(0, policy.getMaxStale());
+            }
+            else {
+                expiresAt = Long.MAX_VALUE;
+                refreshAt = Long.MAX_VALUE;
+                discardAt = Long.MAX_VALUE;
+            }
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+
+        boolean isRefreshDue(long now) {
+            return now >= refreshAt;
+        }
+
+        /**
+         * Returns whether the entry is expired and can't be returned as stale.
+         */
+        boolean isDiscarded(long now) {
+            return now >= discardAt;
+        }
+    }
+
+    final class LoadTask implements Callable<List<?>> {
+
+        private QueryMetadata metadata;
+        private QueryCacheEntryFactory factory;
+
+        LoadTask(QueryMetadata metadata, QueryCacheEntryFactory factory) {
+            this.metadata = metadata;
+            this.factory = factory;
+        }
+
+        public List<?> call() {
+            List<?> list = createList(metadata, factory);
+            put(metadata, list);
+            return list;
+        }
+    }
+}
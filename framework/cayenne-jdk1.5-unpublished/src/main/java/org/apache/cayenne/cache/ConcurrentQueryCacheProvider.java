@@ -0,0 +1,61 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.cache;
+
+import java.util.concurrent.ExecutorService;
+
+import org.apache.cayenne.ConfigurationException;
+import org.apache.cayenne.configuration.Constants;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.di.Provider;
+
+/**
+ * @since 3.1
+ */
+public class ConcurrentQueryCacheProvider implements Provider<QueryCache> {
+
+    protected RuntimeProperties properties;
+    protected ExecutorService executor;
+
+    public ConcurrentQueryCacheProvider(@Inject RuntimeProperties properties,
+            @Inject(Constants.SERVER_QUERY_EXECUTOR) ExecutorService executor) {
+        this.properties = properties;
+        this.executor = executor;
+    }
+
+    public QueryCache get() throws ConfigurationException {
+
+        // an entry limit configured for MapQueryCache is used as the default row bound;
+        // as each entry weighs at least one row, the cache never holds more entries
+        int size = properties.getInt(
+                Constants.QUERY_CACHE_SIZE_PROPERTY,
+                ConcurrentQueryCache.DEFAULT_MAX_ROWS);
+        int maxRows = properties.getInt(Constants.QUERY_CACHE_MAX_ROWS_PROPERTY, size);
+        long timeToLive = properties.getLong(
+                Constants.QUERY_CACHE_TIME_TO_LIVE_PROPERTY,
+                0);
+
+        ConcurrentQueryCache cache = new ConcurrentQueryCache(maxRows, timeToLive);
+
+        // used for background reloads of the entries
+        cache.setExecutor(executor);
+        return cache;
+    }
+}
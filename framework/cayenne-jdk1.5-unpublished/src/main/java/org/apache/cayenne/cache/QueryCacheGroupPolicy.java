@@ -0,0 +1,78 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.cache;
+
+/**
+ * Expiration and reloading settings of the {@link ConcurrentQueryCache} entries that
+ * belong to a given cache group. All times are in milliseconds.
+ *
+ * @since 3.1
+ */
+public class QueryCacheGroupPolicy {
+
+    protected long timeToLive;
+    protected long maxStale;
+    protected long refreshAhead;
+
+    public QueryCacheGroupPolicy() {
+    }
+
+    public QueryCacheGroupPolicy(long timeToLive, long maxStale, long refreshAhead) {
+        this.timeToLive = timeToLive;
+        this.maxStale = maxStale;
+        this.refreshAhead = refreshAhead;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Sets time after which the entries expire. Zero or negative value means that the
+     * entries never expire.
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public long getMaxStale() {
+        return maxStale;
+    }
+
+    /**
+     * Sets time after expiration during which an expired entry is still returned to the
+     * callers while it is reloaded in background. Zero means that the callers wait for
+     * the reload.
+     */
+    public void setMaxStale(long maxStale) {
+        this.maxStale = maxStale;
+    }
+
+    public long getRefreshAhead() {
+        return refreshAhead;
+    }
+
+    /**
+     * Sets time before expiration starting from which an entry is reloaded in background
+     * when accessed, so that popular entries never expire. Zero disables refresh-ahead.
+     */
+    public void setRefreshAhead(long refreshAhead) {
+        this.refreshAhead = refreshAhead;
+    }
+}
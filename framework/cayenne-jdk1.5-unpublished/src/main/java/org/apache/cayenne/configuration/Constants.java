@@ -75,6 +75,14 @@ public interface Constants {
      */
     public static final String SERVER_ROP_EVENT_BRIDGE_PROPERTIES_MAP = "cayenne.server.rop_event_bridge_properties";
 
+    /**
+     * A server-side DI container key for the ExecutorService that runs asynchronous
+     * queries of DataContexts.
+     * 
+     * @since 3.1
+     */
+    public static final String SERVER_QUERY_EXECUTOR = "cayenne.server.query_executor";
+
     // Runtime properties
 
     public static final String JDBC_DRIVER_PROPERTY = "cayenne.jdbc.driver";
@@ -89,13 +97,80 @@ public interface Constants {
 
     public static final String JDBC_MAX_CONNECTIONS_PROPERTY = "cayenne.jdbc.max_connections";
 
+    /**
+     * A boolean property that makes
+     * {@link org.apache.cayenne.configuration.server.XMLPoolingDataSourceFactory} create a
+     * {@link org.apache.cayenne.conn.ConcurrentPoolManager} instead of the default
+     * {@link org.apache.cayenne.conn.PoolManager}. Like the rest of the pool properties,
+     * it can be set per node by appending ".domain_name.node_name" to the property name.
+     */
+    public static final String JDBC_CONCURRENT_POOL_PROPERTY = "cayenne.jdbc.concurrent_pool";
+
+    /**
+     * A long property defining max time in milliseconds a thread waits for a pooled
+     * connection. Only used by the concurrent pool.
+     */
+    public static final String JDBC_MAX_QUEUE_WAIT_TIME_PROPERTY = "cayenne.jdbc.max_queue_wait_time";
+
+    /**
+     * A long property defining time in milliseconds after which an idle pooled
+     * connection is closed. Only used by the concurrent pool.
+     */
+    public static final String JDBC_MAX_IDLE_TIME_PROPERTY = "cayenne.jdbc.max_idle_time";
+
+    /**
+     * An SQL statement used to validate idle pooled connections. Only used by the
+     * concurrent pool.
+     */
+    public static final String JDBC_VALIDATION_QUERY_PROPERTY = "cayenne.jdbc.validation_query";
+
+    /**
+     * A long property defining time in milliseconds a connection can be checked out of
+     * the pool before it is logged as a possible leak. Only used by the concurrent pool.
+     */
+    public static final String JDBC_LEAK_DETECTION_THRESHOLD_PROPERTY = "cayenne.jdbc.leak_detection_threshold";
+
+    /**
+     * An integer property defining the max number of PreparedStatements cached per pooled
+     * connection. Zero (default) disables statement caching. Can be set per node by
+     * appending ".domain_name.node_name" to the property name.
+     */
+    public static final String JDBC_STATEMENT_CACHE_SIZE_PROPERTY = "cayenne.jdbc.statement_cache_size";
+
+    /**
+     * An integer property defining the max number of SelectQuery translations cached by
+     * each DbAdapter. Zero (default) disables translation caching.
+     */
+    public static final String JDBC_SELECT_TRANSLATION_CACHE_SIZE_PROPERTY = "cayenne.jdbc.select_translation_cache_size";
+
     /**
      * An integer property defining the maximum number of entries in the query cache. Note
      * that not all QueryCache providers may respect this property. MapQueryCache uses it,
-     * but the rest would use alternative configuration methods.
+     * ConcurrentQueryCache uses it as the default of
+     * {@link #QUERY_CACHE_MAX_ROWS_PROPERTY}, but the rest would use alternative
+     * configuration methods.
      */
     public static final String QUERY_CACHE_SIZE_PROPERTY = "cayenne.querycache.size";
 
+    /**
+     * An integer property defining the maximum total number of rows in all the lists
+     * stored in the query cache. Used by the default server ConcurrentQueryCache. If not
+     * set, {@link #QUERY_CACHE_SIZE_PROPERTY} is used, and if neither is set, the default
+     * is "100000".
+     * 
+     * @since 3.1
+     */
+    public static final String QUERY_CACHE_MAX_ROWS_PROPERTY = "cayenne.querycache.max_rows";
+
+    /**
+     * A long property defining time in milliseconds after which the query cache entries
+     * expire. Zero (default) means that the entries never expire. Used by the default
+     * server ConcurrentQueryCache.
+     * 
+     * @since 3.1
+     */
+    public static final String QUERY_CACHE_TIME_TO_LIVE_PROPERTY = "cayenne.querycache.time_to_live";
+
     /**
      * A boolean property defining whether cross-contexts synchronization is enabled.
      * Possible values are "true" or "false".
@@ -139,4 +214,117 @@ public interface Constants {
      * clause size limitations and memory usage efficiency.
      */
     public static final String SERVER_MAX_ID_QUALIFIER_SIZE_PROPERTY = "cayenne.server.max_id_qualifier_size";
+
+    /**
+     * A boolean property defining whether DataDomain commits changes to multiple
+     * DataNodes concurrently. Default is "false".
+     * 
+     * @since 3.1
+     */
+    public static final String SERVER_PARALLEL_FLUSH_PROPERTY = "cayenne.server.parallel_flush";
+
+    /**
+     * An integer property defining the number of threads running asynchronous queries.
+     * Default is twice the number of available processors.
+     * 
+     * @since 3.1
+     */
+    public static final String SERVER_QUERY_EXECUTOR_THREADS_PROPERTY = "cayenne.server.query_executor_threads";
+
+    /**
+     * A property that makes a DataNode a read-only replica of another DataNode. The
+     * value is the name of the primary DataNode. Must be set per node by appending
+     * ".domain_name.node_name" to the property name.
+     * 
+     * @since 3.1
+     */
+    public static final String SERVER_REPLICA_OF_PROPERTY = "cayenne.server.replica_of";
+
+    /**
+     * A long property defining time in milliseconds after a commit during which selects
+     * of the committing context go to the primary DataNodes instead of replicas. Default
+     * is "0", i.e. selects go to replicas right after a commit.
+     * 
+     * @since 3.1
+     */
+    public static final String SERVER_READ_YOUR_WRITES_TIME_PROPERTY = "cayenne.server.read_your_writes_time";
+
+    /**
+     * An integer property that turns on lazy mode of paginated query results, defining
+     * the number of result pages each list keeps in memory. Lazy lists obtain their size
+     * with a COUNT query instead of reading all ids upfront. Default is "0", i.e. lazy
+     * mode is off.
+     * 
+     * @since 3.1
+     */
+    public static final String SERVER_LAZY_PAGINATION_CACHED_PAGES_PROPERTY = "cayenne.server.lazy_pagination_cached_pages";
+
+    /**
+     * A boolean property defining whether paginated lists resolve the next page in
+     * background on forward iteration. Default is "false".
+     * 
+     * @since 3.1
+     */
+    public static final String SERVER_PAGINATION_READ_AHEAD_PROPERTY = "cayenne.server.pagination_read_ahead";
+
+    /**
+     * An integer property defining the maximum number of objects fetched together whose
+     * relationship faults are resolved with a single query. Default is "0", i.e. each
+     * fault is resolved with its own query.
+     * 
+     * @since 3.1
+     */
+    public static final String SERVER_FAULT_BATCH_SIZE_PROPERTY = "cayenne.server.fault_batch_size";
+
+    /**
+     * A boolean property defining whether relationships that are nearly always faulted
+     * after a given select query are prefetched automatically on the subsequent
+     * executions of the query. Default is "false".
+     * 
+     * @since 3.1
+     */
+    public static final String SERVER_AUTO_PREFETCH_PROPERTY = "cayenne.server.auto_prefetch";
+
+    /**
+     * A boolean property defining whether sibling disjoint prefetch queries run
+     * concurrently on separate connections, using the query executor. Default is
+     * "false".
+     * 
+     * @since 3.1
+     */
+    public static final String SERVER_PARALLEL_PREFETCHES_PROPERTY = "cayenne.server.parallel_prefetches";
+
+    /**
+     * A boolean property defining whether cached query results are invalidated when the
+     * DbEntities they depend on are committed. Default is "true".
+     */
+    public static final String SERVER_QUERY_CACHE_INVALIDATION_PROPERTY = "cayenne.server.query_cache_invalidation";
+
+    /**
+     * A long property defining query execution time in milliseconds starting from which
+     * {@link org.apache.cayenne.log.QueryDiagnosticsFilter} reports a query as slow.
+     * Default is "1000".
+     * 
+     * @since 3.1
+     */
+    public static final String SERVER_DIAGNOSTICS_SLOW_QUERY_TIME_PROPERTY = "cayenne.server.diagnostics.slow_query_time";
+
+    /**
+     * An integer property defining the number of executions of the same query shape
+     * within an ObjectContext starting from which
+     * {@link org.apache.cayenne.log.QueryDiagnosticsFilter} reports the query as
+     * repeated. Default is "10".
+     * 
+     * @since 3.1
+     */
+    public static final String SERVER_DIAGNOSTICS_REPEATED_QUERY_THRESHOLD_PROPERTY = "cayenne.server.diagnostics.repeated_query_threshold";
+
+    /**
+     * An integer property "N" defining that only approximately one in N ObjectContexts is
+     * tracked by {@link org.apache.cayenne.log.QueryDiagnosticsFilter}. Default is "1",
+     * i.e. all contexts are tracked.
+     * 
+     * @since 3.1
+     */
+    public static final String SERVER_DIAGNOSTICS_SAMPLING_INTERVAL_PROPERTY = "cayenne.server.diagnostics.sampling_interval";
 }
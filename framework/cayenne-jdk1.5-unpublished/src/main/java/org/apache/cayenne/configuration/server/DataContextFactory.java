@@ -18,6 +18,8 @@
  ****************************************************************/
 package org.apache.cayenne.configuration.server;
 
+import java.util.concurrent.ExecutorService;
+
 import org.apache.cayenne.DataChannel;
 import org.apache.cayenne.ObjectContext;
 import org.apache.cayenne.access.DataContext;
@@ -26,6 +28,7 @@ import org.apache.cayenne.access.DataRowStore;
 import org.apache.cayenne.access.ObjectStore;
 import org.apache.cayenne.cache.NestedQueryCache;
 import org.apache.cayenne.cache.QueryCache;
+import org.apache.cayenne.configuration.Constants;
 import org.apache.cayenne.configuration.ObjectContextFactory;
 import org.apache.cayenne.configuration.ObjectStoreFactory;
 import org.apache.cayenne.di.Inject;
@@ -52,6 +55,12 @@ public class DataContextFactory implements ObjectContextFactory {
     @Inject
     protected QueryCache queryCache;
 
+    /**
+     * @since 3.1
+     */
+    @Inject(Constants.SERVER_QUERY_EXECUTOR)
+    protected ExecutorService queryExecutor;
+
     public ObjectContext createContext() {
         return createdFromDataDomain(dataDomain);
     }
@@ -84,6 +93,7 @@ public class DataContextFactory implements ObjectContextFactory {
                 parent, objectStoreFactory.createObjectStore(snapshotCache));
         context.setValidatingObjectsOnCommit(dataDomain.isValidatingObjectsOnCommit());
         context.setQueryCache(new NestedQueryCache(queryCache));
+        context.setQueryExecutor(queryExecutor);
         return context;
     }
 
@@ -97,6 +107,7 @@ public class DataContextFactory implements ObjectContextFactory {
         context.setValidatingObjectsOnCommit(parent.isValidatingObjectsOnCommit());
         context.setUsingSharedSnapshotCache(parent.isUsingSharedSnapshotCache());
         context.setQueryCache(new NestedQueryCache(queryCache));
+        context.setQueryExecutor(queryExecutor);
 
         return context;
     }
@@ -113,6 +124,7 @@ public class DataContextFactory implements ObjectContextFactory {
                 parent, objectStoreFactory.createObjectStore(snapshotCache));
         context.setValidatingObjectsOnCommit(parent.isValidatingObjectsOnCommit());
         context.setQueryCache(new NestedQueryCache(queryCache));
+        context.setQueryExecutor(queryExecutor);
         return context;
     }
     
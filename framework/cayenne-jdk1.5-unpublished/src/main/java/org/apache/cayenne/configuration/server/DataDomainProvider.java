@@ -19,13 +19,20 @@
 package org.apache.cayenne.configuration.server;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
 
 import org.apache.cayenne.ConfigurationException;
 import org.apache.cayenne.DataChannel;
 import org.apache.cayenne.DataChannelFilter;
+import org.apache.cayenne.access.AutoPrefetchLearner;
 import org.apache.cayenne.access.DataDomain;
 import org.apache.cayenne.access.DataNode;
 import org.apache.cayenne.access.dbsync.SchemaUpdateStrategy;
@@ -120,6 +127,28 @@ public class DataDomainProvider implements Provider<DataDomain> {
         return new DataDomain(name);
     }
 
+    /**
+     * Creates an executor for concurrent commits to multiple DataNodes. Threads are
+     * created on demand and are not kept alive when there are no commits.
+     * 
+     * @since 3.1
+     */
+    protected ExecutorService createFlushExecutor(final String domainName) {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+
+            private final AtomicInteger counter = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "cayenne-flush-"
+                        + domainName
+                        + "-"
+                        + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
     protected DataDomain createAndInitDataDomain() throws Exception {
 
         if (locations == null || locations.isEmpty()) {
@@ -182,6 +211,35 @@ public class DataDomainProvider implements Provider<DataDomain> {
                 Constants.SERVER_MAX_ID_QUALIFIER_SIZE_PROPERTY,
                 -1));
 
+        if (runtimeProperties.getBoolean(Constants.SERVER_PARALLEL_FLUSH_PROPERTY, false)) {
+            dataDomain.setFlushExecutor(createFlushExecutor(dataDomain.getName()));
+        }
+
+        dataDomain.setReadYourWritesTime(runtimeProperties.getLong(
+                Constants.SERVER_READ_YOUR_WRITES_TIME_PROPERTY,
+                0));
+
+        dataDomain.setLazyPaginationCachedPages(runtimeProperties.getInt(
+                Constants.SERVER_LAZY_PAGINATION_CACHED_PAGES_PROPERTY,
+                0));
+        dataDomain.setPaginationReadAhead(runtimeProperties.getBoolean(
+                Constants.SERVER_PAGINATION_READ_AHEAD_PROPERTY,
+                false));
+        dataDomain.setFaultBatchSize(runtimeProperties.getInt(
+                Constants.SERVER_FAULT_BATCH_SIZE_PROPERTY,
+                0));
+
+        dataDomain.setParallelPrefetches(runtimeProperties.getBoolean(
+                Constants.SERVER_PARALLEL_PREFETCHES_PROPERTY,
+                false));
+        dataDomain.setQueryCacheInvalidation(runtimeProperties.getBoolean(
+                Constants.SERVER_QUERY_CACHE_INVALIDATION_PROPERTY,
+                true));
+
+        if (runtimeProperties.getBoolean(Constants.SERVER_AUTO_PREFETCH_PROPERTY, false)) {
+            dataDomain.setAutoPrefetchLearner(new AutoPrefetchLearner());
+        }
+
         dataDomain.setQueryCache(new NestedQueryCache(queryCache));
         dataDomain.setEntitySorter(injector.getInstance(EntitySorter.class));
         dataDomain.setEventManager(injector.getInstance(EventManager.class));
@@ -195,6 +253,8 @@ public class DataDomainProvider implements Provider<DataDomain> {
         dataDomain.getEntityResolver().applyDBLayerDefaults();
         dataDomain.getEntityResolver().applyObjectLayerDefaults();
 
+        Map<DataNode, String> replicas = new LinkedHashMap<DataNode, String>();
+
         for (DataNodeDescriptor nodeDescriptor : descriptor.getNodeDescriptors()) {
             DataNode dataNode = new DataNode(nodeDescriptor.getName());
 
@@ -232,7 +292,30 @@ public class DataDomainProvider implements Provider<DataDomain> {
                 dataNode.addDataMap(dataDomain.getDataMap(dataMapName));
             }
 
-            dataDomain.addNode(dataNode);
+            String replicaOfProperty = Constants.SERVER_REPLICA_OF_PROPERTY
+                    + "."
+                    + descriptor.getName()
+                    + "."
+                    + nodeDescriptor.getName();
+            String primaryNodeName = runtimeProperties.get(replicaOfProperty);
+
+            if (primaryNodeName != null) {
+                replicas.put(dataNode, primaryNodeName);
+            }
+            else {
+                dataDomain.addNode(dataNode);
+            }
+        }
+
+        for (Map.Entry<DataNode, String> replica : replicas.entrySet()) {
+            if (dataDomain.getDataNode(replica.getValue()) == null) {
+                throw new DataDomainLoadException(
+                        "DataNode '%s' is a replica of an unknown DataNode '%s'",
+                        replica.getKey().getName(),
+                        replica.getValue());
+            }
+
+            dataDomain.addReplicaNode(replica.getValue(), replica.getKey());
         }
 
         // init default node
@@ -0,0 +1,92 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.configuration.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cayenne.ConfigurationException;
+import org.apache.cayenne.configuration.Constants;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.di.BeforeScopeEnd;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.di.Provider;
+
+/**
+ * A default provider of the ExecutorService used by DataContexts to run asynchronous
+ * queries. Creates a pool of daemon threads sized per
+ * {@link Constants#SERVER_QUERY_EXECUTOR_THREADS_PROPERTY}. Threads are started on
+ * demand, and the pool is shut down together with the runtime.
+ * 
+ * @since 3.1
+ */
+public class QueryExecutorProvider implements Provider<ExecutorService> {
+
+    @Inject
+    protected RuntimeProperties runtimeProperties;
+
+    public ExecutorService get() throws ConfigurationException {
+        int threads = runtimeProperties.getInt(
+                Constants.SERVER_QUERY_EXECUTOR_THREADS_PROPERTY,
+                Runtime.getRuntime().availableProcessors() * 2);
+
+        if (threads < 1) {
+            throw new ConfigurationException(
+                    "Invalid number of query executor threads: %d",
+                    threads);
+        }
+
+        return new QueryExecutor(threads);
+    }
+
+    static class QueryExecutor extends ThreadPoolExecutor {
+
+        QueryExecutor(int threads) {
+            super(
+                    threads,
+                    threads,
+                    0L,
+                    TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new QueryThreadFactory());
+        }
+
+        @Override
+        @BeforeScopeEnd
+        public void shutdown() {
+            super.shutdown();
+        }
+    }
+
+    static class QueryThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "cayenne-query-"
+                    + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
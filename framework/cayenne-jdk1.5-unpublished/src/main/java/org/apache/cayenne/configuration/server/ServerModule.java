@@ -20,6 +20,7 @@ package org.apache.cayenne.configuration.server;
 
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.cayenne.DataChannel;
 import org.apache.cayenne.access.DataDomain;
@@ -48,7 +49,7 @@ import org.apache.cayenne.access.types.UUIDType;
 import org.apache.cayenne.access.types.UtilDateType;
 import org.apache.cayenne.access.types.VoidType;
 import org.apache.cayenne.ashwood.AshwoodEntitySorter;
-import org.apache.cayenne.cache.MapQueryCacheProvider;
+import org.apache.cayenne.cache.ConcurrentQueryCacheProvider;
 import org.apache.cayenne.cache.QueryCache;
 import org.apache.cayenne.configuration.ConfigurationNameMapper;
 import org.apache.cayenne.configuration.Constants;
@@ -79,6 +80,7 @@ import org.apache.cayenne.dba.sqlserver.SQLServerSniffer;
 import org.apache.cayenne.dba.sybase.SybaseSniffer;
 import org.apache.cayenne.di.AdhocObjectFactory;
 import org.apache.cayenne.di.Binder;
+import org.apache.cayenne.di.Key;
 import org.apache.cayenne.di.ListBuilder;
 import org.apache.cayenne.di.Module;
 import org.apache.cayenne.di.spi.DefaultAdhocObjectFactory;
@@ -86,6 +88,7 @@ import org.apache.cayenne.event.DefaultEventManager;
 import org.apache.cayenne.event.EventManager;
 import org.apache.cayenne.log.CommonsJdbcEventLogger;
 import org.apache.cayenne.log.JdbcEventLogger;
+import org.apache.cayenne.log.QueryDiagnosticsFilter;
 import org.apache.cayenne.map.EntitySorter;
 import org.apache.cayenne.resource.ClassLoaderResourceLocator;
 import org.apache.cayenne.resource.ResourceLocator;
@@ -149,6 +152,11 @@ public class ServerModule implements Module {
 
         // configure an empty filter chain
         binder.bindList(Constants.SERVER_DOMAIN_FILTERS_LIST);
+
+        // a diagnostics filter that is not a part of the chain by default, bound as a
+        // singleton to be available both for the filters list and for the code
+        // retrieving its statistics
+        binder.bind(QueryDiagnosticsFilter.class).to(QueryDiagnosticsFilter.class);
         
         // configure extended types
         binder
@@ -187,7 +195,7 @@ public class ServerModule implements Module {
 
         binder.bind(EventManager.class).to(DefaultEventManager.class);
 
-        binder.bind(QueryCache.class).toProvider(MapQueryCacheProvider.class);
+        binder.bind(QueryCache.class).toProvider(ConcurrentQueryCacheProvider.class);
 
         // a service to provide the main stack DataDomain
         binder.bind(DataDomain.class).toProvider(DataDomainProvider.class);
@@ -237,5 +245,10 @@ public class ServerModule implements Module {
 
         // a default ObjectStoreFactory used to create ObjectStores for contexts
         binder.bind(ObjectStoreFactory.class).to(DefaultObjectStoreFactory.class);
+
+        // an executor for asynchronous queries of DataContexts
+        binder
+                .bind(Key.get(ExecutorService.class, Constants.SERVER_QUERY_EXECUTOR))
+                .toProvider(QueryExecutorProvider.class);
     }
 }
@@ -21,7 +21,10 @@ package org.apache.cayenne.configuration.server;
 import javax.sql.DataSource;
 
 import org.apache.cayenne.ConfigurationException;
+import org.apache.cayenne.configuration.Constants;
 import org.apache.cayenne.configuration.DataNodeDescriptor;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.conn.ConcurrentPoolManager;
 import org.apache.cayenne.conn.DataSourceInfo;
 import org.apache.cayenne.conn.PoolManager;
 import org.apache.cayenne.di.Inject;
@@ -33,7 +36,10 @@ import org.apache.commons.logging.LogFactory;
 /**
  * A {@link DataSourceFactory} that loads JDBC connection information from an XML resource
  * associated with the DataNodeDescriptor, returning a DataSource with simple connection
- * pooling.
+ * pooling. If {@link Constants#JDBC_CONCURRENT_POOL_PROPERTY} is set to "true", a
+ * {@link ConcurrentPoolManager} is returned instead of the default {@link PoolManager}.
+ * Per-connection PreparedStatement caching is enabled with
+ * {@link Constants#JDBC_STATEMENT_CACHE_SIZE_PROPERTY}.
  * 
  * @since 3.1
  */
@@ -48,6 +54,9 @@ public class XMLPoolingDataSourceFactory implements DataSourceFactory {
     @Inject
     protected JdbcEventLogger jdbcEventLogger;
 
+    @Inject
+    protected RuntimeProperties properties;
+
     public DataSource getDataSource(DataNodeDescriptor nodeDescriptor) throws Exception {
 
         DataSourceInfo dataSourceDescriptor = nodeDescriptor.getDataSourceDescriptor();
@@ -61,7 +70,18 @@ public class XMLPoolingDataSourceFactory implements DataSourceFactory {
             throw new ConfigurationException(message);
         }
         
+        String suffix = nodeDescriptor.getDataChannelDescriptor() != null ? "."
+                + nodeDescriptor.getDataChannelDescriptor().getName()
+                + "."
+                + nodeDescriptor.getName() : "";
+
         try {
+            if ("true".equalsIgnoreCase(getProperty(
+                    Constants.JDBC_CONCURRENT_POOL_PROPERTY,
+                    suffix))) {
+                return createConcurrentPoolManager(dataSourceDescriptor, suffix);
+            }
+
             return new PoolManager(
                     dataSourceDescriptor.getJdbcDriver(),
                     dataSourceDescriptor.getDataSourceUrl(),
@@ -69,11 +89,93 @@ public class XMLPoolingDataSourceFactory implements DataSourceFactory {
                     dataSourceDescriptor.getMaxConnections(),
                     dataSourceDescriptor.getUserName(),
                     dataSourceDescriptor.getPassword(),
-                    jdbcEventLogger);
+                    jdbcEventLogger,
+                    getStatementCacheSize(suffix));
         }
         catch (Exception e) {
             jdbcEventLogger.logConnectFailure(e);
             throw e;
         }
     }
+
+    /**
+     * Creates a {@link ConcurrentPoolManager} configured from the DataSourceInfo and
+     * runtime properties.
+     */
+    protected ConcurrentPoolManager createConcurrentPoolManager(
+            DataSourceInfo dataSourceDescriptor,
+            String suffix) throws Exception {
+
+        ConcurrentPoolManager pool = new ConcurrentPoolManager(
+                dataSourceDescriptor.getJdbcDriver(),
+                dataSourceDescriptor.getDataSourceUrl(),
+                dataSourceDescriptor.getMinConnections(),
+                dataSourceDescriptor.getMaxConnections(),
+                dataSourceDescriptor.getUserName(),
+                dataSourceDescriptor.getPassword(),
+                jdbcEventLogger,
+                getStatementCacheSize(suffix));
+
+        pool.setMaxQueueWaitTime(getLongProperty(
+                Constants.JDBC_MAX_QUEUE_WAIT_TIME_PROPERTY,
+                suffix,
+                ConcurrentPoolManager.DEFAULT_MAX_QUEUE_WAIT_TIME));
+        pool.setMaxIdleTime(getLongProperty(
+                Constants.JDBC_MAX_IDLE_TIME_PROPERTY,
+                suffix,
+                ConcurrentPoolManager.DEFAULT_MAX_IDLE_TIME));
+        pool.setLeakDetectionThreshold(getLongProperty(
+                Constants.JDBC_LEAK_DETECTION_THRESHOLD_PROPERTY,
+                suffix,
+                0));
+        pool.setValidationQuery(getProperty(
+                Constants.JDBC_VALIDATION_QUERY_PROPERTY,
+                suffix));
+        return pool;
+    }
+
+    protected int getStatementCacheSize(String suffix) {
+        return getIntProperty(Constants.JDBC_STATEMENT_CACHE_SIZE_PROPERTY, suffix, 0);
+    }
+
+    protected int getIntProperty(String propertyName, String suffix, int defaultValue) {
+        String string = getProperty(propertyName, suffix);
+
+        if (string == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(string);
+        }
+        catch (NumberFormatException e) {
+            throw new ConfigurationException(
+                    "Invalid int property '%s': '%s'",
+                    propertyName,
+                    string);
+        }
+    }
+
+    protected long getLongProperty(String propertyName, String suffix, long defaultValue) {
+        String string = getProperty(propertyName, suffix);
+
+        if (string == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(string);
+        }
+        catch (NumberFormatException e) {
+            throw new ConfigurationException(
+                    "Invalid long property '%s': '%s'",
+                    propertyName,
+                    string);
+        }
+    }
+
+    protected String getProperty(String propertyName, String suffix) {
+        String value = properties.get(propertyName + suffix);
+        return value != null ? value : properties.get(propertyName);
+    }
 }
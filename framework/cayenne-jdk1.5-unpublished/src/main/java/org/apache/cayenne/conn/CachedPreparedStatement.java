@@ -0,0 +1,555 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.conn;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+
+/**
+ * A PreparedStatement wrapper that returns the underlying statement to the
+ * {@link StatementCache} on close instead of closing it. Statement properties changed
+ * by the user are restored to their original values before the statement goes back to
+ * the cache.
+ *
+ * @since 3.1
+ */
+class CachedPreparedStatement implements PreparedStatement {
+
+    private StatementCache cache;
+    private StatementCache.Key key;
+    private PreparedStatement delegate;
+    private Connection connection;
+    private int generation;
+    private boolean closed;
+
+    private boolean batched;
+    private Integer fetchSize;
+    private Integer fetchDirection;
+    private Integer maxRows;
+    private Integer maxFieldSize;
+    private Integer queryTimeout;
+
+    CachedPreparedStatement(StatementCache cache, StatementCache.Key key,
+            PreparedStatement delegate, Connection connection, int generation) {
+        this.cache = cache;
+        this.key = key;
+        this.delegate = delegate;
+        this.connection = connection;
+        this.generation = generation;
+    }
+
+    /**
+     * Returns the wrapped statement to the cache.
+     */
+    public void close() throws SQLException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        try {
+            reset();
+        }
+        catch (SQLException e) {
+            StatementCache.closeQuietly(delegate);
+            return;
+        }
+
+        cache.put(key, delegate, generation);
+    }
+
+    private void reset() throws SQLException {
+        delegate.clearParameters();
+        delegate.clearWarnings();
+
+        if (batched) {
+            delegate.clearBatch();
+        }
+
+        if (fetchSize != null) {
+            delegate.setFetchSize(fetchSize);
+        }
+
+        if (fetchDirection != null) {
+            delegate.setFetchDirection(fetchDirection);
+        }
+
+        if (maxRows != null) {
+            delegate.setMaxRows(maxRows);
+        }
+
+        if (maxFieldSize != null) {
+            delegate.setMaxFieldSize(maxFieldSize);
+        }
+
+        if (queryTimeout != null) {
+            delegate.setQueryTimeout(queryTimeout);
+        }
+    }
+
+    public boolean isClosed() throws SQLException {
+        return closed;
+    }
+
+    public Connection getConnection() throws SQLException {
+        return connection;
+    }
+
+    public void addBatch() throws SQLException {
+        batched = true;
+        delegate.addBatch();
+    }
+
+    public void setFetchSize(int rows) throws SQLException {
+        if (fetchSize == null) {
+            fetchSize = delegate.getFetchSize();
+        }
+        delegate.setFetchSize(rows);
+    }
+
+    public void setFetchDirection(int direction) throws SQLException {
+        if (fetchDirection == null) {
+            fetchDirection = delegate.getFetchDirection();
+        }
+        delegate.setFetchDirection(direction);
+    }
+
+    public void setMaxRows(int max) throws SQLException {
+        if (maxRows == null) {
+            maxRows = delegate.getMaxRows();
+        }
+        delegate.setMaxRows(max);
+    }
+
+    public void setMaxFieldSize(int max) throws SQLException {
+        if (maxFieldSize == null) {
+            maxFieldSize = delegate.getMaxFieldSize();
+        }
+        delegate.setMaxFieldSize(max);
+    }
+
+    public void setQueryTimeout(int seconds) throws SQLException {
+        if (queryTimeout == null) {
+            queryTimeout = delegate.getQueryTimeout();
+        }
+        delegate.setQueryTimeout(seconds);
+    }
+
+    public void addBatch(String sql) throws SQLException {
+        batched = true;
+        delegate.addBatch(sql);
+    }
+
+    public void cancel() throws SQLException {
+        delegate.cancel();
+    }
+
+    public void clearBatch() throws SQLException {
+        delegate.clearBatch();
+    }
+
+    public void clearParameters() throws SQLException {
+        delegate.clearParameters();
+    }
+
+    public void clearWarnings() throws SQLException {
+        delegate.clearWarnings();
+    }
+
+    // JDBC 4.1 compatibility under Java 1.5; also a cached statement must not close
+    // itself behind the cache's back
+    public void closeOnCompletion() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean execute() throws SQLException {
+        return delegate.execute();
+    }
+
+    public boolean execute(String sql) throws SQLException {
+        return delegate.execute(sql);
+    }
+
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        return delegate.execute(sql, autoGeneratedKeys);
+    }
+
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        return delegate.execute(sql, columnIndexes);
+    }
+
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+        return delegate.execute(sql, columnNames);
+    }
+
+    public int[] executeBatch() throws SQLException {
+        return delegate.executeBatch();
+    }
+
+    public ResultSet executeQuery() throws SQLException {
+        return delegate.executeQuery();
+    }
+
+    public ResultSet executeQuery(String sql) throws SQLException {
+        return delegate.executeQuery(sql);
+    }
+
+    public int executeUpdate() throws SQLException {
+        return delegate.executeUpdate();
+    }
+
+    public int executeUpdate(String sql) throws SQLException {
+        return delegate.executeUpdate(sql);
+    }
+
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        return delegate.executeUpdate(sql, autoGeneratedKeys);
+    }
+
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        return delegate.executeUpdate(sql, columnIndexes);
+    }
+
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        return delegate.executeUpdate(sql, columnNames);
+    }
+
+    public int getFetchDirection() throws SQLException {
+        return delegate.getFetchDirection();
+    }
+
+    public int getFetchSize() throws SQLException {
+        return delegate.getFetchSize();
+    }
+
+    public ResultSet getGeneratedKeys() throws SQLException {
+        return delegate.getGeneratedKeys();
+    }
+
+    public int getMaxFieldSize() throws SQLException {
+        return delegate.getMaxFieldSize();
+    }
+
+    public int getMaxRows() throws SQLException {
+        return delegate.getMaxRows();
+    }
+
+    public ResultSetMetaData getMetaData() throws SQLException {
+        return delegate.getMetaData();
+    }
+
+    public boolean getMoreResults() throws SQLException {
+        return delegate.getMoreResults();
+    }
+
+    public boolean getMoreResults(int current) throws SQLException {
+        return delegate.getMoreResults(current);
+    }
+
+    public ParameterMetaData getParameterMetaData() throws SQLException {
+        return delegate.getParameterMetaData();
+    }
+
+    public int getQueryTimeout() throws SQLException {
+        return delegate.getQueryTimeout();
+    }
+
+    public ResultSet getResultSet() throws SQLException {
+        return delegate.getResultSet();
+    }
+
+    public int getResultSetConcurrency() throws SQLException {
+        return delegate.getResultSetConcurrency();
+    }
+
+    public int getResultSetHoldability() throws SQLException {
+        return delegate.getResultSetHoldability();
+    }
+
+    public int getResultSetType() throws SQLException {
+        return delegate.getResultSetType();
+    }
+
+    public int getUpdateCount() throws SQLException {
+        return delegate.getUpdateCount();
+    }
+
+    public SQLWarning getWarnings() throws SQLException {
+        return delegate.getWarnings();
+    }
+
+    // JDBC 4.1 compatibility under Java 1.5; also a cached statement must not close
+    // itself behind the cache's back
+    public boolean isCloseOnCompletion() throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean isPoolable() throws SQLException {
+        return delegate.isPoolable();
+    }
+
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return delegate.isWrapperFor(iface);
+    }
+
+    public void setArray(int parameterIndex, Array x) throws SQLException {
+        delegate.setArray(parameterIndex, x);
+    }
+
+    public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+        delegate.setAsciiStream(parameterIndex, x);
+    }
+
+    public void setAsciiStream(int parameterIndex, InputStream x, int length)
+            throws SQLException {
+        delegate.setAsciiStream(parameterIndex, x, length);
+    }
+
+    public void setAsciiStream(int parameterIndex, InputStream x, long length)
+            throws SQLException {
+        delegate.setAsciiStream(parameterIndex, x, length);
+    }
+
+    public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+        delegate.setBigDecimal(parameterIndex, x);
+    }
+
+    public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+        delegate.setBinaryStream(parameterIndex, x);
+    }
+
+    public void setBinaryStream(int parameterIndex, InputStream x, int length)
+            throws SQLException {
+        delegate.setBinaryStream(parameterIndex, x, length);
+    }
+
+    public void setBinaryStream(int parameterIndex, InputStream x, long length)
+            throws SQLException {
+        delegate.setBinaryStream(parameterIndex, x, length);
+    }
+
+    public void setBlob(int parameterIndex, InputStream x) throws SQLException {
+        delegate.setBlob(parameterIndex, x);
+    }
+
+    public void setBlob(int parameterIndex, InputStream x, long length)
+            throws SQLException {
+        delegate.setBlob(parameterIndex, x, length);
+    }
+
+    public void setBlob(int parameterIndex, Blob x) throws SQLException {
+        delegate.setBlob(parameterIndex, x);
+    }
+
+    public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+        delegate.setBoolean(parameterIndex, x);
+    }
+
+    public void setByte(int parameterIndex, byte x) throws SQLException {
+        delegate.setByte(parameterIndex, x);
+    }
+
+    public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+        delegate.setBytes(parameterIndex, x);
+    }
+
+    public void setCharacterStream(int parameterIndex, Reader x) throws SQLException {
+        delegate.setCharacterStream(parameterIndex, x);
+    }
+
+    public void setCharacterStream(int parameterIndex, Reader x, int length)
+            throws SQLException {
+        delegate.setCharacterStream(parameterIndex, x, length);
+    }
+
+    public void setCharacterStream(int parameterIndex, Reader x, long length)
+            throws SQLException {
+        delegate.setCharacterStream(parameterIndex, x, length);
+    }
+
+    public void setClob(int parameterIndex, Reader x) throws SQLException {
+        delegate.setClob(parameterIndex, x);
+    }
+
+    public void setClob(int parameterIndex, Reader x, long length) throws SQLException {
+        delegate.setClob(parameterIndex, x, length);
+    }
+
+    public void setClob(int parameterIndex, Clob x) throws SQLException {
+        delegate.setClob(parameterIndex, x);
+    }
+
+    public void setCursorName(String name) throws SQLException {
+        delegate.setCursorName(name);
+    }
+
+    public void setDate(int parameterIndex, Date x) throws SQLException {
+        delegate.setDate(parameterIndex, x);
+    }
+
+    public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+        delegate.setDate(parameterIndex, x, cal);
+    }
+
+    public void setDouble(int parameterIndex, double x) throws SQLException {
+        delegate.setDouble(parameterIndex, x);
+    }
+
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        delegate.setEscapeProcessing(enable);
+    }
+
+    public void setFloat(int parameterIndex, float x) throws SQLException {
+        delegate.setFloat(parameterIndex, x);
+    }
+
+    public void setInt(int parameterIndex, int x) throws SQLException {
+        delegate.setInt(parameterIndex, x);
+    }
+
+    public void setLong(int parameterIndex, long x) throws SQLException {
+        delegate.setLong(parameterIndex, x);
+    }
+
+    public void setNCharacterStream(int parameterIndex, Reader x) throws SQLException {
+        delegate.setNCharacterStream(parameterIndex, x);
+    }
+
+    public void setNCharacterStream(int parameterIndex, Reader x, long length)
+            throws SQLException {
+        delegate.setNCharacterStream(parameterIndex, x, length);
+    }
+
+    public void setNClob(int parameterIndex, Reader x) throws SQLException {
+        delegate.setNClob(parameterIndex, x);
+    }
+
+    public void setNClob(int parameterIndex, Reader x, long length) throws SQLException {
+        delegate.setNClob(parameterIndex, x, length);
+    }
+
+    public void setNClob(int parameterIndex, NClob x) throws SQLException {
+        delegate.setNClob(parameterIndex, x);
+    }
+
+    public void setNString(int parameterIndex, String x) throws SQLException {
+        delegate.setNString(parameterIndex, x);
+    }
+
+    public void setNull(int parameterIndex, int sqlType) throws SQLException {
+        delegate.setNull(parameterIndex, sqlType);
+    }
+
+    public void setNull(int parameterIndex, int sqlType, String typeName)
+            throws SQLException {
+        delegate.setNull(parameterIndex, sqlType, typeName);
+    }
+
+    public void setObject(int parameterIndex, Object x) throws SQLException {
+        delegate.setObject(parameterIndex, x);
+    }
+
+    public void setObject(int parameterIndex, Object x, int targetSqlType)
+            throws SQLException {
+        delegate.setObject(parameterIndex, x, targetSqlType);
+    }
+
+    public void setObject(
+            int parameterIndex,
+            Object x,
+            int targetSqlType,
+            int scaleOrLength) throws SQLException {
+        delegate.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+    }
+
+    public void setPoolable(boolean poolable) throws SQLException {
+        delegate.setPoolable(poolable);
+    }
+
+    public void setRef(int parameterIndex, Ref x) throws SQLException {
+        delegate.setRef(parameterIndex, x);
+    }
+
+    public void setRowId(int parameterIndex, RowId x) throws SQLException {
+        delegate.setRowId(parameterIndex, x);
+    }
+
+    public void setSQLXML(int parameterIndex, SQLXML x) throws SQLException {
+        delegate.setSQLXML(parameterIndex, x);
+    }
+
+    public void setShort(int parameterIndex, short x) throws SQLException {
+        delegate.setShort(parameterIndex, x);
+    }
+
+    public void setString(int parameterIndex, String x) throws SQLException {
+        delegate.setString(parameterIndex, x);
+    }
+
+    public void setTime(int parameterIndex, Time x) throws SQLException {
+        delegate.setTime(parameterIndex, x);
+    }
+
+    public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+        delegate.setTime(parameterIndex, x, cal);
+    }
+
+    public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+        delegate.setTimestamp(parameterIndex, x);
+    }
+
+    public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal)
+            throws SQLException {
+        delegate.setTimestamp(parameterIndex, x, cal);
+    }
+
+    public void setURL(int parameterIndex, URL x) throws SQLException {
+        delegate.setURL(parameterIndex, x);
+    }
+
+    public void setUnicodeStream(int parameterIndex, InputStream x, int length)
+            throws SQLException {
+        delegate.setUnicodeStream(parameterIndex, x, length);
+    }
+
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return delegate.unwrap(iface);
+    }
+}
@@ -0,0 +1,738 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.conn;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.DataSource;
+import javax.sql.PooledConnection;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.di.ScopeEventListener;
+import org.apache.cayenne.log.JdbcEventLogger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A pooling DataSource designed for high concurrency, an alternative to
+ * {@link PoolManager}. Idle connections are kept in a lock-free {@link ConnectionBag}
+ * with a per-thread fast path, and threads waiting for a connection are queued on a fair
+ * semaphore, so a returned connection wakes up exactly one waiter. A background
+ * maintenance thread closes connections idle for too long, validates idle connections
+ * and reports connections that look leaked.
+ *
+ * @since 3.1
+ */
+public class ConcurrentPoolManager implements ScopeEventListener, DataSource,
+        ConnectionEventListener {
+
+    private static final Log logger = LogFactory.getLog(ConcurrentPoolManager.class);
+
+    /**
+     * Default time in milliseconds that a connection request waits in the queue before
+     * failing.
+     */
+    public static final long DEFAULT_MAX_QUEUE_WAIT_TIME = PoolManager.MAX_QUEUE_WAIT;
+
+    /**
+     * Default time in milliseconds after which an idle connection above the pool minimum
+     * is closed.
+     */
+    public static final long DEFAULT_MAX_IDLE_TIME = 600000;
+
+    /**
+     * Default interval in milliseconds between pool maintenance runs.
+     */
+    public static final long DEFAULT_MAINTENANCE_INTERVAL = 30000;
+
+    protected ConnectionPoolDataSource poolDataSource;
+    protected int minConnections;
+    protected int maxConnections;
+    protected String dataSourceUrl;
+    protected String jdbcDriver;
+    protected String password;
+    protected String userName;
+
+    protected long maxQueueWaitTime;
+    protected long maxIdleTime;
+    protected long maintenanceInterval;
+    protected long leakDetectionThreshold;
+    protected String validationQuery;
+
+    private ConnectionBag bag;
+    private Map<PooledConnection, ConnectionBag.Entry> entries;
+    private Semaphore permits;
+    private AtomicInteger totalConnections;
+
+    private MaintenanceThread maintenanceThread;
+    private volatile boolean shuttingDown;
+
+    public ConcurrentPoolManager(String jdbcDriver, String dataSourceUrl, int minCons,
+            int maxCons, String userName, String password, JdbcEventLogger logger)
+            throws SQLException {
+
+        this(jdbcDriver, dataSourceUrl, minCons, maxCons, userName, password, logger, 0);
+    }
+
+    /**
+     * Creates new ConcurrentPoolManager that caches up to
+     * <code>statementCacheSize</code> PreparedStatements per pooled connection.
+     */
+    public ConcurrentPoolManager(String jdbcDriver, String dataSourceUrl, int minCons,
+            int maxCons, String userName, String password, JdbcEventLogger logger,
+            int statementCacheSize) throws SQLException {
+
+        if (logger != null) {
+            DataSourceInfo info = new DataSourceInfo();
+            info.setJdbcDriver(jdbcDriver);
+            info.setDataSourceUrl(dataSourceUrl);
+            info.setMinConnections(minCons);
+            info.setMaxConnections(maxCons);
+            info.setUserName(userName);
+            info.setPassword(password);
+            logger.logPoolCreated(info);
+        }
+
+        this.jdbcDriver = jdbcDriver;
+        this.dataSourceUrl = dataSourceUrl;
+        DriverDataSource driverDS = new DriverDataSource(jdbcDriver, dataSourceUrl);
+        driverDS.setLogger(logger);
+        PoolDataSource poolDS = new PoolDataSource(driverDS);
+        poolDS.setStatementCacheSize(statementCacheSize);
+        init(poolDS, minCons, maxCons, userName, password);
+    }
+
+    /**
+     * Creates new ConcurrentPoolManager with the specified policy for connection pooling
+     * and a ConnectionPoolDataSource object.
+     */
+    public ConcurrentPoolManager(ConnectionPoolDataSource poolDataSource, int minCons,
+            int maxCons, String userName, String password) throws SQLException {
+        init(poolDataSource, minCons, maxCons, userName, password);
+    }
+
+    /** Initializes pool. Normally called from constructor. */
+    protected void init(
+            ConnectionPoolDataSource poolDataSource,
+            int minCons,
+            int maxCons,
+            String userName,
+            String password) throws SQLException {
+
+        if (maxCons < 0) {
+            throw new SQLException("Maximum number of connections can not be negative ("
+                    + maxCons
+                    + ").");
+        }
+
+        if (minCons < 0) {
+            throw new SQLException("Minimum number of connections can not be negative ("
+                    + minCons
+                    + ").");
+        }
+
+        if (minCons > maxCons) {
+            throw new SQLException(
+                    "Minimum number of connections can not be bigger then maximum.");
+        }
+
+        this.userName = userName;
+        this.password = password;
+        this.minConnections = minCons;
+        this.maxConnections = maxCons;
+        this.poolDataSource = poolDataSource;
+
+        this.maxQueueWaitTime = DEFAULT_MAX_QUEUE_WAIT_TIME;
+        this.maxIdleTime = DEFAULT_MAX_IDLE_TIME;
+        this.maintenanceInterval = DEFAULT_MAINTENANCE_INTERVAL;
+
+        this.bag = new ConnectionBag();
+        this.entries = new ConcurrentHashMap<PooledConnection, ConnectionBag.Entry>();
+        this.permits = new Semaphore(maxCons, true);
+        this.totalConnections = new AtomicInteger();
+
+        growPool(minConnections);
+        startMaintenanceThread();
+    }
+
+    protected synchronized void startMaintenanceThread() {
+        disposeOfMaintenanceThread();
+        this.maintenanceThread = new MaintenanceThread(this);
+        this.maintenanceThread.start();
+    }
+
+    protected synchronized void disposeOfMaintenanceThread() {
+        if (maintenanceThread != null) {
+            maintenanceThread.shutdown();
+            maintenanceThread = null;
+        }
+    }
+
+    /**
+     * Creates and returns new PooledConnection object, adding itself as a listener for
+     * connection events.
+     */
+    protected PooledConnection newPooledConnection(String userName, String password)
+            throws SQLException {
+        PooledConnection connection = (userName != null) ? poolDataSource
+                .getPooledConnection(userName, password) : poolDataSource
+                .getPooledConnection();
+        connection.addConnectionEventListener(this);
+        return connection;
+    }
+
+    /**
+     * Closes all existing connections, drains the pool and stops the maintenance thread.
+     */
+    public void shutdown() throws SQLException {
+        disposeOfMaintenanceThread();
+        shuttingDown = true;
+
+        for (ConnectionBag.Entry entry : bag.values()) {
+            entry.connection.removeConnectionEventListener(this);
+            discard(entry);
+        }
+    }
+
+    /**
+     * An implementation of {@link ScopeEventListener} that simply calls
+     * {@link #shutdown()}.
+     */
+    public void beforeScopeEnd() {
+        try {
+            shutdown();
+        }
+        catch (SQLException e) {
+            throw new CayenneRuntimeException("Error while shutting down");
+        }
+    }
+
+    /**
+     * Opens up to the specified number of new idle connections, never exceeding
+     * maximum pool size.
+     *
+     * @return the actual number of created connections.
+     */
+    protected int growPool(int addConnections) throws SQLException {
+        int i = 0;
+        for (; i < addConnections && reserveSlot(); i++) {
+            ConnectionBag.Entry entry = createEntry();
+            entry.compareAndSetState(
+                    ConnectionBag.STATE_IN_USE,
+                    ConnectionBag.STATE_NOT_IN_USE);
+        }
+
+        return i;
+    }
+
+    /**
+     * Returns connection from the pool using internal values of user name and password.
+     */
+    public Connection getConnection() throws SQLException {
+        return getConnection(userName, password);
+    }
+
+    /**
+     * Returns connection from the pool. Note that user name and password are ignored,
+     * connections are always opened with the pool credentials.
+     */
+    public Connection getConnection(String userName, String password)
+            throws SQLException {
+
+        if (shuttingDown) {
+            throw new SQLException("Pool manager is shutting down.");
+        }
+
+        try {
+            if (!permits.tryAcquire(maxQueueWaitTime, TimeUnit.MILLISECONDS)) {
+                throw new SQLException(
+                        "Can't obtain connection. Request timed out. Total used connections: "
+                                + getCurrentlyInUse());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException(
+                    "Interrupted while waiting for connection. Total used connections: "
+                            + getCurrentlyInUse());
+        }
+
+        try {
+            ConnectionBag.Entry entry = borrowEntry();
+            try {
+                return uncheckConnection(entry);
+            }
+            catch (SQLException ex) {
+
+                // do one reconnect attempt...
+                discard(entry);
+                entry = borrowEntry();
+                try {
+                    return uncheckConnection(entry);
+                }
+                catch (SQLException reconnectEx) {
+                    discard(entry);
+                    throw reconnectEx;
+                }
+            }
+        }
+        catch (SQLException e) {
+            permits.release();
+            throw e;
+        }
+        catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Connection uncheckConnection(ConnectionBag.Entry entry) throws SQLException {
+        Connection c = entry.connection.getConnection();
+
+        entry.borrowedAt = System.currentTimeMillis();
+        if (leakDetectionThreshold > 0) {
+            entry.borrowTrace = new Throwable("Connection checkout");
+        }
+
+        return c;
+    }
+
+    /**
+     * Claims an entry for the caller that already holds a permit. Since there are no more
+     * borrowers than permits, either an idle connection exists or the pool can still
+     * grow, unless maintenance thread is temporarily holding a connection.
+     */
+    private ConnectionBag.Entry borrowEntry() throws SQLException {
+        while (true) {
+            ConnectionBag.Entry entry = bag.borrow();
+            if (entry != null) {
+                return entry;
+            }
+
+            if (reserveSlot()) {
+                return createEntry();
+            }
+
+            Thread.yield();
+        }
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            int total = totalConnections.get();
+            if (total >= maxConnections) {
+                return false;
+            }
+
+            if (totalConnections.compareAndSet(total, total + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Opens a new connection in a slot reserved by the caller and registers it in the
+     * bag in "in use" state.
+     */
+    private ConnectionBag.Entry createEntry() throws SQLException {
+        PooledConnection connection;
+        try {
+            connection = newPooledConnection(userName, password);
+        }
+        catch (SQLException e) {
+            totalConnections.decrementAndGet();
+            throw e;
+        }
+        catch (RuntimeException e) {
+            totalConnections.decrementAndGet();
+            throw e;
+        }
+
+        ConnectionBag.Entry entry = new ConnectionBag.Entry(connection);
+        entry.compareAndSetState(ConnectionBag.STATE_NOT_IN_USE, ConnectionBag.STATE_IN_USE);
+        entries.put(connection, entry);
+        bag.add(entry);
+        return entry;
+    }
+
+    /**
+     * Removes the entry from the pool and closes its connection.
+     */
+    private void discard(ConnectionBag.Entry entry) {
+        if (entries.remove(entry.connection) != null) {
+            bag.remove(entry);
+            totalConnections.decrementAndGet();
+        }
+
+        try {
+            entry.connection.close();
+        }
+        catch (SQLException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Returns closed connection to the pool.
+     */
+    public void connectionClosed(ConnectionEvent event) {
+
+        if (shuttingDown) {
+            return;
+        }
+
+        ConnectionBag.Entry entry = entries.get(event.getSource());
+
+        // connection may have been reserved by the maintenance thread, or it may be a
+        // bad connection, unregistered in "connectionErrorOccurred"
+        if (entry != null && bag.requite(entry)) {
+            permits.release();
+        }
+    }
+
+    /**
+     * Removes connection with an error from the pool. The connection is not closed, the
+     * code that catches the exception is expected to handle it.
+     */
+    public void connectionErrorOccurred(ConnectionEvent event) {
+
+        if (shuttingDown) {
+            return;
+        }
+
+        ConnectionBag.Entry entry = entries.remove(event.getSource());
+        if (entry != null) {
+            int state = bag.remove(entry);
+            totalConnections.decrementAndGet();
+
+            if (state == ConnectionBag.STATE_IN_USE) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Performs a single pass of pool maintenance: closes connections idle for longer than
+     * max idle time as long as the pool stays above the minimum, validates the remaining
+     * idle connections, reports possible leaks and tops up the pool to its minimum size.
+     */
+    protected void maintain() {
+        long now = System.currentTimeMillis();
+
+        for (ConnectionBag.Entry entry : bag.values()) {
+
+            if (entry.getState() == ConnectionBag.STATE_IN_USE) {
+                if (leakDetectionThreshold > 0
+                        && !entry.leakReported
+                        && now - entry.borrowedAt > leakDetectionThreshold) {
+                    entry.leakReported = true;
+                    logger.warn("Connection is in use for more than "
+                            + leakDetectionThreshold
+                            + " ms, possible connection leak", entry.borrowTrace);
+                }
+                continue;
+            }
+
+            if (!bag.reserve(entry)) {
+                continue;
+            }
+
+            if (maxIdleTime > 0
+                    && now - entry.lastAccessed > maxIdleTime
+                    && totalConnections.get() > minConnections) {
+                discard(entry);
+            }
+            else if (!isValid(entry)) {
+                discard(entry);
+            }
+            else {
+                bag.unreserve(entry);
+            }
+        }
+
+        int missing = minConnections - totalConnections.get();
+        if (missing > 0 && !shuttingDown) {
+            try {
+                growPool(missing);
+            }
+            catch (SQLException e) {
+                logger.info("Error topping up connection pool", e);
+            }
+        }
+    }
+
+    private boolean isValid(ConnectionBag.Entry entry) {
+        if (validationQuery == null) {
+            return true;
+        }
+
+        try {
+            Connection c = entry.connection.getConnection();
+            try {
+                Statement st = c.createStatement();
+                try {
+                    st.execute(validationQuery);
+                }
+                finally {
+                    st.close();
+                }
+            }
+            finally {
+                c.close();
+            }
+
+            // the connection may have reported an error while executing the query
+            return entries.containsKey(entry.connection);
+        }
+        catch (SQLException e) {
+            logger.info("Connection validation failed, closing connection", e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns maximum number of connections this pool can keep.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Returns the absolute minimum number of connections allowed in this pool at any
+     * moment in time.
+     */
+    public int getMinConnections() {
+        return minConnections;
+    }
+
+    /**
+     * Returns a database URL used to initialize this pool. Will return null if the pool
+     * was initialized with ConnectionPoolDataSource.
+     */
+    public String getDataSourceUrl() {
+        return dataSourceUrl;
+    }
+
+    /**
+     * Returns a name of a JDBC driver used to initialize this pool. Will return null if
+     * the pool was initialized with ConnectionPoolDataSource.
+     */
+    public String getJdbcDriver() {
+        return jdbcDriver;
+    }
+
+    /** Returns a data source password used to initialize this pool. */
+    public String getPassword() {
+        return password;
+    }
+
+    /** Returns a data source user name used to initialize this pool. */
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Returns PreparedStatement cache counters of this pool, or null if the pool was
+     * initialized with a ConnectionPoolDataSource that does not cache statements.
+     */
+    public StatementCacheStatistics getStatementCacheStatistics() {
+        return (poolDataSource instanceof PoolDataSource)
+                ? ((PoolDataSource) poolDataSource).getStatementCacheStatistics()
+                : null;
+    }
+
+    /**
+     * Returns max time in milliseconds that a thread waits for a connection before
+     * getting an exception.
+     */
+    public long getMaxQueueWaitTime() {
+        return maxQueueWaitTime;
+    }
+
+    public void setMaxQueueWaitTime(long maxQueueWaitTime) {
+        this.maxQueueWaitTime = maxQueueWaitTime;
+    }
+
+    /**
+     * Returns time in milliseconds after which an idle connection is closed, provided the
+     * pool has more than the minimum number of connections. Zero or negative value
+     * disables idle eviction.
+     */
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    /**
+     * Returns the interval in milliseconds between pool maintenance runs.
+     */
+    public long getMaintenanceInterval() {
+        return maintenanceInterval;
+    }
+
+    public void setMaintenanceInterval(long maintenanceInterval) {
+        this.maintenanceInterval = maintenanceInterval;
+    }
+
+    /**
+     * Returns time in milliseconds that a connection can be checked out before it is
+     * reported as a possible leak. Zero or negative value disables leak detection.
+     */
+    public long getLeakDetectionThreshold() {
+        return leakDetectionThreshold;
+    }
+
+    public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
+
+    /**
+     * Returns an SQL statement run against idle connections during maintenance to check
+     * that they are still usable. If null, no validation is done.
+     */
+    public String getValidationQuery() {
+        return validationQuery;
+    }
+
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    /**
+     * Returns current number of connections.
+     */
+    public int getPoolSize() {
+        return bag.size();
+    }
+
+    /**
+     * Returns the number of connections obtained via this DataSource that are currently
+     * in use by the DataSource clients.
+     */
+    public int getCurrentlyInUse() {
+        return bag.getCount(ConnectionBag.STATE_IN_USE);
+    }
+
+    /**
+     * Returns the number of connections maintained in the pool that are currently not
+     * used by any clients and are available immediately via <code>getConnection</code>
+     * method.
+     */
+    public int getCurrentlyUnused() {
+        return bag.getCount(ConnectionBag.STATE_NOT_IN_USE);
+    }
+
+    /**
+     * Returns an estimate of the number of threads waiting for a connection.
+     */
+    public int getThreadsAwaitingConnection() {
+        return permits.getQueueLength();
+    }
+
+    public int getLoginTimeout() throws java.sql.SQLException {
+        return poolDataSource.getLoginTimeout();
+    }
+
+    public void setLoginTimeout(int seconds) throws java.sql.SQLException {
+        poolDataSource.setLoginTimeout(seconds);
+    }
+
+    public PrintWriter getLogWriter() throws java.sql.SQLException {
+        return poolDataSource.getLogWriter();
+    }
+
+    public void setLogWriter(PrintWriter out) throws java.sql.SQLException {
+        poolDataSource.setLogWriter(out);
+    }
+
+    static class MaintenanceThread extends Thread {
+
+        private volatile boolean shouldDie;
+        private ConcurrentPoolManager pool;
+
+        MaintenanceThread(ConcurrentPoolManager pool) {
+            super.setName("ConcurrentPoolManagerCleanup-" + pool.hashCode());
+            super.setDaemon(true);
+            this.pool = pool;
+        }
+
+        @Override
+        public void run() {
+            while (!shouldDie) {
+
+                try {
+                    sleep(pool.maintenanceInterval);
+                }
+                catch (InterruptedException iex) {
+                    // ignore...
+                }
+
+                if (shouldDie) {
+                    break;
+                }
+
+                try {
+                    pool.maintain();
+                }
+                catch (RuntimeException e) {
+                    logger.info("Error during pool maintenance", e);
+                }
+            }
+        }
+
+        /**
+         * Stops the maintenance thread.
+         */
+        void shutdown() {
+            shouldDie = true;
+            interrupt();
+        }
+    }
+
+    // JDBC 4 compatibility under Java 1.5
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    // JDBC 4 compatibility under Java 1.5
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    // JDBC 4.1 compatibility under Java 1.5
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,192 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.conn;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.PooledConnection;
+
+/**
+ * A lock-free container of pooled connections used by {@link ConcurrentPoolManager}.
+ * Ownership of each entry is claimed via a CAS on its state, so checkout and return never
+ * contend on a shared monitor. Each thread remembers the entries it returned recently and
+ * tries them first on the next checkout, which in a typical request/response cycle means
+ * a thread gets "its" connection back without scanning the shared list.
+ *
+ * @since 3.1
+ */
+class ConnectionBag {
+
+    static final int STATE_NOT_IN_USE = 0;
+    static final int STATE_IN_USE = 1;
+    static final int STATE_RESERVED = -1;
+    static final int STATE_REMOVED = -2;
+
+    /**
+     * Max number of recently returned entries remembered per thread.
+     */
+    static final int THREAD_LOCAL_SIZE = 8;
+
+    static class Entry {
+
+        final PooledConnection connection;
+        final AtomicInteger state;
+        final long createdAt;
+
+        volatile long lastAccessed;
+        volatile long borrowedAt;
+        volatile Throwable borrowTrace;
+        volatile boolean leakReported;
+
+        Entry(PooledConnection connection) {
+            this.connection = connection;
+            this.state = new AtomicInteger(STATE_NOT_IN_USE);
+            this.createdAt = System.currentTimeMillis();
+            this.lastAccessed = createdAt;
+        }
+
+        boolean compareAndSetState(int expect, int update) {
+            return state.compareAndSet(expect, update);
+        }
+
+        int getState() {
+            return state.get();
+        }
+    }
+
+    private List<Entry> sharedList;
+    private ThreadLocal<List<WeakReference<Entry>>> threadList;
+
+    ConnectionBag() {
+        this.sharedList = new CopyOnWriteArrayList<Entry>();
+        this.threadList = new ThreadLocal<List<WeakReference<Entry>>>() {
+
+            @Override
+            protected List<WeakReference<Entry>> initialValue() {
+                return new ArrayList<WeakReference<Entry>>(THREAD_LOCAL_SIZE);
+            }
+        };
+    }
+
+    /**
+     * Claims an idle entry, returning null if none is available.
+     */
+    Entry borrow() {
+
+        // fast path - connections previously returned by this thread, most recent first
+        List<WeakReference<Entry>> local = threadList.get();
+        for (int i = local.size() - 1; i >= 0; i--) {
+            Entry entry = local.remove(i).get();
+            if (entry != null && entry.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+                return entry;
+            }
+        }
+
+        for (Entry entry : sharedList) {
+            if (entry.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns a borrowed entry to the bag. Returns false if the entry was not in use,
+     * i.e. it was reserved, removed or already returned.
+     */
+    boolean requite(Entry entry) {
+        if (entry.getState() != STATE_IN_USE) {
+            return false;
+        }
+
+        entry.lastAccessed = System.currentTimeMillis();
+        entry.borrowTrace = null;
+        entry.leakReported = false;
+
+        if (!entry.compareAndSetState(STATE_IN_USE, STATE_NOT_IN_USE)) {
+            return false;
+        }
+
+        List<WeakReference<Entry>> local = threadList.get();
+        if (local.size() < THREAD_LOCAL_SIZE) {
+            local.add(new WeakReference<Entry>(entry));
+        }
+
+        return true;
+    }
+
+    void add(Entry entry) {
+        sharedList.add(entry);
+    }
+
+    /**
+     * Removes the entry from the bag, returning its state prior to removal, or
+     * {@link #STATE_REMOVED} if it was removed already.
+     */
+    int remove(Entry entry) {
+        while (true) {
+            int state = entry.getState();
+            if (state == STATE_REMOVED) {
+                return state;
+            }
+
+            if (entry.compareAndSetState(state, STATE_REMOVED)) {
+                sharedList.remove(entry);
+                return state;
+            }
+        }
+    }
+
+    /**
+     * Takes an idle entry out of circulation for maintenance.
+     */
+    boolean reserve(Entry entry) {
+        return entry.compareAndSetState(STATE_NOT_IN_USE, STATE_RESERVED);
+    }
+
+    void unreserve(Entry entry) {
+        entry.compareAndSetState(STATE_RESERVED, STATE_NOT_IN_USE);
+    }
+
+    /**
+     * Returns a snapshot of all entries in the bag.
+     */
+    List<Entry> values() {
+        return new ArrayList<Entry>(sharedList);
+    }
+
+    int size() {
+        return sharedList.size();
+    }
+
+    int getCount(int state) {
+        int count = 0;
+        for (Entry entry : sharedList) {
+            if (entry.getState() == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
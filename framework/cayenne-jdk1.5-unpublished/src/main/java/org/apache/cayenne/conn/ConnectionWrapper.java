@@ -27,6 +27,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.NClob;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLClientInfoException;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
@@ -108,6 +109,10 @@ public class ConnectionWrapper implements Connection {
         reconnectCount++;
     }
 
+    private StatementCache getStatementCache() {
+        return pooledConnection != null ? pooledConnection.getStatementCache() : null;
+    }
+
     protected void retire(SQLException exception) {
         // notify all the listeners....
         pooledConnection.connectionErrorNotification(exception);
@@ -279,7 +284,23 @@ public class ConnectionWrapper implements Connection {
 
     public PreparedStatement prepareStatement(String sql) throws SQLException {
         try {
-            return connection.prepareStatement(sql);
+            StatementCache cache = getStatementCache();
+            if (cache == null) {
+                return connection.prepareStatement(sql);
+            }
+
+            StatementCache.Key key = new StatementCache.Key(
+                    sql,
+                    ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY,
+                    Statement.NO_GENERATED_KEYS);
+
+            PreparedStatement statement = cache.get(key);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+            }
+
+            return cache.wrap(key, statement, this);
         }
         catch (SQLException sqlEx) {
 
@@ -294,7 +315,29 @@ public class ConnectionWrapper implements Connection {
             int resultSetType,
             int resultSetConcurrency) throws SQLException {
         try {
-            return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+            StatementCache cache = getStatementCache();
+            if (cache == null) {
+                return connection.prepareStatement(
+                        sql,
+                        resultSetType,
+                        resultSetConcurrency);
+            }
+
+            StatementCache.Key key = new StatementCache.Key(
+                    sql,
+                    resultSetType,
+                    resultSetConcurrency,
+                    Statement.NO_GENERATED_KEYS);
+
+            PreparedStatement statement = cache.get(key);
+            if (statement == null) {
+                statement = connection.prepareStatement(
+                        sql,
+                        resultSetType,
+                        resultSetConcurrency);
+            }
+
+            return cache.wrap(key, statement, this);
         }
         catch (SQLException sqlEx) {
 
@@ -458,7 +501,23 @@ public class ConnectionWrapper implements Connection {
             throws SQLException {
 
         try {
-            return connection.prepareStatement(sql, autoGeneratedKeys);
+            StatementCache cache = getStatementCache();
+            if (cache == null) {
+                return connection.prepareStatement(sql, autoGeneratedKeys);
+            }
+
+            StatementCache.Key key = new StatementCache.Key(
+                    sql,
+                    ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY,
+                    autoGeneratedKeys);
+
+            PreparedStatement statement = cache.get(key);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql, autoGeneratedKeys);
+            }
+
+            return cache.wrap(key, statement, this);
         }
         catch (SQLException sqlEx) {
 
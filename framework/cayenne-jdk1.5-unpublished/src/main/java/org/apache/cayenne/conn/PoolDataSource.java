@@ -40,14 +40,47 @@ import javax.sql.PooledConnection;
  */
 public class PoolDataSource implements ConnectionPoolDataSource {
 	private DataSource nonPooledDatasource;
+	private int statementCacheSize;
+	private StatementCacheStatistics statementCacheStatistics;
 
 	/** Creates new PoolDataSource */
 	public PoolDataSource(DataSource nonPooledDatasource) {
 		this.nonPooledDatasource = nonPooledDatasource;
+		this.statementCacheStatistics = new StatementCacheStatistics();
 	}
 
 	public PoolDataSource(String jdbcDriver, String connectionUrl) throws SQLException {
-		nonPooledDatasource = new DriverDataSource(jdbcDriver, connectionUrl);
+		this(new DriverDataSource(jdbcDriver, connectionUrl));
+	}
+
+	/**
+	 * Returns the max number of PreparedStatements cached per pooled connection. Zero
+	 * (default) means no caching.
+	 * 
+	 * @since 3.1
+	 */
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	/**
+	 * Sets the max number of PreparedStatements cached per pooled connection. Only
+	 * affects connections created after this call.
+	 * 
+	 * @since 3.1
+	 */
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	/**
+	 * Returns PreparedStatement cache counters aggregated across all connections of
+	 * this data source.
+	 * 
+	 * @since 3.1
+	 */
+	public StatementCacheStatistics getStatementCacheStatistics() {
+		return statementCacheStatistics;
 	}
 
 	public int getLoginTimeout() throws SQLException {
@@ -67,11 +100,21 @@ public class PoolDataSource implements ConnectionPoolDataSource {
 	}
 
 	public PooledConnection getPooledConnection() throws SQLException {
-		return new PooledConnectionImpl(nonPooledDatasource, null, null);
+		return new PooledConnectionImpl(
+				nonPooledDatasource,
+				null,
+				null,
+				statementCacheSize,
+				statementCacheStatistics);
 	}
 
 	public PooledConnection getPooledConnection(String user, String password) throws SQLException {
-		return new PooledConnectionImpl(nonPooledDatasource, user, password);
+		return new PooledConnectionImpl(
+				nonPooledDatasource,
+				user,
+				password,
+				statementCacheSize,
+				statementCacheStatistics);
 	}
 
     /**
@@ -78,6 +78,19 @@ public class PoolManager implements ScopeEventListener, DataSource,
     public PoolManager(String jdbcDriver, String dataSourceUrl, int minCons, int maxCons,
             String userName, String password, JdbcEventLogger logger) throws SQLException {
 
+        this(jdbcDriver, dataSourceUrl, minCons, maxCons, userName, password, logger, 0);
+    }
+
+    /**
+     * Creates new PoolManager that caches up to <code>statementCacheSize</code>
+     * PreparedStatements per pooled connection.
+     * 
+     * @since 3.1
+     */
+    public PoolManager(String jdbcDriver, String dataSourceUrl, int minCons, int maxCons,
+            String userName, String password, JdbcEventLogger logger,
+            int statementCacheSize) throws SQLException {
+
         if (logger != null) {
             DataSourceInfo info = new DataSourceInfo();
             info.setJdbcDriver(jdbcDriver);
@@ -94,6 +107,7 @@ public class PoolManager implements ScopeEventListener, DataSource,
         DriverDataSource driverDS = new DriverDataSource(jdbcDriver, dataSourceUrl);
         driverDS.setLogger(logger);
         PoolDataSource poolDS = new PoolDataSource(driverDS);
+        poolDS.setStatementCacheSize(statementCacheSize);
         init(poolDS, minCons, maxCons, userName, password);
     }
 
@@ -335,6 +349,18 @@ public class PoolManager implements ScopeEventListener, DataSource,
         return userName;
     }
 
+    /**
+     * Returns PreparedStatement cache counters of this pool, or null if the pool was
+     * initialized with a ConnectionPoolDataSource that does not cache statements.
+     * 
+     * @since 3.1
+     */
+    public StatementCacheStatistics getStatementCacheStatistics() {
+        return (poolDataSource instanceof PoolDataSource)
+                ? ((PoolDataSource) poolDataSource).getStatementCacheStatistics()
+                : null;
+    }
+
     /**
      * Returns current number of connections.
      */
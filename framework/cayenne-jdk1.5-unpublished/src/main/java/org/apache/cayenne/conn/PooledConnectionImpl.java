@@ -45,6 +45,7 @@ public class PooledConnectionImpl implements PooledConnection {
     private DataSource connectionSource;
     private String userName;
     private String password;
+    private StatementCache statementCache;
 
     protected PooledConnectionImpl() {
         // TODO: maybe remove synchronization and use
@@ -66,8 +67,29 @@ public class PooledConnectionImpl implements PooledConnection {
 
     }
 
+    /**
+     * Creates new PooledConnection that caches up to <code>statementCacheSize</code>
+     * PreparedStatements of its physical connection. Zero cache size disables caching.
+     *
+     * @since 3.1
+     */
+    public PooledConnectionImpl(DataSource connectionSource, String userName,
+            String password, int statementCacheSize, StatementCacheStatistics statistics) {
+
+        this(connectionSource, userName, password);
+
+        if (statementCacheSize > 0) {
+            this.statementCache = new StatementCache(statementCacheSize, statistics);
+        }
+    }
+
     public void reconnect() throws SQLException {
         if (connectionObj != null) {
+
+            if (statementCache != null) {
+                statementCache.clear();
+            }
+
             try {
                 connectionObj.close();
             }
@@ -106,6 +128,11 @@ public class PooledConnectionImpl implements PooledConnection {
         }
 
         if (connectionObj != null) {
+
+            if (statementCache != null) {
+                statementCache.clear();
+            }
+
             try {
                 connectionObj.close();
             }
@@ -137,6 +164,14 @@ public class PooledConnectionImpl implements PooledConnection {
         return new ConnectionWrapper(connectionObj, this);
     }
 
+    /**
+     * Returns a cache of PreparedStatements of the underlying physical connection, or
+     * null if statement caching is disabled.
+     */
+    StatementCache getStatementCache() {
+        return statementCache;
+    }
+
     protected void returnConnectionToThePool() throws SQLException {
         // do not return to pool bad connections
         if (hadErrors)
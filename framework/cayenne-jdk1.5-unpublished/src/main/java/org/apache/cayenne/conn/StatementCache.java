@@ -0,0 +1,173 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.conn;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An LRU cache of idle PreparedStatements of a single physical connection. A statement
+ * is removed from the cache while in use, and goes back to the cache when the user
+ * closes it. Statements evicted from the cache are closed.
+ *
+ * @since 3.1
+ */
+class StatementCache {
+
+    static final class Key {
+
+        final String sql;
+        final int resultSetType;
+        final int resultSetConcurrency;
+        final int autoGeneratedKeys;
+
+        Key(String sql, int resultSetType, int resultSetConcurrency,
+                int autoGeneratedKeys) {
+            this.sql = sql;
+            this.resultSetType = resultSetType;
+            this.resultSetConcurrency = resultSetConcurrency;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (object == this) {
+                return true;
+            }
+
+            if (!(object instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) object;
+            return resultSetType == key.resultSetType
+                    && resultSetConcurrency == key.resultSetConcurrency
+                    && autoGeneratedKeys == key.autoGeneratedKeys
+                    && sql.equals(key.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = sql.hashCode();
+            hash = 31 * hash + resultSetType;
+            hash = 31 * hash + resultSetConcurrency;
+            hash = 31 * hash + autoGeneratedKeys;
+            return hash;
+        }
+    }
+
+    private Map<Key, PreparedStatement> statements;
+    private StatementCacheStatistics statistics;
+    private int generation;
+
+    StatementCache(final int size, StatementCacheStatistics statistics) {
+        this.statistics = statistics;
+        this.statements = new LinkedHashMap<Key, PreparedStatement>(size, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+                if (size() > size) {
+                    StatementCache.this.statistics.evict();
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Checks out a previously prepared statement, returning null if there's no idle
+     * statement for the key.
+     */
+    synchronized PreparedStatement get(Key key) {
+        PreparedStatement statement = statements.remove(key);
+
+        if (statement != null) {
+            statistics.hit();
+        }
+        else {
+            statistics.miss();
+        }
+
+        return statement;
+    }
+
+    /**
+     * Wraps a statement checked out of the cache or freshly prepared, so that closing
+     * the wrapper returns the statement back to the cache.
+     */
+    synchronized PreparedStatement wrap(
+            Key key,
+            PreparedStatement statement,
+            Connection connection) {
+        return new CachedPreparedStatement(this, key, statement, connection, generation);
+    }
+
+    /**
+     * Returns a statement to the cache. If an idle statement with the same key is
+     * already cached, or if the cache was cleared since the statement was checked out,
+     * the statement is closed instead.
+     */
+    synchronized void put(Key key, PreparedStatement statement, int statementGeneration) {
+        if (statementGeneration != generation || statements.containsKey(key)) {
+            closeQuietly(statement);
+        }
+        else {
+            statements.put(key, statement);
+        }
+    }
+
+    /**
+     * Closes all idle statements. Statements currently checked out will be closed when
+     * returned. Must be called before the underlying connection is closed or replaced.
+     */
+    void clear() {
+        Collection<PreparedStatement> toClose;
+
+        synchronized (this) {
+            generation++;
+            toClose = new ArrayList<PreparedStatement>(statements.values());
+            statements.clear();
+        }
+
+        for (PreparedStatement statement : toClose) {
+            closeQuietly(statement);
+        }
+    }
+
+    synchronized int size() {
+        return statements.size();
+    }
+
+    static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        }
+        catch (SQLException e) {
+            // ignore, connection may be in a bad state
+        }
+    }
+}
@@ -35,6 +35,7 @@ import org.apache.cayenne.access.jdbc.EJBQLTranslatorFactory;
 import org.apache.cayenne.access.jdbc.JdbcEJBQLTranslatorFactory;
 import org.apache.cayenne.access.trans.QualifierTranslator;
 import org.apache.cayenne.access.trans.QueryAssembler;
+import org.apache.cayenne.access.trans.SelectTranslationCache;
 import org.apache.cayenne.access.types.ExtendedType;
 import org.apache.cayenne.access.types.ExtendedTypeFactory;
 import org.apache.cayenne.access.types.ExtendedTypeMap;
@@ -73,6 +74,7 @@ public class JdbcAdapter implements DbAdapter {
     protected boolean supportsBatchUpdates;
     protected boolean supportsUniqueConstraints;
     protected boolean supportsGeneratedKeys;
+    protected boolean supportsBatchGeneratedKeys;
     protected EJBQLTranslatorFactory ejbqlTranslatorFactory;
 
     protected String identifiersStartQuote;
@@ -81,6 +83,11 @@ public class JdbcAdapter implements DbAdapter {
     protected ResourceLocator resourceLocator;
     protected boolean caseInsensitiveCollations;
 
+    /**
+     * @since 3.1
+     */
+    protected SelectTranslationCache selectTranslationCache;
+
     /**
      * @since 3.1
      */
@@ -117,6 +124,13 @@ public class JdbcAdapter implements DbAdapter {
         this.setSupportsUniqueConstraints(true);
         this.caseInsensitiveCollations = runtimeProperties.getBoolean(CI_PROPERTY, false);
 
+        int translationCacheSize = runtimeProperties.getInt(
+                Constants.JDBC_SELECT_TRANSLATION_CACHE_SIZE_PROPERTY,
+                0);
+        if (translationCacheSize > 0) {
+            this.selectTranslationCache = new SelectTranslationCache(translationCacheSize);
+        }
+
         // TODO: andrus 05.02.2010 - ideally this should be injected
         this.resourceLocator = new ClassLoaderResourceLocator();
 
@@ -567,6 +581,25 @@ public class JdbcAdapter implements DbAdapter {
         this.supportsGeneratedKeys = flag;
     }
 
+    /**
+     * Returns true if the JDBC driver returns generated keys for all rows of a statement
+     * batch, in the order the rows were added to the batch. Used together with
+     * {@link #supportsGeneratedKeys()} and {@link #supportsBatchUpdates()}. Many drivers
+     * only return a key of the last batch row, so the default is false.
+     * 
+     * @since 3.1
+     */
+    public boolean supportsBatchGeneratedKeys() {
+        return supportsBatchGeneratedKeys;
+    }
+
+    /**
+     * @since 3.1
+     */
+    public void setSupportsBatchGeneratedKeys(boolean flag) {
+        this.supportsBatchGeneratedKeys = flag;
+    }
+
     /**
      * Returns a translator factory for EJBQL to SQL translation. This property is
      * normally initialized in constructor by calling
@@ -590,6 +623,23 @@ public class JdbcAdapter implements DbAdapter {
         this.ejbqlTranslatorFactory = ejbqlTranslatorFactory;
     }
 
+    /**
+     * Returns a cache of SelectQuery translations shared by all select actions of this
+     * adapter, or null if translation caching is disabled.
+     * 
+     * @since 3.1
+     */
+    public SelectTranslationCache getSelectTranslationCache() {
+        return selectTranslationCache;
+    }
+
+    /**
+     * @since 3.1
+     */
+    public void setSelectTranslationCache(SelectTranslationCache selectTranslationCache) {
+        this.selectTranslationCache = selectTranslationCache;
+    }
+
     /**
      * @since 3.0
      */
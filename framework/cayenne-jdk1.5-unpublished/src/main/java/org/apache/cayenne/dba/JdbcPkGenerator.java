@@ -27,9 +27,9 @@ import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.cayenne.CayenneRuntimeException;
 import org.apache.cayenne.DataRow;
@@ -46,15 +46,33 @@ import org.apache.cayenne.util.IDUtil;
 /**
  * Default primary key generator implementation. Uses a lookup table named
  * "AUTO_PK_SUPPORT" to search and increment primary keys for tables.
+ * <p>
+ * Keys are handed out of a per-entity cached range without locking, so concurrent
+ * commits of different entities or of the same entity do not contend with each other
+ * until the range has to be refilled from the database. If the generator can reserve
+ * ranges of arbitrary size (see {@link #supportsPkRangeSize()}), the size of a range
+ * grows with the insert rate of the entity, up to "maxPkCacheSize".
+ * </p>
  */
 public class JdbcPkGenerator implements PkGenerator {
 
     public static final int DEFAULT_PK_CACHE_SIZE = 20;
 
+    /**
+     * @since 3.1
+     */
+    public static final int DEFAULT_MAX_PK_CACHE_SIZE = 1000;
+
     protected JdbcAdapter adapter;
-    protected Map<String, LongPkRange> pkCache = new HashMap<String, LongPkRange>();
+    protected ConcurrentMap<String, LongPkRange> pkCache =
+            new ConcurrentHashMap<String, LongPkRange>();
     protected int pkCacheSize = DEFAULT_PK_CACHE_SIZE;
 
+    /**
+     * @since 3.1
+     */
+    protected int maxPkCacheSize = DEFAULT_MAX_PK_CACHE_SIZE;
+
     public JdbcPkGenerator(JdbcAdapter adapter) {
         this.adapter = adapter;
     }
@@ -156,11 +174,20 @@ public class JdbcPkGenerator implements PkGenerator {
     }
 
     protected String pkUpdateString(String entName) {
+        return pkUpdateString(entName, pkCacheSize);
+    }
+
+    /**
+     * Returns an update statement that reserves a range of "rangeSize" keys.
+     * 
+     * @since 3.1
+     */
+    protected String pkUpdateString(String entName, int rangeSize) {
         StringBuilder buf = new StringBuilder();
         buf
                 .append("UPDATE AUTO_PK_SUPPORT")
                 .append(" SET NEXT_ID = NEXT_ID + ")
-                .append(pkCacheSize)
+                .append(rangeSize)
                 .append(" WHERE TABLE_NAME = '")
                 .append(entName)
                 .append('\'');
@@ -239,35 +266,32 @@ public class JdbcPkGenerator implements PkGenerator {
                 return IDUtil.pseudoUniqueSecureByteSequence(pk.getMaxLength());
         }
 
-        DbKeyGenerator pkGenerator = entity.getPrimaryKeyGenerator();
-        long cacheSize;
-        if (pkGenerator != null && pkGenerator.getKeyCacheSize() != null)
-            cacheSize = pkGenerator.getKeyCacheSize().intValue();
-        else
-            cacheSize = pkCacheSize;
-
-        long value;
+        int cacheSize = keyCacheSize(entity);
+        LongPkRange range = pkRange(entity);
+        long value = range.nextPrimaryKey();
 
-        // if no caching, always generate fresh
-        if (cacheSize <= 1) {
-            value = longPkFromDatabase(node, entity);
-        }
-        else {
-            synchronized (pkCache) {
-                LongPkRange r = pkCache.get(entity.getName());
+        if (value == LongPkRange.NO_KEY) {
 
-                if (r == null) {
-                    // created exhausted LongPkRange
-                    r = new LongPkRange(1l, 0l);
-                    pkCache.put(entity.getName(), r);
+            // if no caching, always generate fresh, unless the keys were reserved
+            if (cacheSize <= 1) {
+                synchronized (range) {
+                    value = range.nextReservedPrimaryKey();
                 }
 
-                if (r.isExhausted()) {
-                    long val = longPkFromDatabase(node, entity);
-                    r.reset(val, val + cacheSize - 1);
+                if (value == LongPkRange.NO_KEY) {
+                    value = longPkFromDatabase(node, entity);
+                }
+            }
+            else {
+                synchronized (range) {
+
+                    // the range may have been refilled while we were waiting for the
+                    // lock
+                    value = range.nextReservedPrimaryKey();
+                    if (value == LongPkRange.NO_KEY) {
+                        value = refillPkRange(node, entity, range, cacheSize);
+                    }
                 }
-
-                value = r.getNextPrimaryKey();
             }
         }
 
@@ -280,6 +304,181 @@ public class JdbcPkGenerator implements PkGenerator {
         }
     }
 
+    /**
+     * Ensures that at least "count" keys are cached for the primary key attribute, so
+     * that a commit inserting "count" objects does not have to go to the database more
+     * than once. If the cache has fewer keys, a single range of exactly the missing
+     * number of keys is reserved. Generators that can only reserve ranges of a fixed
+     * size fetch all the missing ranges with a single query if they support it (see
+     * {@link #supportsPkBatch()}). Does nothing if the attribute is not a numeric key.
+     * The keys may still be taken by the concurrent commits, in which case
+     * {@link #generatePk(DataNode, DbAttribute)} simply fetches more keys.
+     * 
+     * @since 3.1
+     */
+    public void reservePks(DataNode node, DbAttribute pk, int count) throws Exception {
+
+        switch (pk.getType()) {
+            case Types.BINARY:
+            case Types.VARBINARY:
+                return;
+        }
+
+        DbEntity entity = (DbEntity) pk.getEntity();
+        if (count <= 1) {
+            return;
+        }
+
+        boolean rangeSize = supportsPkRangeSize();
+        if (!rangeSize && !supportsPkBatch()) {
+            return;
+        }
+
+        LongPkRange range = pkRange(entity);
+        synchronized (range) {
+            long missing = count - range.available();
+            if (missing <= 0) {
+                return;
+            }
+
+            if (rangeSize) {
+                long first = longPkRangeFromDatabase(node, entity, (int) missing);
+                range.reserve(first, first + missing - 1);
+                return;
+            }
+
+            int cacheSize = Math.max(keyCacheSize(entity), 1);
+            int ranges = (int) ((missing + cacheSize - 1) / cacheSize);
+
+            // a single range is fetched on demand just as fast
+            if (ranges <= 1) {
+                return;
+            }
+
+            // merge adjacent ranges, that are likely if no one else is using the
+            // sequence
+            long first = 0;
+            long last = -1;
+            for (long value : longPksFromDatabase(node, entity, ranges)) {
+                if (last >= first && value == last + 1) {
+                    last = value + cacheSize - 1;
+                }
+                else {
+                    if (last >= first) {
+                        range.reserve(first, last);
+                    }
+
+                    first = value;
+                    last = value + cacheSize - 1;
+                }
+            }
+
+            if (last >= first) {
+                range.reserve(first, last);
+            }
+        }
+    }
+
+    /**
+     * Returns a size of the key range cached for the entity, which is either the entity
+     * DbKeyGenerator cache size or the generator "pkCacheSize".
+     */
+    int keyCacheSize(DbEntity entity) {
+        DbKeyGenerator pkGenerator = entity.getPrimaryKeyGenerator();
+        if (pkGenerator != null && pkGenerator.getKeyCacheSize() != null) {
+            return pkGenerator.getKeyCacheSize().intValue();
+        }
+
+        return pkCacheSize;
+    }
+
+    LongPkRange pkRange(DbEntity entity) {
+        LongPkRange range = pkCache.get(entity.getName());
+
+        if (range == null) {
+            // created exhausted LongPkRange
+            LongPkRange newRange = new LongPkRange();
+            range = pkCache.putIfAbsent(entity.getName(), newRange);
+            if (range == null) {
+                range = newRange;
+            }
+        }
+
+        return range;
+    }
+
+    /**
+     * Fetches a new range of keys from the database, returning the first key of the
+     * range. Caller must synchronize on the range.
+     */
+    private long refillPkRange(
+            DataNode node,
+            DbEntity entity,
+            LongPkRange range,
+            int cacheSize) throws Exception {
+
+        long first;
+        int size;
+
+        if (supportsPkRangeSize()) {
+            size = range.nextRangeSize(
+                    cacheSize,
+                    Math.max(cacheSize, maxPkCacheSize),
+                    System.currentTimeMillis());
+            first = longPkRangeFromDatabase(node, entity, size);
+        }
+        else {
+            size = cacheSize;
+            first = longPkFromDatabase(node, entity);
+        }
+
+        range.reset(first + 1, first + size - 1);
+        return first;
+    }
+
+    /**
+     * Returns true if the generator can reserve a range of any size in the database via
+     * {@link #longPkRangeFromDatabase(DataNode, DbEntity, int)}, allowing the cached
+     * ranges to adapt to the insert rate. Generators that rely on database sequences
+     * with a fixed increment must return false. This implementation returns true only
+     * for JdbcPkGenerator itself, as subclasses may override
+     * {@link #longPkFromDatabase(DataNode, DbEntity)} to reserve the keys differently.
+     * 
+     * @since 3.1
+     */
+    protected boolean supportsPkRangeSize() {
+        return getClass() == JdbcPkGenerator.class;
+    }
+
+    /**
+     * Returns true if the generator can fetch multiple ranges of keys with a single
+     * query via {@link #longPksFromDatabase(DataNode, DbEntity, int)}. Default
+     * implementation returns false.
+     * 
+     * @since 3.1
+     */
+    protected boolean supportsPkBatch() {
+        return false;
+    }
+
+    /**
+     * Fetches "count" ranges of primary keys ignoring cache, each of the size of the
+     * entity key cache, returning the first key of each range. This implementation
+     * calls {@link #longPkFromDatabase(DataNode, DbEntity)} "count" times. Subclasses
+     * that return true from {@link #supportsPkBatch()} should override it to fetch all
+     * ranges in a single query.
+     * 
+     * @since 3.1
+     */
+    protected List<Long> longPksFromDatabase(DataNode node, DbEntity entity, int count)
+            throws Exception {
+        List<Long> pks = new ArrayList<Long>(count);
+        for (int i = 0; i < count; i++) {
+            pks.add(longPkFromDatabase(node, entity));
+        }
+        return pks;
+    }
+
     /**
      * Performs primary key generation ignoring cache. Generates a range of primary keys
      * as specified by "pkCacheSize" bean property.
@@ -293,6 +492,18 @@ public class JdbcPkGenerator implements PkGenerator {
      * @since 3.0
      */
     protected long longPkFromDatabase(DataNode node, DbEntity entity) throws Exception {
+        return longPkRangeFromDatabase(node, entity, pkCacheSize);
+    }
+
+    /**
+     * Performs primary key generation ignoring cache, reserving a range of "rangeSize"
+     * keys in the database. Returns the first key of the range. Only called if
+     * {@link #supportsPkRangeSize()} returns true.
+     * 
+     * @since 3.1
+     */
+    protected long longPkRangeFromDatabase(DataNode node, DbEntity entity, int rangeSize)
+            throws Exception {
         String select = "SELECT #result('NEXT_ID' 'long' 'NEXT_ID') "
                 + "FROM AUTO_PK_SUPPORT "
                 + "WHERE TABLE_NAME = '"
@@ -302,7 +513,7 @@ public class JdbcPkGenerator implements PkGenerator {
         // run queries via DataNode to utilize its transactional behavior
         List<Query> queries = new ArrayList<Query>(2);
         queries.add(new SQLTemplate(entity, select));
-        queries.add(new SQLTemplate(entity, pkUpdateString(entity.getName())));
+        queries.add(new SQLTemplate(entity, pkUpdateString(entity.getName(), rangeSize)));
 
         PkRetrieveProcessor observer = new PkRetrieveProcessor(entity.getName());
         node.performQueries(queries, observer);
@@ -332,6 +543,28 @@ public class JdbcPkGenerator implements PkGenerator {
         this.pkCacheSize = (pkCacheSize < 1) ? 1 : pkCacheSize;
     }
 
+    /**
+     * Returns the upper limit of the entity primary key cache size when the cache grows
+     * with the insert rate. Default value is 1000.
+     * 
+     * @since 3.1
+     */
+    public int getMaxPkCacheSize() {
+        return maxPkCacheSize;
+    }
+
+    /**
+     * Sets the upper limit of the entity primary key cache size. The cache only grows
+     * beyond "pkCacheSize" when the keys are used up quickly, so the gaps left in the
+     * key sequence on restart stay small for the entities that are rarely inserted. A
+     * value less than or equal to "pkCacheSize" disables the growth.
+     * 
+     * @since 3.1
+     */
+    public void setMaxPkCacheSize(int maxPkCacheSize) {
+        this.maxPkCacheSize = maxPkCacheSize;
+    }
+
     public void reset() {
         pkCache.clear();
     }
@@ -352,13 +585,13 @@ public class JdbcPkGenerator implements PkGenerator {
             return false;
         }
 
-        public int getId() {
+        public long getId() {
             if (id == null) {
                 throw new CayenneRuntimeException("No key was retrieved for entity "
                         + entityName);
             }
 
-            return id.intValue();
+            return id.longValue();
         }
 
         public void nextRows(Query query, List<?> dataRows) {
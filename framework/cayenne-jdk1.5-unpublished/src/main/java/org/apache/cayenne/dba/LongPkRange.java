@@ -18,34 +18,145 @@
  ****************************************************************/
 package org.apache.cayenne.dba;
 
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
+ * A range of primary keys reserved in the database for a single entity. Keys are taken
+ * from the range without locking. Refilling the range must be done by a single thread
+ * synchronized on the range instance, while other threads can still take keys from the
+ * current block.
+ *
  * @since 3.0
  */
 class LongPkRange {
 
-    private long curValue;
-    private long maxValue;
+    /**
+     * A value returned from {@link #nextPrimaryKey()} if the range is exhausted.
+     */
+    static final long NO_KEY = Long.MIN_VALUE;
+
+    // if a block is used up faster than this, the next one is twice as big
+    static final long GROW_INTERVAL_MS = 1000l;
+
+    // if a block lasts longer than this, the next one is half as big
+    static final long SHRINK_INTERVAL_MS = 60000l;
 
-    LongPkRange(long curValue, long maxValue) {
-        reset(curValue, maxValue);
+    private volatile Block block;
+
+    // blocks reserved ahead of time, guarded by "this"
+    private LinkedList<Block> reserved;
+
+    private int rangeSize;
+    private long lastRefill;
+
+    LongPkRange() {
+        this.block = new Block(1l, 0l);
+        this.reserved = new LinkedList<Block>();
     }
 
     void reset(long curValue, long maxValue) {
-        this.curValue = curValue;
-        this.maxValue = maxValue;
+        this.block = new Block(curValue, maxValue);
+    }
+
+    /**
+     * Returns the next key from the current block or {@link #NO_KEY} if the block is
+     * exhausted. Safe to call from multiple threads without locking.
+     */
+    long nextPrimaryKey() {
+        Block b = block;
+        long value = b.next.getAndIncrement();
+        return value <= b.maxValue ? value : NO_KEY;
+    }
+
+    /**
+     * Returns the next key from the current block, switching to the reserved blocks as
+     * needed, or {@link #NO_KEY} if all blocks are exhausted. Caller must synchronize on
+     * the range.
+     */
+    long nextReservedPrimaryKey() {
+        long value = nextPrimaryKey();
+        while (value == NO_KEY && nextReservedBlock()) {
+            value = nextPrimaryKey();
+        }
+
+        return value;
+    }
+
+    /**
+     * Appends a block of keys that will be used after the current block is exhausted.
+     * Caller must synchronize on the range.
+     */
+    void reserve(long curValue, long maxValue) {
+        reserved.addLast(new Block(curValue, maxValue));
+    }
+
+    /**
+     * Switches the range to the first reserved block, returning false if there are no
+     * reserved blocks. Caller must synchronize on the range.
+     */
+    boolean nextReservedBlock() {
+        if (reserved.isEmpty()) {
+            return false;
+        }
+
+        block = reserved.removeFirst();
+        return true;
+    }
+
+    /**
+     * Returns a number of keys left in the current and the reserved blocks. Caller must
+     * synchronize on the range.
+     */
+    long available() {
+        long available = Math.max(block.remaining(), 0l);
+        for (Block b : reserved) {
+            available += b.remaining();
+        }
+
+        return available;
     }
 
-    boolean isExhausted() {
-        return curValue > maxValue;
+    /**
+     * Calculates the size of the next block to fetch from the database, growing it when
+     * the keys are used up quickly and shrinking it back when the insert rate goes down.
+     * Caller must synchronize on the range.
+     */
+    int nextRangeSize(int minSize, int maxSize, long now) {
+
+        if (rangeSize < minSize) {
+            rangeSize = minSize;
+        }
+        else if (lastRefill > 0) {
+            long elapsed = now - lastRefill;
+            if (elapsed < GROW_INTERVAL_MS) {
+                rangeSize = (int) Math.min((long) rangeSize * 2, maxSize);
+            }
+            else if (elapsed > SHRINK_INTERVAL_MS) {
+                rangeSize = Math.max(rangeSize / 2, minSize);
+            }
+        }
+
+        if (rangeSize > maxSize) {
+            rangeSize = Math.max(maxSize, minSize);
+        }
+
+        lastRefill = now;
+        return rangeSize;
     }
 
-    long getNextPrimaryKey() {
-        // do bound checking
-        if (isExhausted()) {
-            throw new RuntimeException(
-                    "PkRange is exhausted and can not be used anymore.");
+    static final class Block {
+
+        final AtomicLong next;
+        final long maxValue;
+
+        Block(long curValue, long maxValue) {
+            this.next = new AtomicLong(curValue);
+            this.maxValue = maxValue;
         }
 
-        return curValue++;
+        long remaining() {
+            return maxValue - next.get() + 1;
+        }
     }
 }
@@ -47,10 +47,19 @@ public class DerbyPkGenerator extends JdbcPkGenerator {
             + " WHERE TABLE_NAME = ? FOR UPDATE";
 
     /**
-     * @since 3.0
+     * @since 3.1
      */
     @Override
-    protected long longPkFromDatabase(DataNode node, DbEntity entity) throws Exception {
+    protected boolean supportsPkRangeSize() {
+        return true;
+    }
+
+    /**
+     * @since 3.1
+     */
+    @Override
+    protected long longPkRangeFromDatabase(DataNode node, DbEntity entity, int rangeSize)
+            throws Exception {
 
         JdbcEventLogger logger = adapter.getJdbcEventLogger();
         if (logger.isLoggable()) {
@@ -76,7 +85,7 @@ public class DerbyPkGenerator extends JdbcPkGenerator {
         
                     long nextId = rs.getLong(1);
         
-                    rs.updateLong(1, nextId + pkCacheSize);
+                    rs.updateLong(1, nextId + rangeSize);
                     rs.updateRow();
         
                     if (rs.next()) {
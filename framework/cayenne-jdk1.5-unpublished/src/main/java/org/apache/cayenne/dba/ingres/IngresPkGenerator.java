@@ -45,6 +45,16 @@ public class IngresPkGenerator extends OraclePkGenerator {
         super(adapter);
     }
 
+    /**
+     * Returns false, fetching sequence values one at a time.
+     * 
+     * @since 3.1
+     */
+    @Override
+    protected boolean supportsPkBatch() {
+        return false;
+    }
+
     @Override
     protected long longPkFromDatabase(DataNode node, DbEntity entity) throws Exception {
 
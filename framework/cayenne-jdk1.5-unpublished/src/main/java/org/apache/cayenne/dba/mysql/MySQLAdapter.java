@@ -95,6 +95,7 @@ public class MySQLAdapter extends JdbcAdapter {
         setSupportsFkConstraints(true);
         setSupportsUniqueConstraints(true);
         setSupportsGeneratedKeys(true);
+        setSupportsBatchGeneratedKeys(true);
         initIdentifiersQuotes();
     }
 
@@ -43,14 +43,23 @@ public class MySQLPkGenerator extends JdbcPkGenerator {
         return "DROP TABLE IF EXISTS AUTO_PK_SUPPORT";
     }
 
+    /**
+     * @since 3.1
+     */
+    @Override
+    protected boolean supportsPkRangeSize() {
+        return true;
+    }
+
     /**
      * Overrides superclass's implementation to perform locking of the primary key lookup
      * table.
      * 
-     * @since 3.0
+     * @since 3.1
      */
     @Override
-    protected long longPkFromDatabase(DataNode node, DbEntity entity) throws Exception {
+    protected long longPkRangeFromDatabase(DataNode node, DbEntity entity, int rangeSize)
+            throws Exception {
 
         // must work directly with JDBC connection, since we
         // must unlock the AUTO_PK_SUPPORT table in case of
@@ -70,7 +79,7 @@ public class MySQLPkGenerator extends JdbcPkGenerator {
             Statement st = con.createStatement();
 
             try {
-                pk = getLongPrimaryKey(st, entity.getName());
+                pk = getLongPrimaryKey(st, entity.getName(), rangeSize);
                 con.commit();
             }
             catch (SQLException pkEx) {
@@ -156,6 +165,14 @@ public class MySQLPkGenerator extends JdbcPkGenerator {
      */
     protected long getLongPrimaryKey(Statement statement, String entityName)
             throws SQLException {
+        return getLongPrimaryKey(statement, entityName, pkCacheSize);
+    }
+
+    /**
+     * @since 3.1
+     */
+    protected long getLongPrimaryKey(Statement statement, String entityName, int rangeSize)
+            throws SQLException {
         // lock
         String lockString = "LOCK TABLES AUTO_PK_SUPPORT WRITE";
         adapter.getJdbcEventLogger().logQuery(lockString, Collections.EMPTY_LIST);
@@ -188,7 +205,8 @@ public class MySQLPkGenerator extends JdbcPkGenerator {
         }
 
         // update
-        String updateString = super.pkUpdateString(entityName) + " AND NEXT_ID = " + pk;
+        String updateString = super.pkUpdateString(entityName, rangeSize)
+                + " AND NEXT_ID = " + pk;
         adapter.getJdbcEventLogger().logQuery(updateString, Collections.EMPTY_LIST);
         int updated = statement.executeUpdate(updateString);
         // optimistic lock failure...
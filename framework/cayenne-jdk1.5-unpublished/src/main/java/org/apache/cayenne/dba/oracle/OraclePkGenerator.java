@@ -51,6 +51,10 @@ import org.apache.cayenne.map.DbKeyGenerator;
  * <pre>
  * dataNode.getAdapter().getPkGenerator().setPkCacheSize(1);
  * </pre>
+ * <p>
+ * When a commit inserts many objects of the same entity, all the sequence values it
+ * needs are fetched with a single query.
+ * </p>
  */
 public class OraclePkGenerator extends JdbcPkGenerator {
 
@@ -197,6 +201,102 @@ public class OraclePkGenerator extends JdbcPkGenerator {
 
     }
 
+    /**
+     * Returns true, as all keys needed for a commit can be fetched from the sequence
+     * with a single query.
+     * 
+     * @since 3.1
+     */
+    @Override
+    protected boolean supportsPkBatch() {
+        return true;
+    }
+
+    /**
+     * Fetches "count" sequence values with a single query that looks like this:
+     * 
+     * <pre>
+     *   SELECT pk_table_name.nextval FROM DUAL CONNECT BY LEVEL &lt;= 100
+     * </pre>
+     * 
+     * @since 3.1
+     */
+    @Override
+    protected List<Long> longPksFromDatabase(DataNode node, DbEntity entity, int count)
+            throws Exception {
+        String sql = "SELECT "
+                + pkGeneratingSequenceName(entity)
+                + ".nextval FROM DUAL CONNECT BY LEVEL <= "
+                + count;
+        return selectLongPks(node, entity, sql, count);
+    }
+
+    /**
+     * Runs a query that returns primary keys in the first column, checking that exactly
+     * "count" keys were returned.
+     * 
+     * @since 3.1
+     */
+    protected List<Long> selectLongPks(
+            DataNode node,
+            DbEntity entity,
+            String sql,
+            int count) throws SQLException {
+
+        Connection con = node.getDataSource().getConnection();
+        try {
+            Statement st = con.createStatement();
+            try {
+                adapter.getJdbcEventLogger().logQuery(sql, Collections.EMPTY_LIST);
+                ResultSet rs = st.executeQuery(sql);
+                try {
+                    List<Long> pks = new ArrayList<Long>(count);
+                    while (rs.next()) {
+                        pks.add(rs.getLong(1));
+                    }
+
+                    if (pks.size() != count) {
+                        throw new CayenneRuntimeException(
+                                "Error generating pk for DbEntity "
+                                        + entity.getName()
+                                        + ": expected "
+                                        + count
+                                        + " keys, got "
+                                        + pks.size());
+                    }
+
+                    return pks;
+                }
+                finally {
+                    rs.close();
+                }
+            }
+            finally {
+                st.close();
+            }
+        }
+        finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Returns the name of the sequence used to generate keys for the entity, which is
+     * either the name of the entity custom generator or the default sequence name.
+     * 
+     * @since 3.1
+     */
+    protected String pkGeneratingSequenceName(DbEntity entity) {
+        DbKeyGenerator pkGenerator = entity.getPrimaryKeyGenerator();
+        if (pkGenerator != null
+                && DbKeyGenerator.ORACLE_TYPE.equals(pkGenerator.getGeneratorType())
+                && pkGenerator.getGeneratorName() != null) {
+            return pkGenerator.getGeneratorName();
+        }
+
+        return sequenceName(entity);
+    }
+
     protected int pkCacheSize(DbEntity entity) {
         // use custom generator if possible
         DbKeyGenerator keyGenerator = entity.getPrimaryKeyGenerator();
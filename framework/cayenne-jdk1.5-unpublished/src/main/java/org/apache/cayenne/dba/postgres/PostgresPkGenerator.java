@@ -103,6 +103,26 @@ public class PostgresPkGenerator extends OraclePkGenerator {
 
     }
 
+    /**
+     * Fetches "count" sequence values with a single query that looks like this:
+     * 
+     * <pre>
+     *   SELECT nextval('pk_table_name') FROM generate_series(1, 100)
+     * </pre>
+     * 
+     * @since 3.1
+     */
+    @Override
+    protected List<Long> longPksFromDatabase(DataNode node, DbEntity entity, int count)
+            throws Exception {
+        String sql = "SELECT nextval('"
+                + pkGeneratingSequenceName(entity)
+                + "') FROM generate_series(1, "
+                + count
+                + ")";
+        return selectLongPks(node, entity, sql, count);
+    }
+
     /**
      * Fetches a list of existing sequences that might match Cayenne generated ones.
      */
@@ -149,10 +149,19 @@ public class SybasePkGenerator extends JdbcPkGenerator {
     }
 
     /**
-     * @since 3.0
+     * @since 3.1
      */
     @Override
-    protected long longPkFromDatabase(DataNode node, DbEntity entity) throws Exception {
+    protected boolean supportsPkRangeSize() {
+        return true;
+    }
+
+    /**
+     * @since 3.1
+     */
+    @Override
+    protected long longPkRangeFromDatabase(DataNode node, DbEntity entity, int rangeSize)
+            throws Exception {
         // handle CAY-588 - get connection that is separate from the connection in the
         // current transaction.
 
@@ -172,7 +181,7 @@ public class SybasePkGenerator extends JdbcPkGenerator {
                         .prepareCall("{call auto_pk_for_table(?, ?)}");
                 try {
                     statement.setString(1, entity.getName());
-                    statement.setInt(2, super.getPkCacheSize());
+                    statement.setInt(2, rangeSize);
 
                     // can't use "executeQuery"
                     // per http://jtds.sourceforge.net/faq.html#expectingResultSet
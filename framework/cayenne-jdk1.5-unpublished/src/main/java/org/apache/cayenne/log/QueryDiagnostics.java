@@ -0,0 +1,288 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Query statistics collected by {@link QueryDiagnosticsFilter} for a single
+ * ObjectContext. Queries are grouped by signature, i.e. by their shape with parameter
+ * values removed, so that repeated queries differing only in parameters, a symptom of
+ * "N+1" problem, can be detected.
+ *
+ * @since 3.1
+ */
+public class QueryDiagnostics {
+
+    // caps memory used by contexts running lots of distinct queries
+    static final int MAX_SIGNATURES = 1000;
+
+    protected int repeatedQueryThreshold;
+    protected long slowQueryTime;
+
+    protected int queryCount;
+    protected long rowCount;
+    protected long time;
+    protected Map<String, QueryStats> queries;
+    protected Map<String, Integer> faults;
+
+    QueryDiagnostics(int repeatedQueryThreshold, long slowQueryTime) {
+        this.repeatedQueryThreshold = repeatedQueryThreshold;
+        this.slowQueryTime = slowQueryTime;
+        this.queries = new LinkedHashMap<String, QueryStats>();
+        this.faults = new LinkedHashMap<String, Integer>();
+    }
+
+    /**
+     * Records an executed query, returning its updated statistics or null if the number
+     * of tracked signatures is exceeded.
+     */
+    synchronized QueryStats queryExecuted(String signature, int rows, long time) {
+        this.queryCount++;
+        this.rowCount += rows;
+        this.time += time;
+
+        QueryStats stats = queries.get(signature);
+        if (stats == null) {
+            if (queries.size() >= MAX_SIGNATURES) {
+                return null;
+            }
+
+            stats = new QueryStats(signature);
+            queries.put(signature, stats);
+        }
+
+        stats.count++;
+        stats.rowCount += rows;
+        stats.time += time;
+        stats.maxTime = Math.max(stats.maxTime, time);
+
+        if (time >= slowQueryTime) {
+            stats.slowCount++;
+        }
+
+        return stats;
+    }
+
+    /**
+     * Records a resolution of a relationship fault.
+     */
+    synchronized void faultResolved(String relationship) {
+        Integer count = faults.get(relationship);
+        faults.put(relationship, count != null ? count + 1 : 1);
+    }
+
+    /**
+     * Returns a total number of executed queries.
+     */
+    public synchronized int getQueryCount() {
+        return queryCount;
+    }
+
+    /**
+     * Returns a total number of fetched rows.
+     */
+    public synchronized long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns a total query execution time in milliseconds.
+     */
+    public synchronized long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns statistics of all queries grouped by signature in the order of the first
+     * execution.
+     */
+    public synchronized List<QueryStats> getQueries() {
+        List<QueryStats> list = new ArrayList<QueryStats>(queries.size());
+        for (QueryStats stats : queries.values()) {
+            list.add(stats.copy());
+        }
+        return list;
+    }
+
+    /**
+     * Returns statistics of queries executed at least "repeated query threshold" times,
+     * which usually indicates an "N+1" problem.
+     */
+    public synchronized List<QueryStats> getRepeatedQueries() {
+        List<QueryStats> list = new ArrayList<QueryStats>();
+        for (QueryStats stats : queries.values()) {
+            if (stats.count >= repeatedQueryThreshold) {
+                list.add(stats.copy());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns statistics of queries that were slow at least once.
+     */
+    public synchronized List<QueryStats> getSlowQueries() {
+        List<QueryStats> list = new ArrayList<QueryStats>();
+        for (QueryStats stats : queries.values()) {
+            if (stats.slowCount > 0) {
+                list.add(stats.copy());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns the number of resolved relationship faults by relationship, keyed by
+     * "Entity.relationship" strings.
+     */
+    public synchronized Map<String, Integer> getFaults() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, Integer>(faults));
+    }
+
+    /**
+     * Returns true if there are repeated or slow queries.
+     */
+    public boolean hasProblems() {
+        return !getRepeatedQueries().isEmpty() || !getSlowQueries().isEmpty();
+    }
+
+    /**
+     * Returns a multi-line report with totals, repeated and slow queries and fault
+     * counts.
+     */
+    public synchronized String getReport() {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append("Query diagnostics: ").append(queryCount).append(
+                " queries, ").append(rowCount).append(" rows, ").append(time).append(
+                " ms");
+
+        List<QueryStats> repeated = getRepeatedQueries();
+        if (!repeated.isEmpty()) {
+            buffer.append("\n  repeated queries (possible N+1):");
+            for (QueryStats stats : repeated) {
+                buffer.append("\n    ").append(stats);
+            }
+        }
+
+        List<QueryStats> slow = getSlowQueries();
+        if (!slow.isEmpty()) {
+            buffer.append("\n  slow queries:");
+            for (QueryStats stats : slow) {
+                buffer.append("\n    ").append(stats);
+            }
+        }
+
+        if (!faults.isEmpty()) {
+            buffer.append("\n  relationship faults:");
+            for (Map.Entry<String, Integer> entry : faults.entrySet()) {
+                buffer.append("\n    ").append(entry.getValue()).append(" x ").append(
+                        entry.getKey());
+            }
+        }
+
+        return buffer.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getReport();
+    }
+
+    /**
+     * Statistics of queries with the same signature.
+     */
+    public static class QueryStats {
+
+        protected String signature;
+        protected int count;
+        protected int slowCount;
+        protected long rowCount;
+        protected long time;
+        protected long maxTime;
+
+        QueryStats(String signature) {
+            this.signature = signature;
+        }
+
+        QueryStats copy() {
+            QueryStats copy = new QueryStats(signature);
+            copy.count = count;
+            copy.slowCount = slowCount;
+            copy.rowCount = rowCount;
+            copy.time = time;
+            copy.maxTime = maxTime;
+            return copy;
+        }
+
+        public String getSignature() {
+            return signature;
+        }
+
+        /**
+         * Returns the number of executions.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the number of executions that were slower than the threshold.
+         */
+        public int getSlowCount() {
+            return slowCount;
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * Returns a total execution time in milliseconds.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Returns the longest execution time in milliseconds.
+         */
+        public long getMaxTime() {
+            return maxTime;
+        }
+
+        @Override
+        public String toString() {
+            return count
+                    + " x "
+                    + signature
+                    + " [rows: "
+                    + rowCount
+                    + ", time: "
+                    + time
+                    + " ms, max time: "
+                    + maxTime
+                    + " ms]";
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.log;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.cayenne.DataChannel;
+import org.apache.cayenne.DataChannelFilter;
+import org.apache.cayenne.DataChannelFilterChain;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.QueryResponse;
+import org.apache.cayenne.configuration.Constants;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.exp.ExpressionParameter;
+import org.apache.cayenne.exp.parser.ASTList;
+import org.apache.cayenne.exp.parser.ASTScalar;
+import org.apache.cayenne.graph.GraphDiff;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.query.EJBQLQuery;
+import org.apache.cayenne.query.ObjectIdQuery;
+import org.apache.cayenne.query.Ordering;
+import org.apache.cayenne.query.Query;
+import org.apache.cayenne.query.QueryMetadata;
+import org.apache.cayenne.query.RelationshipQuery;
+import org.apache.cayenne.query.SQLTemplate;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.commons.collections.Transformer;
+
+/**
+ * A DataChannelFilter that collects per-ObjectContext query statistics, detecting
+ * repeated queries of the same shape ("N+1" problem) and slow queries. Problems are
+ * reported via {@link JdbcEventLogger} as they are detected, and full statistics are
+ * available via {@link #getDiagnostics(ObjectContext)} and
+ * {@link #report(ObjectContext)}. The filter is not installed by default. To enable it,
+ * add it to the DataDomain filters list in a custom module:
+ *
+ * <pre>
+ * binder.bindList(Constants.SERVER_DOMAIN_FILTERS_LIST).add(QueryDiagnosticsFilter.class);
+ * </pre>
+ *
+ * Query time is measured around the rest of the DataDomain filter chain, so it includes
+ * JDBC execution as well as object and snapshot processing. To reduce overhead in
+ * production, only a sample of contexts may be tracked, as defined by
+ * {@link Constants#SERVER_DIAGNOSTICS_SAMPLING_INTERVAL_PROPERTY}.
+ *
+ * @since 3.1
+ */
+public class QueryDiagnosticsFilter implements DataChannelFilter {
+
+    public static final long DEFAULT_SLOW_QUERY_TIME = 1000;
+    public static final int DEFAULT_REPEATED_QUERY_THRESHOLD = 10;
+
+    private static final Transformer VALUE_STRIPPER = new Transformer() {
+
+        public Object transform(Object input) {
+            if (input instanceof ASTScalar) {
+                return new ASTScalar(new ExpressionParameter("?"));
+            }
+            else if (!(input instanceof Expression)) {
+                return input;
+            }
+
+            Expression expression = (Expression) input;
+            switch (expression.getType()) {
+                case Expression.OBJ_PATH:
+                case Expression.DB_PATH:
+                    return expression;
+                case Expression.LIST:
+                    // lists of any size are considered to be of the same shape
+                    return new ASTList(new Object[] {
+                        new ExpressionParameter("?")
+                    });
+                default:
+                    // values are stored as plain operands, while null values are
+                    // preserved as they result in different SQL
+                    for (int i = 0; i < expression.getOperandCount(); i++) {
+                        Object operand = expression.getOperand(i);
+                        if (operand != null && !(operand instanceof Expression)) {
+                            expression.setOperand(i, new ExpressionParameter("?"));
+                        }
+                    }
+
+                    return expression;
+            }
+        }
+    };
+
+    protected JdbcEventLogger logger;
+    protected EntityResolver entityResolver;
+    protected long slowQueryTime;
+    protected int repeatedQueryThreshold;
+    protected int samplingInterval;
+
+    // stats must not reference their contexts, otherwise contexts are never released
+    protected Map<ObjectContext, QueryDiagnostics> diagnostics;
+
+    public QueryDiagnosticsFilter(@Inject JdbcEventLogger logger,
+            @Inject RuntimeProperties properties) {
+        this.logger = logger;
+        this.slowQueryTime = properties.getLong(
+                Constants.SERVER_DIAGNOSTICS_SLOW_QUERY_TIME_PROPERTY,
+                DEFAULT_SLOW_QUERY_TIME);
+        this.repeatedQueryThreshold = properties.getInt(
+                Constants.SERVER_DIAGNOSTICS_REPEATED_QUERY_THRESHOLD_PROPERTY,
+                DEFAULT_REPEATED_QUERY_THRESHOLD);
+        this.samplingInterval = properties.getInt(
+                Constants.SERVER_DIAGNOSTICS_SAMPLING_INTERVAL_PROPERTY,
+                1);
+        this.diagnostics = new WeakHashMap<ObjectContext, QueryDiagnostics>();
+    }
+
+    public void init(DataChannel channel) {
+        this.entityResolver = channel.getEntityResolver();
+    }
+
+    public QueryResponse onQuery(
+            ObjectContext originatingContext,
+            Query query,
+            DataChannelFilterChain filterChain) {
+
+        QueryDiagnostics stats = diagnosticsForQuery(originatingContext);
+        if (stats == null) {
+            return filterChain.onQuery(originatingContext, query);
+        }
+
+        long t0 = System.nanoTime();
+        QueryResponse response = filterChain.onQuery(originatingContext, query);
+        long time = (System.nanoTime() - t0) / 1000000;
+
+        String signature = signature(query);
+        QueryDiagnostics.QueryStats queryStats = stats.queryExecuted(
+                signature,
+                rowCount(response),
+                time);
+
+        if (query instanceof RelationshipQuery) {
+            RelationshipQuery relationshipQuery = (RelationshipQuery) query;
+            stats.faultResolved(relationshipQuery.getObjectId().getEntityName()
+                    + "."
+                    + relationshipQuery.getRelationshipName());
+        }
+
+        if (queryStats != null) {
+            if (queryStats.getCount() == repeatedQueryThreshold) {
+                logger.log("*** repeated query, possible N+1 ("
+                        + repeatedQueryThreshold
+                        + " executions): "
+                        + signature);
+            }
+
+            if (time >= slowQueryTime) {
+                logger.log("*** slow query (" + time + " ms): " + signature);
+            }
+        }
+
+        return response;
+    }
+
+    public GraphDiff onSync(
+            ObjectContext originatingContext,
+            GraphDiff changes,
+            int syncType,
+            DataChannelFilterChain filterChain) {
+        return filterChain.onSync(originatingContext, changes, syncType);
+    }
+
+    /**
+     * Returns statistics collected so far for the context, or null if the context is not
+     * tracked or hasn't run any queries.
+     */
+    public QueryDiagnostics getDiagnostics(ObjectContext context) {
+        synchronized (diagnostics) {
+            return diagnostics.get(context);
+        }
+    }
+
+    /**
+     * Removes statistics collected for the context, logging and returning them. Returns
+     * null if the context is not tracked or hasn't run any queries. Typically called at
+     * the end of a request.
+     */
+    public QueryDiagnostics report(ObjectContext context) {
+        QueryDiagnostics stats;
+        synchronized (diagnostics) {
+            stats = diagnostics.remove(context);
+        }
+
+        if (stats != null) {
+            logger.log(stats.getReport());
+        }
+
+        return stats;
+    }
+
+    private QueryDiagnostics diagnosticsForQuery(ObjectContext context) {
+        if (context == null
+                || (samplingInterval > 1 && System.identityHashCode(context)
+                        % samplingInterval != 0)) {
+            return null;
+        }
+
+        synchronized (diagnostics) {
+            QueryDiagnostics stats = diagnostics.get(context);
+            if (stats == null) {
+                stats = new QueryDiagnostics(repeatedQueryThreshold, slowQueryTime);
+                diagnostics.put(context, stats);
+            }
+
+            return stats;
+        }
+    }
+
+    private int rowCount(QueryResponse response) {
+        int rows = 0;
+
+        for (response.reset(); response.next();) {
+            if (response.isList()) {
+                rows += response.currentList().size();
+            }
+            else {
+                for (int count : response.currentUpdateCount()) {
+                    rows += count;
+                }
+            }
+        }
+
+        response.reset();
+        return rows;
+    }
+
+    /**
+     * Returns a String describing query shape, with all parameter values removed.
+     */
+    protected String signature(Query query) {
+
+        if (query instanceof RelationshipQuery) {
+            RelationshipQuery relationshipQuery = (RelationshipQuery) query;
+            return "RelationshipQuery "
+                    + relationshipQuery.getObjectId().getEntityName()
+                    + "."
+                    + relationshipQuery.getRelationshipName();
+        }
+
+        if (query instanceof ObjectIdQuery) {
+            return "ObjectIdQuery "
+                    + ((ObjectIdQuery) query).getObjectId().getEntityName();
+        }
+
+        if (query instanceof SelectQuery) {
+            SelectQuery select = (SelectQuery) query;
+            StringBuilder buffer = new StringBuilder("SelectQuery ");
+            buffer.append(rootName(query));
+
+            Expression qualifier = select.getQualifier();
+            if (qualifier != null) {
+                buffer.append(" where ").append(qualifier.transform(VALUE_STRIPPER));
+            }
+
+            if (!select.getOrderings().isEmpty()) {
+                buffer.append(" order by");
+                for (Ordering ordering : select.getOrderings()) {
+                    buffer.append(' ').append(ordering.getSortSpecString()).append(
+                            ordering.isAscending() ? " asc" : " desc");
+                }
+            }
+
+            return buffer.toString();
+        }
+
+        if (query instanceof SQLTemplate) {
+            return "SQLTemplate " + ((SQLTemplate) query).getDefaultTemplate();
+        }
+
+        if (query instanceof EJBQLQuery) {
+            return "EJBQLQuery " + ((EJBQLQuery) query).getEjbqlStatement();
+        }
+
+        String name = query.getName();
+        return query.getClass().getSimpleName()
+                + " "
+                + (name != null ? name : rootName(query));
+    }
+
+    private String rootName(Query query) {
+        if (entityResolver == null) {
+            return "?";
+        }
+
+        QueryMetadata md = query.getMetaData(entityResolver);
+        ObjEntity entity = md.getObjEntity();
+        if (entity != null) {
+            return entity.getName();
+        }
+
+        return md.getDbEntity() != null ? md.getDbEntity().getName() : "?";
+    }
+
+    public long getSlowQueryTime() {
+        return slowQueryTime;
+    }
+
+    /**
+     * Sets query execution time in milliseconds starting from which a query is
+     * considered slow.
+     */
+    public void setSlowQueryTime(long slowQueryTime) {
+        this.slowQueryTime = slowQueryTime;
+    }
+
+    public int getRepeatedQueryThreshold() {
+        return repeatedQueryThreshold;
+    }
+
+    /**
+     * Sets a number of executions of the same query shape within a context starting from
+     * which the query is reported as repeated.
+     */
+    public void setRepeatedQueryThreshold(int repeatedQueryThreshold) {
+        this.repeatedQueryThreshold = repeatedQueryThreshold;
+    }
+
+    public int getSamplingInterval() {
+        return samplingInterval;
+    }
+
+    /**
+     * Sets sampling interval "N", so that only approximately one in N contexts is
+     * tracked. Values less than 2 result in all contexts being tracked.
+     */
+    public void setSamplingInterval(int samplingInterval) {
+        this.samplingInterval = samplingInterval;
+    }
+}
@@ -0,0 +1,167 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.query;
+
+import java.util.Collection;
+import java.util.Date;
+
+import org.apache.cayenne.ObjectId;
+import org.apache.cayenne.Persistent;
+import org.apache.cayenne.exp.Expression;
+
+/**
+ * Builds query cache keys from the structure of the query expressions. Unlike
+ * Expression.toString(), that goes through a PrintWriter and escapes every character of
+ * every value, the builder appends node types and length-prefixed values directly to a
+ * StringBuilder, so two keys are equal only if the expression trees are structurally
+ * equal. The keys do not depend on identity hash codes and are stable across JVMs,
+ * which is required by the distributed caches.
+ *
+ * @since 3.1
+ */
+class CacheKeyBuilder {
+
+    private StringBuilder buffer;
+
+    CacheKeyBuilder() {
+        this.buffer = new StringBuilder(64);
+    }
+
+    CacheKeyBuilder append(char c) {
+        buffer.append(c);
+        return this;
+    }
+
+    CacheKeyBuilder append(String string) {
+        buffer.append(string);
+        return this;
+    }
+
+    CacheKeyBuilder append(int i) {
+        buffer.append(i);
+        return this;
+    }
+
+    /**
+     * Appends expression node types and operands, recursively.
+     */
+    CacheKeyBuilder appendExpression(Expression expression) {
+        buffer.append(expression.getType());
+
+        // paths are the most common operands, so append them without a type tag
+        if (expression.getType() == Expression.OBJ_PATH
+                || expression.getType() == Expression.DB_PATH) {
+            buffer.append(':').append(expression.getOperand(0));
+            return this;
+        }
+
+        buffer.append('(');
+        int len = expression.getOperandCount();
+        for (int i = 0; i < len; i++) {
+            if (i > 0) {
+                buffer.append(',');
+            }
+
+            Object operand = expression.getOperand(i);
+            if (operand instanceof Expression) {
+                appendExpression((Expression) operand);
+            }
+            else {
+                appendValue(operand);
+            }
+        }
+        buffer.append(')');
+        return this;
+    }
+
+    /**
+     * Appends a value prefixed by its type tag. Values of arbitrary types are encoded
+     * with their class name and a length-prefixed string form, so that no escaping is
+     * needed to keep the keys unambiguous.
+     */
+    CacheKeyBuilder appendValue(Object value) {
+        if (value == null) {
+            buffer.append('N');
+        }
+        else if (value instanceof String) {
+            appendString('s', (String) value);
+        }
+        else if (value instanceof Integer) {
+            buffer.append('i').append(((Integer) value).intValue());
+        }
+        else if (value instanceof Long) {
+            buffer.append('l').append(((Long) value).longValue());
+        }
+        else if (value instanceof Boolean) {
+            buffer.append(((Boolean) value).booleanValue() ? 'T' : 'F');
+        }
+        else if (value instanceof Persistent) {
+            ObjectId id = ((Persistent) value).getObjectId();
+            appendString('p', String.valueOf(id != null ? id : value));
+        }
+        else if (value instanceof Enum<?>) {
+            Enum<?> e = (Enum<?>) value;
+            buffer.append('e').append(e.getDeclaringClass().getName());
+            appendString(':', e.name());
+        }
+        else if (value instanceof Object[]) {
+            Object[] values = (Object[]) value;
+            buffer.append('[');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    buffer.append(',');
+                }
+                appendValue(values[i]);
+            }
+            buffer.append(']');
+        }
+        else if (value instanceof Collection<?>) {
+            buffer.append('[');
+            boolean first = true;
+            for (Object v : (Collection<?>) value) {
+                if (first) {
+                    first = false;
+                }
+                else {
+                    buffer.append(',');
+                }
+                appendValue(v);
+            }
+            buffer.append(']');
+        }
+        else if (value.getClass() == Date.class) {
+            buffer.append('d').append(((Date) value).getTime());
+        }
+        else {
+            buffer.append('o').append(value.getClass().getName());
+            appendString(':', value.toString());
+        }
+
+        return this;
+    }
+
+    private void appendString(char tag, String string) {
+        buffer.append(tag).append(string.length()).append('\'').append(string);
+    }
+
+    @Override
+    public String toString() {
+        return buffer.toString();
+    }
+}
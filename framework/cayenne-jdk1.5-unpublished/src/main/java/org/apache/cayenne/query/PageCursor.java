@@ -0,0 +1,179 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.query;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.exp.ExpressionFactory;
+
+/**
+ * A position in the ordered result of a SelectQuery used for keyset (aka "seek")
+ * pagination. A cursor stores the values of the query ordering columns for the last row
+ * of a page. A query with a cursor set via {@link SelectQuery#setPageCursor(PageCursor)}
+ * only fetches the rows that follow that row in the query order, so together with a
+ * fetch limit it selects the next page without scanning the rows of the previous pages,
+ * as "OFFSET" does.
+ * <p>
+ * Query orderings must define a total order of rows for the pagination to be correct,
+ * i.e. the last ordering must be on a unique column, such as a primary key. Ordering
+ * values can't be null and orderings can't be case-insensitive.
+ * </p>
+ * <p>
+ * PageCursor is serializable and can be passed between HTTP requests or ROP calls, as
+ * long as the ordering values are serializable.
+ * </p>
+ *
+ * @since 3.1
+ */
+public class PageCursor implements Serializable {
+
+    protected Object[] values;
+
+    /**
+     * Returns a cursor positioned after a given object or DataRow in the result of the
+     * query.
+     */
+    public static PageCursor after(SelectQuery query, Object row) {
+        List<Ordering> orderings = query.getOrderings();
+        if (orderings.isEmpty()) {
+            throw new CayenneRuntimeException(
+                    "Query must have orderings to use keyset pagination");
+        }
+
+        Object[] values = new Object[orderings.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = orderings.get(i).getSortSpec().evaluate(row);
+        }
+
+        return new PageCursor(values);
+    }
+
+    /**
+     * Returns a cursor for the page that follows a given page of the query result, or
+     * null if the page is the last one.
+     */
+    public static PageCursor next(SelectQuery query, List<?> page) {
+        if (page.isEmpty()
+                || (query.getFetchLimit() > 0 && page.size() < query.getFetchLimit())) {
+            return null;
+        }
+
+        return after(query, page.get(page.size() - 1));
+    }
+
+    /**
+     * Creates a cursor with the values of the ordering columns of the last row of a
+     * page, listed in the order of query orderings.
+     */
+    public PageCursor(Object... values) {
+        if (values == null || values.length == 0) {
+            throw new IllegalArgumentException("No cursor values");
+        }
+
+        this.values = values;
+    }
+
+    public Object[] getValues() {
+        return values;
+    }
+
+    /**
+     * Returns a qualifier that matches the rows following this cursor in the order
+     * defined by the orderings. For ascending orderings on columns "a" and "b" it is
+     * "a &gt;= $a and (a &gt; $a or b &gt; $b)", which databases can evaluate as an
+     * index range scan. Unlike "(a, b) &gt; ($a, $b)" row comparison, it is supported by
+     * all databases and allows to mix ascending and descending orderings.
+     */
+    public Expression qualifier(List<Ordering> orderings) {
+        if (orderings == null || orderings.size() != values.length) {
+            throw new CayenneRuntimeException("Page cursor has "
+                    + values.length
+                    + " value(s), while query has "
+                    + (orderings != null ? orderings.size() : 0)
+                    + " ordering(s)");
+        }
+
+        return qualifier(orderings, 0);
+    }
+
+    private Expression qualifier(List<Ordering> orderings, int index) {
+        Ordering ordering = orderings.get(index);
+        Object value = values[index];
+
+        if (ordering.isCaseInsensitive()) {
+            throw new CayenneRuntimeException(
+                    "Case-insensitive ordering can't be used for keyset pagination: "
+                            + ordering.getSortSpecString());
+        }
+
+        if (value == null) {
+            throw new CayenneRuntimeException("Null page cursor value for ordering: "
+                    + ordering.getSortSpecString());
+        }
+
+        boolean ascending = ordering.isAscending();
+        Expression after = compareExp(ordering, ascending
+                ? Expression.GREATER_THAN
+                : Expression.LESS_THAN, value);
+
+        if (index == values.length - 1) {
+            return after;
+        }
+
+        Expression notBefore = compareExp(ordering, ascending
+                ? Expression.GREATER_THAN_EQUAL_TO
+                : Expression.LESS_THAN_EQUAL_TO, value);
+
+        return notBefore.andExp(after.orExp(qualifier(orderings, index + 1)));
+    }
+
+    private Expression compareExp(Ordering ordering, int type, Object value) {
+        Expression exp = ExpressionFactory.expressionOfType(type);
+        exp.setOperand(0, ordering.getSortSpec().deepCopy());
+        exp.setOperand(1, value);
+        return exp;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (object == this) {
+            return true;
+        }
+
+        if (!(object instanceof PageCursor)) {
+            return false;
+        }
+
+        return Arrays.equals(values, ((PageCursor) object).values);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        return "PageCursor" + Arrays.asList(values);
+    }
+}
@@ -45,9 +45,29 @@ public class SelectQuery extends QualifiedQuery implements ParameterizedQuery,
     public static final String DISTINCT_PROPERTY = "cayenne.SelectQuery.distinct";
     public static final boolean DISTINCT_DEFAULT = false;
 
+    /**
+     * @since 3.1
+     */
+    public static final String AUTO_PREFETCH_PROPERTY = "cayenne.SelectQuery.autoPrefetch";
+
+    /**
+     * @since 3.1
+     */
+    public static final boolean AUTO_PREFETCH_DEFAULT = true;
+
     protected List<Ordering> orderings;
     protected boolean distinct;
 
+    /**
+     * @since 3.1
+     */
+    protected boolean autoPrefetch = AUTO_PREFETCH_DEFAULT;
+
+    /**
+     * @since 3.1
+     */
+    protected PageCursor pageCursor;
+
     SelectQueryMetadata metaData = new SelectQueryMetadata();
 
     /** Creates an empty SelectQuery. */
@@ -264,6 +284,11 @@ public class SelectQuery extends QualifiedQuery implements ParameterizedQuery,
                 ? "true".equalsIgnoreCase(distinct.toString())
                 : DISTINCT_DEFAULT;
 
+        Object autoPrefetch = properties.get(AUTO_PREFETCH_PROPERTY);
+        this.autoPrefetch = (autoPrefetch != null)
+                ? "true".equalsIgnoreCase(autoPrefetch.toString())
+                : AUTO_PREFETCH_DEFAULT;
+
         metaData.initWithProperties(properties);
     }
 
@@ -318,6 +343,10 @@ public class SelectQuery extends QualifiedQuery implements ParameterizedQuery,
             encoder.printProperty(DISTINCT_PROPERTY, distinct);
         }
 
+        if (autoPrefetch != AUTO_PREFETCH_DEFAULT) {
+            encoder.printProperty(AUTO_PREFETCH_PROPERTY, autoPrefetch);
+        }
+
         metaData.encodeAsXML(encoder);
 
         // encode qualifier
@@ -357,6 +386,7 @@ public class SelectQuery extends QualifiedQuery implements ParameterizedQuery,
         // create a query replica
         SelectQuery query = new SelectQuery();
         query.setDistinct(distinct);
+        query.setAutoPrefetch(autoPrefetch);
 
         query.metaData.copyFromInfo(this.metaData);
         query.setRoot(root);
@@ -370,6 +400,8 @@ public class SelectQuery extends QualifiedQuery implements ParameterizedQuery,
             query.setQualifier(qualifier.expWithParameters(parameters, pruneMissing));
         }
 
+        query.setPageCursor(pageCursor);
+
         return query;
     }
 
@@ -579,6 +611,41 @@ public class SelectQuery extends QualifiedQuery implements ParameterizedQuery,
         this.metaData.setFetchOffset(fetchOffset);
     }
 
+    /**
+     * Returns a cursor that positions this query after the last row of the previous
+     * page of the result when using keyset pagination.
+     *
+     * @since 3.1
+     */
+    public PageCursor getPageCursor() {
+        return pageCursor;
+    }
+
+    /**
+     * Sets a cursor for keyset pagination. A query with a cursor only fetches the rows
+     * that follow the cursor position in the order of query orderings. Unlike fetch
+     * offset, the cursor is applied by the database via the query qualifier, so fetching
+     * a page deep into the result is as fast as fetching the first page. Use together
+     * with fetch limit to select a page, e.g.:
+     *
+     * <pre>
+     * SelectQuery query = new SelectQuery(Artist.class);
+     * query.addOrdering(Artist.ARTIST_NAME_PROPERTY, SortOrder.ASCENDING);
+     * query.addOrdering(&quot;db:ARTIST_ID&quot;, SortOrder.ASCENDING);
+     * query.setFetchLimit(50);
+     * query.setPageCursor(cursor);
+     *
+     * List&lt;Artist&gt; page = context.performQuery(query);
+     * PageCursor nextCursor = PageCursor.next(query, page);
+     * </pre>
+     *
+     * @see PageCursor
+     * @since 3.1
+     */
+    public void setPageCursor(PageCursor pageCursor) {
+        this.pageCursor = pageCursor;
+    }
+
     /**
      * Returns <code>pageSize</code> property. See setPageSize for more details.
      */
@@ -603,6 +670,26 @@ public class SelectQuery extends QualifiedQuery implements ParameterizedQuery,
         metaData.setPageSize(pageSize);
     }
 
+    /**
+     * Returns true if prefetches learned from relationship faults may be added to this
+     * query when auto-prefetching is enabled for the DataDomain. Default is true.
+     *
+     * @since 3.1
+     */
+    public boolean isAutoPrefetch() {
+        return autoPrefetch;
+    }
+
+    /**
+     * Enables or disables learned prefetches for this query. Disabling them also
+     * excludes the query from learning.
+     *
+     * @since 3.1
+     */
+    public void setAutoPrefetch(boolean autoPrefetch) {
+        this.autoPrefetch = autoPrefetch;
+    }
+
     /**
      * Returns a list that internally stores orderings, creating it on demand.
      *
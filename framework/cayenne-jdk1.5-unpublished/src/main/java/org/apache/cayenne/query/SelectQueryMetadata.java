@@ -49,9 +49,11 @@ class SelectQueryMetadata extends BaseQueryMetadata {
             }
             else {
                 // create a unique key based on entity, qualifier, ordering and fetch
-                // offset and limit
+                // offset and limit. The key is calculated once per root and entity
+                // resolver, and is built from the qualifier structure, avoiding the
+                // expensive Expression.toString()
 
-                StringBuilder key = new StringBuilder();
+                CacheKeyBuilder key = new CacheKeyBuilder();
 
                 ObjEntity entity = getObjEntity();
                 if (entity != null) {
@@ -62,7 +64,11 @@ class SelectQueryMetadata extends BaseQueryMetadata {
                 }
 
                 if (query.getQualifier() != null) {
-                    key.append('/').append(query.getQualifier());
+                    key.append('/').appendExpression(query.getQualifier());
+                }
+
+                if (query.getPageCursor() != null) {
+                    key.append("/c").appendValue(query.getPageCursor().getValues());
                 }
 
                 if (!query.getOrderings().isEmpty()) {
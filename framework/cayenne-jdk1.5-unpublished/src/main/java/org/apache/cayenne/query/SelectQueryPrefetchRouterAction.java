@@ -86,6 +86,14 @@ class SelectQueryPrefetchRouterAction implements PrefetchProcessor {
         // chain query and entity qualifiers
         Expression queryQualifier = query.getQualifier();
 
+        // only prefetch for the current page when using keyset pagination
+        if (query.getPageCursor() != null) {
+            Expression cursorQualifier = query.getPageCursor().qualifier(
+                    query.getOrderings());
+            queryQualifier = (queryQualifier != null) ? queryQualifier
+                    .andExp(cursorQualifier) : cursorQualifier;
+        }
+
         Expression entityQualifier = classDescriptor
                 .getEntityInheritanceTree()
                 .qualifierForEntityAndSubclasses();
@@ -305,9 +305,10 @@ public abstract class ObjectContextQueryAction {
 
         QueryCache queryCache = getQueryCache();
         QueryCacheEntryFactory factory = getCacheObjectFactory();
+        QueryMetadata cacheMetadata = getCacheMetadata();
 
         if (cache) {
-            List cachedResults = queryCache.get(metadata, factory);
+            List cachedResults = queryCache.get(cacheMetadata, factory);
 
             // response may already be initialized by the factory above ... it is null if
             // there was a preexisting cache entry
@@ -317,7 +318,7 @@ public abstract class ObjectContextQueryAction {
         }
         else {
             // on cache-refresh request, fetch without blocking and fill the cache
-            queryCache.put(metadata, (List) factory.createObject());
+            queryCache.put(cacheMetadata, (List) factory.createObject());
         }
 
         return DONE;
@@ -330,6 +331,15 @@ public abstract class ObjectContextQueryAction {
         return ((BaseContext) actingContext).getQueryCache();
     }
 
+    /**
+     * Returns metadata used to get and put the query results in the local cache.
+     * 
+     * @since 3.1
+     */
+    protected QueryMetadata getCacheMetadata() {
+        return metadata;
+    }
+
     /**
      * @since 3.0
      */
@@ -0,0 +1,170 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.remote.hessian.service.HessianUtil;
+import org.apache.cayenne.util.Util;
+
+public class CompactDataRowTest extends TestCase {
+
+    private CompactDataRow createRow() {
+        CompactDataRow row = new CompactDataRow(new DataRowIndex("A", "B", "C"));
+        row.put("A", 1);
+        row.put("B", null);
+        row.put("C", "c");
+        return row;
+    }
+
+    public void testIndex() {
+        DataRowIndex index = new DataRowIndex("A", "B", "A", "C");
+        assertEquals(3, index.size());
+        assertEquals(0, index.indexOf("A"));
+        assertEquals(2, index.indexOf("C"));
+        assertEquals(-1, index.indexOf("D"));
+        assertEquals(new DataRowIndex("A", "B", "C"), index);
+    }
+
+    public void testMapContract() {
+        CompactDataRow row = createRow();
+
+        Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("A", 1);
+        expected.put("B", null);
+        expected.put("C", "c");
+
+        assertEquals(3, row.size());
+        assertEquals(expected, row);
+        assertEquals(row, expected);
+        assertEquals(expected.hashCode(), row.hashCode());
+        assertEquals(expected.keySet(), row.keySet());
+
+        assertTrue(row.containsKey("B"));
+        assertNull(row.get("B"));
+        assertTrue(row.containsValue("c"));
+
+        assertEquals(1, row.remove("A"));
+        assertFalse(row.containsKey("A"));
+        assertEquals(2, row.size());
+
+        row.put("D", "d");
+        assertEquals("d", row.get("D"));
+        assertEquals(3, row.size());
+        assertEquals(3, row.entrySet().size());
+
+        Iterator<String> it = row.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().equals("D")) {
+                it.remove();
+            }
+        }
+        assertFalse(row.containsKey("D"));
+
+        row.clear();
+        assertTrue(row.isEmpty());
+        assertFalse(row.entrySet().iterator().hasNext());
+    }
+
+    public void testEntrySetValue() {
+        CompactDataRow row = createRow();
+        for (Map.Entry<String, Object> entry : row.entrySet()) {
+            if (entry.getKey().equals("C")) {
+                entry.setValue("x");
+            }
+        }
+
+        assertEquals("x", row.get("C"));
+    }
+
+    public void testCopyConstructor() {
+        CompactDataRow row = createRow();
+        row.put("D", "d");
+
+        DataRow copy = new DataRow(row);
+        assertEquals(row, copy);
+        assertEquals(4, copy.size());
+    }
+
+    public void testClone() {
+        CompactDataRow row = createRow();
+        CompactDataRow clone = (CompactDataRow) row.clone();
+
+        assertEquals(row, clone);
+        assertEquals(row.getVersion(), clone.getVersion());
+
+        clone.put("A", 2);
+        assertEquals(1, row.get("A"));
+    }
+
+    public void testCreateDiff() {
+        CompactDataRow r1 = createRow();
+        CompactDataRow r2 = createRow();
+        assertNull(r1.createDiff(r2));
+
+        r2.put("B", "b");
+        DataRow diff = r1.createDiff(r2);
+        assertEquals(1, diff.size());
+        assertEquals("b", diff.get("B"));
+
+        DataRow merged = r1.applyDiff(diff);
+        assertTrue(merged instanceof CompactDataRow);
+        assertEquals(r2, merged);
+        assertFalse(r1.getVersion() == merged.getVersion());
+    }
+
+    public void testEqualsDifferentIndex() {
+        CompactDataRow r1 = createRow();
+        CompactDataRow r2 = new CompactDataRow(new DataRowIndex("C", "B", "A"));
+        r2.put("A", 1);
+        r2.put("B", null);
+        r2.put("C", "c");
+
+        assertEquals(r1, r2);
+
+        r2.put("C", "x");
+        assertFalse(r1.equals(r2));
+    }
+
+    public void testSerializability() throws Exception {
+        CompactDataRow row = createRow();
+        row.setEntityName("X");
+
+        DataRow copy = Util.cloneViaSerialization(row);
+        assertEquals(row, copy);
+        assertEquals(row.getVersion(), copy.getVersion());
+        assertEquals("X", copy.getEntityName());
+    }
+
+    public void testHessianSerializability() throws Exception {
+        CompactDataRow row = createRow();
+
+        DataRow copy = (DataRow) HessianUtil.cloneViaServerClientSerialization(
+                row,
+                new EntityResolver());
+
+        assertEquals(row, copy);
+        assertEquals(row.getVersion(), copy.getVersion());
+    }
+}
@@ -0,0 +1,178 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.test.jdbc.DBHelper;
+import org.apache.cayenne.test.jdbc.TableHelper;
+import org.apache.cayenne.testdo.testmap.Artist;
+import org.apache.cayenne.unit.di.server.ServerCase;
+import org.apache.cayenne.unit.di.server.UseServerRuntime;
+
+@UseServerRuntime(ServerCase.TESTMAP_PROJECT)
+public class AutoPrefetchLearnerTest extends ServerCase {
+
+    private static final String SHAPE = "Artist#artists";
+
+    @Inject
+    private ServerRuntime runtime;
+
+    @Inject
+    private DBHelper dbHelper;
+
+    private AutoPrefetchLearner learner;
+
+    @Override
+    protected void setUpAfterInjection() throws Exception {
+        dbHelper.deleteAll("PAINTING_INFO");
+        dbHelper.deleteAll("PAINTING");
+        dbHelper.deleteAll("ARTIST_EXHIBIT");
+        dbHelper.deleteAll("ARTIST_GROUP");
+        dbHelper.deleteAll("ARTIST");
+
+        TableHelper tArtist = new TableHelper(dbHelper, "ARTIST");
+        tArtist.setColumns("ARTIST_ID", "ARTIST_NAME");
+
+        TableHelper tPainting = new TableHelper(dbHelper, "PAINTING");
+        tPainting.setColumns("PAINTING_ID", "ARTIST_ID", "PAINTING_TITLE");
+
+        for (int i = 1; i <= 4; i++) {
+            tArtist.insert(i, "a" + i);
+            tPainting.insert(i, i, "p" + i);
+        }
+
+        learner = new AutoPrefetchLearner();
+        learner.setMinExecutions(3);
+        runtime.getDataDomain().setAutoPrefetchLearner(learner);
+    }
+
+    @Override
+    protected void tearDownBeforeInjection() throws Exception {
+        runtime.getDataDomain().setAutoPrefetchLearner(null);
+    }
+
+    private SelectQuery createQuery() {
+        SelectQuery query = new SelectQuery(Artist.class);
+        query.setName("artists");
+        return query;
+    }
+
+    private List<Artist> fetch(SelectQuery query, boolean fault) {
+        ObjectContext context = runtime.getContext();
+        List<Artist> artists = context.performQuery(query);
+        assertEquals(4, artists.size());
+
+        if (fault) {
+            for (Artist artist : artists) {
+                assertEquals(1, artist.getPaintingArray().size());
+            }
+        }
+
+        return artists;
+    }
+
+    private boolean isPrefetched(List<Artist> artists) {
+        for (Artist artist : artists) {
+            Object paintings = artist.readPropertyDirectly(Artist.PAINTING_ARRAY_PROPERTY);
+            if (!(paintings instanceof ToManyList) || ((ToManyList) paintings).isFault()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public void testLearnedPrefetch() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            fetch(createQuery(), true);
+        }
+
+        assertEquals(
+                Collections.singletonList(Artist.PAINTING_ARRAY_PROPERTY),
+                learner.getRules(SHAPE));
+        assertEquals(1, learner.getRules().size());
+
+        SelectQuery query = createQuery();
+        List<Artist> artists = fetch(query, false);
+        assertTrue(isPrefetched(artists));
+        assertEquals("p1", artists.get(0).getPaintingArray().get(0).getPaintingTitle());
+
+        // the user query must not be altered
+        assertNull(query.getPrefetchTree());
+    }
+
+    public void testQueryShapes() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            fetch(createQuery(), true);
+        }
+
+        // an unnamed query is a different shape
+        assertFalse(isPrefetched(fetch(new SelectQuery(Artist.class), false)));
+    }
+
+    public void testRareFaults() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            fetch(createQuery(), i % 3 == 0);
+        }
+
+        assertTrue(learner.getRules(SHAPE).isEmpty());
+    }
+
+    public void testDisabledByHint() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            fetch(createQuery(), true);
+        }
+
+        SelectQuery query = createQuery();
+        query.setAutoPrefetch(false);
+        assertFalse(isPrefetched(fetch(query, false)));
+    }
+
+    public void testExpiration() throws Exception {
+        learner.setRuleExpiration(1);
+
+        for (int i = 0; i < 3; i++) {
+            fetch(createQuery(), true);
+        }
+
+        Thread.sleep(10);
+        assertTrue(learner.getRules(SHAPE).isEmpty());
+        assertFalse(isPrefetched(fetch(createQuery(), false)));
+    }
+
+    public void testMaxShapes() throws Exception {
+        learner.setMaxShapes(2);
+
+        for (String shape : Arrays.asList("a", "b", "c")) {
+            for (int i = 0; i < 3; i++) {
+                learner.executed(shape).faulted("r");
+            }
+        }
+
+        assertEquals(2, learner.getRules().size());
+        assertFalse(learner.getRules().containsKey("a"));
+    }
+}
@@ -0,0 +1,155 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cayenne.Cayenne;
+import org.apache.cayenne.PersistenceState;
+import org.apache.cayenne.QueryResponse;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.query.SQLTemplate;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.test.jdbc.DBHelper;
+import org.apache.cayenne.test.jdbc.TableHelper;
+import org.apache.cayenne.testdo.testmap.Artist;
+import org.apache.cayenne.unit.di.server.ServerCase;
+import org.apache.cayenne.unit.di.server.UseServerRuntime;
+
+@UseServerRuntime(ServerCase.TESTMAP_PROJECT)
+public class DataContextAsyncQueryTest extends ServerCase {
+
+    @Inject
+    private DataContext context;
+
+    @Inject
+    private DBHelper dbHelper;
+
+    private TableHelper tArtist;
+
+    @Override
+    protected void setUpAfterInjection() throws Exception {
+        dbHelper.deleteAll("PAINTING_INFO");
+        dbHelper.deleteAll("PAINTING");
+        dbHelper.deleteAll("ARTIST_EXHIBIT");
+        dbHelper.deleteAll("ARTIST_GROUP");
+        dbHelper.deleteAll("ARTIST");
+
+        tArtist = new TableHelper(dbHelper, "ARTIST");
+        tArtist.setColumns("ARTIST_ID", "ARTIST_NAME");
+    }
+
+    private void createArtistsDataSet() throws Exception {
+        tArtist.insert(33001, "artist1");
+        tArtist.insert(33002, "artist2");
+        tArtist.insert(33003, "artist3");
+    }
+
+    public void testPerformQueryAsync() throws Exception {
+        createArtistsDataSet();
+
+        assertNotNull(context.getQueryExecutor());
+
+        Future<List<Artist>> future = context.performQueryAsync(new SelectQuery(
+                Artist.class));
+        List<Artist> artists = future.get(10, TimeUnit.SECONDS);
+
+        assertEquals(3, artists.size());
+        for (Artist artist : artists) {
+            assertSame(context, artist.getObjectContext());
+            assertEquals(PersistenceState.COMMITTED, artist.getPersistenceState());
+            assertSame(artist, context.getGraphManager().getNode(artist.getObjectId()));
+        }
+    }
+
+    public void testPerformQueryAsyncConcurrent() throws Exception {
+        createArtistsDataSet();
+
+        List<Future<List<Artist>>> futures = new ArrayList<Future<List<Artist>>>();
+        for (int i = 0; i < 10; i++) {
+            SelectQuery query = new SelectQuery(Artist.class, ExpressionFactory.matchExp(
+                    Artist.ARTIST_NAME_PROPERTY,
+                    "artist" + (i % 3 + 1)));
+            futures.add(context.<Artist> performQueryAsync(query));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            List<Artist> artists = futures.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals(1, artists.size());
+
+            // all results must be merged into the same context objects
+            Artist artist = artists.get(0);
+            assertEquals("artist" + (i % 3 + 1), artist.getArtistName());
+            assertSame(artist, Cayenne.objectForPK(context, Artist.class, Cayenne
+                    .intPKForObject(artist)));
+        }
+
+        assertEquals(3, context.getObjectStore().registeredNodes().size());
+    }
+
+    public void testPerformGenericQueryAsync() throws Exception {
+        createArtistsDataSet();
+
+        SQLTemplate update = new SQLTemplate(
+                Artist.class,
+                "UPDATE ARTIST SET ARTIST_NAME = 'x' WHERE ARTIST_ID = 33001");
+
+        QueryResponse response = context.performGenericQueryAsync(update).get(
+                10,
+                TimeUnit.SECONDS);
+        assertEquals(1, response.firstUpdateCount()[0]);
+
+        Artist artist = Cayenne.objectForPK(context, Artist.class, 33001);
+        assertEquals("x", artist.getArtistName());
+    }
+
+    public void testNoQueryExecutor() throws Exception {
+        DataContext context = (DataContext) this.context.createChildContext();
+        context.setQueryExecutor(null);
+
+        try {
+            context.performQueryAsync(new SelectQuery(Artist.class));
+            fail("Async query without executor must fail");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testFailedQuery() throws Exception {
+        SQLTemplate invalid = new SQLTemplate(Artist.class, "SELECT * FROM NO_SUCH_TABLE");
+
+        Future<List<Object>> future = context.performQueryAsync(invalid);
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Query failure must be reported via Future");
+        }
+        catch (ExecutionException e) {
+            assertNotNull(e.getCause());
+        }
+
+        // context must still be usable
+        assertNotNull(context.performQuery(new SelectQuery(Artist.class)));
+    }
+}
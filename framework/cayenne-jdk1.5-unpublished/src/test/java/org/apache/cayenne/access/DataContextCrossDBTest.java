@@ -19,7 +19,18 @@
 
 package org.apache.cayenne.access;
 
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.configuration.server.ServerRuntime;
 import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.test.jdbc.DBHelper;
 import org.apache.cayenne.testdo.db1.CrossdbM1E1;
 import org.apache.cayenne.testdo.db2.CrossdbM2E1;
 import org.apache.cayenne.testdo.db2.CrossdbM2E2;
@@ -32,6 +43,33 @@ public class DataContextCrossDBTest extends ServerCase {
     @Inject
     private DataContext context;
 
+    @Inject
+    private ServerRuntime runtime;
+
+    @Inject
+    private DBHelper dbHelper;
+
+    @Override
+    protected void setUpAfterInjection() throws Exception {
+        dbHelper.deleteAll("CROSSDB_M2E2");
+        dbHelper.deleteAll("CROSSDB_M2E1");
+        dbHelper.deleteAll("CROSSDB_M1E1");
+    }
+
+    private void createObjects() {
+        CrossdbM1E1 o1 = context.newObject(CrossdbM1E1.class);
+        o1.setName("o1");
+
+        CrossdbM2E1 o2 = context.newObject(CrossdbM2E1.class);
+        o2.setName("o2");
+
+        CrossdbM2E2 o3 = context.newObject(CrossdbM2E2.class);
+        o3.setName("o3");
+
+        o3.setToM1E1(o1);
+        o3.setToM2E1(o2);
+    }
+
     public void testMultiDBUpdate() {
 
         // for now testing that no exceptions are thrown... wouldn't hurt to check the
@@ -62,4 +100,86 @@ public class DataContextCrossDBTest extends ServerCase {
         o3.setToM1E1(o1);
         context.commitChanges();
     }
+
+    public void testParallelFlush() throws Exception {
+        TestFlushExecutor executor = new TestFlushExecutor(-1);
+
+        DataDomain domain = runtime.getDataDomain();
+        domain.setFlushExecutor(executor);
+        try {
+            createObjects();
+            context.commitChanges();
+        }
+        finally {
+            domain.setFlushExecutor(null);
+            executor.shutdown();
+        }
+
+        // one task per node
+        assertEquals(2, executor.submitted.get());
+
+        assertEquals(1, dbHelper.getRowCount("CROSSDB_M1E1"));
+        assertEquals(1, dbHelper.getRowCount("CROSSDB_M2E1"));
+        assertEquals(1, dbHelper.getRowCount("CROSSDB_M2E2"));
+
+        List<?> objects = context.performQuery(new SelectQuery(CrossdbM2E2.class));
+        assertEquals(1, objects.size());
+        CrossdbM2E2 o3 = (CrossdbM2E2) objects.get(0);
+        assertEquals("o1", o3.getToM1E1().getName());
+        assertEquals("o2", o3.getToM2E1().getName());
+    }
+
+    public void testParallelFlushFailure() throws Exception {
+
+        // second node fails after running its queries
+        TestFlushExecutor executor = new TestFlushExecutor(2);
+
+        DataDomain domain = runtime.getDataDomain();
+        domain.setFlushExecutor(executor);
+        try {
+            createObjects();
+            context.commitChanges();
+            fail("Node failure must fail the commit");
+        }
+        catch (CayenneRuntimeException e) {
+            // expected
+        }
+        finally {
+            domain.setFlushExecutor(null);
+            executor.shutdown();
+        }
+
+        assertEquals(2, executor.submitted.get());
+
+        // changes of both nodes must be rolled back
+        assertEquals(0, dbHelper.getRowCount("CROSSDB_M1E1"));
+        assertEquals(0, dbHelper.getRowCount("CROSSDB_M2E1"));
+        assertEquals(0, dbHelper.getRowCount("CROSSDB_M2E2"));
+    }
+
+    static class TestFlushExecutor extends ThreadPoolExecutor {
+
+        final AtomicInteger submitted = new AtomicInteger();
+        final int failingTask;
+
+        TestFlushExecutor(int failingTask) {
+            super(2, 2, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            this.failingTask = failingTask;
+        }
+
+        @Override
+        public Future<?> submit(final Runnable task) {
+            final boolean fail = submitted.incrementAndGet() == failingTask;
+            return super.submit(new Runnable() {
+
+                public void run() {
+                    task.run();
+
+                    if (fail) {
+                        throw new CayenneRuntimeException("Test failure");
+                    }
+                }
+            });
+        }
+    }
 }
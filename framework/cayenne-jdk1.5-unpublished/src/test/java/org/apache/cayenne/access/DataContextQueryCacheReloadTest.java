@@ -0,0 +1,162 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.apache.cayenne.DataRow;
+import org.apache.cayenne.cache.ConcurrentQueryCache;
+import org.apache.cayenne.cache.QueryCache;
+import org.apache.cayenne.cache.QueryCacheGroupPolicy;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.query.QueryCacheStrategy;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.test.jdbc.DBHelper;
+import org.apache.cayenne.test.jdbc.TableHelper;
+import org.apache.cayenne.testdo.testmap.Artist;
+import org.apache.cayenne.testdo.testmap.Painting;
+import org.apache.cayenne.unit.di.server.ServerCase;
+import org.apache.cayenne.unit.di.server.UseServerRuntime;
+
+@UseServerRuntime(ServerCase.TESTMAP_PROJECT)
+public class DataContextQueryCacheReloadTest extends ServerCase {
+
+    @Inject
+    private DataContext context;
+
+    @Inject
+    private ServerRuntime runtime;
+
+    @Inject
+    private DBHelper dbHelper;
+
+    private TableHelper tArtist;
+    private QueryCache oldCache;
+    private ConcurrentQueryCache cache;
+    private List<Runnable> reloads;
+
+    @Override
+    protected void setUpAfterInjection() throws Exception {
+        dbHelper.deleteAll("PAINTING_INFO");
+        dbHelper.deleteAll("PAINTING");
+        dbHelper.deleteAll("ARTIST_EXHIBIT");
+        dbHelper.deleteAll("ARTIST_GROUP");
+        dbHelper.deleteAll("ARTIST");
+
+        tArtist = new TableHelper(dbHelper, "ARTIST");
+        tArtist.setColumns("ARTIST_ID", "ARTIST_NAME");
+        tArtist.insert(1, "aaa");
+
+        TableHelper tPainting = new TableHelper(dbHelper, "PAINTING");
+        tPainting.setColumns("PAINTING_ID", "ARTIST_ID", "PAINTING_TITLE");
+        tPainting.insert(1, 1, "p1");
+
+        reloads = new ArrayList<Runnable>();
+        cache = new ConcurrentQueryCache();
+        cache.setExecutor(new Executor() {
+
+            public void execute(Runnable command) {
+                reloads.add(command);
+            }
+        });
+
+        oldCache = runtime.getDataDomain().getQueryCache();
+        runtime.getDataDomain().setQueryCache(cache);
+    }
+
+    @Override
+    protected void tearDownBeforeInjection() throws Exception {
+        runtime.getDataDomain().setQueryCache(oldCache);
+    }
+
+    private SelectQuery createQuery() {
+        SelectQuery query = new SelectQuery(Artist.class);
+        query.setFetchingDataRows(true);
+        query.setCacheStrategy(QueryCacheStrategy.SHARED_CACHE);
+        query.setCacheGroups("g1");
+        return query;
+    }
+
+    private String fetchName() {
+        List<?> rows = context.performQuery(createQuery());
+        assertEquals(1, rows.size());
+        return (String) ((DataRow) rows.get(0)).get("ARTIST_NAME");
+    }
+
+    private void runReloads() {
+        for (Runnable reload : reloads) {
+            reload.run();
+        }
+        reloads.clear();
+    }
+
+    public void testRefreshAhead() throws Exception {
+        cache.setGroupPolicy("g1", new QueryCacheGroupPolicy(60000, 0, 60000));
+
+        assertEquals("aaa", fetchName());
+        assertTrue(reloads.isEmpty());
+
+        tArtist.update().set("ARTIST_NAME", "bbb").where("ARTIST_ID", 1).execute();
+
+        assertEquals("aaa", fetchName());
+        assertEquals(1, reloads.size());
+        runReloads();
+
+        assertEquals("bbb", fetchName());
+    }
+
+    public void testStaleWhileRevalidate() throws Exception {
+        cache.setGroupPolicy("g1", new QueryCacheGroupPolicy(1, 60000, 0));
+
+        assertEquals("aaa", fetchName());
+        tArtist.update().set("ARTIST_NAME", "bbb").where("ARTIST_ID", 1).execute();
+        Thread.sleep(10);
+
+        assertEquals("aaa", fetchName());
+        assertEquals(1, reloads.size());
+        runReloads();
+
+        cache.setGroupPolicy("g1", null);
+        assertEquals("bbb", fetchName());
+    }
+
+    public void testReloadWithPrefetches() throws Exception {
+        cache.setGroupPolicy("g1", new QueryCacheGroupPolicy(60000, 0, 60000));
+
+        SelectQuery query = new SelectQuery(Artist.class);
+        query.setCacheStrategy(QueryCacheStrategy.SHARED_CACHE);
+        query.setCacheGroups("g1");
+        query.addPrefetch(Artist.PAINTING_ARRAY_PROPERTY);
+
+        context.performQuery(query);
+        context.performQuery(query);
+        assertEquals(1, reloads.size());
+        runReloads();
+
+        List<Artist> artists = runtime.getContext().performQuery(query);
+        assertEquals(1, artists.size());
+
+        List<Painting> paintings = artists.get(0).getPaintingArray();
+        assertFalse(((ToManyList) paintings).isFault());
+        assertEquals("p1", paintings.get(0).getPaintingTitle());
+    }
+}
@@ -0,0 +1,215 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.query.Query;
+import org.apache.cayenne.query.SQLTemplate;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.test.jdbc.DBHelper;
+import org.apache.cayenne.test.jdbc.TableHelper;
+import org.apache.cayenne.testdo.testmap.Artist;
+import org.apache.cayenne.unit.di.server.ServerCase;
+import org.apache.cayenne.unit.di.server.UseServerRuntime;
+
+@UseServerRuntime(ServerCase.TESTMAP_PROJECT)
+public class DataDomainReplicaTest extends ServerCase {
+
+    @Inject
+    private ServerRuntime runtime;
+
+    @Inject
+    private DataContext context;
+
+    @Inject
+    private DataNode node;
+
+    @Inject
+    private DBHelper dbHelper;
+
+    private DataDomain domain;
+    private ReplicaNode replica1;
+    private ReplicaNode replica2;
+
+    @Override
+    protected void setUpAfterInjection() throws Exception {
+        dbHelper.deleteAll("PAINTING_INFO");
+        dbHelper.deleteAll("PAINTING");
+        dbHelper.deleteAll("ARTIST_EXHIBIT");
+        dbHelper.deleteAll("ARTIST_GROUP");
+        dbHelper.deleteAll("ARTIST");
+
+        TableHelper tArtist = new TableHelper(dbHelper, "ARTIST");
+        tArtist.setColumns("ARTIST_ID", "ARTIST_NAME");
+        tArtist.insert(33001, "artist1");
+
+        domain = runtime.getDataDomain();
+
+        // replicas simulated with nodes reading from the primary database
+        replica1 = new ReplicaNode("replica1", node);
+        replica2 = new ReplicaNode("replica2", node);
+        domain.addReplicaNode(node.getName(), replica1);
+        domain.addReplicaNode(node.getName(), replica2);
+    }
+
+    @Override
+    protected void tearDownBeforeInjection() throws Exception {
+        if (domain != null) {
+            domain.removeReplicaNode("replica1");
+            domain.removeReplicaNode("replica2");
+            domain.setReplicaSelector(new RoundRobinReplicaSelector());
+            domain.setReadYourWritesTime(0);
+        }
+    }
+
+    public void testSelectsGoToReplicas() {
+        assertEquals(
+                Arrays.asList(replica1, replica2),
+                domain.getReplicaNodes(node.getName()));
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(1, context.performQuery(new SelectQuery(Artist.class)).size());
+        }
+
+        assertEquals(2, replica1.queries.size());
+        assertEquals(2, replica2.queries.size());
+    }
+
+    public void testPrefetchesGoToSameReplica() {
+        SelectQuery query = new SelectQuery(Artist.class);
+        query.addPrefetch(Artist.PAINTING_ARRAY_PROPERTY);
+        context.performQuery(query);
+
+        assertEquals(2, replica1.queries.size() + replica2.queries.size());
+        assertTrue(replica1.queries.isEmpty() || replica2.queries.isEmpty());
+    }
+
+    public void testOtherQueriesGoToPrimary() {
+        context.performGenericQuery(new SQLTemplate(
+                Artist.class,
+                "UPDATE ARTIST SET ARTIST_NAME = 'x'"));
+
+        Artist artist = context.newObject(Artist.class);
+        artist.setArtistName("artist2");
+        context.commitChanges();
+
+        assertTrue(replica1.queries.isEmpty());
+        assertTrue(replica2.queries.isEmpty());
+    }
+
+    public void testSelectInTransactionGoesToPrimary() throws Exception {
+        Transaction transaction = domain.createTransaction();
+        Transaction.bindThreadTransaction(transaction);
+        try {
+            context.performQuery(new SelectQuery(Artist.class));
+            transaction.commit();
+        }
+        finally {
+            Transaction.bindThreadTransaction(null);
+        }
+
+        assertTrue(replica1.queries.isEmpty());
+        assertTrue(replica2.queries.isEmpty());
+    }
+
+    public void testReadYourWrites() {
+        domain.setReadYourWritesTime(60000);
+
+        Artist artist = context.newObject(Artist.class);
+        artist.setArtistName("artist2");
+        context.commitChanges();
+
+        assertEquals(2, context.performQuery(new SelectQuery(Artist.class)).size());
+        assertTrue(replica1.queries.isEmpty());
+        assertTrue(replica2.queries.isEmpty());
+
+        // contexts that did not commit still read from replicas
+        ObjectContext otherContext = runtime.getContext();
+        assertEquals(2, otherContext.performQuery(new SelectQuery(Artist.class)).size());
+        assertEquals(1, replica1.queries.size() + replica2.queries.size());
+    }
+
+    public void testReplicaMonitor() {
+        final List<DataNode> down = new ArrayList<DataNode>();
+        final long[] lag = new long[] {
+            0
+        };
+
+        domain.setReplicaSelector(new RoundRobinReplicaSelector(new ReplicaMonitor() {
+
+            public boolean isAvailable(DataNode replica) {
+                return !down.contains(replica);
+            }
+
+            public long getReplicationLag(DataNode replica) {
+                return replica == replica2 ? lag[0] : 0;
+            }
+        }, 1000));
+
+        down.add(replica1);
+        context.performQuery(new SelectQuery(Artist.class));
+        context.performQuery(new SelectQuery(Artist.class));
+        assertEquals(0, replica1.queries.size());
+        assertEquals(2, replica2.queries.size());
+
+        // lagging replica is skipped, falling back to primary
+        lag[0] = 5000;
+        context.performQuery(new SelectQuery(Artist.class));
+        assertEquals(0, replica1.queries.size());
+        assertEquals(2, replica2.queries.size());
+        assertSame(node, domain.lookupReadNode(context
+                .getEntityResolver()
+                .lookupObjEntity(Artist.class)
+                .getDataMap(), context));
+
+        down.clear();
+        context.performQuery(new SelectQuery(Artist.class));
+        assertEquals(1, replica1.queries.size());
+    }
+
+    static class ReplicaNode extends DataNode {
+
+        List<Query> queries;
+
+        ReplicaNode(String name, DataNode primary) {
+            super(name);
+            this.queries = Collections.synchronizedList(new ArrayList<Query>());
+
+            setDataSource(primary.getDataSource());
+            setAdapter(primary.getAdapter());
+            setJdbcEventLogger(primary.getJdbcEventLogger());
+        }
+
+        @Override
+        public void performQueries(
+                Collection<? extends Query> queries,
+                OperationObserver callback) {
+            this.queries.addAll(queries);
+            super.performQueries(queries, callback);
+        }
+    }
+}
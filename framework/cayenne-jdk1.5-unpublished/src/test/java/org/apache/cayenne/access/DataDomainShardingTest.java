@@ -0,0 +1,357 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cayenne.Cayenne;
+import org.apache.cayenne.ObjectId;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.map.DbEntity;
+import org.apache.cayenne.query.BatchQuery;
+import org.apache.cayenne.query.DeleteBatchQuery;
+import org.apache.cayenne.query.InsertBatchQuery;
+import org.apache.cayenne.query.ObjectIdQuery;
+import org.apache.cayenne.query.Ordering;
+import org.apache.cayenne.query.Query;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.query.SortOrder;
+import org.apache.cayenne.query.UpdateBatchQuery;
+import org.apache.cayenne.test.jdbc.DBHelper;
+import org.apache.cayenne.test.jdbc.TableHelper;
+import org.apache.cayenne.testdo.testmap.Artist;
+import org.apache.cayenne.testdo.testmap.Painting;
+import org.apache.cayenne.unit.di.server.ServerCase;
+import org.apache.cayenne.unit.di.server.UseServerRuntime;
+
+@UseServerRuntime(ServerCase.TESTMAP_PROJECT)
+public class DataDomainShardingTest extends ServerCase {
+
+    @Inject
+    private ServerRuntime runtime;
+
+    @Inject
+    private DataContext context;
+
+    @Inject
+    private DataNode node;
+
+    @Inject
+    private DBHelper dbHelper;
+
+    private DataDomain domain;
+    private ShardNode shard0;
+    private ShardNode shard1;
+    private EntityShards artistShards;
+
+    @Override
+    protected void setUpAfterInjection() throws Exception {
+        dbHelper.deleteAll("PAINTING_INFO");
+        dbHelper.deleteAll("PAINTING");
+        dbHelper.deleteAll("ARTIST_EXHIBIT");
+        dbHelper.deleteAll("ARTIST_GROUP");
+        dbHelper.deleteAll("ARTIST");
+
+        domain = runtime.getDataDomain();
+
+        // shards are simulated with nodes that only see their own rows of the primary
+        // database
+        shard0 = new ShardNode("shard0", node, domain);
+        shard1 = new ShardNode("shard1", node, domain);
+        List<DataNode> shards = Arrays.<DataNode> asList(shard0, shard1);
+
+        artistShards = new EntityShards("ARTIST", shards);
+        domain.addEntityShards(artistShards);
+
+        EntityShards paintingShards = new EntityShards("PAINTING", shards);
+        paintingShards.setShardKey("ARTIST_ID");
+        domain.addEntityShards(paintingShards);
+    }
+
+    @Override
+    protected void tearDownBeforeInjection() throws Exception {
+        if (domain != null) {
+            domain.removeEntityShards("ARTIST");
+            domain.removeEntityShards("PAINTING");
+        }
+    }
+
+    private void createArtistsDataSet() throws Exception {
+        TableHelper tArtist = new TableHelper(dbHelper, "ARTIST");
+        tArtist.setColumns("ARTIST_ID", "ARTIST_NAME");
+        for (int i = 1; i <= 6; i++) {
+            tArtist.insert(33000 + i, "artist" + i);
+        }
+    }
+
+    private ShardNode shardOf(int artistId) {
+        DbEntity entity = context.getEntityResolver().getDbEntity("ARTIST");
+        return (ShardNode) artistShards.lookupNode(entity, Collections.singletonMap(
+                "ARTIST_ID",
+                artistId));
+    }
+
+    public void testInsertsGoToShards() {
+        for (int i = 0; i < 10; i++) {
+            context.newObject(Artist.class).setArtistName("artist" + i);
+        }
+        context.commitChanges();
+
+        int inserted = 0;
+        for (ShardNode shard : Arrays.asList(shard0, shard1)) {
+            for (BatchQuery batch : shard.batches(InsertBatchQuery.class)) {
+                batch.reset();
+                while (batch.next()) {
+                    int id = ((Number) batch.getObjectId().getIdSnapshot().get(
+                            "ARTIST_ID")).intValue();
+                    assertSame(shard, shardOf(id));
+                    inserted++;
+                }
+            }
+        }
+
+        assertEquals(10, inserted);
+        assertFalse(shard0.queries.isEmpty());
+        assertFalse(shard1.queries.isEmpty());
+    }
+
+    public void testObjectIdQueryGoesToOneShard() throws Exception {
+        createArtistsDataSet();
+
+        for (int i = 1; i <= 6; i++) {
+            ObjectIdQuery query = new ObjectIdQuery(
+                    new ObjectId("Artist", Artist.ARTIST_ID_PK_COLUMN, 33000 + i),
+                    false,
+                    ObjectIdQuery.CACHE_REFRESH);
+
+            shard0.queries.clear();
+            shard1.queries.clear();
+
+            Artist artist = (Artist) Cayenne.objectForQuery(context, query);
+            assertNotNull(artist);
+            assertEquals("artist" + i, artist.getArtistName());
+
+            ShardNode shard = shardOf(33000 + i);
+            ShardNode otherShard = shard == shard0 ? shard1 : shard0;
+            assertEquals(1, shard.queries.size());
+            assertTrue(otherShard.queries.isEmpty());
+        }
+    }
+
+    public void testSelectGoesToAllShards() throws Exception {
+        createArtistsDataSet();
+
+        SelectQuery query = new SelectQuery(Artist.class);
+        query.addOrdering(Artist.ARTIST_NAME_PROPERTY, SortOrder.DESCENDING);
+
+        List<Artist> artists = context.performQuery(query);
+        assertEquals(1, shard0.queries.size());
+        assertEquals(1, shard1.queries.size());
+
+        assertEquals(6, artists.size());
+        for (int i = 0; i < 6; i++) {
+            assertEquals("artist" + (6 - i), artists.get(i).getArtistName());
+        }
+    }
+
+    public void testSelectLimitAndOffset() throws Exception {
+        createArtistsDataSet();
+
+        SelectQuery query = new SelectQuery(Artist.class);
+        query.addOrdering(new Ordering("db:ARTIST_NAME", SortOrder.ASCENDING));
+        query.setFetchOffset(2);
+        query.setFetchLimit(3);
+
+        List<Artist> artists = context.performQuery(query);
+        assertEquals(3, artists.size());
+        assertEquals("artist3", artists.get(0).getArtistName());
+        assertEquals("artist4", artists.get(1).getArtistName());
+        assertEquals("artist5", artists.get(2).getArtistName());
+
+        // each shard is asked for the rows up to the last requested row
+        SelectQuery shardQuery = (SelectQuery) shard0.queries.get(0);
+        assertEquals(0, shardQuery.getFetchOffset());
+        assertEquals(5, shardQuery.getFetchLimit());
+    }
+
+    public void testToManyFaultGoesToArtistShard() throws Exception {
+        createArtistsDataSet();
+
+        TableHelper tPainting = new TableHelper(dbHelper, "PAINTING");
+        tPainting.setColumns("PAINTING_ID", "ARTIST_ID", "PAINTING_TITLE");
+        tPainting.insert(33001, 33001, "p1");
+        tPainting.insert(33002, 33001, "p2");
+        tPainting.insert(33003, 33002, "p3");
+
+        Artist artist = Cayenne.objectForPK(context, Artist.class, 33001);
+
+        shard0.queries.clear();
+        shard1.queries.clear();
+
+        assertEquals(2, artist.getPaintingArray().size());
+
+        ShardNode shard = shardOf(33001);
+        ShardNode otherShard = shard == shard0 ? shard1 : shard0;
+        assertEquals(1, shard.queries.size());
+        assertTrue(otherShard.queries.isEmpty());
+    }
+
+    public void testNewPaintingsGoToArtistShard() {
+        Artist artist = context.newObject(Artist.class);
+        artist.setArtistName("artist1");
+
+        for (int i = 0; i < 4; i++) {
+            Painting painting = context.newObject(Painting.class);
+            painting.setPaintingTitle("p" + i);
+            painting.setToArtist(artist);
+        }
+
+        context.commitChanges();
+
+        ShardNode shard = shardOf(Cayenne.intPKForObject(artist));
+        ShardNode otherShard = shard == shard0 ? shard1 : shard0;
+
+        assertEquals(2, shard.batches(InsertBatchQuery.class).size());
+        assertTrue(otherShard.batches(InsertBatchQuery.class).isEmpty());
+    }
+
+    public void testUpdateAndDeleteGoToShard() throws Exception {
+        createArtistsDataSet();
+
+        Artist artist = Cayenne.objectForPK(context, Artist.class, 33004);
+        ShardNode shard = shardOf(33004);
+        ShardNode otherShard = shard == shard0 ? shard1 : shard0;
+
+        artist.setArtistName("x");
+        context.commitChanges();
+
+        assertEquals(1, shard.batches(UpdateBatchQuery.class).size());
+        assertTrue(otherShard.batches(UpdateBatchQuery.class).isEmpty());
+
+        context.deleteObject(artist);
+        context.commitChanges();
+
+        assertEquals(1, shard.batches(DeleteBatchQuery.class).size());
+        assertTrue(otherShard.batches(DeleteBatchQuery.class).isEmpty());
+
+        assertEquals(5, dbHelper.getRowCount("ARTIST"));
+    }
+
+    static class ShardNode extends DataNode {
+
+        List<Query> queries;
+        DataNode primary;
+        DataDomain domain;
+
+        ShardNode(String name, DataNode primary, DataDomain domain) {
+            super(name);
+            this.queries = Collections.synchronizedList(new ArrayList<Query>());
+            this.primary = primary;
+            this.domain = domain;
+        }
+
+        List<BatchQuery> batches(Class<? extends BatchQuery> type) {
+            List<BatchQuery> batches = new ArrayList<BatchQuery>();
+            for (Query query : queries) {
+                if (type.isInstance(query)) {
+                    batches.add((BatchQuery) query);
+                }
+            }
+
+            return batches;
+        }
+
+        @Override
+        public void performQueries(
+                Collection<? extends Query> queries,
+                final OperationObserver callback) {
+
+            this.queries.addAll(queries);
+
+            // run in the primary node transaction connection, hiding the rows of the
+            // other shards
+            primary.performQueries(queries, new ForwardingObserver(callback) {
+
+                @Override
+                public void nextRows(Query query, List<?> dataRows) {
+                    DbEntity entity = query
+                            .getMetaData(domain.getEntityResolver())
+                            .getDbEntity();
+                    EntityShards shards = domain.getEntityShards(entity.getName());
+
+                    List<Object> shardRows = new ArrayList<Object>();
+                    for (Object row : dataRows) {
+                        if (shards.lookupNode(entity, (Map<String, ?>) row) == ShardNode.this) {
+                            shardRows.add(row);
+                        }
+                    }
+
+                    super.nextRows(query, shardRows);
+                }
+            });
+        }
+    }
+
+    static class ForwardingObserver implements OperationObserver {
+
+        private OperationObserver delegate;
+
+        ForwardingObserver(OperationObserver delegate) {
+            this.delegate = delegate;
+        }
+
+        public void nextCount(Query query, int resultCount) {
+            delegate.nextCount(query, resultCount);
+        }
+
+        public void nextBatchCount(Query query, int[] resultCount) {
+            delegate.nextBatchCount(query, resultCount);
+        }
+
+        public void nextRows(Query query, List<?> dataRows) {
+            delegate.nextRows(query, dataRows);
+        }
+
+        public void nextRows(Query q, ResultIterator it) {
+            delegate.nextRows(q, it);
+        }
+
+        public void nextGeneratedRows(Query query, ResultIterator keysIterator) {
+            delegate.nextGeneratedRows(query, keysIterator);
+        }
+
+        public void nextQueryException(Query query, Exception ex) {
+            delegate.nextQueryException(query, ex);
+        }
+
+        public void nextGlobalException(Exception ex) {
+            delegate.nextGlobalException(ex);
+        }
+
+        public boolean isIteratedResult() {
+            return delegate.isIteratedResult();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.Collections;
+import java.util.Date;
+
+import org.apache.cayenne.CompactDataRow;
+import org.apache.cayenne.DataRow;
+import org.apache.cayenne.DataRowIndex;
+import org.apache.cayenne.ObjectId;
+
+/**
+ * A standalone benchmark comparing heap used by the DataRowStore snapshot cache filled
+ * with regular HashMap-based DataRows and with {@link CompactDataRow}s. Row values are
+ * shared between rows, except for the primary key, so that the numbers reflect the row
+ * overhead. Not run as part of the test suite. Arguments (all optional): number of
+ * snapshots, number of columns. With defaults requires about 2G of heap (-Xmx2g).
+ */
+public class DataRowStoreHeapBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int width = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        System.out.println("snapshots: " + entries + ", columns: " + width);
+
+        String[] keys = new String[width];
+        Object[] values = new Object[width];
+        keys[0] = "ID";
+        for (int i = 1; i < width; i++) {
+            keys[i] = "COLUMN_" + i;
+            values[i] = (i % 2 == 0) ? new Date() : "value_" + i;
+        }
+
+        // shared by all compact rows of a single fetch
+        DataRowIndex index = new DataRowIndex(keys);
+
+        // first pass of each row type is a warmup
+        for (int pass = 0; pass < 2; pass++) {
+            report("DataRow", measure(false, entries, keys, values, index), entries);
+            report("CompactDataRow", measure(true, entries, keys, values, index), entries);
+        }
+    }
+
+    static long measure(
+            boolean compact,
+            int entries,
+            String[] keys,
+            Object[] values,
+            DataRowIndex index) {
+
+        long before = usedMemory();
+
+        DataRowStore store = new DataRowStore("benchmark", Collections.singletonMap(
+                DataRowStore.SNAPSHOT_CACHE_SIZE_PROPERTY,
+                String.valueOf(entries)), null);
+
+        for (int i = 0; i < entries; i++) {
+            Long id = Long.valueOf(i);
+
+            DataRow row = compact ? new CompactDataRow(index) : new DataRow((int) Math
+                    .ceil(keys.length / 0.75));
+            row.put(keys[0], id);
+            for (int j = 1; j < keys.length; j++) {
+                row.put(keys[j], values[j]);
+            }
+
+            store.snapshots.put(new ObjectId("Benchmark", keys[0], id), row);
+        }
+
+        long after = usedMemory();
+
+        if (store.size() != entries) {
+            throw new IllegalStateException("Unexpected cache size: " + store.size());
+        }
+
+        return after - before;
+    }
+
+    static void report(String label, long bytes, int entries) {
+        System.out.println(String.format(
+                "%-16s %8.1f MB  %6d bytes/snapshot",
+                label,
+                bytes / (1024d * 1024d),
+                bytes / entries));
+    }
+
+    static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
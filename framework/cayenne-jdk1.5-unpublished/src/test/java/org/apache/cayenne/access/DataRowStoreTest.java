@@ -128,4 +128,50 @@ public class DataRowStoreTest extends ServerCase {
         assertNotNull(cache.getCachedSnapshot(key3));
         assertNull(cache.getCachedSnapshot(key1));
     }
+
+    public void testOffHeap() throws Exception {
+        Map<Object, Object> props = new HashMap<Object, Object>();
+        props.put(DataRowStore.SNAPSHOT_OFF_HEAP_SIZE_PROPERTY, String
+                .valueOf(1024 * 1024));
+
+        DataRowStore cache = new DataRowStore(
+                "cacheXYZ",
+                props,
+                new DefaultEventManager());
+        assertTrue(cache.isOffHeap());
+
+        ObjectId key = new ObjectId("Artist", Artist.ARTIST_ID_PK_COLUMN, 1);
+        DataRow row = new DataRow(2);
+        row.put("ARTIST_NAME", "aaa");
+
+        cache.processSnapshotChanges(
+                this,
+                Collections.singletonMap(key, row),
+                Collections.EMPTY_LIST,
+                Collections.EMPTY_LIST,
+                Collections.EMPTY_LIST);
+        assertEquals(row, cache.getCachedSnapshot(key));
+        assertEquals(row.getVersion(), cache.getCachedSnapshot(key).getVersion());
+
+        DataRow update = new DataRow(2);
+        update.put("ARTIST_NAME", "bbb");
+        update.setReplacesVersion(row.getVersion());
+        cache.processSnapshotChanges(
+                this,
+                Collections.singletonMap(key, update),
+                Collections.EMPTY_LIST,
+                Collections.EMPTY_LIST,
+                Collections.EMPTY_LIST);
+        assertEquals(update.getVersion(), cache.getCachedSnapshot(key).getVersion());
+        assertEquals("bbb", cache.getCachedSnapshot(key).get("ARTIST_NAME"));
+
+        cache.processSnapshotChanges(
+                this,
+                Collections.EMPTY_MAP,
+                Collections.singletonList(key),
+                Collections.EMPTY_LIST,
+                Collections.EMPTY_LIST);
+        assertNull(cache.getCachedSnapshot(key));
+        assertEquals(0, cache.size());
+    }
 }
@@ -0,0 +1,225 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.List;
+
+import org.apache.cayenne.PersistenceState;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.query.SortOrder;
+import org.apache.cayenne.test.jdbc.DBHelper;
+import org.apache.cayenne.test.jdbc.TableHelper;
+import org.apache.cayenne.testdo.testmap.Artist;
+import org.apache.cayenne.testdo.testmap.Painting;
+import org.apache.cayenne.unit.di.DataChannelInterceptor;
+import org.apache.cayenne.unit.di.UnitTestClosure;
+import org.apache.cayenne.unit.di.server.ServerCase;
+import org.apache.cayenne.unit.di.server.UseServerRuntime;
+
+@UseServerRuntime(ServerCase.TESTMAP_PROJECT)
+public class FaultBatchTest extends ServerCase {
+
+    @Inject
+    private DataContext context;
+
+    @Inject
+    private ServerRuntime runtime;
+
+    @Inject
+    private DBHelper dbHelper;
+
+    @Inject
+    private DataChannelInterceptor queryInterceptor;
+
+    @Override
+    protected void setUpAfterInjection() throws Exception {
+        dbHelper.deleteAll("PAINTING_INFO");
+        dbHelper.deleteAll("PAINTING");
+        dbHelper.deleteAll("ARTIST_EXHIBIT");
+        dbHelper.deleteAll("ARTIST_GROUP");
+        dbHelper.deleteAll("ARTIST");
+
+        TableHelper tArtist = new TableHelper(dbHelper, "ARTIST");
+        tArtist.setColumns("ARTIST_ID", "ARTIST_NAME");
+
+        TableHelper tPainting = new TableHelper(dbHelper, "PAINTING");
+        tPainting.setColumns("PAINTING_ID", "ARTIST_ID", "PAINTING_TITLE");
+
+        TableHelper tPaintingInfo = new TableHelper(dbHelper, "PAINTING_INFO");
+        tPaintingInfo.setColumns("PAINTING_ID", "TEXT_REVIEW");
+
+        for (int i = 1; i <= 5; i++) {
+            tArtist.insert(i, "a" + i);
+            tPainting.insert(i * 10, i, "p" + i + "0");
+            tPainting.insert(i * 10 + 1, i, "p" + i + "1");
+            tPaintingInfo.insert(i * 10, "r" + i + "0");
+        }
+
+        tArtist.insert(6, "a6");
+        tPainting.insert(60, null, "p60");
+
+        runtime.getDataDomain().setFaultBatchSize(50);
+    }
+
+    @Override
+    protected void tearDownBeforeInjection() throws Exception {
+        runtime.getDataDomain().setFaultBatchSize(0);
+    }
+
+    private List<Artist> fetchArtists() {
+        SelectQuery query = new SelectQuery(Artist.class);
+        query.addOrdering(Artist.ARTIST_NAME_PROPERTY, SortOrder.ASCENDING);
+        return context.performQuery(query);
+    }
+
+    private List<Painting> fetchPaintings() {
+        SelectQuery query = new SelectQuery(Painting.class);
+        query.addOrdering(Painting.PAINTING_TITLE_PROPERTY, SortOrder.ASCENDING);
+        return context.performQuery(query);
+    }
+
+    public void testToMany() throws Exception {
+        final List<Artist> artists = fetchArtists();
+        assertEquals(6, artists.size());
+
+        int queries = queryInterceptor.runWithQueryCounter(new UnitTestClosure() {
+
+            public void execute() {
+                for (int i = 0; i < 5; i++) {
+                    Artist artist = artists.get(i);
+                    List<Painting> paintings = artist.getPaintingArray();
+                    assertEquals(2, paintings.size());
+
+                    for (Painting painting : paintings) {
+                        assertSame(artist, painting.getToArtist());
+                        assertTrue(painting.getPaintingTitle().startsWith(
+                                "p" + (i + 1)));
+                    }
+                }
+
+                assertEquals(0, artists.get(5).getPaintingArray().size());
+            }
+        });
+
+        assertEquals(1, queries);
+    }
+
+    public void testToOne() throws Exception {
+        final List<Painting> paintings = fetchPaintings();
+        assertEquals(11, paintings.size());
+
+        int queries = queryInterceptor.runWithQueryCounter(new UnitTestClosure() {
+
+            public void execute() {
+                for (Painting painting : paintings) {
+                    Artist artist = painting.getToArtist();
+
+                    if (painting.getPaintingTitle().equals("p60")) {
+                        assertNull(artist);
+                    }
+                    else {
+                        assertEquals(PersistenceState.COMMITTED, artist
+                                .getPersistenceState());
+                        assertEquals(
+                                "a" + painting.getPaintingTitle().charAt(1),
+                                artist.getArtistName());
+                    }
+                }
+            }
+        });
+
+        assertEquals(1, queries);
+    }
+
+    public void testDependentToOne() throws Exception {
+        final List<Painting> paintings = fetchPaintings();
+
+        int queries = queryInterceptor.runWithQueryCounter(new UnitTestClosure() {
+
+            public void execute() {
+                for (Painting painting : paintings) {
+                    String title = painting.getPaintingTitle();
+
+                    if (title.endsWith("0") && !title.equals("p60")) {
+                        assertEquals("r" + title.substring(1), painting
+                                .getToPaintingInfo()
+                                .getTextReview());
+                    }
+                    else {
+                        assertNull(painting.getToPaintingInfo());
+                    }
+                }
+            }
+        });
+
+        assertEquals(1, queries);
+    }
+
+    public void testBatchSize() throws Exception {
+        runtime.getDataDomain().setFaultBatchSize(2);
+
+        final List<Artist> artists = fetchArtists();
+
+        int queries = queryInterceptor.runWithQueryCounter(new UnitTestClosure() {
+
+            public void execute() {
+                for (Artist artist : artists) {
+                    artist.getPaintingArray().size();
+                }
+            }
+        });
+
+        assertEquals(3, queries);
+    }
+
+    public void testDisabled() throws Exception {
+        runtime.getDataDomain().setFaultBatchSize(0);
+
+        final List<Artist> artists = fetchArtists();
+
+        int queries = queryInterceptor.runWithQueryCounter(new UnitTestClosure() {
+
+            public void execute() {
+                for (Artist artist : artists) {
+                    artist.getPaintingArray().size();
+                }
+            }
+        });
+
+        assertEquals(6, queries);
+    }
+
+    public void testModifiedSiblingSkipped() throws Exception {
+        final List<Artist> artists = fetchArtists();
+        artists.get(1).setArtistName("x");
+
+        int queries = queryInterceptor.runWithQueryCounter(new UnitTestClosure() {
+
+            public void execute() {
+                assertEquals(2, artists.get(0).getPaintingArray().size());
+                assertEquals(2, artists.get(1).getPaintingArray().size());
+                assertEquals(2, artists.get(2).getPaintingArray().size());
+            }
+        });
+
+        assertEquals(2, queries);
+    }
+}
@@ -121,6 +121,31 @@ public class IdentityColumnsTest extends ServerCase {
         assertEquals(name, object.getName());
     }
 
+    /**
+     * Checks that generated keys are matched to the right objects when multiple objects
+     * are inserted in a single batch.
+     */
+    public void testNewObjects() throws Exception {
+
+        GeneratedColumnTestEntity[] objects = new GeneratedColumnTestEntity[3];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = context.newObject(GeneratedColumnTestEntity.class);
+            objects[i].setName("n_" + i);
+        }
+
+        context.commitChanges();
+        context.invalidateObjects((Object[]) objects);
+
+        for (int i = 0; i < objects.length; i++) {
+            GeneratedColumnTestEntity object = Cayenne.objectForPK(
+                    context,
+                    GeneratedColumnTestEntity.class,
+                    Cayenne.intPKForObject(objects[i]));
+            assertNotNull(object);
+            assertEquals("n_" + i, object.getName());
+        }
+    }
+
     public void testGeneratedJoinInFlattenedRelationship() throws Exception {
 
         // before saving objects, let's manually access PKGenerator to get a base PK value
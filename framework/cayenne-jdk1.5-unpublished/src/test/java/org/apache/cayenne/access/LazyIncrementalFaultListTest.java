@@ -0,0 +1,268 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.sql.Date;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.query.SortOrder;
+import org.apache.cayenne.test.jdbc.DBHelper;
+import org.apache.cayenne.test.jdbc.TableHelper;
+import org.apache.cayenne.testdo.testmap.Artist;
+import org.apache.cayenne.unit.di.DataChannelInterceptor;
+import org.apache.cayenne.unit.di.UnitTestClosure;
+import org.apache.cayenne.unit.di.server.ServerCase;
+import org.apache.cayenne.unit.di.server.UseServerRuntime;
+
+@UseServerRuntime(ServerCase.TESTMAP_PROJECT)
+public class LazyIncrementalFaultListTest extends ServerCase {
+
+    @Inject
+    private DataContext context;
+
+    @Inject
+    private ServerRuntime runtime;
+
+    @Inject
+    private DBHelper dbHelper;
+
+    @Inject
+    private DataChannelInterceptor queryInterceptor;
+
+    @Override
+    protected void setUpAfterInjection() throws Exception {
+        dbHelper.deleteAll("PAINTING_INFO");
+        dbHelper.deleteAll("PAINTING");
+        dbHelper.deleteAll("ARTIST_EXHIBIT");
+        dbHelper.deleteAll("ARTIST_GROUP");
+        dbHelper.deleteAll("ARTIST");
+
+        TableHelper tArtist = new TableHelper(dbHelper, "ARTIST");
+        tArtist.setColumns("ARTIST_ID", "ARTIST_NAME");
+        tArtist.insert(33001, "c");
+        tArtist.insert(33002, "b");
+        tArtist.insert(33003, "a");
+        tArtist.insert(33004, "b");
+        tArtist.insert(33005, "a");
+        tArtist.insert(33006, "b");
+        tArtist.insert(33007, "c");
+    }
+
+    @Override
+    protected void tearDownBeforeInjection() throws Exception {
+        runtime.getDataDomain().setLazyPaginationCachedPages(0);
+        context.setQueryExecutor(null);
+    }
+
+    private SelectQuery createQuery() {
+        SelectQuery query = new SelectQuery(Artist.class);
+        query.addOrdering(Artist.ARTIST_NAME_PROPERTY, SortOrder.ASCENDING);
+        query.setPageSize(2);
+        return query;
+    }
+
+    private LazyIncrementalFaultList<Artist> createList(SelectQuery query) {
+        return new LazyIncrementalFaultList<Artist>(context, query, 10000, 2);
+    }
+
+    private List<String> names(List<Artist> list) {
+        List<String> names = new ArrayList<String>();
+        for (Artist artist : list) {
+            names.add(artist.getArtistName()
+                    + artist.getObjectId().getIdSnapshot().get("ARTIST_ID"));
+        }
+        return names;
+    }
+
+    public void testSize() throws Exception {
+        SelectQuery query = createQuery();
+        query.setQualifier(ExpressionFactory.noMatchExp(Artist.ARTIST_NAME_PROPERTY, "b"));
+
+        final LazyIncrementalFaultList<Artist> list = createList(query);
+
+        queryInterceptor.runWithQueriesBlocked(new UnitTestClosure() {
+
+            public void execute() {
+                assertEquals(4, list.size());
+                assertEquals(4, list.getUnfetchedObjects());
+            }
+        });
+    }
+
+    public void testPageOrder() throws Exception {
+        LazyIncrementalFaultList<Artist> list = createList(createQuery());
+
+        assertEquals(7, list.size());
+        assertEquals(Arrays.asList(
+                "a33003",
+                "a33005",
+                "b33002",
+                "b33004",
+                "b33006",
+                "c33001",
+                "c33007"), names(list));
+    }
+
+    public void testRandomAccess() throws Exception {
+        final LazyIncrementalFaultList<Artist> list = createList(createQuery());
+
+        int queries = queryInterceptor.runWithQueryCounter(new UnitTestClosure() {
+
+            public void execute() {
+                assertEquals("c", list.get(6).getArtistName());
+                assertEquals("b", list.get(3).getArtistName());
+                assertEquals("b", list.get(2).getArtistName());
+            }
+        });
+        assertEquals(2, queries);
+
+        // the last page must be discarded when the third one is read
+        assertEquals("a", list.get(0).getArtistName());
+        assertEquals(7 - 4, list.getUnfetchedObjects());
+
+        queries = queryInterceptor.runWithQueryCounter(new UnitTestClosure() {
+
+            public void execute() {
+                assertEquals("c", list.get(6).getArtistName());
+            }
+        });
+        assertEquals(1, queries);
+    }
+
+    public void testFetchOffsetAndLimit() throws Exception {
+        SelectQuery query = createQuery();
+        query.setFetchOffset(1);
+        query.setFetchLimit(5);
+
+        LazyIncrementalFaultList<Artist> list = createList(query);
+
+        assertEquals(5, list.size());
+        assertEquals(
+                Arrays.asList("a33005", "b33002", "b33004", "b33006", "c33001"),
+                names(list));
+    }
+
+    public void testNullableOrdering() throws Exception {
+        dbHelper.deleteAll("ARTIST");
+
+        TableHelper tArtist = new TableHelper(dbHelper, "ARTIST");
+        tArtist.setColumns("ARTIST_ID", "ARTIST_NAME", "DATE_OF_BIRTH");
+        tArtist.setColumnTypes(Types.BIGINT, Types.CHAR, Types.DATE);
+        tArtist.insert(33001, "a", null);
+        tArtist.insert(33002, "b", new Date(System.currentTimeMillis()));
+        tArtist.insert(33003, "c", null);
+        tArtist.insert(33004, "d", new Date(System.currentTimeMillis() - 86400000l));
+        tArtist.insert(33005, "e", null);
+
+        SelectQuery query = new SelectQuery(Artist.class);
+        query.addOrdering(Artist.DATE_OF_BIRTH_PROPERTY, SortOrder.ASCENDING);
+        query.setPageSize(2);
+
+        LazyIncrementalFaultList<Artist> list = createList(query);
+        assertFalse(list.keysetPaging);
+
+        // NULLs must not be skipped, wherever the database sorts them
+        List<String> names = names(list);
+        assertEquals(5, names.size());
+        assertEquals(new HashSet<String>(Arrays.asList(
+                "a33001",
+                "b33002",
+                "c33003",
+                "d33004",
+                "e33005")), new HashSet<String>(names));
+    }
+
+    public void testKeysetPagingOnMandatoryColumns() throws Exception {
+        LazyIncrementalFaultList<Artist> list = createList(createQuery());
+        assertTrue(list.keysetPaging);
+    }
+
+    public void testDataRows() throws Exception {
+        SelectQuery query = createQuery();
+        query.setFetchingDataRows(true);
+
+        LazyIncrementalFaultList<Map<String, Object>> list = new LazyIncrementalFaultList<Map<String, Object>>(
+                context,
+                query,
+                10000,
+                2);
+
+        assertEquals(7, list.size());
+        assertEquals("a", list.get(0).get("ARTIST_NAME"));
+        assertEquals(33007, ((Number) list.get(6).get("ARTIST_ID")).intValue());
+    }
+
+    public void testReadOnly() throws Exception {
+        LazyIncrementalFaultList<Artist> list = createList(createQuery());
+
+        try {
+            list.remove(0);
+            fail("List must be read-only");
+        }
+        catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    public void testReadAhead() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        context.setQueryExecutor(executor);
+
+        try {
+            LazyIncrementalFaultList<Artist> list = new LazyIncrementalFaultList<Artist>(
+                    context,
+                    createQuery(),
+                    10000,
+                    4);
+            list.setReadAhead(true);
+
+            assertEquals(Arrays.asList(
+                    "a33003",
+                    "a33005",
+                    "b33002",
+                    "b33004",
+                    "b33006",
+                    "c33001",
+                    "c33007"), names(list));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testPerformQuery() throws Exception {
+        runtime.getDataDomain().setLazyPaginationCachedPages(2);
+
+        List<?> list = context.performQuery(createQuery());
+        assertTrue(list instanceof LazyIncrementalFaultList);
+        assertEquals(7, list.size());
+        assertEquals("c", ((Artist) list.get(6)).getArtistName());
+    }
+}
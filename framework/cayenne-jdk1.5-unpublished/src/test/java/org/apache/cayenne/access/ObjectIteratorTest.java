@@ -0,0 +1,224 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cayenne.Cayenne;
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.Fault;
+import org.apache.cayenne.PersistenceState;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.query.SQLTemplate;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.query.SortOrder;
+import org.apache.cayenne.test.jdbc.DBHelper;
+import org.apache.cayenne.test.jdbc.TableHelper;
+import org.apache.cayenne.testdo.testmap.Artist;
+import org.apache.cayenne.testdo.testmap.Painting;
+import org.apache.cayenne.unit.di.DataChannelInterceptor;
+import org.apache.cayenne.unit.di.UnitTestClosure;
+import org.apache.cayenne.unit.di.server.ServerCase;
+import org.apache.cayenne.unit.di.server.UseServerRuntime;
+
+@UseServerRuntime(ServerCase.TESTMAP_PROJECT)
+public class ObjectIteratorTest extends ServerCase {
+
+    @Inject
+    private DataContext context;
+
+    @Inject
+    private DBHelper dbHelper;
+
+    @Inject
+    private DataChannelInterceptor queryInterceptor;
+
+    @Override
+    protected void setUpAfterInjection() throws Exception {
+        dbHelper.deleteAll("PAINTING_INFO");
+        dbHelper.deleteAll("PAINTING");
+        dbHelper.deleteAll("ARTIST_EXHIBIT");
+        dbHelper.deleteAll("ARTIST_GROUP");
+        dbHelper.deleteAll("ARTIST");
+    }
+
+    private void createPaintingsDataSet() throws Exception {
+        TableHelper tArtist = new TableHelper(dbHelper, "ARTIST");
+        tArtist.setColumns("ARTIST_ID", "ARTIST_NAME");
+        tArtist.insert(33001, "artist1");
+        tArtist.insert(33002, "artist2");
+        tArtist.insert(33003, "artist3");
+
+        TableHelper tPainting = new TableHelper(dbHelper, "PAINTING");
+        tPainting.setColumns("PAINTING_ID", "ARTIST_ID", "PAINTING_TITLE");
+        tPainting.insert(33001, 33001, "p1");
+        tPainting.insert(33002, 33002, "p2");
+        tPainting.insert(33003, 33001, "p3");
+        tPainting.insert(33004, 33003, "p4");
+        tPainting.insert(33005, null, "p5");
+    }
+
+    private SelectQuery paintingsQuery() {
+        SelectQuery query = new SelectQuery(Painting.class);
+        query.addOrdering(Painting.PAINTING_TITLE_PROPERTY, SortOrder.ASCENDING);
+        query.addPrefetch(Painting.TO_ARTIST_PROPERTY);
+        return query;
+    }
+
+    public void testIterate() throws Exception {
+        createPaintingsDataSet();
+
+        final ObjectIterator<Painting> it = context.iterateObjects(paintingsQuery(), 2);
+        final List<String> titles = new ArrayList<String>();
+        final List<String> artists = new ArrayList<String>();
+
+        try {
+            while (it.hasNext()) {
+                final Painting painting = it.next();
+
+                // to-one relationships must be resolved with the batch
+                queryInterceptor.runWithQueriesBlocked(new UnitTestClosure() {
+
+                    public void execute() {
+                        titles.add(painting.getPaintingTitle());
+                        Artist artist = painting.getToArtist();
+                        artists.add(artist != null ? artist.getArtistName() : null);
+                    }
+                });
+
+                // the ObjectStore only holds the current batch and its artists
+                assertTrue(context.getObjectStore().registeredObjectsCount() <= 4);
+            }
+        }
+        finally {
+            it.close();
+        }
+
+        assertEquals(5, titles.size());
+        assertEquals("p1", titles.get(0));
+        assertEquals("artist1", artists.get(0));
+        assertEquals("p2", titles.get(1));
+        assertEquals("artist2", artists.get(1));
+        assertEquals("p3", titles.get(2));
+        assertEquals("artist1", artists.get(2));
+        assertEquals("p4", titles.get(3));
+        assertEquals("artist3", artists.get(3));
+        assertEquals("p5", titles.get(4));
+        assertNull(artists.get(4));
+
+        assertEquals(0, context.getObjectStore().registeredObjectsCount());
+    }
+
+    public void testEvictUnmodified() throws Exception {
+        createPaintingsDataSet();
+
+        ObjectIterator<Painting> it = context.iterateObjects(paintingsQuery(), 2);
+
+        Painting p1;
+        Painting p2;
+        Painting p3;
+        try {
+            p1 = it.next();
+            p2 = it.next();
+            p2.setPaintingTitle("p2_modified");
+
+            p3 = it.next();
+        }
+        finally {
+            it.close();
+        }
+
+        assertEquals(PersistenceState.TRANSIENT, p1.getPersistenceState());
+        assertNull(p1.getObjectContext());
+        assertEquals(PersistenceState.TRANSIENT, p3.getPersistenceState());
+
+        // modified objects and their artists stay registered
+        assertEquals(PersistenceState.MODIFIED, p2.getPersistenceState());
+        assertSame(context, p2.getObjectContext());
+        assertSame(p2, context.getObjectStore().getNode(p2.getObjectId()));
+
+        Artist artist = (Artist) p2.readPropertyDirectly(Painting.TO_ARTIST_PROPERTY);
+        assertEquals(PersistenceState.COMMITTED, artist.getPersistenceState());
+        assertEquals("artist2", artist.getArtistName());
+
+        context.commitChanges();
+        assertEquals(1, context.performQuery(new SQLTemplate(
+                Painting.class,
+                "SELECT * FROM PAINTING WHERE PAINTING_TITLE = 'p2_modified'")).size());
+    }
+
+    public void testKeepPreviouslyRegistered() throws Exception {
+        createPaintingsDataSet();
+
+        Painting p1 = Cayenne.objectForPK(context, Painting.class, 33001);
+        Artist artist1 = Cayenne.objectForPK(context, Artist.class, 33001);
+
+        ObjectIterator<Painting> it = context.iterateObjects(paintingsQuery(), 2);
+        try {
+            while (it.hasNext()) {
+                it.next();
+            }
+        }
+        finally {
+            it.close();
+        }
+
+        assertEquals(PersistenceState.COMMITTED, p1.getPersistenceState());
+        assertSame(p1, context.getObjectStore().getNode(p1.getObjectId()));
+        assertEquals(PersistenceState.COMMITTED, artist1.getPersistenceState());
+        assertSame(artist1, context.getObjectStore().getNode(artist1.getObjectId()));
+        assertEquals(2, context.getObjectStore().registeredObjectsCount());
+    }
+
+    public void testNoPrefetch() throws Exception {
+        createPaintingsDataSet();
+
+        SelectQuery query = new SelectQuery(Painting.class);
+        ObjectIterator<Painting> it = context.iterateObjects(query, 3);
+
+        int count = 0;
+        try {
+            while (it.hasNext()) {
+                Object artist = it.next().readPropertyDirectly(
+                        Painting.TO_ARTIST_PROPERTY);
+                assertTrue(artist == null || artist instanceof Fault);
+                count++;
+            }
+        }
+        finally {
+            it.close();
+        }
+
+        assertEquals(5, count);
+    }
+
+    public void testNotPersistentQuery() throws Exception {
+        SelectQuery query = new SelectQuery(Painting.class);
+        query.setFetchingDataRows(true);
+
+        try {
+            context.iterateObjects(query, 2);
+            fail("Data rows query must not be iterated as objects");
+        }
+        catch (CayenneRuntimeException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.cayenne.CompactDataRow;
+import org.apache.cayenne.DataRow;
+import org.apache.cayenne.ObjectId;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.testdo.testmap.Artist;
+import org.apache.cayenne.unit.di.server.ServerCase;
+import org.apache.cayenne.unit.di.server.UseServerRuntime;
+
+@UseServerRuntime(ServerCase.TESTMAP_PROJECT)
+public class OffHeapSnapshotMapTest extends ServerCase {
+
+    @Inject
+    private EntityResolver resolver;
+
+    private static ObjectId artistId(int id) {
+        return new ObjectId("Artist", Artist.ARTIST_ID_PK_COLUMN, id);
+    }
+
+    private static DataRow artistRow(int id, String name) {
+        DataRow row = new DataRow(4);
+        row.put("ARTIST_ID", (long) id);
+        row.put("ARTIST_NAME", name);
+        row.put("DATE_OF_BIRTH", null);
+        return row;
+    }
+
+    public void testPutGet() {
+        OffHeapSnapshotMap map = new OffHeapSnapshotMap(1024 * 1024);
+        map.setEntityResolver(resolver);
+
+        assertNull(map.get(artistId(1)));
+
+        DataRow row = artistRow(1, "aaa");
+        row.setEntityName("Artist");
+        row.setReplacesVersion(5);
+        assertNull(map.put(artistId(1), row));
+        assertEquals(1, map.size());
+
+        DataRow stored = map.get(artistId(1));
+        assertNotSame(row, stored);
+        assertTrue(stored instanceof CompactDataRow);
+        assertEquals(row, stored);
+        assertTrue(stored.containsKey("DATE_OF_BIRTH"));
+        assertFalse(stored.containsKey("ARTIST_GROUP"));
+        assertEquals(row.getVersion(), stored.getVersion());
+        assertEquals(5, stored.getReplacesVersion());
+        assertEquals("Artist", stored.getEntityName());
+
+        DataRow replacement = artistRow(1, "bbb");
+        DataRow old = map.put(artistId(1), replacement);
+        assertEquals(row, old);
+        assertEquals(row.getVersion(), old.getVersion());
+        assertEquals("bbb", map.get(artistId(1)).get("ARTIST_NAME"));
+        assertEquals(1, map.size());
+
+        assertEquals(replacement, map.remove(artistId(1)));
+        assertNull(map.get(artistId(1)));
+        assertEquals(0, map.size());
+    }
+
+    public void testValueTypes() {
+        OffHeapSnapshotMap map = new OffHeapSnapshotMap(1024 * 1024);
+
+        DataRow row = new DataRow(20);
+        row.put("ASCII", "abc");
+        row.put("UNICODE", "абв");
+        row.put("INTEGER", 1);
+        row.put("LONG", 2l);
+        row.put("SHORT", (short) 3);
+        row.put("BYTE", (byte) 4);
+        row.put("BOOLEAN", Boolean.TRUE);
+        row.put("DOUBLE", 5.5d);
+        row.put("FLOAT", 6.5f);
+        row.put("CHAR", 'x');
+        row.put("DECIMAL", new BigDecimal("-12345.6789"));
+        row.put("BIG_INTEGER", new BigInteger("123456789012345678901234567890"));
+        row.put("DATE", new Date(1000));
+        row.put("SQL_DATE", new java.sql.Date(2000));
+        row.put("TIME", new Time(3000));
+
+        Timestamp timestamp = new Timestamp(4000);
+        timestamp.setNanos(123456789);
+        row.put("TIMESTAMP", timestamp);
+        row.put("SERIALIZED", Arrays.asList("a", "b"));
+        row.put("NULL", null);
+
+        map.put(artistId(1), row);
+        DataRow stored = map.get(artistId(1));
+        assertEquals(row, stored);
+
+        for (String key : row.keySet()) {
+            Object value = row.get(key);
+            if (value != null) {
+                assertSame(key, value.getClass(), stored.get(key).getClass());
+            }
+        }
+
+        row.put("BYTES", new byte[] {
+                1, 2, 3
+        });
+        map.put(artistId(2), row);
+        assertTrue(Arrays.equals(new byte[] {
+                1, 2, 3
+        }, (byte[]) map.get(artistId(2)).get("BYTES")));
+    }
+
+    public void testKeysOutsideOfSchema() {
+        OffHeapSnapshotMap map = new OffHeapSnapshotMap(1024 * 1024);
+        map.setEntityResolver(resolver);
+
+        DataRow row = artistRow(1, "aaa");
+        row.put("EXTRA", "x");
+        map.put(artistId(1), row);
+
+        assertEquals(row, map.get(artistId(1)));
+
+        // without a resolver the schema is taken from the first row
+        OffHeapSnapshotMap noResolverMap = new OffHeapSnapshotMap(1024 * 1024);
+        noResolverMap.put(artistId(1), artistRow(1, "aaa"));
+        noResolverMap.put(artistId(2), row);
+        assertEquals(artistRow(1, "aaa"), noResolverMap.get(artistId(1)));
+        assertEquals(row, noResolverMap.get(artistId(2)));
+    }
+
+    public void testEvictByBytes() {
+        OffHeapSnapshotMap map = new OffHeapSnapshotMap(
+                OffHeapSnapshotMap.MIN_SLAB_SIZE * 4);
+        assertEquals(OffHeapSnapshotMap.MIN_SLAB_SIZE, map.getSlabSize());
+
+        int count = 2000;
+        for (int i = 0; i < count; i++) {
+            map.put(artistId(i), artistRow(i, "artist" + i));
+        }
+
+        assertTrue(map.size() < count);
+        assertEquals(count, map.size() + map.getEvictionCount());
+        assertTrue(map.getAllocatedBytes() <= map.getMaxBytes());
+
+        // oldest snapshots are evicted first
+        assertNull(map.get(artistId(0)));
+        assertEquals("artist" + (count - 1), map.get(artistId(count - 1)).get(
+                "ARTIST_NAME"));
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(0, map.getAllocatedBytes());
+    }
+
+    public void testNotStored() {
+        OffHeapSnapshotMap map = new OffHeapSnapshotMap(
+                OffHeapSnapshotMap.MIN_SLAB_SIZE * 4);
+
+        map.put(artistId(1), artistRow(1, "aaa"));
+
+        // larger than a slab
+        char[] chars = new char[OffHeapSnapshotMap.MIN_SLAB_SIZE];
+        Arrays.fill(chars, 'a');
+        DataRow large = artistRow(1, new String(chars));
+        assertNotNull(map.put(artistId(1), large));
+        assertNull(map.get(artistId(1)));
+
+        // not serializable
+        DataRow row = artistRow(2, "aaa");
+        row.put("EXTRA", new Object());
+        map.put(artistId(2), row);
+        assertNull(map.get(artistId(2)));
+        assertEquals(0, map.size());
+    }
+
+    public void testSerialization() throws Exception {
+        OffHeapSnapshotMap map = new OffHeapSnapshotMap(1024 * 1024);
+        map.setEntityResolver(resolver);
+
+        DataRow row = artistRow(1, "aaa");
+        map.put(artistId(1), row);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(map);
+        out.close();
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes
+                .toByteArray()));
+        OffHeapSnapshotMap copy = (OffHeapSnapshotMap) in.readObject();
+
+        assertEquals(1, copy.size());
+        assertEquals(row, copy.get(artistId(1)));
+        assertEquals(row.getVersion(), copy.get(artistId(1)).getVersion());
+
+        copy.put(artistId(2), artistRow(2, "bbb"));
+        assertEquals(2, copy.size());
+    }
+}
@@ -0,0 +1,204 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.query.PrefetchTreeNode;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.query.SortOrder;
+import org.apache.cayenne.test.jdbc.DBHelper;
+import org.apache.cayenne.test.jdbc.TableHelper;
+import org.apache.cayenne.testdo.testmap.Artist;
+import org.apache.cayenne.testdo.testmap.Painting;
+import org.apache.cayenne.unit.di.DataChannelInterceptor;
+import org.apache.cayenne.unit.di.UnitTestClosure;
+import org.apache.cayenne.unit.di.server.ServerCase;
+import org.apache.cayenne.unit.di.server.UseServerRuntime;
+
+@UseServerRuntime(ServerCase.TESTMAP_PROJECT)
+public class ParallelPrefetchTest extends ServerCase {
+
+    @Inject
+    private DataContext context;
+
+    @Inject
+    private ServerRuntime runtime;
+
+    @Inject
+    private DBHelper dbHelper;
+
+    @Inject
+    private DataChannelInterceptor queryInterceptor;
+
+    private ExecutorService originalExecutor;
+    private CountingExecutor executor;
+
+    @Override
+    protected void setUpAfterInjection() throws Exception {
+        dbHelper.deleteAll("PAINTING_INFO");
+        dbHelper.deleteAll("PAINTING");
+        dbHelper.deleteAll("ARTIST_EXHIBIT");
+        dbHelper.deleteAll("ARTIST_GROUP");
+        dbHelper.deleteAll("ARTIST");
+        dbHelper.deleteAll("EXHIBIT");
+        dbHelper.deleteAll("GALLERY");
+
+        TableHelper tArtist = new TableHelper(dbHelper, "ARTIST");
+        tArtist.setColumns("ARTIST_ID", "ARTIST_NAME");
+
+        TableHelper tGallery = new TableHelper(dbHelper, "GALLERY");
+        tGallery.setColumns("GALLERY_ID", "GALLERY_NAME");
+
+        TableHelper tPainting = new TableHelper(dbHelper, "PAINTING");
+        tPainting.setColumns("PAINTING_ID", "ARTIST_ID", "GALLERY_ID", "PAINTING_TITLE");
+
+        TableHelper tPaintingInfo = new TableHelper(dbHelper, "PAINTING_INFO");
+        tPaintingInfo.setColumns("PAINTING_ID", "TEXT_REVIEW");
+
+        tGallery.insert(1, "g1");
+        tGallery.insert(2, "g2");
+
+        for (int i = 1; i <= 3; i++) {
+            tArtist.insert(i, "a" + i);
+            tPainting.insert(i * 10, i, 1, "p" + i + "0");
+            tPainting.insert(i * 10 + 1, i, 2, "p" + i + "1");
+            tPaintingInfo.insert(i * 10, "r" + i + "0");
+        }
+
+        originalExecutor = context.getQueryExecutor();
+        executor = new CountingExecutor();
+        context.setQueryExecutor(executor);
+        runtime.getDataDomain().setParallelPrefetches(true);
+    }
+
+    @Override
+    protected void tearDownBeforeInjection() throws Exception {
+        runtime.getDataDomain().setParallelPrefetches(false);
+        context.setQueryExecutor(originalExecutor);
+        executor.shutdown();
+    }
+
+    private void assertArtists(final List<Artist> artists) {
+        assertEquals(3, artists.size());
+
+        queryInterceptor.runWithQueriesBlocked(new UnitTestClosure() {
+
+            public void execute() {
+                for (int i = 0; i < 3; i++) {
+                    Artist artist = artists.get(i);
+                    List<Painting> paintings = artist.getPaintingArray();
+                    assertEquals(2, paintings.size());
+
+                    for (Painting painting : paintings) {
+                        String title = painting.getPaintingTitle();
+                        assertTrue(title.startsWith("p" + (i + 1)));
+                        assertEquals(
+                                "g" + (title.endsWith("0") ? 1 : 2),
+                                painting.getToGallery().getGalleryName());
+
+                        if (title.endsWith("0")) {
+                            assertEquals("r" + title.substring(1), painting
+                                    .getToPaintingInfo()
+                                    .getTextReview());
+                        }
+                        else {
+                            assertNull(painting.getToPaintingInfo());
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private SelectQuery createQuery(int semantics) {
+        SelectQuery query = new SelectQuery(Artist.class);
+        query.addOrdering(Artist.ARTIST_NAME_PROPERTY, SortOrder.ASCENDING);
+        query.addPrefetch(Artist.PAINTING_ARRAY_PROPERTY).setSemantics(semantics);
+        query.addPrefetch("paintingArray.toGallery").setSemantics(semantics);
+        query.addPrefetch("paintingArray.toPaintingInfo").setSemantics(semantics);
+        return query;
+    }
+
+    public void testDisjointPrefetches() throws Exception {
+        List<Artist> artists = context.performQuery(createQuery(
+                PrefetchTreeNode.DISJOINT_PREFETCH_SEMANTICS));
+
+        assertArtists(artists);
+        assertTrue(executor.count.get() > 0);
+    }
+
+    public void testDisjointByIdPrefetches() throws Exception {
+        List<Artist> artists = context.performQuery(createQuery(
+                PrefetchTreeNode.DISJOINT_BY_ID_PREFETCH_SEMANTICS));
+
+        assertArtists(artists);
+        assertTrue(executor.count.get() > 0);
+    }
+
+    public void testDisabled() throws Exception {
+        runtime.getDataDomain().setParallelPrefetches(false);
+
+        assertArtists(context.performQuery(createQuery(
+                PrefetchTreeNode.DISJOINT_PREFETCH_SEMANTICS)));
+        assertArtists(context.performQuery(createQuery(
+                PrefetchTreeNode.DISJOINT_BY_ID_PREFETCH_SEMANTICS)));
+        assertEquals(0, executor.count.get());
+    }
+
+    public void testExplicitTransaction() throws Exception {
+        Transaction transaction = runtime.getDataDomain().createTransaction();
+        Transaction.bindThreadTransaction(transaction);
+
+        try {
+            assertArtists(context.performQuery(createQuery(
+                    PrefetchTreeNode.DISJOINT_PREFETCH_SEMANTICS)));
+            assertArtists(context.performQuery(createQuery(
+                    PrefetchTreeNode.DISJOINT_BY_ID_PREFETCH_SEMANTICS)));
+            transaction.commit();
+        }
+        finally {
+            Transaction.bindThreadTransaction(null);
+        }
+
+        assertEquals(0, executor.count.get());
+    }
+
+    static class CountingExecutor extends ThreadPoolExecutor {
+
+        final AtomicInteger count = new AtomicInteger();
+
+        CountingExecutor() {
+            super(2, 2, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            count.incrementAndGet();
+            super.execute(command);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.util.List;
+
+import org.apache.cayenne.DataRow;
+import org.apache.cayenne.cache.ConcurrentQueryCache;
+import org.apache.cayenne.cache.NestedQueryCache;
+import org.apache.cayenne.cache.QueryCache;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.query.Query;
+import org.apache.cayenne.query.QueryCacheStrategy;
+import org.apache.cayenne.query.SQLTemplate;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.test.jdbc.DBHelper;
+import org.apache.cayenne.test.jdbc.TableHelper;
+import org.apache.cayenne.testdo.testmap.Artist;
+import org.apache.cayenne.testdo.testmap.Painting;
+import org.apache.cayenne.unit.di.server.ServerCase;
+import org.apache.cayenne.unit.di.server.UseServerRuntime;
+
+@UseServerRuntime(ServerCase.TESTMAP_PROJECT)
+public class QueryCacheInvalidationTest extends ServerCase {
+
+    @Inject
+    private DataContext context;
+
+    @Inject
+    private ServerRuntime runtime;
+
+    @Inject
+    private DBHelper dbHelper;
+
+    private TableHelper tArtist;
+    private QueryCache oldCache;
+    private DataDomain domain;
+
+    @Override
+    protected void setUpAfterInjection() throws Exception {
+        dbHelper.deleteAll("PAINTING_INFO");
+        dbHelper.deleteAll("PAINTING");
+        dbHelper.deleteAll("ARTIST_EXHIBIT");
+        dbHelper.deleteAll("ARTIST_GROUP");
+        dbHelper.deleteAll("ARTIST");
+
+        tArtist = new TableHelper(dbHelper, "ARTIST");
+        tArtist.setColumns("ARTIST_ID", "ARTIST_NAME");
+        tArtist.insert(1, "aaa");
+
+        TableHelper tPainting = new TableHelper(dbHelper, "PAINTING");
+        tPainting.setColumns("PAINTING_ID", "ARTIST_ID", "PAINTING_TITLE");
+        tPainting.insert(1, 1, "p1");
+
+        domain = runtime.getDataDomain();
+        oldCache = domain.getQueryCache();
+        ConcurrentQueryCache cache = new ConcurrentQueryCache();
+        domain.setQueryCache(new NestedQueryCache(cache));
+        context.setQueryCache(new NestedQueryCache(cache));
+    }
+
+    @Override
+    protected void tearDownBeforeInjection() throws Exception {
+        domain.setQueryCache(oldCache);
+        domain.setQueryCacheInvalidation(true);
+    }
+
+    private SelectQuery createQuery() {
+        SelectQuery query = new SelectQuery(Artist.class);
+        query.setFetchingDataRows(true);
+        query.setCacheStrategy(QueryCacheStrategy.SHARED_CACHE);
+        return query;
+    }
+
+    private String fetchName(Query query) {
+        List<?> rows = context.performQuery(query);
+        assertEquals(1, rows.size());
+        return (String) ((DataRow) rows.get(0)).get("ARTIST_NAME");
+    }
+
+    private void commitNewPainting() throws Exception {
+        Painting painting = context.newObject(Painting.class);
+        painting.setPaintingTitle("p2");
+        context.commitChanges();
+    }
+
+    private void commitNewArtist() throws Exception {
+        Artist artist = context.newObject(Artist.class);
+        artist.setArtistName("xxx");
+        context.commitChanges();
+
+        // exclude the new artist from the results of the tested queries
+        tArtist.delete().where("ARTIST_NAME", "xxx").execute();
+    }
+
+    public void testInvalidateOnCommit() throws Exception {
+        SelectQuery query = createQuery();
+        query.setCacheGroups("g1");
+
+        assertEquals("aaa", fetchName(query));
+        tArtist.update().set("ARTIST_NAME", "bbb").where("ARTIST_ID", 1).execute();
+        assertEquals("aaa", fetchName(query));
+
+        commitNewArtist();
+        assertEquals("bbb", fetchName(query));
+    }
+
+    public void testUnrelatedCommit() throws Exception {
+        SelectQuery query = createQuery();
+
+        assertEquals("aaa", fetchName(query));
+        tArtist.update().set("ARTIST_NAME", "bbb").where("ARTIST_ID", 1).execute();
+
+        commitNewPainting();
+        assertEquals("aaa", fetchName(query));
+    }
+
+    public void testInvalidateOnRelatedCommit() throws Exception {
+        SelectQuery qualified = createQuery();
+        qualified.andQualifier(ExpressionFactory.likeExp(
+                Artist.PAINTING_ARRAY_PROPERTY + "." + Painting.PAINTING_TITLE_PROPERTY,
+                "p%"));
+        qualified.setDistinct(true);
+
+        SelectQuery prefetching = new SelectQuery(Artist.class);
+        prefetching.setCacheStrategy(QueryCacheStrategy.SHARED_CACHE);
+        prefetching.addPrefetch(Artist.PAINTING_ARRAY_PROPERTY);
+
+        assertEquals("aaa", fetchName(qualified));
+        List<?> artists = context.performQuery(prefetching);
+        assertEquals(1, artists.size());
+
+        tArtist.update().set("ARTIST_NAME", "bbb").where("ARTIST_ID", 1).execute();
+        commitNewPainting();
+
+        assertEquals("bbb", fetchName(qualified));
+        assertNotSame(artists, context.performQuery(prefetching));
+    }
+
+    public void testInvalidateTemplateOnAnyCommit() throws Exception {
+        SQLTemplate query = new SQLTemplate(Artist.class, "SELECT * FROM ARTIST");
+        query.setFetchingDataRows(true);
+        query.setCacheStrategy(QueryCacheStrategy.SHARED_CACHE);
+
+        assertEquals("aaa", fetchName(query));
+        tArtist.update().set("ARTIST_NAME", "bbb").where("ARTIST_ID", 1).execute();
+
+        commitNewPainting();
+        assertEquals("bbb", fetchName(query));
+    }
+
+    public void testInvalidateLocalCache() throws Exception {
+        SelectQuery query = createQuery();
+        query.setCacheStrategy(QueryCacheStrategy.LOCAL_CACHE);
+
+        assertEquals("aaa", fetchName(query));
+        tArtist.update().set("ARTIST_NAME", "bbb").where("ARTIST_ID", 1).execute();
+        assertEquals("aaa", fetchName(query));
+
+        commitNewArtist();
+        assertEquals("bbb", fetchName(query));
+    }
+
+    public void testInvalidationDisabled() throws Exception {
+        domain.setQueryCacheInvalidation(false);
+        SelectQuery query = createQuery();
+
+        assertEquals("aaa", fetchName(query));
+        tArtist.update().set("ARTIST_NAME", "bbb").where("ARTIST_ID", 1).execute();
+
+        commitNewArtist();
+        assertEquals("aaa", fetchName(query));
+    }
+}
@@ -0,0 +1,201 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.DataRow;
+import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.map.DbEntity;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.query.Ordering;
+import org.apache.cayenne.query.Query;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.query.SortOrder;
+
+public class ShardedQueryEngineTest extends TestCase {
+
+    private EntityResolver resolver;
+    private DbEntity entity;
+
+    @Override
+    protected void setUp() throws Exception {
+        entity = new DbEntity("T");
+        DbAttribute name = new DbAttribute("NAME", Types.VARCHAR, entity);
+        name.setMandatory(true);
+        entity.addAttribute(name);
+        entity.addAttribute(new DbAttribute("NOTE", Types.VARCHAR, entity));
+
+        DataMap map = new DataMap("m");
+        map.addDbEntity(entity);
+        resolver = new EntityResolver(Collections.singleton(map));
+    }
+
+    public void testMergeOrdered() {
+        SelectQuery query = new SelectQuery(entity);
+        query.addOrdering(new Ordering("db:NAME", SortOrder.ASCENDING));
+
+        List<String> names = run(query, null, rows("a", "c", "e"), rows("b", "d"));
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), names);
+    }
+
+    public void testMergeDescending() {
+        SelectQuery query = new SelectQuery(entity);
+        query.addOrdering(new Ordering("db:NAME", SortOrder.DESCENDING));
+
+        List<String> names = run(query, null, rows("e", "b", "a"), rows("d", "c"));
+        assertEquals(Arrays.asList("e", "d", "c", "b", "a"), names);
+    }
+
+    public void testNullableOrdering() {
+        SelectQuery query = new SelectQuery(entity);
+        query.addOrdering(new Ordering("db:NOTE", SortOrder.ASCENDING));
+
+        // shards may return NULLs first or last depending on the database, so the rows
+        // can't be merged
+        List<DataRow> shard0 = rows("a", "b");
+        shard0.get(0).put("NOTE", "x");
+        List<DataRow> shard1 = rows("c");
+
+        assertUnmergeable(query, shard0, shard1);
+    }
+
+    public void testUnorderedConcatenated() {
+        SelectQuery query = new SelectQuery(entity);
+
+        List<String> names = run(query, null, rows("c", "a"), rows("b"));
+        assertEquals(Arrays.asList("c", "a", "b"), names);
+    }
+
+    public void testUnmergeableOrdering() {
+        SelectQuery query = new SelectQuery(entity);
+        query.addOrdering(new Ordering("db:toParent.NAME", SortOrder.ASCENDING));
+
+        assertUnmergeable(query, rows("a"), rows("b"));
+    }
+
+    public void testLimit() {
+        SelectQuery query = new SelectQuery(entity);
+        query.addOrdering(new Ordering("db:NAME", SortOrder.ASCENDING));
+        query.setFetchLimit(2);
+
+        List<String> names = run(query, null, rows("a", "c"), rows("b", "d"));
+        assertEquals(Arrays.asList("a", "b"), names);
+    }
+
+    public void testParallel() {
+        SelectQuery query = new SelectQuery(entity);
+        query.addOrdering(new Ordering("db:NAME", SortOrder.ASCENDING));
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<String> names = run(query, executor, rows("a", "d"), rows("b"), rows(
+                    "c",
+                    "e"));
+            assertEquals(Arrays.asList("a", "b", "c", "d", "e"), names);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void assertUnmergeable(SelectQuery query, List<DataRow>... shardRows) {
+        List<DataNode> nodes = new ArrayList<DataNode>();
+        for (int i = 0; i < shardRows.length; i++) {
+            nodes.add(new StaticNode("shard" + i, shardRows[i]));
+        }
+
+        QueryResult result = new QueryResult();
+        new ShardedQueryEngine(new EntityShards("T", nodes), resolver).performQueries(
+                Collections.singletonList(query),
+                result);
+
+        assertEquals(1, result.getQueryExceptions().size());
+        assertTrue(result.getQueryExceptions().get(query)
+                instanceof CayenneRuntimeException);
+        assertTrue(result.getFirstRows(query).isEmpty());
+    }
+
+    private List<String> run(
+            Query query,
+            ExecutorService executor,
+            List<DataRow>... shardRows) {
+
+        List<DataNode> nodes = new ArrayList<DataNode>();
+        for (int i = 0; i < shardRows.length; i++) {
+            nodes.add(new StaticNode("shard" + i, shardRows[i]));
+        }
+
+        EntityShards shards = new EntityShards("T", nodes);
+        shards.setExecutor(executor);
+
+        QueryResult result = new QueryResult();
+        new ShardedQueryEngine(shards, resolver).performQueries(Collections
+                .singletonList(query), result);
+
+        List<String> names = new ArrayList<String>();
+        for (Object row : result.getFirstRows(query)) {
+            names.add((String) ((DataRow) row).get("NAME"));
+        }
+
+        return names;
+    }
+
+    private static List<DataRow> rows(String... names) {
+        List<DataRow> rows = new ArrayList<DataRow>();
+        for (String name : names) {
+            DataRow row = new DataRow(2);
+            row.put("NAME", name);
+            rows.add(row);
+        }
+
+        return rows;
+    }
+
+    static class StaticNode extends DataNode {
+
+        private List<DataRow> rows;
+
+        StaticNode(String name, List<DataRow> rows) {
+            super(name);
+            this.rows = rows;
+        }
+
+        @Override
+        public void performQueries(
+                Collection<? extends Query> queries,
+                OperationObserver callback) {
+
+            for (Query query : queries) {
+                callback.nextRows(query, rows);
+            }
+        }
+    }
+}
@@ -19,9 +19,15 @@
 
 package org.apache.cayenne.access;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.cayenne.DataObject;
 import org.apache.cayenne.di.Inject;
@@ -289,4 +295,71 @@ public class SimpleIdIncrementalFaultListTest extends ServerCase {
         assertEquals(19, list.lastIndexOf(row));
         assertEquals(-1, list.lastIndexOf(list.dataContext.newObject("Artist")));
     }
+
+    public void testIdsQualifier() throws Exception {
+        SimpleIdIncrementalFaultList<?> list = prepareList(6);
+
+        Expression qualifier = list.buildIdsQualifier(Arrays.<Object> asList(
+                33001l,
+                33002l,
+                33003l));
+        assertEquals(Expression.IN, qualifier.getType());
+        assertEquals(
+                ExpressionFactory.inDbExp("ARTIST_ID", 33001l, 33002l, 33003l),
+                qualifier);
+    }
+
+    public void testReadAhead() throws Exception {
+        SimpleIdIncrementalFaultList<?> list = prepareList(6);
+        list.setReadAhead(true);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        context.setQueryExecutor(executor);
+        try {
+            Iterator<?> it = list.iterator();
+            int counter = 0;
+            while (it.hasNext()) {
+                Object obj = it.next();
+                assertTrue(obj instanceof Artist);
+                assertEquals(
+                        "artist" + (counter + 1),
+                        ((Artist) obj).getArtistName());
+                counter++;
+            }
+
+            assertEquals(25, counter);
+            assertEquals(0, list.getUnfetchedObjects());
+        }
+        finally {
+            context.setQueryExecutor(null);
+            executor.shutdown();
+        }
+    }
+
+    public void testConcurrentGet() throws Exception {
+        final SimpleIdIncrementalFaultList<?> list = prepareList(6);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 8; i++) {
+                final int index = 6 + i % 2;
+                futures.add(executor.submit(new Callable<Object>() {
+
+                    public Object call() throws Exception {
+                        return list.get(index);
+                    }
+                }));
+            }
+
+            for (Future<Object> future : futures) {
+                assertTrue(future.get() instanceof Artist);
+            }
+
+            assertEquals(25 - 6, list.getUnfetchedObjects());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -19,16 +19,43 @@
 
 package org.apache.cayenne.access.jdbc;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cayenne.DataRow;
+import org.apache.cayenne.CayenneException;
+import org.apache.cayenne.ObjectId;
+import org.apache.cayenne.access.OperationObserver;
+import org.apache.cayenne.access.ResultIterator;
+import org.apache.cayenne.access.util.DefaultOperationObserver;
 import org.apache.cayenne.configuration.server.ServerRuntime;
 import org.apache.cayenne.dba.JdbcAdapter;
 import org.apache.cayenne.di.AdhocObjectFactory;
 import org.apache.cayenne.di.Inject;
 import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.query.BatchQuery;
 import org.apache.cayenne.query.InsertBatchQuery;
+import org.apache.cayenne.query.Query;
 import org.apache.cayenne.testdo.testmap.Artist;
 import org.apache.cayenne.testdo.testmap.GeneratedColumnTestEntity;
 import org.apache.cayenne.unit.di.server.ServerCase;
 import org.apache.cayenne.unit.di.server.UseServerRuntime;
+import org.mockito.ArgumentCaptor;
+
+import com.mockrunner.mock.jdbc.MockResultSet;
 
 @UseServerRuntime(ServerCase.TESTMAP_PROJECT)
 public class BatchActionTest extends ServerCase {
@@ -69,6 +96,180 @@ public class BatchActionTest extends ServerCase {
         assertFalse(new BatchAction(batch2, adapter, resolver).hasGeneratedKeys());
     }
 
+    public void testRunAsMultiRowInserts() throws Exception {
+        EntityResolver resolver = runtime.getChannel().getEntityResolver();
+
+        JdbcAdapter adapter = buildAdapter(false);
+        adapter.setBatchQueryBuilderFactory(new MultiRowInsertQueryBuilderFactory(2, 100));
+
+        InsertBatchQuery batch = new InsertBatchQuery(resolver.lookupObjEntity(
+                Artist.class).getDbEntity(), 5);
+        for (int i = 0; i < 5; i++) {
+            Map<String, Object> snapshot = new HashMap<String, Object>();
+            snapshot.put(Artist.ARTIST_ID_PK_COLUMN, i);
+            snapshot.put("ARTIST_NAME", "a" + i);
+            batch.add(snapshot, new ObjectId("Artist", Artist.ARTIST_ID_PK_COLUMN, i));
+        }
+
+        PreparedStatement twoRows = mock(PreparedStatement.class);
+        when(twoRows.executeUpdate()).thenReturn(2);
+
+        // simulate a driver that does not report update counts
+        PreparedStatement oneRow = mock(PreparedStatement.class);
+        when(oneRow.executeUpdate()).thenReturn(Statement.SUCCESS_NO_INFO);
+
+        Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(any(String.class))).thenReturn(twoRows, oneRow);
+
+        OperationObserver observer = mock(OperationObserver.class);
+        new BatchAction(batch, adapter, resolver).performAction(connection, observer);
+
+        // one statement per chunk size, reused for all full chunks
+        verify(connection, times(2)).prepareStatement(any(String.class));
+        verify(twoRows, times(2)).executeUpdate();
+        verify(oneRow).executeUpdate();
+
+        ArgumentCaptor<int[]> counts = ArgumentCaptor.forClass(int[].class);
+        verify(observer).nextBatchCount(eq((BatchQuery) batch), counts.capture());
+        assertTrue(Arrays.equals(new int[] {
+                1, 1, 1, 1, Statement.SUCCESS_NO_INFO
+        }, counts.getValue()));
+    }
+
+    public void testRunAsBatchWithGeneratedKeys() throws Exception {
+        EntityResolver resolver = runtime.getChannel().getEntityResolver();
+
+        JdbcAdapter adapter = buildAdapter(true);
+        adapter.setSupportsBatchGeneratedKeys(true);
+
+        InsertBatchQuery batch = createGeneratedKeysBatch(resolver, 3);
+
+        MockResultSet keys = new MockResultSet("keys");
+        keys.addColumn("GENERATED_KEY", new Object[] {
+                101, 102, 103
+        });
+
+        PreparedStatement statement = mock(PreparedStatement.class);
+        when(statement.executeBatch()).thenReturn(new int[] {
+                1, 1, 1
+        });
+        when(statement.getGeneratedKeys()).thenReturn(keys);
+
+        Connection connection = mock(Connection.class);
+        when(
+                connection.prepareStatement(
+                        any(String.class),
+                        eq(Statement.RETURN_GENERATED_KEYS))).thenReturn(statement);
+
+        final List<Object> generated = new ArrayList<Object>();
+        OperationObserver observer = new DefaultOperationObserver() {
+
+            @Override
+            public void nextGeneratedRows(Query query, ResultIterator keysIterator) {
+                try {
+                    DataRow key = (DataRow) keysIterator.allRows().get(0);
+                    ObjectId id = ((BatchQuery) query).getObjectId();
+                    generated.add(id.getIdSnapshot().get("ID"));
+                    generated.add(key.values().iterator().next());
+                }
+                catch (Exception e) {
+                    fail(e.getMessage());
+                }
+            }
+        };
+
+        BatchAction action = new BatchAction(batch, adapter, resolver);
+        action.setBatch(true);
+        action.performAction(connection, observer);
+
+        verify(statement, times(3)).addBatch();
+        verify(statement, times(0)).executeUpdate();
+
+        // each key must be reported for the batch row it was generated for
+        assertEquals(Arrays.asList(0, 101, 1, 102, 2, 103), generated);
+    }
+
+    public void testRunAsBatchWithGeneratedKeysMissingKeys() throws Exception {
+        EntityResolver resolver = runtime.getChannel().getEntityResolver();
+
+        JdbcAdapter adapter = buildAdapter(true);
+        adapter.setSupportsBatchGeneratedKeys(true);
+
+        InsertBatchQuery batch = createGeneratedKeysBatch(resolver, 3);
+
+        // driver returning only the last key
+        MockResultSet keys = new MockResultSet("keys");
+        keys.addColumn("GENERATED_KEY", new Object[] {
+            103
+        });
+
+        PreparedStatement statement = mock(PreparedStatement.class);
+        when(statement.executeBatch()).thenReturn(new int[] {
+                1, 1, 1
+        });
+        when(statement.getGeneratedKeys()).thenReturn(keys);
+
+        Connection connection = mock(Connection.class);
+        when(
+                connection.prepareStatement(
+                        any(String.class),
+                        eq(Statement.RETURN_GENERATED_KEYS))).thenReturn(statement);
+
+        BatchAction action = new BatchAction(batch, adapter, resolver);
+        action.setBatch(true);
+
+        try {
+            action.performAction(connection, new DefaultOperationObserver());
+            fail("Missing keys must cause an exception");
+        }
+        catch (CayenneException e) {
+            // expected
+        }
+    }
+
+    public void testRunAsIndividualQueriesWithGeneratedKeys() throws Exception {
+        EntityResolver resolver = runtime.getChannel().getEntityResolver();
+
+        // batch generated keys are not supported by default
+        JdbcAdapter adapter = buildAdapter(true);
+        assertFalse(adapter.supportsBatchGeneratedKeys());
+
+        InsertBatchQuery batch = createGeneratedKeysBatch(resolver, 2);
+
+        PreparedStatement statement = mock(PreparedStatement.class);
+        when(statement.executeUpdate()).thenReturn(1);
+        when(statement.getGeneratedKeys()).thenReturn(
+                new MockResultSet("k1"),
+                new MockResultSet("k2"));
+
+        Connection connection = mock(Connection.class);
+        when(
+                connection.prepareStatement(
+                        any(String.class),
+                        eq(Statement.RETURN_GENERATED_KEYS))).thenReturn(statement);
+
+        BatchAction action = new BatchAction(batch, adapter, resolver);
+        action.setBatch(true);
+        action.performAction(connection, new DefaultOperationObserver());
+
+        verify(statement, times(2)).executeUpdate();
+        verify(statement, times(0)).executeBatch();
+    }
+
+    private InsertBatchQuery createGeneratedKeysBatch(EntityResolver resolver, int size) {
+        InsertBatchQuery batch = new InsertBatchQuery(resolver.lookupObjEntity(
+                GeneratedColumnTestEntity.class).getDbEntity(), size);
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> snapshot = new HashMap<String, Object>();
+            snapshot.put("NAME", "n" + i);
+
+            // ids carry the row number to match them with the generated keys
+            ObjectId id = new ObjectId("GeneratedColumnTestEntity", "ID", i);
+            batch.add(snapshot, id);
+        }
+        return batch;
+    }
+
     JdbcAdapter buildAdapter(boolean supportGeneratedKeys) {
         JdbcAdapter adapter = objectFactory.newInstance(
                 JdbcAdapter.class, 
@@ -0,0 +1,117 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access.trans;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.access.jdbc.BatchQueryBuilderFactory;
+import org.apache.cayenne.access.jdbc.MultiRowInsertQueryBuilderFactory;
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.dba.JdbcAdapter;
+import org.apache.cayenne.di.AdhocObjectFactory;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.map.DbEntity;
+import org.apache.cayenne.query.InsertBatchQuery;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.testdo.locking.SimpleLockingTestEntity;
+import org.apache.cayenne.unit.UnitDbAdapter;
+import org.apache.cayenne.unit.di.server.ServerCase;
+import org.apache.cayenne.unit.di.server.UseServerRuntime;
+
+@UseServerRuntime(ServerCase.LOCKING_PROJECT)
+public class MultiRowInsertBatchQueryBuilderTest extends ServerCase {
+
+    @Inject
+    private ObjectContext context;
+
+    @Inject
+    private DbAdapter adapter;
+
+    @Inject
+    private UnitDbAdapter accessStackAdapter;
+
+    @Inject
+    private AdhocObjectFactory objectFactory;
+
+    private DbEntity getEntity() {
+        return context
+                .getEntityResolver()
+                .lookupObjEntity(SimpleLockingTestEntity.class)
+                .getDbEntity();
+    }
+
+    private MultiRowInsertBatchQueryBuilder createBuilder(int maxRows, int maxParameters) {
+        DbAdapter adapter = objectFactory.newInstance(
+                DbAdapter.class,
+                JdbcAdapter.class.getName());
+        return new MultiRowInsertBatchQueryBuilder(adapter, maxRows, maxParameters);
+    }
+
+    public void testCreateSqlString() throws Exception {
+        DbEntity entity = getEntity();
+        InsertBatchQuery query = new InsertBatchQuery(entity, 1);
+        MultiRowInsertBatchQueryBuilder builder = createBuilder(10, 100);
+
+        assertEquals("INSERT INTO "
+                + entity.getName()
+                + " (DESCRIPTION, LOCKING_TEST_ID, NAME) VALUES (?, ?, ?)", builder
+                .createSqlString(query));
+        assertEquals("INSERT INTO "
+                + entity.getName()
+                + " (DESCRIPTION, LOCKING_TEST_ID, NAME) VALUES (?, ?, ?), (?, ?, ?), "
+                + "(?, ?, ?)", builder.createSqlString(query, 3));
+    }
+
+    public void testGetRowsPerStatement() throws Exception {
+        InsertBatchQuery query = new InsertBatchQuery(getEntity(), 1);
+
+        // 3 columns per row
+        assertEquals(10, createBuilder(10, 100).getRowsPerStatement(query));
+        assertEquals(3, createBuilder(10, 10).getRowsPerStatement(query));
+        assertEquals(1, createBuilder(10, 2).getRowsPerStatement(query));
+    }
+
+    public void testInsert() throws Exception {
+        if (!accessStackAdapter.supportsMultiRowInsert()) {
+            return;
+        }
+
+        JdbcAdapter adapter = (JdbcAdapter) this.adapter;
+        BatchQueryBuilderFactory oldFactory = adapter.getBatchQueryBuilderFactory();
+        try {
+            // 2 full statements and a partial one
+            adapter.setBatchQueryBuilderFactory(new MultiRowInsertQueryBuilderFactory(
+                    2,
+                    100));
+
+            for (int i = 0; i < 5; i++) {
+                SimpleLockingTestEntity object = context
+                        .newObject(SimpleLockingTestEntity.class);
+                object.setName("n" + i);
+            }
+            context.commitChanges();
+        }
+        finally {
+            adapter.setBatchQueryBuilderFactory(oldFactory);
+        }
+
+        assertEquals(5, context
+                .performQuery(new SelectQuery(SimpleLockingTestEntity.class))
+                .size());
+    }
+}
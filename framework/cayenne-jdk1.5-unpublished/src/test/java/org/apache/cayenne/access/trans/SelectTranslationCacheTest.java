@@ -0,0 +1,162 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.access.trans;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.cayenne.ObjectId;
+import org.apache.cayenne.access.DataContext;
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.log.JdbcEventLogger;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.query.SortOrder;
+import org.apache.cayenne.testdo.testmap.Artist;
+import org.apache.cayenne.testdo.testmap.Painting;
+import org.apache.cayenne.unit.di.server.ServerCase;
+import org.apache.cayenne.unit.di.server.UseServerRuntime;
+
+@UseServerRuntime(ServerCase.TESTMAP_PROJECT)
+public class SelectTranslationCacheTest extends ServerCase {
+
+    @Inject
+    private DataContext context;
+
+    @Inject
+    private DbAdapter adapter;
+
+    @Inject
+    private JdbcEventLogger logger;
+
+    private SelectTranslationCache cache;
+
+    @Override
+    protected void setUpAfterInjection() throws Exception {
+        cache = new SelectTranslationCache(10);
+    }
+
+    private SelectTranslator makeTranslator(SelectQuery query) {
+        SelectTranslator translator = new SelectTranslator();
+        translator.setQuery(query);
+        translator.setAdapter(adapter);
+        translator.setEntityResolver(context.getEntityResolver());
+        translator.setJdbcEventLogger(logger);
+        translator.setTranslationCache(cache);
+        return translator;
+    }
+
+    private SelectTranslator translate(SelectQuery query) throws Exception {
+        SelectTranslator translator = makeTranslator(query);
+        translator.createSqlString();
+        return translator;
+    }
+
+    public void testParameterizedQuery() throws Exception {
+        SelectQuery template = new SelectQuery(Artist.class, Expression
+                .fromString("artistName = $name and paintingArray.estimatedPrice > $price"));
+        template.addOrdering(Artist.ARTIST_NAME_PROPERTY, SortOrder.ASCENDING);
+
+        Map<String, Object> p1 = new HashMap<String, Object>();
+        p1.put("name", "a1");
+        p1.put("price", 1);
+        Map<String, Object> p2 = new HashMap<String, Object>();
+        p2.put("name", "a2");
+        p2.put("price", 2);
+
+        SelectTranslator t1 = makeTranslator(template.queryWithParameters(p1));
+        SelectTranslator t2 = makeTranslator(template.queryWithParameters(p2));
+        String sql1 = t1.createSqlString();
+        String sql2 = t2.createSqlString();
+
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        assertEquals(sql1, sql2);
+        assertEquals(Arrays.asList("a1", 1), t1.values);
+        assertEquals(Arrays.asList("a2", 2), t2.values);
+        assertEquals(t1.attributes, t2.attributes);
+        assertTrue(Arrays.equals(t1.getResultColumns(), t2.getResultColumns()));
+        assertEquals(t1.isSuppressingDistinct(), t2.isSuppressingDistinct());
+    }
+
+    public void testNullValue() throws Exception {
+        SelectTranslator t1 = makeTranslator(new SelectQuery(
+                Artist.class,
+                ExpressionFactory.matchExp(Artist.ARTIST_NAME_PROPERTY, "a1")));
+        SelectTranslator t2 = makeTranslator(new SelectQuery(
+                Artist.class,
+                ExpressionFactory.matchExp(Artist.ARTIST_NAME_PROPERTY, null)));
+
+        assertFalse(t1.createSqlString().equals(t2.createSqlString()));
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.size());
+        assertEquals(0, t2.values.size());
+    }
+
+    public void testInList() throws Exception {
+        translate(new SelectQuery(Artist.class, ExpressionFactory.inExp(
+                Artist.ARTIST_NAME_PROPERTY,
+                "a1",
+                "a2")));
+        translate(new SelectQuery(Artist.class, ExpressionFactory.inExp(
+                Artist.ARTIST_NAME_PROPERTY,
+                "a1",
+                "a2",
+                "a3")));
+        assertEquals(0, cache.getHits());
+
+        SelectTranslator t = translate(new SelectQuery(
+                Artist.class,
+                ExpressionFactory.inExp(Artist.ARTIST_NAME_PROPERTY, "a4", "a5", "a6")));
+        assertEquals(1, cache.getHits());
+        assertEquals(Arrays.asList("a4", "a5", "a6"), t.values);
+    }
+
+    public void testFetchLimit() throws Exception {
+        SelectQuery q1 = new SelectQuery(Artist.class);
+        q1.setFetchLimit(5);
+        SelectQuery q2 = new SelectQuery(Artist.class);
+        q2.setFetchLimit(6);
+
+        translate(q1);
+        translate(q2);
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.size());
+    }
+
+    public void testObjectMatchNotCached() throws Exception {
+        ObjectId id = new ObjectId("Artist", Artist.ARTIST_ID_PK_COLUMN, 5);
+        SelectQuery query = new SelectQuery(Painting.class, ExpressionFactory.matchExp(
+                Painting.TO_ARTIST_PROPERTY,
+                id));
+
+        translate(query);
+        SelectTranslator t = translate(query);
+
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.size());
+        assertEquals(Collections.singletonList(5), t.values);
+    }
+}
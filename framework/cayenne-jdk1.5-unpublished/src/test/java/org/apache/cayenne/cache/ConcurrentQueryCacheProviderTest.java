@@ -0,0 +1,56 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.configuration.Constants;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+
+public class ConcurrentQueryCacheProviderTest extends TestCase {
+
+    private ConcurrentQueryCache createCache(Map<String, String> properties) {
+        return (ConcurrentQueryCache) new ConcurrentQueryCacheProvider(
+                new DefaultRuntimeProperties(properties),
+                null).get();
+    }
+
+    public void testDefaultMaxRows() {
+        ConcurrentQueryCache cache = createCache(new HashMap<String, String>());
+        assertEquals(ConcurrentQueryCache.DEFAULT_MAX_ROWS, cache.getMaxRows());
+    }
+
+    public void testMaxRows() {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(Constants.QUERY_CACHE_SIZE_PROPERTY, "50");
+        properties.put(Constants.QUERY_CACHE_MAX_ROWS_PROPERTY, "500");
+
+        assertEquals(500, createCache(properties).getMaxRows());
+    }
+
+    public void testCacheSizeAsMaxRows() {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(Constants.QUERY_CACHE_SIZE_PROPERTY, "50");
+
+        assertEquals(50, createCache(properties).getMaxRows());
+    }
+}
@@ -0,0 +1,310 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.query.MockQueryMetadata;
+import org.apache.cayenne.query.QueryMetadata;
+
+public class ConcurrentQueryCacheTest extends TestCase {
+
+    private static QueryMetadata metadata(final String key, final String... groups) {
+        return new MockQueryMetadata() {
+
+            @Override
+            public String getCacheKey() {
+                return key;
+            }
+
+            @Override
+            public String[] getCacheGroups() {
+                return groups.length > 0 ? groups : null;
+            }
+        };
+    }
+
+    private static List<Object> rows(int count) {
+        List<Object> rows = new ArrayList<Object>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(i);
+        }
+        return rows;
+    }
+
+    public void testGetPut() {
+        ConcurrentQueryCache cache = new ConcurrentQueryCache(100, 0);
+
+        assertNull(cache.get(metadata("a")));
+        assertNull(cache.get(metadata(null)));
+
+        List<Object> rows = rows(3);
+        cache.put(metadata("a"), rows);
+        assertSame(rows, cache.get(metadata("a")));
+        assertEquals(1, cache.size());
+        assertEquals(3, cache.getRowCount());
+
+        cache.remove("a");
+        assertNull(cache.get(metadata("a")));
+        assertEquals(0, cache.size());
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    public void testMaxRows() {
+        ConcurrentQueryCache cache = new ConcurrentQueryCache(10, 0);
+
+        cache.put(metadata("a"), rows(4));
+        cache.put(metadata("b"), Collections.emptyList());
+        cache.put(metadata("c"), rows(4));
+        assertEquals(3, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+
+        // a large list pushes out several smaller ones
+        cache.put(metadata("d"), rows(8));
+        assertNotNull(cache.get(metadata("d")));
+        assertTrue(cache.getRowCount() <= 10);
+        assertTrue(cache.getEvictionCount() >= 2);
+        assertNull(cache.get(metadata("a")));
+    }
+
+    public void testTimeToLive() throws Exception {
+        ConcurrentQueryCache cache = new ConcurrentQueryCache(100, 1);
+
+        cache.put(metadata("a", "g1"), rows(1));
+        Thread.sleep(10);
+
+        assertNull(cache.get(metadata("a")));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(1, cache.getMissCount());
+
+        cache.setTimeToLive(0);
+        cache.put(metadata("a", "g1"), rows(1));
+        Thread.sleep(10);
+        assertNotNull(cache.get(metadata("a")));
+    }
+
+    public void testRemoveGroup() {
+        ConcurrentQueryCache cache = new ConcurrentQueryCache(100, 0);
+
+        cache.put(metadata("a", "g1"), rows(1));
+        cache.put(metadata("b", "g1", "g2"), rows(1));
+        cache.put(metadata("c", "g2"), rows(1));
+        cache.put(metadata("d"), rows(1));
+
+        cache.removeGroup("g1");
+        assertNull(cache.get(metadata("a")));
+        assertNull(cache.get(metadata("b")));
+        assertNotNull(cache.get(metadata("c")));
+        assertNotNull(cache.get(metadata("d")));
+
+        cache.removeGroup("g2");
+        assertNull(cache.get(metadata("c")));
+        assertNotNull(cache.get(metadata("d")));
+
+        cache.removeGroup("g3");
+        assertEquals(1, cache.size());
+    }
+
+    public void testRemoveGroupAfterReplace() {
+        ConcurrentQueryCache cache = new ConcurrentQueryCache(100, 0);
+
+        cache.put(metadata("a", "g1"), rows(1));
+        cache.put(metadata("a", "g2"), rows(2));
+
+        // the replaced entry is no longer in g1
+        cache.removeGroup("g1");
+        assertEquals(2, cache.get(metadata("a")).size());
+
+        cache.removeGroup("g2");
+        assertNull(cache.get(metadata("a")));
+    }
+
+    public void testClear() {
+        ConcurrentQueryCache cache = new ConcurrentQueryCache(100, 0);
+
+        for (String key : Arrays.asList("a", "b", "c")) {
+            cache.put(metadata(key, "g1"), rows(1));
+        }
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getRowCount());
+
+        cache.put(metadata("a", "g1"), rows(1));
+        cache.removeGroup("g1");
+        assertEquals(0, cache.size());
+    }
+
+    public void testSingleFlight() throws Exception {
+        final ConcurrentQueryCache cache = new ConcurrentQueryCache(100, 0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+
+        final QueryCacheEntryFactory factory = new QueryCacheEntryFactory() {
+
+            public Object createObject() {
+                loads.incrementAndGet();
+                started.countDown();
+
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+
+                return rows(2);
+            }
+        };
+
+        final List<?>[] results = new List<?>[2];
+        Thread loader = new Thread() {
+
+            @Override
+            public void run() {
+                results[0] = cache.get(metadata("a"), factory);
+            }
+        };
+        loader.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Thread waiter = new Thread() {
+
+            @Override
+            public void run() {
+                results[1] = cache.get(metadata("a"), factory);
+            }
+        };
+        waiter.start();
+
+        // give the second caller a chance to block on the load in progress
+        Thread.sleep(50);
+        release.countDown();
+        loader.join(5000);
+        waiter.join(5000);
+
+        assertEquals(1, loads.get());
+        assertNotNull(results[0]);
+        assertSame(results[0], results[1]);
+        assertSame(results[0], cache.get(metadata("a")));
+    }
+
+    public void testStaleWhileRevalidate() throws Exception {
+        ConcurrentQueryCache cache = new ConcurrentQueryCache(100, 0);
+        cache.setGroupPolicy("g1", new QueryCacheGroupPolicy(1, 60000, 0));
+        QueuedExecutor executor = new QueuedExecutor();
+        cache.setExecutor(executor);
+
+        List<Object> stale = rows(1);
+        cache.put(metadata("a", "g1"), stale);
+        Thread.sleep(10);
+
+        ListFactory factory = new ListFactory();
+        assertSame(stale, cache.get(metadata("a", "g1"), factory));
+        assertSame(stale, cache.get(metadata("a", "g1"), factory));
+        assertEquals(0, factory.count);
+
+        // only one reload is scheduled
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(1, factory.count);
+
+        assertNotSame(stale, cache.get(metadata("a", "g1"), factory));
+        assertEquals(1, factory.count);
+
+        // without a detachable factory stale entries are never returned
+        cache.put(metadata("b", "g1"), stale);
+        Thread.sleep(10);
+        final List<Object> fresh = rows(1);
+        assertSame(fresh, cache.get(metadata("b", "g1"), new QueryCacheEntryFactory() {
+
+            public Object createObject() {
+                return fresh;
+            }
+        }));
+        assertTrue(executor.tasks.isEmpty());
+    }
+
+    public void testRefreshAhead() throws Exception {
+        ConcurrentQueryCache cache = new ConcurrentQueryCache(100, 0);
+        cache.setGroupPolicy("g1", new QueryCacheGroupPolicy(60000, 0, 60000));
+        QueuedExecutor executor = new QueuedExecutor();
+        cache.setExecutor(executor);
+
+        ListFactory factory = new ListFactory();
+        List<?> first = cache.get(metadata("a", "g1"), factory);
+        assertEquals(1, factory.count);
+        assertTrue(executor.tasks.isEmpty());
+
+        assertSame(first, cache.get(metadata("a", "g1"), factory));
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(2, factory.count);
+        assertNotSame(first, cache.get(metadata("a"), factory));
+
+        // entries of the groups without policies are not refreshed
+        cache.get(metadata("b", "g2"), factory);
+        cache.get(metadata("b", "g2"), factory);
+        assertEquals(3, factory.count);
+        assertEquals(1, executor.tasks.size());
+    }
+
+    static class ListFactory implements DetachableQueryCacheEntryFactory {
+
+        int count;
+
+        public Object createObject() {
+            count++;
+            return rows(1);
+        }
+
+        public QueryCacheEntryFactory detach() {
+            return this;
+        }
+    }
+
+    static class QueuedExecutor implements Executor {
+
+        List<Runnable> tasks = new ArrayList<Runnable>();
+
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            tasks.clear();
+        }
+    }
+}
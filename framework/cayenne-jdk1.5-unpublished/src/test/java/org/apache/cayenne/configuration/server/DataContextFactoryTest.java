@@ -19,6 +19,7 @@
 package org.apache.cayenne.configuration.server;
 
 import java.util.Collections;
+import java.util.concurrent.ExecutorService;
 
 import junit.framework.TestCase;
 
@@ -28,6 +29,7 @@ import org.apache.cayenne.access.DefaultObjectMapRetainStrategy;
 import org.apache.cayenne.access.ObjectMapRetainStrategy;
 import org.apache.cayenne.cache.MapQueryCache;
 import org.apache.cayenne.cache.QueryCache;
+import org.apache.cayenne.configuration.Constants;
 import org.apache.cayenne.configuration.DefaultObjectStoreFactory;
 import org.apache.cayenne.configuration.DefaultRuntimeProperties;
 import org.apache.cayenne.configuration.ObjectStoreFactory;
@@ -35,6 +37,7 @@ import org.apache.cayenne.configuration.RuntimeProperties;
 import org.apache.cayenne.di.Binder;
 import org.apache.cayenne.di.DIBootstrap;
 import org.apache.cayenne.di.Injector;
+import org.apache.cayenne.di.Key;
 import org.apache.cayenne.di.Module;
 import org.apache.cayenne.event.EventManager;
 import org.apache.cayenne.event.MockEventManager;
@@ -62,6 +65,9 @@ public class DataContextFactoryTest extends TestCase {
                 binder.bind(ObjectMapRetainStrategy.class).to(
                         DefaultObjectMapRetainStrategy.class);
                 binder.bind(ObjectStoreFactory.class).to(DefaultObjectStoreFactory.class);
+                binder.bind(
+                        Key.get(ExecutorService.class, Constants.SERVER_QUERY_EXECUTOR))
+                        .toProvider(QueryExecutorProvider.class);
             }
         };
 
@@ -71,6 +77,7 @@ public class DataContextFactoryTest extends TestCase {
         injector.injectMembers(factory);
 
         DataContext c3 = (DataContext) factory.createContext();
+        assertNotNull(c3.getQueryExecutor());
         assertNotNull(c3.getObjectStore().getDataRowCache());
         assertNull(domain.getSharedSnapshotCache());
         assertNotSame(
@@ -96,6 +103,9 @@ public class DataContextFactoryTest extends TestCase {
                 binder.bind(ObjectMapRetainStrategy.class).to(
                         DefaultObjectMapRetainStrategy.class);
                 binder.bind(ObjectStoreFactory.class).to(DefaultObjectStoreFactory.class);
+                binder.bind(
+                        Key.get(ExecutorService.class, Constants.SERVER_QUERY_EXECUTOR))
+                        .toProvider(QueryExecutorProvider.class);
             }
         };
 
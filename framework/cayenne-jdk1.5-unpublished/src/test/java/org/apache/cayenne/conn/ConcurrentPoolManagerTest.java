@@ -0,0 +1,147 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.conn;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.unit.di.server.ServerCase;
+import org.apache.cayenne.unit.di.server.UseServerRuntime;
+
+@UseServerRuntime(ServerCase.TESTMAP_PROJECT)
+public class ConcurrentPoolManagerTest extends ServerCase {
+
+    @Inject
+    private DataSourceInfo dataSourceInfo;
+
+    private ConcurrentPoolManager createPool(int min, int max) throws SQLException {
+        return new ConcurrentPoolManager(new PoolDataSource(
+                dataSourceInfo.getJdbcDriver(),
+                dataSourceInfo.getDataSourceUrl()), min, max, dataSourceInfo
+                .getUserName(), dataSourceInfo.getPassword()) {
+
+            @Override
+            protected void startMaintenanceThread() {
+            }
+        };
+    }
+
+    public void testPooling() throws Exception {
+
+        ConcurrentPoolManager pm = createPool(2, 3);
+
+        try {
+            assertEquals(0, pm.getCurrentlyInUse());
+            assertEquals(2, pm.getCurrentlyUnused());
+
+            Connection c1 = pm.getConnection();
+            assertEquals(1, pm.getCurrentlyInUse());
+            assertEquals(1, pm.getCurrentlyUnused());
+
+            Connection c2 = pm.getConnection();
+            assertEquals(2, pm.getCurrentlyInUse());
+            assertEquals(0, pm.getCurrentlyUnused());
+
+            Connection c3 = pm.getConnection();
+            assertEquals(3, pm.getCurrentlyInUse());
+            assertEquals(3, pm.getPoolSize());
+
+            c1.close();
+            assertEquals(2, pm.getCurrentlyInUse());
+            assertEquals(1, pm.getCurrentlyUnused());
+
+            c2.close();
+            c3.close();
+            assertEquals(0, pm.getCurrentlyInUse());
+            assertEquals(3, pm.getCurrentlyUnused());
+        }
+        finally {
+            pm.shutdown();
+        }
+    }
+
+    public void testTimeout() throws Exception {
+
+        ConcurrentPoolManager pm = createPool(0, 1);
+        pm.setMaxQueueWaitTime(50);
+
+        try {
+            Connection c1 = pm.getConnection();
+
+            try {
+                pm.getConnection();
+                fail("Pool must have timed out");
+            }
+            catch (SQLException e) {
+                // expected
+            }
+
+            c1.close();
+
+            Connection c2 = pm.getConnection();
+            assertEquals(1, pm.getPoolSize());
+            c2.close();
+        }
+        finally {
+            pm.shutdown();
+        }
+    }
+
+    public void testMaintain_IdleEviction() throws Exception {
+
+        ConcurrentPoolManager pm = createPool(1, 3);
+        pm.setMaxIdleTime(1);
+
+        try {
+            Connection c1 = pm.getConnection();
+            Connection c2 = pm.getConnection();
+            Connection c3 = pm.getConnection();
+            c1.close();
+            c2.close();
+            c3.close();
+            assertEquals(3, pm.getPoolSize());
+
+            Thread.sleep(10);
+            pm.maintain();
+            assertEquals(1, pm.getPoolSize());
+            assertEquals(1, pm.getCurrentlyUnused());
+        }
+        finally {
+            pm.shutdown();
+        }
+    }
+
+    public void testMaintain_Validation() throws Exception {
+
+        ConcurrentPoolManager pm = createPool(2, 2);
+        pm.setValidationQuery("SELECT NO_SUCH_COLUMN FROM NO_SUCH_TABLE");
+
+        try {
+            pm.maintain();
+
+            // invalid connections are closed, and the pool is topped up to the minimum
+            assertEquals(2, pm.getPoolSize());
+            assertEquals(0, pm.getCurrentlyInUse());
+        }
+        finally {
+            pm.shutdown();
+        }
+    }
+}
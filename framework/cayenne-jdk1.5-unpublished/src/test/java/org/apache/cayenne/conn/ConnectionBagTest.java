@@ -0,0 +1,92 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.conn;
+
+import static org.mockito.Mockito.mock;
+
+import javax.sql.PooledConnection;
+
+import junit.framework.TestCase;
+
+public class ConnectionBagTest extends TestCase {
+
+    public void testBorrow() {
+        ConnectionBag bag = new ConnectionBag();
+        assertNull(bag.borrow());
+
+        ConnectionBag.Entry e1 = new ConnectionBag.Entry(mock(PooledConnection.class));
+        bag.add(e1);
+
+        assertSame(e1, bag.borrow());
+        assertEquals(ConnectionBag.STATE_IN_USE, e1.getState());
+        assertNull(bag.borrow());
+
+        assertTrue(bag.requite(e1));
+        assertFalse("Double return must be ignored", bag.requite(e1));
+        assertEquals(ConnectionBag.STATE_NOT_IN_USE, e1.getState());
+    }
+
+    public void testBorrow_ThreadAffinity() {
+        ConnectionBag bag = new ConnectionBag();
+
+        ConnectionBag.Entry e1 = new ConnectionBag.Entry(mock(PooledConnection.class));
+        ConnectionBag.Entry e2 = new ConnectionBag.Entry(mock(PooledConnection.class));
+        bag.add(e1);
+        bag.add(e2);
+
+        assertSame(e1, bag.borrow());
+        assertSame(e2, bag.borrow());
+
+        bag.requite(e1);
+        bag.requite(e2);
+
+        // most recently returned entry is reused first
+        assertSame(e2, bag.borrow());
+        assertSame(e1, bag.borrow());
+    }
+
+    public void testReserve() {
+        ConnectionBag bag = new ConnectionBag();
+
+        ConnectionBag.Entry e1 = new ConnectionBag.Entry(mock(PooledConnection.class));
+        bag.add(e1);
+
+        assertTrue(bag.reserve(e1));
+        assertNull(bag.borrow());
+        assertFalse(bag.requite(e1));
+
+        bag.unreserve(e1);
+        assertSame(e1, bag.borrow());
+        assertFalse(bag.reserve(e1));
+    }
+
+    public void testRemove() {
+        ConnectionBag bag = new ConnectionBag();
+
+        ConnectionBag.Entry e1 = new ConnectionBag.Entry(mock(PooledConnection.class));
+        bag.add(e1);
+        assertSame(e1, bag.borrow());
+
+        assertEquals(ConnectionBag.STATE_IN_USE, bag.remove(e1));
+        assertEquals(ConnectionBag.STATE_REMOVED, bag.remove(e1));
+        assertEquals(0, bag.size());
+        assertFalse(bag.requite(e1));
+        assertNull(bag.borrow());
+    }
+}
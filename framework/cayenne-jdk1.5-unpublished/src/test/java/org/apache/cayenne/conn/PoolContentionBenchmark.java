@@ -0,0 +1,150 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.conn;
+
+import java.sql.Connection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+/**
+ * A standalone benchmark comparing checkout/return throughput of {@link PoolManager} and
+ * {@link ConcurrentPoolManager} under thread contention. Uses in-memory HSQLDB, so it
+ * measures pool overhead rather than the database. Not run as part of the test suite.
+ * Arguments (all optional): number of threads, max pool size, checkouts per thread,
+ * milliseconds to hold each connection.
+ */
+public class PoolContentionBenchmark {
+
+    static final String DRIVER = "org.hsqldb.jdbcDriver";
+    static final String URL = "jdbc:hsqldb:mem:poolbenchmark";
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int poolSize = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int checkouts = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int holdMillis = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+        System.out.println("threads: "
+                + threads
+                + ", pool size: "
+                + poolSize
+                + ", checkouts per thread: "
+                + checkouts
+                + ", hold ms: "
+                + holdMillis);
+
+        // first pass of each pool is a warmup
+        for (int i = 0; i < 2; i++) {
+            PoolManager legacy = new PoolManager(
+                    new PoolDataSource(DRIVER, URL),
+                    poolSize,
+                    poolSize,
+                    "sa",
+                    "");
+            try {
+                report("PoolManager", run(legacy, threads, checkouts, holdMillis), threads
+                        * checkouts);
+            }
+            finally {
+                legacy.shutdown();
+            }
+
+            ConcurrentPoolManager concurrent = new ConcurrentPoolManager(
+                    new PoolDataSource(DRIVER, URL),
+                    poolSize,
+                    poolSize,
+                    "sa",
+                    "");
+            try {
+                report("ConcurrentPoolManager", run(
+                        concurrent,
+                        threads,
+                        checkouts,
+                        holdMillis), threads * checkouts);
+            }
+            finally {
+                concurrent.shutdown();
+            }
+        }
+    }
+
+    static void report(String label, long nanos, int operations) {
+        double seconds = nanos / 1000000000d;
+        System.out.println(String.format(
+                "%-22s %8.0f ms  %12.0f checkouts/s",
+                label,
+                nanos / 1000000d,
+                operations / seconds));
+    }
+
+    static long run(
+            final DataSource dataSource,
+            int threads,
+            final int checkouts,
+            final int holdMillis) throws Exception {
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger failures = new AtomicInteger();
+
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < checkouts; j++) {
+                            Connection c = dataSource.getConnection();
+                            try {
+                                if (holdMillis > 0) {
+                                    Thread.sleep(holdMillis);
+                                }
+                            }
+                            finally {
+                                c.close();
+                            }
+                        }
+                    }
+                    catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        }
+
+        long t0 = System.nanoTime();
+        start.countDown();
+        done.await();
+        long t1 = System.nanoTime();
+
+        if (failures.get() > 0) {
+            System.out.println("  failed threads: " + failures.get());
+        }
+
+        return t1 - t0;
+    }
+}
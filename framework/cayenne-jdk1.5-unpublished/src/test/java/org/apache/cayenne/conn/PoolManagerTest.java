@@ -20,6 +20,7 @@
 package org.apache.cayenne.conn;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 
 import org.apache.cayenne.di.Inject;
 import org.apache.cayenne.unit.di.server.ServerCase;
@@ -115,4 +116,41 @@ public class PoolManagerTest extends ServerCase {
             pm.shutdown();
         }
     }
+
+    public void testStatementCache() throws Exception {
+
+        PoolManager pm = new PoolManager(
+                dataSourceInfo.getJdbcDriver(),
+                dataSourceInfo.getDataSourceUrl(),
+                1,
+                1,
+                dataSourceInfo.getUserName(),
+                dataSourceInfo.getPassword(),
+                null,
+                10);
+
+        try {
+            String sql = "SELECT ARTIST_ID FROM ARTIST WHERE ARTIST_ID = ?";
+
+            Connection c1 = pm.getConnection();
+            PreparedStatement st1 = c1.prepareStatement(sql);
+            st1.setInt(1, 1);
+            st1.executeQuery().close();
+            st1.close();
+            c1.close();
+
+            Connection c2 = pm.getConnection();
+            PreparedStatement st2 = c2.prepareStatement(sql);
+            st2.setInt(1, 2);
+            st2.executeQuery().close();
+            st2.close();
+            c2.close();
+
+            assertEquals(1, pm.getStatementCacheStatistics().getHits());
+            assertEquals(1, pm.getStatementCacheStatistics().getMisses());
+        }
+        finally {
+            pm.shutdown();
+        }
+    }
 }
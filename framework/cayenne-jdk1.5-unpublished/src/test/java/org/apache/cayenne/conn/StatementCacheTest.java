@@ -0,0 +1,128 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.conn;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import junit.framework.TestCase;
+
+public class StatementCacheTest extends TestCase {
+
+    private StatementCache.Key key(String sql) {
+        return new StatementCache.Key(
+                sql,
+                ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY,
+                Statement.NO_GENERATED_KEYS);
+    }
+
+    public void testKey() {
+        assertEquals(key("SELECT 1"), key("SELECT 1"));
+        assertEquals(key("SELECT 1").hashCode(), key("SELECT 1").hashCode());
+        assertFalse(key("SELECT 1").equals(key("SELECT 2")));
+        assertFalse(key("SELECT 1").equals(
+                new StatementCache.Key(
+                        "SELECT 1",
+                        ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY,
+                        Statement.RETURN_GENERATED_KEYS)));
+    }
+
+    public void testGetPut() throws Exception {
+        StatementCacheStatistics stats = new StatementCacheStatistics();
+        StatementCache cache = new StatementCache(5, stats);
+        PreparedStatement st = mock(PreparedStatement.class);
+
+        assertNull(cache.get(key("SELECT 1")));
+        PreparedStatement wrapper = cache.wrap(key("SELECT 1"), st, mock(Connection.class));
+        wrapper.close();
+        assertTrue(wrapper.isClosed());
+        verify(st, never()).close();
+        verify(st).clearParameters();
+
+        assertSame(st, cache.get(key("SELECT 1")));
+        assertNull("Statement in use must not be shared", cache.get(key("SELECT 1")));
+
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+    }
+
+    public void testEviction() throws Exception {
+        StatementCacheStatistics stats = new StatementCacheStatistics();
+        StatementCache cache = new StatementCache(2, stats);
+
+        PreparedStatement st1 = mock(PreparedStatement.class);
+        PreparedStatement st2 = mock(PreparedStatement.class);
+        PreparedStatement st3 = mock(PreparedStatement.class);
+
+        cache.wrap(key("SELECT 1"), st1, null).close();
+        cache.wrap(key("SELECT 2"), st2, null).close();
+        cache.wrap(key("SELECT 3"), st3, null).close();
+
+        assertEquals(2, cache.size());
+        assertEquals(1, stats.getEvictions());
+        verify(st1).close();
+        verify(st2, never()).close();
+    }
+
+    public void testClear() throws Exception {
+        StatementCache cache = new StatementCache(5, new StatementCacheStatistics());
+
+        PreparedStatement st1 = mock(PreparedStatement.class);
+        PreparedStatement st2 = mock(PreparedStatement.class);
+
+        cache.wrap(key("SELECT 1"), st1, null).close();
+        PreparedStatement inUse = cache.wrap(key("SELECT 2"), st2, null);
+
+        cache.clear();
+        verify(st1).close();
+        assertEquals(0, cache.size());
+
+        // statement checked out before clear must be closed when returned
+        inUse.close();
+        verify(st2).close();
+        assertEquals(0, cache.size());
+    }
+
+    public void testResetProperties() throws Exception {
+        StatementCache cache = new StatementCache(5, new StatementCacheStatistics());
+
+        PreparedStatement st = mock(PreparedStatement.class);
+        when(st.getFetchSize()).thenReturn(0);
+        when(st.getMaxRows()).thenReturn(0);
+
+        PreparedStatement wrapper = cache.wrap(key("SELECT 1"), st, null);
+        wrapper.setFetchSize(100);
+        wrapper.setMaxRows(5);
+        wrapper.addBatch();
+        wrapper.close();
+
+        verify(st).setFetchSize(0);
+        verify(st).setMaxRows(0);
+        verify(st).clearBatch();
+    }
+}
@@ -0,0 +1,141 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.dba;
+
+import java.sql.Types;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.map.DbEntity;
+
+/**
+ * A standalone benchmark of multi-threaded primary key generation with JdbcPkGenerator,
+ * comparing fixed and adaptive key cache sizes. The database trip is simulated with a
+ * sleep, so the numbers reflect the contention in the generator. Not run as part of the
+ * test suite. Arguments (all optional): max number of threads, keys per thread, database
+ * latency in ms.
+ */
+public class JdbcPkGeneratorBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int keys = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        long latency = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        System.out.println("keys per thread: " + keys + ", latency: " + latency + " ms");
+
+        // first pass is a warmup
+        for (int pass = 0; pass < 2; pass++) {
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                run("fixed", threads, keys, latency, 0);
+                run("adaptive", threads, keys, latency, 10000);
+            }
+        }
+    }
+
+    static void run(String label, int threads, final int keys, long latency, int maxCacheSize)
+            throws Exception {
+
+        final SimulatedPkGenerator generator = new SimulatedPkGenerator(latency);
+        generator.setMaxPkCacheSize(maxCacheSize);
+
+        DbEntity entity = new DbEntity("BENCHMARK");
+        final DbAttribute pk = new DbAttribute("ID", Types.BIGINT, entity);
+        pk.setPrimaryKey(true);
+        entity.addAttribute(pk);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger errors = new AtomicInteger();
+
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < keys; j++) {
+                            generator.generatePk(null, pk);
+                        }
+                    }
+                    catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long t0 = System.nanoTime();
+        start.countDown();
+        done.await();
+        long t1 = System.nanoTime();
+
+        if (errors.get() > 0) {
+            throw new IllegalStateException(errors.get() + " threads failed");
+        }
+
+        double seconds = (t1 - t0) / 1000000000d;
+        System.out.println(String.format(
+                "%-8s threads: %2d  %12.0f keys/s  %8d db trips",
+                label,
+                threads,
+                threads * (double) keys / seconds,
+                generator.trips.get()));
+    }
+
+    static class SimulatedPkGenerator extends JdbcPkGenerator {
+
+        final AtomicLong nextId;
+        final AtomicLong trips;
+        final long latency;
+
+        SimulatedPkGenerator(long latency) {
+            super(null);
+            this.nextId = new AtomicLong(200);
+            this.trips = new AtomicLong();
+            this.latency = latency;
+        }
+
+        @Override
+        protected boolean supportsPkRangeSize() {
+            return true;
+        }
+
+        @Override
+        protected long longPkRangeFromDatabase(
+                DataNode node,
+                DbEntity entity,
+                int rangeSize) throws Exception {
+
+            trips.incrementAndGet();
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+
+            return nextId.getAndAdd(rangeSize);
+        }
+    }
+}
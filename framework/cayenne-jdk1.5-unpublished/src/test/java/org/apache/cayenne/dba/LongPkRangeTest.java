@@ -0,0 +1,84 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.dba;
+
+import junit.framework.TestCase;
+
+public class LongPkRangeTest extends TestCase {
+
+    public void testNextPrimaryKey() {
+        LongPkRange range = new LongPkRange();
+        assertEquals(LongPkRange.NO_KEY, range.nextPrimaryKey());
+
+        range.reset(5, 6);
+        assertEquals(5, range.nextPrimaryKey());
+        assertEquals(6, range.nextPrimaryKey());
+        assertEquals(LongPkRange.NO_KEY, range.nextPrimaryKey());
+        assertEquals(0, range.available());
+    }
+
+    public void testReserve() {
+        LongPkRange range = new LongPkRange();
+        range.reset(1, 2);
+        range.reserve(10, 14);
+        assertEquals(7, range.available());
+
+        assertEquals(1, range.nextPrimaryKey());
+        assertEquals(2, range.nextPrimaryKey());
+        assertEquals(LongPkRange.NO_KEY, range.nextPrimaryKey());
+
+        assertTrue(range.nextReservedBlock());
+        assertEquals(10, range.nextPrimaryKey());
+        assertEquals(4, range.available());
+        assertFalse(range.nextReservedBlock());
+    }
+
+    public void testNextRangeSize() {
+        LongPkRange range = new LongPkRange();
+        long now = 100000;
+
+        assertEquals(20, range.nextRangeSize(20, 100, now));
+
+        // fast refills grow the range up to the max
+        now += LongPkRange.GROW_INTERVAL_MS / 2;
+        assertEquals(40, range.nextRangeSize(20, 100, now));
+        now += LongPkRange.GROW_INTERVAL_MS / 2;
+        assertEquals(80, range.nextRangeSize(20, 100, now));
+        now += LongPkRange.GROW_INTERVAL_MS / 2;
+        assertEquals(100, range.nextRangeSize(20, 100, now));
+
+        // steady rate keeps the size
+        now += LongPkRange.GROW_INTERVAL_MS * 2;
+        assertEquals(100, range.nextRangeSize(20, 100, now));
+
+        // slow refills shrink it back
+        now += LongPkRange.SHRINK_INTERVAL_MS * 2;
+        assertEquals(50, range.nextRangeSize(20, 100, now));
+        now += LongPkRange.SHRINK_INTERVAL_MS * 2;
+        assertEquals(25, range.nextRangeSize(20, 100, now));
+        now += LongPkRange.SHRINK_INTERVAL_MS * 2;
+        assertEquals(20, range.nextRangeSize(20, 100, now));
+    }
+
+    public void testNextRangeSizeNoGrowth() {
+        LongPkRange range = new LongPkRange();
+        assertEquals(20, range.nextRangeSize(20, 20, 1000));
+        assertEquals(20, range.nextRangeSize(20, 20, 1001));
+    }
+}
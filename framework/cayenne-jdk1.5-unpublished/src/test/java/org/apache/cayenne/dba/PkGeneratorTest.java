@@ -20,11 +20,18 @@
 package org.apache.cayenne.dba;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import org.apache.cayenne.access.DataContext;
 import org.apache.cayenne.access.DataNode;
 import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.map.DbAttribute;
 import org.apache.cayenne.map.DbEntity;
+import org.apache.cayenne.test.jdbc.DBHelper;
+import org.apache.cayenne.testdo.testmap.MeaningfulPKTest1;
 import org.apache.cayenne.unit.UnitDbAdapter;
 import org.apache.cayenne.unit.di.server.ServerCase;
 import org.apache.cayenne.unit.di.server.UseServerRuntime;
@@ -38,6 +45,12 @@ public class PkGeneratorTest extends ServerCase {
     @Inject
     private DataNode node;
 
+    @Inject
+    private DataContext context;
+
+    @Inject
+    private DBHelper dbHelper;
+
     private PkGenerator pkGenerator;
     private DbEntity paintingEntity;
 
@@ -81,4 +94,90 @@ public class PkGeneratorTest extends ServerCase {
             pkList.add(pk);
         }
     }
+
+    public void testGeneratePkConcurrently() throws Exception {
+        final DbAttribute pkAttribute = paintingEntity.getPrimaryKeys().iterator().next();
+        final Set<Object> pks = Collections.synchronizedSet(new HashSet<Object>());
+        final List<Exception> errors = Collections
+                .synchronizedList(new ArrayList<Exception>());
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 50; j++) {
+                            pks.add(pkGenerator.generatePk(node, pkAttribute));
+                        }
+                    }
+                    catch (Exception e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(Collections.EMPTY_LIST, errors);
+        assertEquals(200, pks.size());
+    }
+
+    public void testReservePks() throws Exception {
+        if (!(pkGenerator instanceof JdbcPkGenerator)
+                || !((JdbcPkGenerator) pkGenerator).supportsPkRangeSize()) {
+            return;
+        }
+
+        JdbcPkGenerator jdbcPkGenerator = (JdbcPkGenerator) pkGenerator;
+        DbAttribute pkAttribute = paintingEntity.getPrimaryKeys().iterator().next();
+
+        int count = jdbcPkGenerator.getPkCacheSize() * 3 + 1;
+        jdbcPkGenerator.reservePks(node, pkAttribute, count);
+
+        LongPkRange range = jdbcPkGenerator.pkRange(paintingEntity);
+        synchronized (range) {
+            assertEquals(count, range.available());
+        }
+
+        // reserved keys are continuous
+        Number first = (Number) pkGenerator.generatePk(node, pkAttribute);
+        for (int i = 1; i < count; i++) {
+            Number pk = (Number) pkGenerator.generatePk(node, pkAttribute);
+            assertEquals(first.longValue() + i, pk.longValue());
+        }
+
+        synchronized (range) {
+            assertEquals(0, range.available());
+        }
+    }
+
+    public void testReservePksSkipsMeaningfulPKs() throws Exception {
+        if (!(pkGenerator instanceof JdbcPkGenerator)) {
+            return;
+        }
+
+        dbHelper.deleteAll("MEANINGFUL_PK_DEP");
+        dbHelper.deleteAll("MEANINGFUL_PK_TEST1");
+
+        for (int i = 1; i <= 3; i++) {
+            MeaningfulPKTest1 object = context.newObject(MeaningfulPKTest1.class);
+            object.setPkAttribute(1000 + i);
+            object.setDescr("d" + i);
+        }
+        context.commitChanges();
+
+        // user-supplied keys must not be reserved from the database
+        LongPkRange range = ((JdbcPkGenerator) pkGenerator).pkRange(node
+                .getEntityResolver()
+                .getDbEntity("MEANINGFUL_PK_TEST1"));
+        synchronized (range) {
+            assertEquals(0, range.available());
+        }
+    }
 }
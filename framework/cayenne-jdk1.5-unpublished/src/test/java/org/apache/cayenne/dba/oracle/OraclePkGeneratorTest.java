@@ -19,14 +19,27 @@
 
 package org.apache.cayenne.dba.oracle;
 
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Types;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.cayenne.access.DataNode;
 import org.apache.cayenne.di.AdhocObjectFactory;
 import org.apache.cayenne.di.Inject;
 import org.apache.cayenne.log.JdbcEventLogger;
+import org.apache.cayenne.map.DbAttribute;
 import org.apache.cayenne.map.DbEntity;
 import org.apache.cayenne.map.DbKeyGenerator;
 import org.apache.cayenne.unit.di.server.ServerCase;
 import org.apache.cayenne.unit.di.server.UseServerRuntime;
 
+import com.mockrunner.mock.jdbc.MockConnection;
+import com.mockrunner.mock.jdbc.MockResultSet;
+
 @UseServerRuntime(ServerCase.TESTMAP_PROJECT)
 public class OraclePkGeneratorTest extends ServerCase {
     
@@ -65,4 +78,50 @@ public class OraclePkGeneratorTest extends ServerCase {
         customGenerator.setGeneratorName("CUSTOM_GENERATOR");
         assertEquals("pk_test_entity", pkGenerator.sequenceName(entity));
     }
+
+    public void testReservePks() throws Exception {
+        DbEntity entity = new DbEntity("TEST_ENTITY");
+        DbAttribute pk = new DbAttribute("ID", Types.INTEGER, entity);
+        pk.setPrimaryKey(true);
+        entity.addAttribute(pk);
+
+        MockResultSet rs = new MockResultSet("pks");
+        rs.addColumn("NEXTVAL", new Object[] {
+                200l, 220l, 500l
+        });
+
+        MockConnection connection = new MockConnection();
+        connection.getStatementResultSetHandler().prepareGlobalResultSet(rs);
+
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+
+        DataNode node = mock(DataNode.class);
+        when(node.getDataSource()).thenReturn(dataSource);
+
+        pkGenerator.setPkCacheSize(20);
+        pkGenerator.reservePks(node, pk, 60);
+
+        List<?> executed = connection
+                .getStatementResultSetHandler()
+                .getExecutedStatements();
+        assertEquals(1, executed.size());
+        assertEquals(
+                "SELECT pk_test_entity.nextval FROM DUAL CONNECT BY LEVEL <= 3",
+                executed.get(0));
+
+        // adjacent ranges are used as one, and no more queries are run
+        for (int i = 0; i < 40; i++) {
+            assertEquals(200 + i, pkGenerator.generatePk(node, pk));
+        }
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(500 + i, pkGenerator.generatePk(node, pk));
+        }
+
+        assertEquals(1, connection
+                .getStatementResultSetHandler()
+                .getExecutedStatements()
+                .size());
+    }
 }
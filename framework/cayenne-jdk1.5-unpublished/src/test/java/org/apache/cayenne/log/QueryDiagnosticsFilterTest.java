@@ -0,0 +1,150 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.log;
+
+import java.util.List;
+
+import org.apache.cayenne.access.DataContext;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.query.SortOrder;
+import org.apache.cayenne.test.jdbc.DBHelper;
+import org.apache.cayenne.test.jdbc.TableHelper;
+import org.apache.cayenne.testdo.testmap.Artist;
+import org.apache.cayenne.unit.di.server.ServerCase;
+import org.apache.cayenne.unit.di.server.UseServerRuntime;
+
+@UseServerRuntime(ServerCase.TESTMAP_PROJECT)
+public class QueryDiagnosticsFilterTest extends ServerCase {
+
+    @Inject
+    private DataContext context;
+
+    @Inject
+    private ServerRuntime runtime;
+
+    @Inject
+    private DBHelper dbHelper;
+
+    private QueryDiagnosticsFilter filter;
+
+    @Override
+    protected void setUpAfterInjection() throws Exception {
+        dbHelper.deleteAll("PAINTING_INFO");
+        dbHelper.deleteAll("PAINTING");
+        dbHelper.deleteAll("ARTIST_EXHIBIT");
+        dbHelper.deleteAll("ARTIST_GROUP");
+        dbHelper.deleteAll("ARTIST");
+
+        TableHelper tArtist = new TableHelper(dbHelper, "ARTIST");
+        tArtist.setColumns("ARTIST_ID", "ARTIST_NAME");
+
+        TableHelper tPainting = new TableHelper(dbHelper, "PAINTING");
+        tPainting.setColumns("PAINTING_ID", "ARTIST_ID", "PAINTING_TITLE");
+
+        for (int i = 1; i <= 5; i++) {
+            tArtist.insert(i, "a" + i);
+            tPainting.insert(i, i, "p" + i);
+        }
+
+        filter = runtime.getInjector().getInstance(QueryDiagnosticsFilter.class);
+        filter.setRepeatedQueryThreshold(3);
+        runtime.getDataDomain().addFilter(filter);
+    }
+
+    @Override
+    protected void tearDownBeforeInjection() throws Exception {
+        runtime.getDataDomain().removeFilter(filter);
+        filter.setRepeatedQueryThreshold(
+                QueryDiagnosticsFilter.DEFAULT_REPEATED_QUERY_THRESHOLD);
+        filter.setSlowQueryTime(QueryDiagnosticsFilter.DEFAULT_SLOW_QUERY_TIME);
+        filter.report(context);
+    }
+
+    public void testRelationshipFaults() throws Exception {
+        SelectQuery query = new SelectQuery(Artist.class);
+        query.addOrdering(Artist.ARTIST_NAME_PROPERTY, SortOrder.ASCENDING);
+        List<Artist> artists = context.performQuery(query);
+
+        for (Artist artist : artists) {
+            assertEquals(1, artist.getPaintingArray().size());
+        }
+
+        QueryDiagnostics diagnostics = filter.getDiagnostics(context);
+        assertNotNull(diagnostics);
+        assertEquals(6, diagnostics.getQueryCount());
+        assertEquals(10, diagnostics.getRowCount());
+        assertEquals(Integer.valueOf(5), diagnostics.getFaults().get(
+                "Artist.paintingArray"));
+
+        List<QueryDiagnostics.QueryStats> repeated = diagnostics.getRepeatedQueries();
+        assertEquals(1, repeated.size());
+        assertEquals(5, repeated.get(0).getCount());
+        assertEquals(5, repeated.get(0).getRowCount());
+        assertTrue(repeated.get(0).getSignature().contains("Artist.paintingArray"));
+        assertTrue(diagnostics.hasProblems());
+        assertTrue(diagnostics.getReport().contains("possible N+1"));
+    }
+
+    public void testSignatureIgnoresValues() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            context.performQuery(new SelectQuery(Artist.class, ExpressionFactory
+                    .matchExp(Artist.ARTIST_NAME_PROPERTY, "a" + i)));
+        }
+
+        context.performQuery(new SelectQuery(Artist.class, ExpressionFactory.inExp(
+                Artist.ARTIST_NAME_PROPERTY,
+                "a1",
+                "a2")));
+
+        List<QueryDiagnostics.QueryStats> queries = filter
+                .getDiagnostics(context)
+                .getQueries();
+        assertEquals(2, queries.size());
+        assertEquals(3, queries.get(0).getCount());
+        assertEquals(3, queries.get(0).getRowCount());
+        assertFalse(queries.get(0).getSignature().contains("a1"));
+        assertEquals(1, queries.get(1).getCount());
+        assertEquals(2, queries.get(1).getRowCount());
+    }
+
+    public void testSlowQueries() throws Exception {
+        filter.setSlowQueryTime(0);
+
+        context.performQuery(new SelectQuery(Artist.class));
+
+        QueryDiagnostics diagnostics = filter.getDiagnostics(context);
+        assertEquals(1, diagnostics.getSlowQueries().size());
+        assertTrue(diagnostics.getRepeatedQueries().isEmpty());
+    }
+
+    public void testReport() throws Exception {
+        context.performQuery(new SelectQuery(Artist.class));
+
+        QueryDiagnostics diagnostics = filter.report(context);
+        assertNotNull(diagnostics);
+        assertEquals(1, diagnostics.getQueryCount());
+        assertFalse(diagnostics.hasProblems());
+
+        assertNull(filter.getDiagnostics(context));
+        assertNull(filter.report(context));
+    }
+}
@@ -0,0 +1,134 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.util.Util;
+
+public class PageCursorTest extends TestCase {
+
+    public void testQualifierSingleOrdering() {
+        PageCursor cursor = new PageCursor("x");
+
+        Expression qualifier = cursor.qualifier(Collections.singletonList(new Ordering(
+                "name",
+                SortOrder.ASCENDING)));
+        assertEquals(Expression.fromString("name > 'x'"), qualifier);
+
+        qualifier = cursor.qualifier(Collections.singletonList(new Ordering(
+                "name",
+                SortOrder.DESCENDING)));
+        assertEquals(Expression.fromString("name < 'x'"), qualifier);
+    }
+
+    public void testQualifierMultipleOrderings() {
+        PageCursor cursor = new PageCursor("x", 5);
+
+        List<Ordering> orderings = Arrays.asList(
+                new Ordering("name", SortOrder.ASCENDING),
+                new Ordering("db:ID", SortOrder.DESCENDING));
+
+        assertEquals(
+                Expression.fromString("name >= 'x' and (name > 'x' or db:ID < 5)"),
+                cursor.qualifier(orderings));
+    }
+
+    public void testQualifierMismatchedOrderings() {
+        PageCursor cursor = new PageCursor("x", 5);
+
+        try {
+            cursor.qualifier(Collections.singletonList(new Ordering(
+                    "name",
+                    SortOrder.ASCENDING)));
+            fail("Cursor values must match orderings");
+        }
+        catch (CayenneRuntimeException e) {
+            // expected
+        }
+    }
+
+    public void testQualifierNullValue() {
+        PageCursor cursor = new PageCursor(new Object[] {
+            null
+        });
+
+        try {
+            cursor.qualifier(Collections.singletonList(new Ordering(
+                    "name",
+                    SortOrder.ASCENDING)));
+            fail("Null cursor values must not be allowed");
+        }
+        catch (CayenneRuntimeException e) {
+            // expected
+        }
+    }
+
+    public void testQualifierCaseInsensitive() {
+        PageCursor cursor = new PageCursor("x");
+
+        try {
+            cursor.qualifier(Collections.singletonList(new Ordering(
+                    "name",
+                    SortOrder.ASCENDING_INSENSITIVE)));
+            fail("Case-insensitive orderings must not be allowed");
+        }
+        catch (CayenneRuntimeException e) {
+            // expected
+        }
+    }
+
+    public void testAfter() {
+        SelectQuery query = new SelectQuery("Artist");
+        query.addOrdering("name", SortOrder.ASCENDING);
+        query.addOrdering("db:ID", SortOrder.ASCENDING);
+
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("name", "x");
+        row.put("ID", 5);
+
+        assertEquals(new PageCursor("x", 5), PageCursor.after(query, row));
+    }
+
+    public void testNext() {
+        SelectQuery query = new SelectQuery("Artist");
+        query.addOrdering("db:ID", SortOrder.ASCENDING);
+        query.setFetchLimit(2);
+
+        Map<String, Object> row1 = Collections.<String, Object> singletonMap("ID", 1);
+        Map<String, Object> row2 = Collections.<String, Object> singletonMap("ID", 2);
+
+        assertEquals(new PageCursor(2), PageCursor.next(query, Arrays.asList(row1, row2)));
+        assertNull(PageCursor.next(query, Arrays.asList(row1)));
+        assertNull(PageCursor.next(query, Collections.EMPTY_LIST));
+    }
+
+    public void testSerializability() throws Exception {
+        PageCursor cursor = new PageCursor("x", 5);
+        assertEquals(cursor, Util.cloneViaSerialization(cursor));
+    }
+}
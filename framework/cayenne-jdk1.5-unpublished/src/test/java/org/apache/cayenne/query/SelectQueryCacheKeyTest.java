@@ -18,7 +18,10 @@
  ****************************************************************/
 package org.apache.cayenne.query;
 
+import java.util.Arrays;
+
 import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.exp.Expression;
 import org.apache.cayenne.exp.ExpressionFactory;
 import org.apache.cayenne.map.EntityResolver;
 import org.apache.cayenne.testdo.testmap.Artist;
@@ -150,4 +153,46 @@ public class SelectQueryCacheKeyTest extends ServerCase {
         assertFalse(q1.getMetaData(resolver).getCacheKey().equals(
                 q4.getMetaData(resolver).getCacheKey()));
     }
+
+    private String cacheKey(Expression qualifier) {
+        SelectQuery query = new SelectQuery(Artist.class, qualifier);
+        query.setCacheStrategy(QueryCacheStrategy.LOCAL_CACHE);
+        return query.getMetaData(resolver).getCacheKey();
+    }
+
+    public void testUniqueKeyQualifierStructure() {
+
+        assertEquals(cacheKey(Expression.fromString("artistName = 'a' "
+                + "and paintingArray.paintingTitle in ('x', 'y')")),
+                cacheKey(ExpressionFactory.matchExp("artistName", "a").andExp(
+                        ExpressionFactory.inExp("paintingArray.paintingTitle", Arrays
+                                .asList("x", "y")))));
+
+        // values of different types
+        assertFalse(cacheKey(ExpressionFactory.matchExp("a", 1)).equals(
+                cacheKey(ExpressionFactory.matchExp("a", "1"))));
+        assertFalse(cacheKey(ExpressionFactory.matchExp("a", 1)).equals(
+                cacheKey(ExpressionFactory.matchExp("a", 1L))));
+
+        // values that look like the key syntax
+        assertFalse(cacheKey(ExpressionFactory.inExp("a", "b", "c")).equals(
+                cacheKey(ExpressionFactory.inExp("a", "b',s1'c"))));
+
+        // same operands, different operators
+        assertFalse(cacheKey(ExpressionFactory.matchExp("a", "b")).equals(
+                cacheKey(ExpressionFactory.noMatchExp("a", "b"))));
+        assertFalse(cacheKey(ExpressionFactory.matchExp("a", "b")).equals(
+                cacheKey(ExpressionFactory.matchDbExp("a", "b"))));
+    }
+
+    public void testKeyCalculatedOncePerResolver() {
+        SelectQuery query = new SelectQuery(Artist.class, ExpressionFactory.matchExp(
+                "artistName",
+                "a"));
+        query.setCacheStrategy(QueryCacheStrategy.LOCAL_CACHE);
+
+        String key = query.getMetaData(resolver).getCacheKey();
+        assertNotNull(key);
+        assertSame(key, query.getMetaData(resolver).getCacheKey());
+    }
 }
@@ -0,0 +1,175 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cayenne.DataRow;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.test.jdbc.DBHelper;
+import org.apache.cayenne.test.jdbc.TableHelper;
+import org.apache.cayenne.testdo.testmap.Artist;
+import org.apache.cayenne.unit.di.server.ServerCase;
+import org.apache.cayenne.unit.di.server.UseServerRuntime;
+
+@UseServerRuntime(ServerCase.TESTMAP_PROJECT)
+public class SelectQueryPageCursorTest extends ServerCase {
+
+    @Inject
+    protected ObjectContext context;
+
+    @Inject
+    protected EntityResolver resolver;
+
+    @Inject
+    protected DBHelper dbHelper;
+
+    @Override
+    protected void setUpAfterInjection() throws Exception {
+        dbHelper.deleteAll("PAINTING_INFO");
+        dbHelper.deleteAll("PAINTING");
+        dbHelper.deleteAll("ARTIST_EXHIBIT");
+        dbHelper.deleteAll("ARTIST_GROUP");
+        dbHelper.deleteAll("ARTIST");
+    }
+
+    protected void createArtistsDataSet() throws Exception {
+        TableHelper tArtist = new TableHelper(dbHelper, "ARTIST");
+        tArtist.setColumns("ARTIST_ID", "ARTIST_NAME");
+        tArtist.insert(33001, "c");
+        tArtist.insert(33002, "b");
+        tArtist.insert(33003, "a");
+        tArtist.insert(33004, "b");
+        tArtist.insert(33005, "a");
+        tArtist.insert(33006, "b");
+        tArtist.insert(33007, "c");
+    }
+
+    private List<String> fetchAllPages(SelectQuery query) {
+        List<String> artists = new ArrayList<String>();
+
+        PageCursor cursor = null;
+        do {
+            query.setPageCursor(cursor);
+            List<Artist> page = context.performQuery(query);
+            assertTrue(page.size() <= query.getFetchLimit());
+
+            for (Artist artist : page) {
+                artists.add(artist.getArtistName()
+                        + artist.getObjectId().getIdSnapshot().get("ARTIST_ID"));
+            }
+
+            cursor = PageCursor.next(query, page);
+        }
+        while (cursor != null);
+
+        return artists;
+    }
+
+    public void testPages() throws Exception {
+        createArtistsDataSet();
+
+        SelectQuery query = new SelectQuery(Artist.class);
+        query.addOrdering(Artist.ARTIST_NAME_PROPERTY, SortOrder.ASCENDING);
+        query.addOrdering("db:" + Artist.ARTIST_ID_PK_COLUMN, SortOrder.ASCENDING);
+        query.setFetchLimit(2);
+
+        assertEquals(Arrays.asList(
+                "a33003",
+                "a33005",
+                "b33002",
+                "b33004",
+                "b33006",
+                "c33001",
+                "c33007"), fetchAllPages(query));
+    }
+
+    public void testPagesMixedOrder() throws Exception {
+        createArtistsDataSet();
+
+        SelectQuery query = new SelectQuery(Artist.class);
+        query.addOrdering(Artist.ARTIST_NAME_PROPERTY, SortOrder.DESCENDING);
+        query.addOrdering("db:" + Artist.ARTIST_ID_PK_COLUMN, SortOrder.ASCENDING);
+        query.setFetchLimit(3);
+
+        assertEquals(Arrays.asList(
+                "c33001",
+                "c33007",
+                "b33002",
+                "b33004",
+                "b33006",
+                "a33003",
+                "a33005"), fetchAllPages(query));
+    }
+
+    public void testPageWithQualifier() throws Exception {
+        createArtistsDataSet();
+
+        SelectQuery query = new SelectQuery(Artist.class, ExpressionFactory.noMatchExp(
+                Artist.ARTIST_NAME_PROPERTY,
+                "b"));
+        query.addOrdering("db:" + Artist.ARTIST_ID_PK_COLUMN, SortOrder.ASCENDING);
+        query.setFetchLimit(2);
+
+        assertEquals(
+                Arrays.asList("c33001", "a33003", "a33005", "c33007"),
+                fetchAllPages(query));
+    }
+
+    public void testDataRows() throws Exception {
+        createArtistsDataSet();
+
+        SelectQuery query = new SelectQuery(Artist.class);
+        query.addOrdering("db:" + Artist.ARTIST_ID_PK_COLUMN, SortOrder.DESCENDING);
+        query.setFetchingDataRows(true);
+        query.setFetchLimit(3);
+        query.setPageCursor(new PageCursor(33005));
+
+        List<DataRow> rows = context.performQuery(query);
+        assertEquals(3, rows.size());
+        assertEquals(33004, ((Number) rows.get(0).get("ARTIST_ID")).intValue());
+        assertEquals(33002, ((Number) rows.get(2).get("ARTIST_ID")).intValue());
+
+        PageCursor next = PageCursor.next(query, rows);
+        assertEquals(1, next.getValues().length);
+        assertEquals(33002, ((Number) next.getValues()[0]).intValue());
+    }
+
+    public void testCacheKey() {
+        SelectQuery query = new SelectQuery(Artist.class);
+        query.addOrdering("db:" + Artist.ARTIST_ID_PK_COLUMN, SortOrder.ASCENDING);
+        query.setCacheStrategy(QueryCacheStrategy.LOCAL_CACHE);
+
+        SelectQuery query1 = query.queryWithParameters(Collections.EMPTY_MAP, false);
+        query1.setPageCursor(new PageCursor(33001));
+
+        SelectQuery query2 = query.queryWithParameters(Collections.EMPTY_MAP, false);
+        query2.setPageCursor(new PageCursor(33002));
+
+        assertEquals(new PageCursor(33001), query1.getPageCursor());
+        assertFalse(query1.getMetaData(resolver).getCacheKey().equals(
+                query2.getMetaData(resolver).getCacheKey()));
+    }
+}
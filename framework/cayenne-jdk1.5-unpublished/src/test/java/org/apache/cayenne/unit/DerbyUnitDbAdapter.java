@@ -50,4 +50,9 @@ public class DerbyUnitDbAdapter extends UnitDbAdapter {
     public boolean supportsLobs() {
         return true;
     }
+
+    @Override
+    public boolean supportsMultiRowInsert() {
+        return true;
+    }
 }
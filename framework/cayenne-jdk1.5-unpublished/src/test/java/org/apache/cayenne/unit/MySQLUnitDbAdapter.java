@@ -98,4 +98,9 @@ public class MySQLUnitDbAdapter extends UnitDbAdapter {
         // tables...
         return !NO_CONSTRAINTS_TABLES.contains(entity.getName());
     }
+
+    @Override
+    public boolean supportsMultiRowInsert() {
+        return true;
+    }
 }
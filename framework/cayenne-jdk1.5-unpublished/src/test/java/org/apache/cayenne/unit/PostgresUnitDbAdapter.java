@@ -85,4 +85,9 @@ public class PostgresUnitDbAdapter extends UnitDbAdapter {
             proc.setReturningValue(true);
         }
     }
+
+    @Override
+    public boolean supportsMultiRowInsert() {
+        return true;
+    }
 }
@@ -66,4 +66,9 @@ public class SQLServerUnitDbAdapter extends SybaseUnitDbAdapter {
     // ((JdbcAdapter) getAdapter()).setSupportsGeneratedKeys(false);
     // }
     // }
+
+    @Override
+    public boolean supportsMultiRowInsert() {
+        return true;
+    }
 }
@@ -229,6 +229,13 @@ public class UnitDbAdapter {
     public boolean supportsBatchPK() {
         return true;
     }
+
+    /**
+     * Returns true if the target DB supports multi-row VALUES in INSERT statements.
+     */
+    public boolean supportsMultiRowInsert() {
+        return false;
+    }
     
     public boolean supportsBitwiseOps() {
         return false;